@@ -0,0 +1,60 @@
+package top.outlands.diceroller4j;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compile time of adversarial inputs at two lengths, eight times apart. Compiling is linear in the length,
+ * so the longer input should take about eight times as long, a quadratic path would take sixty-four.
+ * The limits only bound the nesting, everything else is allowed through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+    
+    private static final CompileLimits LIMITS = new CompileLimits(Integer.MAX_VALUE, Double.POSITIVE_INFINITY, Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 32, 1_000);
+    
+    @Param({"whitespace", "near-miss", "chain", "parentheses", "max-suffix"})
+    public String shape;
+    
+    @Param({"20000", "160000"})
+    public int length;
+    
+    private String expression;
+    
+    @Setup
+    public void setUp() {
+        expression = switch (shape) {
+            case "whitespace" -> "(d6,d8) keep" + " ".repeat(length) + "highes 3";
+            case "near-miss" -> "(d6,d8) explode" + " always".repeat(length / 7) + " on 6 or mor";
+            case "chain" -> "(" + "1*1*1*1*1*1*1*1, ".repeat(length / 17) + "1)";
+            case "parentheses" -> "(".repeat(32) + "d6" + ", 1".repeat(length / 3) + ")".repeat(32);
+            case "max-suffix" -> "(d4,d6) m" + "a".repeat(length) + "x";
+            default -> throw new IllegalArgumentException(shape);
+        };
+    }
+    
+    @Benchmark
+    public Object compile() {
+        try {
+            return DiceExpressionCompiler.compile(expression, LIMITS);
+        } catch (InvalidExpressionException e) {
+            return e;
+        }
+    }
+}
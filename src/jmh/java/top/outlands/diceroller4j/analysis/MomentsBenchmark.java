@@ -0,0 +1,47 @@
+package top.outlands.diceroller4j.analysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time to analyze the moments of an expression, on the root so the cache of the compiled expression is bypassed.
+ * Large pools and nested pools should stay within the work caps of {@link MomentAnalyzer}, a few milliseconds at most.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MomentsBenchmark {
+    
+    @Param({"4d6k3 + d6e6 + 3", "(d20 + 5) / d4", "((d4, d6) max, (d6, d8) min, d10) keep 2", "1000d6k10", "100000d1000k10", "100000d2 / 2"})
+    public String expression;
+    
+    private IExpression root;
+    
+    @Setup
+    public void setUp() throws InvalidExpressionException {
+        root = DiceExpressionCompiler.compile(expression, CompileLimits.UNLIMITED).root();
+    }
+    
+    @Benchmark
+    public Moments moments() {
+        return MomentAnalyzer.moments(root);
+    }
+}
@@ -0,0 +1,117 @@
+package top.outlands.diceroller4j.batch;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntConsumer;
+
+/**
+ * Bursts of requests from several threads, each keeping a window of requests in flight, served either by a
+ * {@link RollBatcher} or by one {@link CompiledExpression#roll()} task per request on a pool as large as the machine.
+ * Reports throughput and the latency from submitting to the answer.
+ */
+public final class BatchBenchmark {
+    
+    /**
+     * The outcome of one way of serving, latencies in microseconds.
+     */
+    public record Result(String mode, long requests, double throughput, long p50, long p99, long p999) {
+        
+        @Override
+        @NonNull
+        public String toString() {
+            return String.format("%-12s %10d %12.0f %8d %8d %8d", mode, requests, throughput, p50, p99, p999);
+        }
+    }
+    
+    public static final String HEADER = String.format("%-12s %10s %12s %8s %8s %8s", "mode", "requests", "req/s", "p50 us", "p99 us", "p999 us");
+    
+    /**
+     * How a request is handed over, the callback takes the total.
+     */
+    @FunctionalInterface
+    public interface Submitter {
+        void submit(CompiledExpression expression, IntConsumer callback);
+    }
+    
+    /**
+     * Send the requests from the given amount of threads, cycling through the expressions.
+     * @param window how many requests each thread keeps in flight
+     */
+    public static Result run(String mode, Submitter submitter, CompiledExpression[] expressions, int threads, int perThread, int window)
+            throws InterruptedException {
+        long[][] latencies = new long[threads][perThread];
+        List<Thread> producers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long[] mine = latencies[t];
+            int offset = t;
+            producers.add(Thread.ofPlatform().start(() -> {
+                Semaphore inFlight = new Semaphore(window);
+                for (int i = 0; i < perThread; i++) {
+                    inFlight.acquireUninterruptibly();
+                    int request = i;
+                    long sent = System.nanoTime();
+                    submitter.submit(expressions[(offset + i) % expressions.length], total -> {
+                        mine[request] = System.nanoTime() - sent;
+                        inFlight.release();
+                    });
+                }
+                // the last answers are in once every permit is back
+                inFlight.acquireUninterruptibly(window);
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Result(mode, all.length, all.length * 1e9 / elapsed, percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999));
+    }
+    
+    /**
+     * Arguments: requests per thread, threads, window per thread and the expressions, separated by semicolons.
+     */
+    public static void main(String[] args) throws InterruptedException, InvalidExpressionException {
+        int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        String[] texts = (args.length > 3 ? args[3] : "4d6k3;d20+5;2d6+3;3d8+d4").split(";");
+        CompiledExpression[] expressions = new CompiledExpression[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            expressions[i] = DiceExpressionCompiler.compile(texts[i]);
+        }
+        TraceMode mode = DiceResults.getMode();
+        DiceResults.setMode(TraceMode.NONE);
+        try (ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+             RollBatcher batcher = new RollBatcher()) {
+            Submitter perRequest = (expression, callback) -> pool.execute(() -> callback.accept(expression.roll()));
+            Submitter batched = batcher::submit;
+            // warm up the JIT and the alias tables before measuring
+            run("warm-up", perRequest, expressions, threads, perThread / 4, window);
+            run("warm-up", batched, expressions, threads, perThread / 4, window);
+            System.out.println(HEADER);
+            System.out.println(run("per-request", perRequest, expressions, threads, perThread, window));
+            System.out.println(run("batched", batched, expressions, threads, perThread, window));
+            System.out.println(batcher);
+        } finally {
+            DiceResults.setMode(mode);
+        }
+    }
+    
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.max(1, Math.ceil(p * sorted.length));
+        return sorted[rank - 1] / 1000;
+    }
+}
@@ -0,0 +1,109 @@
+package top.outlands.diceroller4j.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.trace.RollTrace;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding one roll with {@link RollEncoder} against what a generic object mapper does:
+ * build a tree of maps and lists, render it to a string level by level, then turn that into bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    
+    @Param({"10", "1000"})
+    public int dice;
+    
+    private RollTrace trace;
+    private String expression;
+    private final RollEncoder json = new RollEncoder(RollFormat.JSON);
+    private final RollEncoder binary = new RollEncoder(RollFormat.BINARY);
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(1);
+        trace = new RollTrace(dice);
+        for (int i = 0; i < dice; i++) {
+            trace.add(6, random.nextInt(6) + 1);
+        }
+        expression = dice + "d6";
+    }
+    
+    @Benchmark
+    public ByteBuffer streamJson() {
+        buffer.clear();
+        json.encode(expression, 3_500, trace, buffer);
+        return buffer;
+    }
+    
+    @Benchmark
+    public ByteBuffer streamBinary() {
+        buffer.clear();
+        binary.encode(expression, 3_500, trace, buffer);
+        return buffer;
+    }
+    
+    @Benchmark
+    public byte[] mapped() {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("expression", expression);
+        root.put("total", 3_500);
+        List<Object> results = new ArrayList<>();
+        for (RollResult result : trace.asList()) {
+            Map<String, Object> die = new LinkedHashMap<>();
+            die.put("side", result.side());
+            die.put("result", result.result());
+            results.add(die);
+        }
+        root.put("dice", results);
+        return write(root).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static String write(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            StringBuilder builder = new StringBuilder("{");
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (builder.length() > 1) builder.append(',');
+                builder.append(write(entry.getKey())).append(':').append(write(entry.getValue()));
+            }
+            return builder.append('}').toString();
+        }
+        if (value instanceof List<?> list) {
+            StringBuilder builder = new StringBuilder("[");
+            for (Object element : list) {
+                if (builder.length() > 1) builder.append(',');
+                builder.append(write(element));
+            }
+            return builder.append(']').toString();
+        }
+        if (value instanceof String s) {
+            return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+        return String.valueOf(value);
+    }
+}
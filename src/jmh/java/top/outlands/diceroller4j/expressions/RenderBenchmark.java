@@ -0,0 +1,56 @@
+package top.outlands.diceroller4j.expressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering deeply nested trees in one pass through {@link IExpression#appendTo(StringBuilder)}.
+ * Eight times the depth should take about eight times as long.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    
+    @Param({"100", "800"})
+    public int depth;
+    
+    private IExpression expression;
+    private final StringBuilder builder = new StringBuilder();
+    
+    @Setup
+    public void setUp() {
+        // alternately nests an expression set, keep, explode and a sum level after level
+        IExpression expr = new Dice(6);
+        for (int i = 0; i < depth; i++) {
+            DiceSet dice = new DiceSet(new Dice[]{new Dice(6), new Dice(8)});
+            ExpressionSet set = new ExpressionSet(new IExpression[]{expr, new Explode(dice, 0, 6, Relation.GREATER_OR_EQUAL), new Number(i)});
+            expr = i % 2 == 0 ? new Keep(set, 2, false) : new Plus(set, new Number(1));
+        }
+        expression = expr;
+    }
+    
+    @Benchmark
+    public int appendTo() {
+        builder.setLength(0);
+        return expression.appendTo(builder).length();
+    }
+}
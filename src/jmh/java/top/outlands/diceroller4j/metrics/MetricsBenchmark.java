@@ -0,0 +1,53 @@
+package top.outlands.diceroller4j.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.TieringPolicy;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time per roll of a few expressions on the interpreted path, where every node is instrumented.
+ * Run it once as it is and once with {@code -jvmArgsAppend -Ddiceroller4j.metrics=true} to see what the metrics cost,
+ * and what they cost when they are off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    
+    @Param({"d20", "3d6+2", "4d6k3", "10d10k5 + 3d8", "6d6 explode always on 6", "8d8 reroll always on 1"})
+    public String expression;
+    
+    private CompiledExpression compiled;
+    
+    @Setup
+    public void setUp() throws InvalidExpressionException {
+        // every fork is a fresh JVM, nothing to restore
+        DiceResults.setMode(TraceMode.NONE);
+        CompiledExpression.setTieringPolicy(TieringPolicy.DISABLED);
+        compiled = DiceExpressionCompiler.compile(expression);
+    }
+    
+    @Benchmark
+    public int roll() {
+        return compiled.roll();
+    }
+}
@@ -0,0 +1,47 @@
+package top.outlands.diceroller4j.random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+/**
+ * The time per die of {@link CounterRandom} against the L64X128MixRandom of the JDK, both drawing bounded ints.
+ * The counter generator mixes one value per die and never rejects, so it should be about as fast.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomBenchmark {
+    
+    @Param({"CounterRandom", "L64X128MixRandom"})
+    public String generator;
+    
+    @Param({"6", "20", "100"})
+    public int sides;
+    
+    private RandomGenerator random;
+    
+    @Setup
+    public void setUp() {
+        random = generator.equals("CounterRandom") ? new CounterRandom(42) : RandomGenerator.of(generator);
+    }
+    
+    @Benchmark
+    public int nextInt() {
+        return random.nextInt(sides) + 1;
+    }
+}
@@ -0,0 +1,111 @@
+package top.outlands.diceroller4j.schedule;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.simulation.RollStatistics;
+import top.outlands.diceroller4j.simulation.Simulator;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Interactive rolls sent at a steady rate while simulations run on the same workers, three ways: on an idle
+ * {@link RollScheduler}, on a scheduler running simulation jobs, and on a plain pool where rolls queue behind
+ * simulations. Reports the latency from sending a roll to its answer.
+ */
+public final class SchedulerBenchmark {
+    
+    /**
+     * The latencies of one workload, in microseconds.
+     */
+    public record Result(String workload, int rolls, long p50, long p99, long p999, long max) {
+        
+        @Override
+        @NonNull
+        public String toString() {
+            return String.format("%-12s %8d %8d %8d %8d %8d", workload, rolls, p50, p99, p999, max);
+        }
+    }
+    
+    public static final String HEADER = String.format("%-12s %8s %8s %8s %8s %8s", "workload", "rolls", "p50 us", "p99 us", "p999 us", "max us");
+    
+    /**
+     * Send the given amount of rolls, one every interval, without waiting for the answers.
+     * @param roll hands a roll to the workers
+     */
+    public static Result measure(String workload, Function<IExpression, CompletableFuture<Integer>> roll, IExpression expression,
+                                 int rolls, long intervalMicros) throws InterruptedException {
+        long[] latencies = new long[rolls];
+        CountDownLatch answered = new CountDownLatch(rolls);
+        long next = System.nanoTime();
+        for (int i = 0; i < rolls; i++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            next += TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+            int index = i;
+            long sent = System.nanoTime();
+            roll.apply(expression).whenComplete((total, failure) -> {
+                latencies[index] = System.nanoTime() - sent;
+                answered.countDown();
+            });
+        }
+        answered.await();
+        Arrays.sort(latencies);
+        return new Result(workload, rolls, percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                latencies[rolls - 1] / 1000);
+    }
+    
+    /**
+     * Arguments: workers, simulation jobs, rolls per simulation, interactive rolls and the interval between them in microseconds.
+     */
+    public static void main(String[] args) throws InterruptedException, InvalidExpressionException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int jobs = args.length > 1 ? Integer.parseInt(args[1]) : workers * 2;
+        long samples = args.length > 2 ? Long.parseLong(args[2]) : 2_000_000;
+        int rolls = args.length > 3 ? Integer.parseInt(args[3]) : 5_000;
+        long interval = args.length > 4 ? Long.parseLong(args[4]) : 200;
+        IExpression roll = DiceExpressionCompiler.compile("4d6k3+2");
+        IExpression simulation = DiceExpressionCompiler.compile("10d10k5 + 3d8");
+        TraceMode mode = DiceResults.getMode();
+        DiceResults.setMode(TraceMode.NONE);
+        try {
+            System.out.println(HEADER);
+            try (RollScheduler scheduler = new RollScheduler(workers)) {
+                measure("warm-up", scheduler::roll, roll, rolls, interval);
+                System.out.println(measure("idle", scheduler::roll, roll, rolls, interval));
+                RollJob<?>[] running = new RollJob<?>[jobs];
+                for (int i = 0; i < jobs; i++) {
+                    running[i] = scheduler.simulate(simulation, samples);
+                }
+                System.out.println(measure("scheduled", scheduler::roll, roll, rolls, interval));
+                for (RollJob<?> job : running) {
+                    job.cancel();
+                }
+            }
+            try (ExecutorService pool = Executors.newFixedThreadPool(workers)) {
+                for (int i = 0; i < jobs; i++) {
+                    pool.execute(() -> Simulator.simulate(simulation, samples, new RollStatistics()));
+                }
+                System.out.println(measure("fifo", expression -> CompletableFuture.supplyAsync(expression::roll, pool), roll, rolls, interval));
+            }
+        } finally {
+            DiceResults.setMode(mode);
+        }
+    }
+    
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.max(1, Math.ceil(p * sorted.length));
+        return sorted[rank - 1] / 1000;
+    }
+}
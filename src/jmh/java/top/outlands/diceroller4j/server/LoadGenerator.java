@@ -0,0 +1,147 @@
+package top.outlands.diceroller4j.server;
+
+import org.jspecify.annotations.NonNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Closed-loop load on a {@link RollServer}: each of n virtual threads sends a request, waits for the answer and sends the next,
+ * for a fixed time per level of concurrency. Reports throughput and latency percentiles from every request's latency.
+ */
+public final class LoadGenerator {
+    
+    /**
+     * The outcome of one level, latencies in microseconds.
+     */
+    public record Result(int concurrency, long requests, long errors, double throughput, long p50, long p99, long p999) {
+        
+        @Override
+        @NonNull
+        public String toString() {
+            return String.format("%6d %10d %8d %12.0f %8d %8d %8d", concurrency, requests, errors, throughput, p50, p99, p999);
+        }
+    }
+    
+    public static final String HEADER = String.format("%6s %10s %8s %12s %8s %8s %8s", "conc", "requests", "errors", "req/s", "p50 us", "p99 us", "p999 us");
+    
+    /**
+     * Run every level in turn against the same URI.
+     */
+    public static List<Result> run(URI target, int[] concurrencies, Duration duration) throws InterruptedException {
+        List<Result> results = new ArrayList<>();
+        try (HttpClient client = client()) {
+            for (int concurrency : concurrencies) {
+                results.add(run(client, target, concurrency, duration));
+            }
+        }
+        return results;
+    }
+    
+    public static Result run(HttpClient client, URI target, int concurrency, Duration duration) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(target).GET().build();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        List<Future<Worker>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(executor.submit(() -> new Worker().run(client, request, deadline)));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long requests = 0, errors = 0;
+        List<Worker> workers = new ArrayList<>();
+        for (Future<Worker> future : futures) {
+            Worker worker = future.resultNow();
+            workers.add(worker);
+            requests += worker.size;
+            errors += worker.errors;
+        }
+        long[] latencies = new long[(int) requests];
+        int at = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, at, worker.size);
+            at += worker.size;
+        }
+        Arrays.sort(latencies);
+        return new Result(concurrency, requests, errors, requests * 1e9 / elapsed,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+    
+    /**
+     * Arguments: the URI to load, seconds per level and the levels. Without a URI a server is started in this process
+     * and loaded with single rolls of {@code 4d6k3+2}.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        RollServer server = null;
+        URI target;
+        if (args.length > 0 && !args[0].equals("-")) {
+            target = URI.create(args[0]);
+        } else {
+            server = RollServer.start(new InetSocketAddress("localhost", 0));
+            target = server.uri().resolve("roll?expression=4d6k3%2B2");
+        }
+        Duration duration = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 5);
+        int[] levels = args.length > 2 ? Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray() : new int[]{1, 4, 16, 64, 256};
+        try {
+            System.out.println("Loading " + target);
+            // warm up the JIT and the caches before measuring
+            run(target, new int[]{levels[levels.length - 1]}, Duration.ofSeconds(1));
+            System.out.println(HEADER);
+            try (HttpClient client = client()) {
+                for (int level : levels) {
+                    System.out.println(run(client, target, level, duration));
+                }
+            }
+        } finally {
+            if (server != null) server.close();
+        }
+    }
+    
+    private static HttpClient client() {
+        return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+    }
+    
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.max(1, Math.ceil(p * sorted.length));
+        return sorted[rank - 1] / 1000;
+    }
+    
+    private static final class Worker {
+        
+        private long[] latencies = new long[1024];
+        private int size;
+        private long errors;
+        
+        private Worker run(HttpClient client, HttpRequest request, long deadline) {
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+                } catch (IOException e) {
+                    ok = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (size == latencies.length) latencies = Arrays.copyOf(latencies, size * 2);
+                latencies[size++] = System.nanoTime() - start;
+                if (!ok) errors++;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package top.outlands.diceroller4j.trace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What explaining a roll costs over rolling it, the explanation recorded into this thread's pooled trace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExplainBenchmark {
+    
+    @Param({"(4d6k3, 2d8 + 1, d20e20) + 5", "10d10k5 + 3d8"})
+    public String expression;
+    
+    private CompiledExpression compiled;
+    
+    @Setup
+    public void setUp() throws InvalidExpressionException {
+        DiceResults.setMode(TraceMode.NONE);
+        compiled = DiceExpressionCompiler.compile(expression);
+    }
+    
+    @Benchmark
+    public int roll() {
+        return compiled.roll();
+    }
+    
+    @Benchmark
+    public int explain() {
+        return ExplainTrace.explain(compiled).total();
+    }
+}
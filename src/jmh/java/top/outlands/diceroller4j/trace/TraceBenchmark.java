@@ -0,0 +1,59 @@
+package top.outlands.diceroller4j.trace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.outlands.diceroller4j.expressions.RollResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the dice of one large pool, one {@link RollResult} per die against the face counts of a {@link RollHistogram}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceBenchmark {
+    
+    @Param({"100", "10000"})
+    public int dice;
+    
+    private List<RollResult> results;
+    private RollHistogram histogram;
+    
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(999);
+        results = new ArrayList<>(dice);
+        histogram = new RollHistogram();
+        for (int i = 0; i < dice; i++) {
+            int value = random.nextInt(6) + 1;
+            results.add(new RollResult(6, value));
+            histogram.add(6, value);
+        }
+    }
+    
+    @Benchmark
+    public String renderList() {
+        return results.toString();
+    }
+    
+    @Benchmark
+    public String renderHistogram() {
+        return histogram.toString();
+    }
+}
@@ -0,0 +1,10 @@
+package top.outlands.diceroller4j;
+
+/**
+ * Thrown when an otherwise valid expression is rejected by {@link CompileLimits}.
+ */
+public class CompileLimitExceededException extends InvalidExpressionException {
+    public CompileLimitExceededException(String s) {
+        super(s);
+    }
+}
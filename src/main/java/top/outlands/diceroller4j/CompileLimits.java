@@ -0,0 +1,36 @@
+package top.outlands.diceroller4j;
+
+import top.outlands.diceroller4j.analysis.CostEstimate;
+
+/**
+ * Upper bounds an expression has to respect to be compiled.
+ * @param maxDice the amount of dice a single expression may hold
+ * @param maxExpectedDraws the expected amount of random draws a single roll may take
+ * @param maxMemoryBytes the estimated heap footprint of the compiled tree and its roll scratch space
+ * @param maxExplosionDepth the worst case length of an explode, reroll or emphasis chain
+ * @param maxInputLength the length of the expression text
+ * @param maxNestingDepth how many levels of parentheses may nest
+ * @param maxChainLength how many operators may chain around any part of the expression, adding up the chains of every enclosing level of parentheses
+ */
+public record CompileLimits(long maxDice, double maxExpectedDraws, long maxMemoryBytes, int maxExplosionDepth, int maxInputLength, int maxNestingDepth,
+                            int maxChainLength) {
+    
+    public static final CompileLimits DEFAULT = new CompileLimits(10_000, 1_000_000, 16L * 1024 * 1024, 1_000, 4_096, 128, 256);
+    
+    public static final CompileLimits UNLIMITED = new CompileLimits(Integer.MAX_VALUE, Double.POSITIVE_INFINITY, Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1_000, 1_000);
+    
+    public void check(CostEstimate estimate) throws CompileLimitExceededException {
+        if (estimate.dice() > maxDice) {
+            throw new CompileLimitExceededException("Too many dice: " + estimate.dice() + " > " + maxDice);
+        }
+        if (estimate.expectedDraws() > maxExpectedDraws) {
+            throw new CompileLimitExceededException("Too many random draws: " + estimate.expectedDraws() + " > " + maxExpectedDraws);
+        }
+        if (estimate.memoryBytes() > maxMemoryBytes) {
+            throw new CompileLimitExceededException("Too much memory: " + estimate.memoryBytes() + " > " + maxMemoryBytes);
+        }
+        if (estimate.explosionDepth() > maxExplosionDepth) {
+            throw new CompileLimitExceededException("Chain too deep: " + (estimate.explosionDepth() == Integer.MAX_VALUE ? "unbounded" : estimate.explosionDepth()) + " > " + maxExplosionDepth);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package top.outlands.diceroller4j;
 
+import top.outlands.diceroller4j.analysis.CostEstimator;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
 import top.outlands.diceroller4j.expressions.Dice;
 import top.outlands.diceroller4j.expressions.DiceSet;
 import top.outlands.diceroller4j.expressions.DummyExpression;
@@ -20,6 +22,8 @@ import top.outlands.diceroller4j.expressions.statistics.Average;
 import top.outlands.diceroller4j.expressions.statistics.Max;
 import top.outlands.diceroller4j.expressions.statistics.Median;
 import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.jfr.CompileEvent;
+import top.outlands.diceroller4j.metrics.RollMetrics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,35 +35,86 @@ import java.util.regex.Pattern;
 
 public class DiceExpressionCompiler {
     
-    private static final Pattern ARITHMETICS = Pattern.compile("([+\\-*×⋅x÷/])");
-
-    private static final Pattern NUMBER = Pattern.compile("\\s*\\d+\\s*");
-
-    private static final Pattern SUM = Pattern.compile("\\s*sum\\s*");
-    private static final Pattern MIN = Pattern.compile("\\s*min\\s*");
-    private static final Pattern MAX = Pattern.compile("\\s*max\\s*");
-    private static final Pattern MEDIAN = Pattern.compile("\\s*median\\s*");
-    private static final Pattern AVERAGE = Pattern.compile("\\s*average\\s*");
-
-    private static final Pattern KEEP = Pattern.compile("\\s*(?:k(\\d+)|keep\\s*(lowest|highest)?\\s*(\\d+))\\s*");
-    private static final Pattern DROP = Pattern.compile("\\s*(?:d(\\d+)|drop\\s*(lowest|highest)?\\s*(\\d+))\\s*");
-
-    private static final Pattern EXPLODE = Pattern.compile("\\s*(?:e(\\d+)|explode\\s*(?:(always)|(\\d+)\\s*times)\\s*on\\s*(\\d+)(?:\\s*or\\s*(more|less))?)\\s*");
-    private static final Pattern REROLL = Pattern.compile("\\s*(?:r(\\d+)|reroll\\s*(?:(always)|(\\d+)\\s*times)\\s*on\\s*(\\d+)(?:\\s*or\\s*(more|less))?)\\s*");
-    private static final Pattern EMPHASIS = Pattern.compile("\\s*(?:(emphasis)|furthest\\s*from\\s*(\\d+))\\s*(reroll|high|low)\\s*");
-
-    private static final Pattern DICE_SET = Pattern.compile("^\\(d(\\d+|%)(?:,d(?:(\\d+)|%))*\\)");
-    private static final Pattern DICE_SET_SINGLE = Pattern.compile("(\\d*)d(\\d+|%)");
-    private static final Pattern DICE = Pattern.compile("\\s*d(\\d+|%)\\s*");
-
+    // every quantifier is possessive, so no pattern can backtrack and each match is linear in its input
+    private static final Pattern NUMBER = Pattern.compile("\\s*+\\d++\\s*+");
+    
+    private static final Pattern SUM = Pattern.compile("\\s*+sum\\s*+");
+    private static final Pattern MIN = Pattern.compile("\\s*+min\\s*+");
+    private static final Pattern MAX = Pattern.compile("\\s*+max\\s*+");
+    private static final Pattern MEDIAN = Pattern.compile("\\s*+median\\s*+");
+    private static final Pattern AVERAGE = Pattern.compile("\\s*+average\\s*+");
+    
+    private static final Pattern KEEP = Pattern.compile("\\s*+(?:k(\\d++)|keep\\s*+(lowest|highest)?+\\s*+(\\d++))\\s*+");
+    private static final Pattern DROP = Pattern.compile("\\s*+(?:d(\\d++)|drop\\s*+(lowest|highest)?+\\s*+(\\d++))\\s*+");
+    
+    private static final Pattern EXPLODE = Pattern.compile("\\s*+(?:e(\\d++)|explode\\s*+(?:(always)|(\\d++)\\s*+times)\\s*+on\\s*+(\\d++)(?:\\s*+or\\s*+(more|less))?+)\\s*+");
+    private static final Pattern REROLL = Pattern.compile("\\s*+(?:r(\\d++)|reroll\\s*+(?:(always)|(\\d++)\\s*+times)\\s*+on\\s*+(\\d++)(?:\\s*+or\\s*+(more|less))?+)\\s*+");
+    private static final Pattern EMPHASIS = Pattern.compile("\\s*+(?:(emphasis)|furthest\\s*+from\\s*+(\\d++))\\s*+(reroll|high|low)\\s*+");
+    
+    private static final Pattern DICE_SET = Pattern.compile("^\\(d(\\d++|%)(?:,d(?:(\\d++)|%))*+\\)");
+    private static final Pattern DICE_SET_SINGLE = Pattern.compile("(\\d*+)d(\\d++|%)");
+    private static final Pattern DICE = Pattern.compile("\\s*+d(\\d++|%)\\s*+");
+    
     private static final IExpression dummy = new DummyExpression();
-
-    public static IExpression compile(String expression) throws InvalidExpressionException {
-        List<Token> tokens = new ArrayList<>();
+    
+    public static CompiledExpression compile(String expression) throws InvalidExpressionException {
+        return compile(expression, CompileLimits.DEFAULT);
+    }
+    
+    /**
+     * Compile the expression and reject it if it is too expensive to roll.
+     * The length and the amount of dice are checked before anything is allocated.
+     * Compiling takes time linear in the length of the input: every pattern is matched without backtracking,
+     * and each of the at most {@link CompileLimits#maxNestingDepth()} nesting levels scans its part of the input once.
+     * A chain of operators folds into a tree as deep as the chain is long, so bounding the nesting and the chains
+     * also bounds the depth of the compiled tree, and recursing over it cannot overflow the stack.
+     * @return the tree, with its canonical string and structural hash cached
+     */
+    public static CompiledExpression compile(String expression, CompileLimits limits) throws InvalidExpressionException {
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        long start = RollMetrics.ENABLED ? System.nanoTime() : 0;
+        CompiledExpression compiled = compileChecked(expression, limits);
+        if (RollMetrics.ENABLED) RollMetrics.compiled(System.nanoTime() - start);
+        event.complete(expression, compiled, false);
+        return compiled;
+    }
+    
+    private static CompiledExpression compileChecked(String expression, CompileLimits limits) throws InvalidExpressionException {
+        if (expression.length() > limits.maxInputLength()) {
+            throw new CompileLimitExceededException("Expression too long: " + expression.length() + " > " + limits.maxInputLength());
+        }
+        long dice = countDice(expression);
+        if (dice > limits.maxDice()) {
+            throw new CompileLimitExceededException("Too many dice written: " + dice + " > " + limits.maxDice());
+        }
+        IExpression result;
+        try {
+            result = parse(expression, limits, 0, 0);
+        } catch (NumberFormatException e) {
+            throw new InvalidExpressionException("Number out of range: " + expression);
+        }
+        limits.check(CostEstimator.estimate(result));
+        return new CompiledExpression(result);
+    }
+    
+    /**
+     * Compile the expression and share its subtrees with everything compiled through the same interner.
+     */
+    public static CompiledExpression compile(String expression, CompileLimits limits, ExpressionInterner interner) throws InvalidExpressionException {
+        return interner.intern(compile(expression, limits));
+    }
+    
+    /**
+     * @param depth the levels of parentheses around the expression
+     * @param chain the operators chained around it at those levels, each one more level of the tree
+     */
+    private static IExpression parse(String expression, CompileLimits limits, int depth, int chain) throws InvalidExpressionException {
+        List<String> operands = new ArrayList<>();
+        List<TokenType> operators = new ArrayList<>();
         StringBuilder current = new StringBuilder();
         int level = 0;
         boolean inToken = false;
-        Matcher matcher;
         for (int index = 0; index < expression.length(); index++) {
             char c = expression.charAt(index);
             if (c == ' ' && !inToken) continue;
@@ -67,78 +122,85 @@ public class DiceExpressionCompiler {
             if (c == '(') {
                 level++;
                 inToken = true;
+                if (depth + level > limits.maxNestingDepth()) {
+                    throw new CompileLimitExceededException("Nested too deep: " + (depth + level) + " > " + limits.maxNestingDepth());
+                }
             } else if (c == ')') {
                 level--;
-            } else if (level == 0) {
-                matcher = ARITHMETICS.matcher(String.valueOf(c));
-                if (matcher.matches()) {
-                    if (c == 'x' && (current.toString().endsWith("max") || current.toString().endsWith("ex"))) 
-                        continue;
-                    inToken = false;
-                    current.deleteCharAt(current.length() - 1);
-                    tokens.add(new Token(TokenType.OTHERS, parseSingleExpression(current.toString())));
-                    tokens.add(new Token(parseArithmeticTokenType(matcher.group().charAt(0)), dummy));
-                    current = new StringBuilder();
-                }
+            } else if (level == 0 && isArithmetic(c)) {
+                if (c == 'x' && (endsWith(current, "max") || endsWith(current, "ex"))) 
+                    continue;
+                inToken = false;
+                current.deleteCharAt(current.length() - 1);
+                operands.add(current.toString());
+                operators.add(parseArithmeticTokenType(c));
+                current = new StringBuilder();
             }
         }
-        tokens.add(new Token(TokenType.OTHERS, parseSingleExpression(current.toString())));
-        for (int j = 0; j < tokens.size(); j++) {
+        operands.add(current.toString());
+        
+        int operandChain = chain + operators.size();
+        if (operandChain > limits.maxChainLength()) {
+            throw new CompileLimitExceededException("Chain too long: " + operandChain + " operators > " + limits.maxChainLength());
+        }
+        List<Token> tokens = new ArrayList<>(operands.size() * 2);
+        for (int i = 0; i < operands.size(); i++) {
+            if (i > 0) tokens.add(new Token(operators.get(i - 1), dummy));
+            tokens.add(new Token(TokenType.OTHERS, parseSingleExpression(operands.get(i), limits, depth, operandChain)));
+        }
+        
+        // tokens alternate between operands and operators, fold them left to right in one pass per precedence
+        List<Token> sums = new ArrayList<>();
+        IExpression left = tokens.getFirst().expression;
+        for (int j = 1; j < tokens.size(); j += 2) {
             TokenType type = tokens.get(j).tokenType;
-            if (type == TokenType.MULTIPLY || type == TokenType.DIVIDE) {
-                if (j > 0 && j < tokens.size() - 1) {
-                    IExpression left = tokens.get(j - 1).expression;
-                    IExpression right = tokens.get(j + 1).expression;
-                    IExpression result;
-                    if (type == TokenType.MULTIPLY) {
-                        result = new Multiply(left, right);
-                    } else {
-                        result = new Divide(left, right);
-                    }
-                    tokens.remove(j + 1);
-                    tokens.remove(j);
-                    tokens.remove(j - 1);
-                    tokens.add(j - 1, new Token(TokenType.OTHERS, result));
-                    j--;
-                } else {
-                    throw  new InvalidExpressionException("Invalid expression: Not infix");
+            IExpression right = tokens.get(j + 1).expression;
+            switch (type) {
+                case MULTIPLY -> left = new Multiply(left, right);
+                case DIVIDE -> left = new Divide(left, right);
+                default -> {
+                    sums.add(new Token(TokenType.OTHERS, left));
+                    sums.add(tokens.get(j));
+                    left = right;
                 }
             }
         }
+        sums.add(new Token(TokenType.OTHERS, left));
         
-        for (int k = 0; k < tokens.size(); k++) {
-            TokenType type = tokens.get(k).tokenType;
-            if (type == TokenType.PLUS || type == TokenType.SUBTRACT) {
-                if (k > 0 && k < tokens.size() - 1) {
-                    IExpression left = tokens.get(k - 1).expression;
-                    IExpression right = tokens.get(k + 1).expression;
-                    IExpression result;
-                    if (type == TokenType.PLUS) {
-                        result = new Plus(left, right);
-                    } else {
-                        result = new Subtract(left, right);
-                    }
-                    tokens.remove(k + 1);
-                    tokens.remove(k);
-                    tokens.remove(k - 1);
-                    tokens.add(k - 1, new Token(TokenType.OTHERS, result));
-                    k--;
-                } else {
-                    throw  new InvalidExpressionException("Invalid expression: Not infix");
-                }
+        IExpression result = sums.getFirst().expression;
+        for (int k = 1; k < sums.size(); k += 2) {
+            IExpression right = sums.get(k + 1).expression;
+            if (sums.get(k).tokenType == TokenType.PLUS) {
+                result = new Plus(result, right);
+            } else {
+                result = new Subtract(result, right);
             }
         }
+        return result;
+    }
+    
+    private static boolean isArithmetic(char c) {
+        return switch (c) {
+            case '+', '-', '*', '×', '⋅', 'x', '÷', '/' -> true;
+            default -> false;
+        };
+    }
+    
+    private static boolean endsWith(StringBuilder builder, String suffix) {
+        int offset = builder.length() - suffix.length();
+        if (offset < 0) return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (builder.charAt(offset + i) != suffix.charAt(i)) return false;
+        }
+        return true;
+    }
+    
+    private static IExpression parseSingleExpression(String expression, CompileLimits limits, int depth, int chain) throws InvalidExpressionException {
         
-        if (tokens.size() > 1) {
-            throw  new InvalidExpressionException("Invalid expression: Not infix");
+        if (expression.isBlank()) {
+            throw new InvalidExpressionException("Invalid expression: Missing operand");
         }
         
-        return tokens.getFirst().expression;
-
-    }
-
-    private static IExpression parseSingleExpression(String expression) throws InvalidExpressionException {
-
         if (NUMBER.matcher(expression).matches()) {
             return parseNumber(expression);
         }
@@ -171,30 +233,30 @@ public class DiceExpressionCompiler {
         matcher = SUM.matcher(out);
         if (matcher.matches() || out.isBlank()) {
             if (isDiceSet) {
-                return parseDiceSet(in);
+                return parseDiceSet(in, limits);
             } else {
-                return parseExpressionSet(in);
+                return parseExpressionSet(in, limits, depth, chain);
             }
         }
         
         matcher = MIN.matcher(out);
         if (matcher.matches()) {
-            return new Min(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in)) : parseExpressionSet(in));
+            return new Min(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in, limits)) : parseExpressionSet(in, limits, depth, chain));
         }
         
         matcher = MAX.matcher(out);
         if (matcher.matches()) {
-            return new Max(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in)) : parseExpressionSet(in));
+            return new Max(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in, limits)) : parseExpressionSet(in, limits, depth, chain));
         }
         
         matcher = AVERAGE.matcher(out);
         if (matcher.matches()) {
-            return new Average(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in)) : parseExpressionSet(in));
+            return new Average(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in, limits)) : parseExpressionSet(in, limits, depth, chain));
         }
         
         matcher = MEDIAN.matcher(out);
         if (matcher.matches()) {
-            return new Median(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in)) : parseExpressionSet(in));
+            return new Median(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in, limits)) : parseExpressionSet(in, limits, depth, chain));
         }
         
         matcher = KEEP.matcher(out);
@@ -207,7 +269,7 @@ public class DiceExpressionCompiler {
                 count = Integer.parseInt(matcher.group(1));
             }
             if (count < 1) throw new InvalidExpressionException(expression);
-            return new Keep(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in)) : parseExpressionSet(in), count, !highest);
+            return new Keep(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in, limits)) : parseExpressionSet(in, limits, depth, chain), count, !highest);
         }
         
         matcher = DROP.matcher(out);
@@ -220,7 +282,7 @@ public class DiceExpressionCompiler {
                 count = Integer.parseInt(matcher.group(1));
             }
             if (count < 1) throw new InvalidExpressionException(expression);
-            return new Drop(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in)) : parseExpressionSet(in), count, !lowest);
+            return new Drop(isDiceSet ? diceSetToExpressionSet(parseDiceSet(in, limits)) : parseExpressionSet(in, limits, depth, chain), count, !lowest);
         }
         
         matcher = EXPLODE.matcher(out);
@@ -240,7 +302,7 @@ public class DiceExpressionCompiler {
                     relation = Relation.LESS_OR_EQUAL;
                 }
             }
-            return new Explode(parseDiceSet(in), count, threshold, relation);
+            return new Explode(parseDiceSet(in, limits), count, threshold, relation);
         }
         
         matcher = REROLL.matcher(out);
@@ -260,25 +322,25 @@ public class DiceExpressionCompiler {
                     relation = Relation.LESS_OR_EQUAL;
                 }
             }
-            return new Reroll(parseDiceSet(in), count, threshold, relation);
+            return new Reroll(parseDiceSet(in, limits), count, threshold, relation);
         }
         
         matcher = EMPHASIS.matcher(out);
         if (matcher.matches()) {
             Emphasis.EmphasisVariant variant = Emphasis.EmphasisVariant.valueOf(matcher.group(3).toUpperCase(Locale.ROOT));
             int average = matcher.group(1) == null ? Integer.parseInt(matcher.group(2)) : -1;
-            return new Emphasis(parseDiceSet(in), variant, average);
+            return new Emphasis(parseDiceSet(in, limits), variant, average);
         }
         
         throw new InvalidExpressionException(expression);
     }
     
-
+    
     private static Number parseNumber(String expression) {
         return new Number(Integer.parseInt(expression.trim()));
     }
-
-    private static DiceSet parseDiceSet(String expression) throws InvalidExpressionException {
+    
+    private static DiceSet parseDiceSet(String expression, CompileLimits limits) throws InvalidExpressionException {
         Matcher matcher = DICE_SET_SINGLE.matcher(expression);
         if (!matcher.matches()) {
             String[] dice_str = expression.substring(1, expression.length() - 1).split(",");
@@ -296,44 +358,76 @@ public class DiceExpressionCompiler {
         } else {
             int amount = (matcher.group(1) == null || matcher.group(1).isBlank()) ? 1 : Integer.parseInt(matcher.group(1));
             int sides = Objects.equals(matcher.group(2), "%") ? 100 : Integer.parseInt(matcher.group(2));
+            if (amount > limits.maxDice()) {
+                throw new CompileLimitExceededException("Too many dice: " + amount + " > " + limits.maxDice());
+            }
             Dice[] diceSet = new Dice[amount];
             Arrays.fill(diceSet, new Dice(sides));
             return new DiceSet(diceSet);
         }
     }
-
-    private static ExpressionSet parseExpressionSet(String expression) {
+    
+    private static ExpressionSet parseExpressionSet(String expression, CompileLimits limits, int depth, int chain) throws CompileLimitExceededException {
         List<String> subExpressions = new ArrayList<>();
         StringBuilder current = new StringBuilder();
         int level = 0;
         for (char c : expression.toCharArray()) {
             if (c == '(') {
-                level++;
+                if (++level == 1) continue;
             } else if (c == ')') {
-                level--;
-            } else if (level == 1) {
-                if (c == ',') {
-                    subExpressions.add(current.toString());
-                    current = new StringBuilder();
-                } else {
-                    current.append(c);
-                }
+                if (--level == 0) continue;
+            } else if (level == 1 && c == ',') {
+                subExpressions.add(current.toString());
+                current = new StringBuilder();
+                continue;
             }
+            if (level >= 1) current.append(c);
         }
         subExpressions.add(current.toString());
-        return new ExpressionSet(subExpressions.stream().map(s -> {
+        IExpression[] expressions = new IExpression[subExpressions.size()];
+        for (int i = 0; i < expressions.length; i++) {
             try {
-                return compile(s);
+                expressions[i] = parse(subExpressions.get(i), limits, depth + 1, chain);
+            } catch (CompileLimitExceededException e) {
+                throw e;
             } catch (InvalidExpressionException e) {
-                return new Number(0);
+                expressions[i] = new Number(0);
+            }
+        }
+        return new ExpressionSet(expressions);
+    }
+    
+    /**
+     * Sum up the dice amounts written in the expression, so huge pools are refused before being parsed.
+     * Whitespace is skipped as the parser skips it, so {@code 99 99 d6} counts as the 9999 dice it parses to.
+     */
+    private static long countDice(String expression) {
+        long dice = 0;
+        long amount = 0;
+        boolean inAmount = false;
+        char previous = ' ';
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            if (c >= '0' && c <= '9') {
+                if (!inAmount && !Character.isLetter(previous)) {
+                    inAmount = true;
+                    amount = 0;
+                }
+                if (inAmount) amount = Math.min(amount * 10 + (c - '0'), Integer.MAX_VALUE);
+            } else {
+                if (inAmount && c == 'd') dice += amount;
+                inAmount = false;
             }
-        }).toArray(IExpression[]::new));
+            previous = c;
+        }
+        return dice;
     }
     
     private static ExpressionSet diceSetToExpressionSet(DiceSet diceSet) {
         return new ExpressionSet(diceSet.dices());
     }
-
+    
     private static TokenType parseArithmeticTokenType(char c) throws InvalidExpressionException {
         return switch (c) {
             case '+' -> TokenType.PLUS;
@@ -343,16 +437,16 @@ public class DiceExpressionCompiler {
             default -> throw new InvalidExpressionException(String.valueOf(c));
         };
     }
-
+    
     private enum TokenType {
         OTHERS,
-
+        
         PLUS,
         SUBTRACT,
         MULTIPLY,
         DIVIDE,
     }
-
+    
     private record Token(TokenType tokenType, IExpression expression) {
     }
 
@@ -1,24 +1,87 @@
 package top.outlands.diceroller4j;
 
+import org.jspecify.annotations.Nullable;
 import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.trace.RollHistogram;
+import top.outlands.diceroller4j.trace.RollTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class DiceResults {
-    private static final List<RollResult> lastBatchResults = new ArrayList<>();
+    private static final RollTrace lastBatchResults = new RollTrace();
+    private static final RollHistogram histogram = new RollHistogram();
+    private static final ThreadLocal<TraceMode> SCOPED = new ThreadLocal<>();
+    private static final AtomicInteger scoped = new AtomicInteger();
+    private static volatile TraceMode mode = TraceMode.INDIVIDUAL;
     
     public static List<RollResult> getLastBatchResults() {
-        return Collections.unmodifiableList(lastBatchResults);
+        return lastBatchResults.asList();
+    }
+    
+    /**
+     * The same results as {@link #getLastBatchResults()}, without a {@link RollResult} per die.
+     */
+    public static RollTrace getTrace() {
+        return lastBatchResults;
+    }
+    
+    /**
+     * Face counts of the dice rolled in {@link TraceMode#HISTOGRAM} mode.
+     */
+    public static RollHistogram getHistogram() {
+        return histogram;
+    }
+    
+    /**
+     * @return the mode of the innermost {@link #withMode} on this thread, otherwise the one set for all threads
+     */
+    public static TraceMode getMode() {
+        if (scoped.get() != 0) {
+            TraceMode m = SCOPED.get();
+            if (m != null) return m;
+        }
+        return mode;
+    }
+    
+    public static void setMode(TraceMode mode) {
+        DiceResults.mode = mode;
+    }
+    
+    /**
+     * Roll with the given mode on this thread only, while other threads keep theirs.
+     * @param mode the mode, null for the one set for all threads
+     */
+    public static <T> T withMode(@Nullable TraceMode mode, Supplier<T> rolls) {
+        TraceMode previous = SCOPED.get();
+        SCOPED.set(mode);
+        scoped.incrementAndGet();
+        try {
+            return rolls.get();
+        } finally {
+            scoped.decrementAndGet();
+            if (previous == null) {
+                SCOPED.remove();
+            } else {
+                SCOPED.set(previous);
+            }
+        }
     }
     
     public static void clear() {
-        lastBatchResults.clear();
+        lastBatchResults.reset();
+        histogram.reset();
     }
     
     public static void addRollResult(int sides, int result) {
-        lastBatchResults.add(new RollResult(sides, result));
+        switch (getMode()) {
+            case INDIVIDUAL -> lastBatchResults.add(sides, result);
+            case HISTOGRAM -> histogram.add(sides, result);
+            case NONE -> {
+            }
+        }
     }
-    
+
 }
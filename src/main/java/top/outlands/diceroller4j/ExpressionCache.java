@@ -0,0 +1,83 @@
+package top.outlands.diceroller4j;
+
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Tier;
+import top.outlands.diceroller4j.jfr.CompileEvent;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiled expressions by their text, so a service rolling the same expressions over and over parses each once,
+ * and shares subtrees between them through an {@link ExpressionInterner}. Expressions that fail to compile are not cached.
+ * <p>
+ * Once more than the bound are cached, the least recently used are evicted as described in {@link LruCache}.
+ * Safe for concurrent use, two threads missing the same text at once may both compile it.
+ */
+public final class ExpressionCache {
+    
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    
+    private final CompileLimits limits;
+    private final ExpressionInterner interner = new ExpressionInterner();
+    private final LruCache<String, CompiledExpression> table;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    public ExpressionCache() {
+        this(DEFAULT_MAX_SIZE, CompileLimits.DEFAULT);
+    }
+    
+    public ExpressionCache(int maxSize, CompileLimits limits) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        this.table = new LruCache<>(maxSize, compiled -> 1);
+        this.limits = limits;
+    }
+    
+    /**
+     * @return the cached expression compiled from the same text, or the newly compiled one
+     */
+    public CompiledExpression compile(String expression) throws InvalidExpressionException {
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        CompiledExpression cached = table.get(expression);
+        if (cached != null) {
+            hits.increment();
+            if (RollMetrics.ENABLED) RollMetrics.cacheHit();
+            event.complete(expression, cached, true);
+            return cached;
+        }
+        misses.increment();
+        if (RollMetrics.ENABLED) RollMetrics.cacheMiss();
+        CompiledExpression compiled = DiceExpressionCompiler.compile(expression, limits, interner);
+        table.putIfAbsent(expression, compiled);
+        return compiled;
+    }
+    
+    public int size() {
+        return table.size();
+    }
+    
+    public long hits() {
+        return hits.sum();
+    }
+    
+    public long misses() {
+        return misses.sum();
+    }
+    
+    /**
+     * @return the tier each cached expression is in, by its text
+     */
+    public Map<String, Tier> tiers() {
+        Map<String, Tier> tiers = new HashMap<>();
+        table.forEach((text, compiled) -> tiers.put(text, compiled.tier()));
+        return tiers;
+    }
+    
+    public void clear() {
+        table.clear();
+    }
+}
@@ -0,0 +1,216 @@
+package top.outlands.diceroller4j;
+
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.expressions.mechanic.Drop;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.expressions.statistics.Average;
+import top.outlands.diceroller4j.expressions.statistics.Max;
+import top.outlands.diceroller4j.expressions.statistics.Median;
+import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.expressions.statistics.Sum;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Canonicalizes structurally equal subtrees into shared instances, so a catalog of compiled expressions
+ * holds one {@code d20} or {@code + 5} instead of one per expression.
+ * Entries are weakly referenced and vanish once no compiled tree uses them.
+ * Safe for concurrent use, contention is limited to the hash bins of a {@link ConcurrentHashMap}.
+ */
+public final class ExpressionInterner {
+    
+    private final ConcurrentHashMap<Entry, Entry> table = new ConcurrentHashMap<>();
+    private final ReferenceQueue<IExpression> queue = new ReferenceQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    /**
+     * @return the shared instance structurally equal to the expression, whose children are shared instances too
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends IExpression> T intern(T expression) {
+        expunge();
+        return (T) share(expression);
+    }
+    
+    /**
+     * @return the amount of shared instances, including some that are no longer used but not yet expunged
+     */
+    public int size() {
+        expunge();
+        return table.size();
+    }
+    
+    /**
+     * @return the amount of nodes that were replaced by an existing instance
+     */
+    public long hits() {
+        return hits.sum();
+    }
+    
+    /**
+     * @return the amount of nodes that became a new shared instance
+     */
+    public long misses() {
+        return misses.sum();
+    }
+    
+    private IExpression share(IExpression expression) {
+        IExpression node = rebuild(expression);
+        Entry entry = new Entry(node, queue);
+        while (true) {
+            Entry existing = table.putIfAbsent(entry, entry);
+            if (existing == null) {
+                misses.increment();
+                return node;
+            }
+            IExpression shared = existing.get();
+            if (shared != null) {
+                hits.increment();
+                return shared;
+            }
+            table.remove(existing, existing);
+        }
+    }
+    
+    /**
+     * @return the node with every child replaced by its shared instance, the node itself if they all already were
+     */
+    private IExpression rebuild(IExpression expression) {
+        return switch (expression) {
+            case Dice ignored -> expression;
+            case Number ignored -> expression;
+            case CompiledExpression compiled -> {
+                IExpression root = share(compiled.root());
+                yield root == compiled.root() ? compiled : new CompiledExpression(root);
+            }
+            case DiceSet set -> {
+                Dice[] dices = shareAll(set.dices());
+                yield dices == set.dices() ? set : new DiceSet(dices);
+            }
+            case ExpressionSet set -> {
+                IExpression[] expressions = shareAll(set.expressions());
+                yield expressions == set.expressions() ? set : new ExpressionSet(expressions);
+            }
+            case Plus(IExpression a, IExpression b) -> {
+                IExpression x = share(a), y = share(b);
+                yield x == a && y == b ? expression : new Plus(x, y);
+            }
+            case Subtract(IExpression a, IExpression b) -> {
+                IExpression x = share(a), y = share(b);
+                yield x == a && y == b ? expression : new Subtract(x, y);
+            }
+            case Multiply(IExpression a, IExpression b) -> {
+                IExpression x = share(a), y = share(b);
+                yield x == a && y == b ? expression : new Multiply(x, y);
+            }
+            case Divide(IExpression a, IExpression b) -> {
+                IExpression x = share(a), y = share(b);
+                yield x == a && y == b ? expression : new Divide(x, y);
+            }
+            case Keep keep -> {
+                ExpressionSet set = (ExpressionSet) share(keep.expressions());
+                yield set == keep.expressions() ? keep : new Keep(set, keep.count(), keep.inverted());
+            }
+            case Drop drop -> {
+                ExpressionSet set = (ExpressionSet) share(drop.expressions());
+                yield set == drop.expressions() ? drop : new Drop(set, drop.count(), drop.inverted());
+            }
+            case Min min -> {
+                ExpressionSet set = (ExpressionSet) share(min.dices());
+                yield set == min.dices() ? min : new Min(set);
+            }
+            case Max max -> {
+                ExpressionSet set = (ExpressionSet) share(max.dices());
+                yield set == max.dices() ? max : new Max(set);
+            }
+            case Median median -> {
+                ExpressionSet set = (ExpressionSet) share(median.dices());
+                yield set == median.dices() ? median : new Median(set);
+            }
+            case Average average -> {
+                ExpressionSet set = (ExpressionSet) share(average.dices());
+                yield set == average.dices() ? average : new Average(set);
+            }
+            case Sum sum -> {
+                ExpressionSet set = (ExpressionSet) share(sum.dices());
+                yield set == sum.dices() ? sum : new Sum(set);
+            }
+            case Explode explode -> {
+                DiceSet set = (DiceSet) share(explode.diceSet());
+                yield set == explode.diceSet() ? explode : new Explode(set, explode.times(), explode.threshold(), explode.relation());
+            }
+            case Reroll reroll -> {
+                DiceSet set = (DiceSet) share(reroll.diceSet());
+                yield set == reroll.diceSet() ? reroll : new Reroll(set, reroll.times(), reroll.threshold(), reroll.relation());
+            }
+            case Emphasis emphasis -> {
+                DiceSet set = (DiceSet) share(emphasis.diceSet());
+                yield set == emphasis.diceSet() ? emphasis : new Emphasis(set, emphasis.variant(), emphasis.from());
+            }
+            default -> expression;
+        };
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T extends IExpression> T[] shareAll(T[] nodes) {
+        T[] shared = nodes;
+        for (int i = 0; i < nodes.length; i++) {
+            T node = (T) share(nodes[i]);
+            if (node != nodes[i]) {
+                if (shared == nodes) shared = Arrays.copyOf(nodes, nodes.length);
+                shared[i] = node;
+            }
+        }
+        return shared;
+    }
+    
+    private void expunge() {
+        for (Reference<? extends IExpression> cleared; (cleared = queue.poll()) != null; ) {
+            table.remove(cleared);
+        }
+    }
+    
+    /**
+     * Weak reference that compares by the structure of its referent, and by identity once cleared.
+     */
+    private static final class Entry extends WeakReference<IExpression> {
+        
+        private final int hash;
+        
+        Entry(IExpression expression, ReferenceQueue<IExpression> queue) {
+            super(expression, queue);
+            this.hash = expression.hashCode();
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry other) || hash != other.hash) return false;
+            IExpression expression = get();
+            return expression != null && expression.equals(other.get());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package top.outlands.diceroller4j;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * A concurrent map bounded by the total weight of its values, shared by the caches of this library.
+ * <p>
+ * Once the bound is exceeded, the least recently used entries are evicted down to three quarters of it
+ * by whichever thread gets there first, the others carry on without waiting.
+ * An entry is only evicted if it is still the one that was chosen, so a value put again meanwhile stays.
+ */
+public final class LruCache<K, V> {
+    
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final ConcurrentHashMap<K, Entry<V>> table = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock();
+    private final LongAdder evictions = new LongAdder();
+    
+    /**
+     * @param weigher the weight of a value, taken once when it is put
+     */
+    public LruCache(long maxWeight, ToLongFunction<? super V> weigher) {
+        if (maxWeight <= 0) throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+    
+    /**
+     * @return the cached value, marked as just used, or null
+     */
+    public @Nullable V get(K key) {
+        Entry<V> entry = table.get(key);
+        if (entry == null) return null;
+        entry.used = clock.incrementAndGet();
+        return entry.value;
+    }
+    
+    /**
+     * Cache a value unless one is already cached for the key or it alone weighs more than the bound.
+     *
+     * @return whether the value was cached
+     */
+    public boolean putIfAbsent(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > maxWeight) return false;
+        if (table.putIfAbsent(key, new Entry<>(value, valueWeight, clock.incrementAndGet())) != null) return false;
+        if (weight.addAndGet(valueWeight) > maxWeight) evict();
+        return true;
+    }
+    
+    public int size() {
+        return table.size();
+    }
+    
+    public long weight() {
+        return weight.get();
+    }
+    
+    /**
+     * @return the amount of entries evicted to stay within the bound
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+    
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        table.forEach((key, entry) -> action.accept(key, entry.value));
+    }
+    
+    public void clear() {
+        table.forEach(this::remove);
+    }
+    
+    private boolean remove(K key, Entry<V> entry) {
+        if (!table.remove(key, entry)) return false;
+        weight.addAndGet(-entry.weight);
+        return true;
+    }
+    
+    private void evict() {
+        // an insert that lost the lock to this eviction is only covered by checking again after unlocking
+        do {
+            if (!evicting.tryLock()) return;
+            try {
+                // snapshot the use times, they keep changing while sorting
+                List<Victim<K, V>> victims = new ArrayList<>(table.size());
+                table.forEach((key, entry) -> victims.add(new Victim<>(key, entry, entry.used)));
+                victims.sort(Comparator.comparingLong(Victim::used));
+                long target = maxWeight / 4 * 3;
+                for (int i = 0; i < victims.size() && weight.get() > target; i++) {
+                    Victim<K, V> victim = victims.get(i);
+                    if (remove(victim.key(), victim.entry())) evictions.increment();
+                }
+            } finally {
+                evicting.unlock();
+            }
+        } while (weight.get() > maxWeight);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "LruCache{size=" + table.size() + ", weight=" + weight.get() + "/" + maxWeight + "}";
+    }
+    
+    private record Victim<K, V>(K key, Entry<V> entry, long used) {
+    }
+    
+    private static final class Entry<V> {
+        
+        private final V value;
+        private final long weight;
+        private volatile long used;
+        
+        private Entry(V value, long weight, long used) {
+            this.value = value;
+            this.weight = weight;
+            this.used = used;
+        }
+    }
+}
@@ -2,16 +2,55 @@ package top.outlands.diceroller4j;
 
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 public class RandomUtil {
     
-    private static Random random = ThreadLocalRandom.current();
+    private static final ThreadLocal<Random> SCOPED = new ThreadLocal<>();
+    private static final AtomicInteger scoped = new AtomicInteger();
+    private static final Random DEFAULT = ThreadLocalRandom.current();
+    private static Random random = DEFAULT;
     
     public static void setRandom(Random random) {
         RandomUtil.random = random;
     }
     
+    /**
+     * @return the generator of the innermost {@link #withRandom} on this thread, otherwise the one set for all threads
+     */
     public static Random getRandom() {
+        if (scoped.get() != 0) {
+            Random r = SCOPED.get();
+            if (r != null) return r;
+        }
         return random;
     }
+    
+    /**
+     * @return true if rolls on this thread draw from a generator someone chose, by {@link #setRandom} or {@link #withRandom},
+     * whose sequence of draws may be expected to repeat
+     */
+    public static boolean isChosen() {
+        return random != DEFAULT || scoped.get() != 0 && SCOPED.get() != null;
+    }
+    
+    /**
+     * Roll with the given generator on this thread only, while other threads keep theirs.
+     */
+    public static int withRandom(Random random, IntSupplier roll) {
+        Random previous = SCOPED.get();
+        SCOPED.set(random);
+        scoped.incrementAndGet();
+        try {
+            return roll.getAsInt();
+        } finally {
+            scoped.decrementAndGet();
+            if (previous == null) {
+                SCOPED.remove();
+            } else {
+                SCOPED.set(previous);
+            }
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package top.outlands.diceroller4j;
+
+import top.outlands.diceroller4j.expressions.IExpression;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Runtime cap on the random draws of the explode, reroll and emphasis nodes of one roll.
+ * Every die such a node rolls counts once, the first roll of each die included, and all of them in a roll
+ * share one count. A node rolled outside {@link #within} counts on its own.
+ */
+public class RollBudget {
+    
+    private static final ThreadLocal<Counter> COUNTER = ThreadLocal.withInitial(Counter::new);
+    private static int maxDraws = 1_000_000;
+    
+    public static void setMaxDraws(int maxDraws) {
+        if (maxDraws < 1) throw new IllegalArgumentException("maxDraws must be positive");
+        RollBudget.maxDraws = maxDraws;
+    }
+    
+    public static int getMaxDraws() {
+        return maxDraws;
+    }
+    
+    /**
+     * Make one roll on this thread against a single budget, a roll inside another joins the outer one.
+     */
+    public static int within(IntSupplier roll) {
+        Counter counter = COUNTER.get();
+        if (counter.open) return roll.getAsInt();
+        counter.reset();
+        counter.open = true;
+        try {
+            return roll.getAsInt();
+        } finally {
+            counter.open = false;
+        }
+    }
+    
+    /**
+     * @return the count of the roll in progress on this thread, or a fresh one outside {@link #within}
+     */
+    public static Counter current() {
+        Counter counter = COUNTER.get();
+        if (!counter.open) counter.reset();
+        return counter;
+    }
+    
+    /**
+     * The draws of one roll so far.
+     */
+    public static final class Counter {
+        
+        private boolean open;
+        private int max;
+        private long draws;
+        
+        private void reset() {
+            max = maxDraws;
+            draws = 0;
+        }
+        
+        /**
+         * @throws RollBudgetExceededException once the draws of the roll pass the budget
+         */
+        public void charge(IExpression node, int draws) {
+            this.draws += draws;
+            if (this.draws > max) throw new RollBudgetExceededException(node, max);
+        }
+        
+        public long draws() {
+            return draws;
+        }
+    }
+}
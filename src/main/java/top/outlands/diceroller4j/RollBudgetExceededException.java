@@ -0,0 +1,12 @@
+package top.outlands.diceroller4j;
+
+import top.outlands.diceroller4j.expressions.IExpression;
+
+/**
+ * Thrown from {@link IExpression#roll()} when a node draws more often than {@link RollBudget} allows.
+ */
+public class RollBudgetExceededException extends RuntimeException {
+    public RollBudgetExceededException(IExpression expression, int draws) {
+        super("Roll budget of " + draws + " draws exceeded by " + expression);
+    }
+}
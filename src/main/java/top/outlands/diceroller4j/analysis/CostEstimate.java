@@ -0,0 +1,30 @@
+package top.outlands.diceroller4j.analysis;
+
+/**
+ * Static cost of rolling an expression once.
+ * @param dice the amount of dice held by the tree
+ * @param expectedDraws the expected amount of random draws per roll, infinite if a chain never ends
+ * @param memoryBytes the approximate heap footprint of the tree plus the scratch space of one roll
+ * @param explosionDepth the worst case chain length of explode, reroll or emphasis, see {@link CostEstimator#chainDepth(double)}
+ */
+public record CostEstimate(long dice, double expectedDraws, long memoryBytes, int explosionDepth) {
+    
+    public static final CostEstimate ZERO = new CostEstimate(0, 0, 0, 0);
+    
+    public CostEstimate plus(CostEstimate other) {
+        return new CostEstimate(
+                saturatedAdd(dice, other.dice),
+                expectedDraws + other.expectedDraws,
+                saturatedAdd(memoryBytes, other.memoryBytes),
+                Math.max(explosionDepth, other.explosionDepth));
+    }
+    
+    public CostEstimate withMemory(long bytes) {
+        return new CostEstimate(dice, expectedDraws, saturatedAdd(memoryBytes, bytes), explosionDepth);
+    }
+    
+    static long saturatedAdd(long a, long b) {
+        long r = a + b;
+        return ((a ^ r) & (b ^ r)) < 0 ? Long.MAX_VALUE : r;
+    }
+}
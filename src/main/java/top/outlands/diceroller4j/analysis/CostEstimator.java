@@ -0,0 +1,188 @@
+package top.outlands.diceroller4j.analysis;
+
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.expressions.mechanic.Drop;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.expressions.statistics.Average;
+import top.outlands.diceroller4j.expressions.statistics.Max;
+import top.outlands.diceroller4j.expressions.statistics.Median;
+import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.expressions.statistics.Sum;
+
+/**
+ * Estimates the cost of a compiled tree without rolling it.
+ */
+public class CostEstimator {
+    
+    /**
+     * Chains are considered done once the chance of going on drops below this.
+     */
+    public static final double CHAIN_TAIL = 1e-9;
+    
+    private static final long HEADER = 16;
+    private static final long REFERENCE = 4;
+    private static final long NODE = HEADER + 2 * REFERENCE;
+    
+    public static CostEstimate estimate(IExpression expression) {
+        return switch (expression) {
+            case CompiledExpression compiled -> estimate(compiled.root());
+            case Number ignored -> new CostEstimate(0, 0, HEADER, 0);
+            case Dice ignored -> new CostEstimate(1, 1, HEADER, 0);
+            case DiceSet diceSet -> new CostEstimate(diceSet.dices().length, diceSet.dices().length, HEADER + array(diceSet.dices().length), 0);
+            case ExpressionSet set -> {
+                CostEstimate sum = new CostEstimate(0, 0, HEADER + array(set.expressions().length), 0);
+                for (IExpression e : set.expressions()) {
+                    sum = sum.plus(estimate(e));
+                }
+                yield sum;
+            }
+            case Plus(IExpression a, IExpression b) -> binary(a, b);
+            case Subtract(IExpression a, IExpression b) -> binary(a, b);
+            case Multiply(IExpression a, IExpression b) -> binary(a, b);
+            case Divide(IExpression a, IExpression b) -> binary(a, b);
+            case Keep keep -> pool(keep.expressions());
+            case Drop drop -> pool(drop.expressions());
+            case Median median -> pool(median.dices());
+            case Min min -> estimate(min.dices()).withMemory(NODE);
+            case Max max -> estimate(max.dices()).withMemory(NODE);
+            case Average average -> estimate(average.dices()).withMemory(NODE);
+            case Sum sum -> estimate(sum.dices()).withMemory(NODE);
+            case Explode explode -> chain(explode.diceSet(), explode.times(), explode.threshold(), explode.relation());
+            case Reroll reroll -> chain(reroll.diceSet(), reroll.times(), reroll.threshold(), reroll.relation());
+            case Emphasis emphasis -> emphasis(emphasis);
+            default -> new CostEstimate(0, 0, HEADER, 0);
+        };
+    }
+    
+    /**
+     * @return the amount of nodes in the tree, the dice of a set included
+     */
+    public static int nodes(IExpression expression) {
+        return switch (expression) {
+            case CompiledExpression compiled -> nodes(compiled.root());
+            case DiceSet diceSet -> 1 + diceSet.dices().length;
+            case ExpressionSet set -> {
+                int nodes = 1;
+                for (IExpression e : set.expressions()) {
+                    nodes += nodes(e);
+                }
+                yield nodes;
+            }
+            case Plus(IExpression a, IExpression b) -> 1 + nodes(a) + nodes(b);
+            case Subtract(IExpression a, IExpression b) -> 1 + nodes(a) + nodes(b);
+            case Multiply(IExpression a, IExpression b) -> 1 + nodes(a) + nodes(b);
+            case Divide(IExpression a, IExpression b) -> 1 + nodes(a) + nodes(b);
+            case Keep keep -> 1 + nodes(keep.expressions());
+            case Drop drop -> 1 + nodes(drop.expressions());
+            case Median median -> 1 + nodes(median.dices());
+            case Min min -> 1 + nodes(min.dices());
+            case Max max -> 1 + nodes(max.dices());
+            case Average average -> 1 + nodes(average.dices());
+            case Sum sum -> 1 + nodes(sum.dices());
+            case Explode explode -> 1 + nodes(explode.diceSet());
+            case Reroll reroll -> 1 + nodes(reroll.diceSet());
+            case Emphasis emphasis -> 1 + nodes(emphasis.diceSet());
+            default -> 1;
+        };
+    }
+    
+    /**
+     * @return the chance a die with the given sides triggers the relation
+     */
+    public static double triggerChance(int sides, int threshold, Relation relation) {
+        long hits = switch (relation) {
+            case EQUAL -> threshold >= 1 && threshold <= sides ? 1 : 0;
+            case LESS_OR_EQUAL -> Math.clamp(threshold, 0, sides);
+            case GREATER_OR_EQUAL -> Math.clamp((long) sides - threshold + 1, 0, sides);
+        };
+        return (double) hits / sides;
+    }
+    
+    /**
+     * @return the chance two rolls of the die are equally far from the average
+     */
+    public static double tieChance(int sides, int average) {
+        // a pair ties when both are the same face or mirror each other around the average
+        long lo = Math.max(1, 2L * average - sides);
+        long hi = Math.min(sides, 2L * average - 1);
+        long mirrored = Math.max(0, hi - lo + 1);
+        if (average >= lo && average <= hi) mirrored--;
+        return (double) (sides + mirrored) / ((double) sides * sides);
+    }
+    
+    /**
+     * The length a chain which continues with the given chance will not exceed but once in {@code 1 / CHAIN_TAIL} rolls.
+     * @return {@link Integer#MAX_VALUE} if the chain never ends
+     */
+    public static int chainDepth(double chance) {
+        if (chance <= 0) return 0;
+        if (chance >= 1) return Integer.MAX_VALUE;
+        return (int) Math.min(Integer.MAX_VALUE - 1, Math.ceil(Math.log(CHAIN_TAIL) / Math.log(chance)));
+    }
+    
+    private static CostEstimate binary(IExpression a, IExpression b) {
+        return estimate(a).plus(estimate(b)).withMemory(NODE);
+    }
+    
+    private static CostEstimate pool(ExpressionSet set) {
+        // the pool is sorted in a fresh int[] every roll
+        return estimate(set).withMemory(NODE + array(set.expressions().length));
+    }
+    
+    private static CostEstimate chain(DiceSet diceSet, int times, int threshold, Relation relation) {
+        double draws = 0;
+        int depth = 0;
+        for (Dice dice : diceSet.dices()) {
+            double p = triggerChance(dice.sides(), threshold, relation);
+            int worst = chainDepth(p);
+            if (times == 0) {
+                draws += p >= 1 ? Double.POSITIVE_INFINITY : 1 / (1 - p);
+            } else {
+                // a die is rolled again at most times + 1 times
+                double extra = 0;
+                double reach = 1;
+                for (int i = 0; i <= times && reach > CHAIN_TAIL; i++) {
+                    reach *= p;
+                    extra += reach;
+                }
+                draws += 1 + extra;
+                worst = Math.min(worst, times + 1);
+            }
+            depth = Math.max(depth, worst);
+        }
+        return new CostEstimate(diceSet.dices().length, draws, NODE + HEADER + array(diceSet.dices().length), depth);
+    }
+    
+    private static CostEstimate emphasis(Emphasis emphasis) {
+        double draws = 0;
+        int depth = 0;
+        for (Dice dice : emphasis.diceSet().dices()) {
+            if (emphasis.variant() == Emphasis.EmphasisVariant.REROLL) {
+                double q = tieChance(dice.sides(), emphasis.from() < 0 ? dice.sides() / 2 : emphasis.from());
+                draws += q >= 1 ? Double.POSITIVE_INFINITY : 2 / (1 - q);
+                depth = Math.max(depth, chainDepth(q));
+            } else {
+                draws += 2;
+            }
+        }
+        DiceSet diceSet = emphasis.diceSet();
+        return new CostEstimate(diceSet.dices().length, draws, NODE + HEADER + array(diceSet.dices().length), depth);
+    }
+    
+    private static long array(long length) {
+        return HEADER + REFERENCE * length;
+    }
+}
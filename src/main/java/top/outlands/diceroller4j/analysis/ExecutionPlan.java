@@ -0,0 +1,205 @@
+package top.outlands.diceroller4j.analysis;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.RollProgram;
+import top.outlands.diceroller4j.expressions.Tier;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.expressions.mechanic.Drop;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.expressions.statistics.Average;
+import top.outlands.diceroller4j.expressions.statistics.Max;
+import top.outlands.diceroller4j.expressions.statistics.Median;
+import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.expressions.statistics.Sum;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * How an expression would be rolled on this thread right now, worked out without rolling it.
+ * One step per node in depth first order, single dice belong to the node rolling them.
+ * See {@link RollProfiler} for what the nodes actually cost.
+ * @param expression the expression explained
+ * @param tier the form of the expression a roll would take, {@link Tier#INTERPRETED} for a bare tree
+ * @param mode the trace mode the plan was made for
+ * @param generator the class of the generator dice would be drawn from
+ * @param steps the nodes, the root first
+ */
+public record ExecutionPlan(IExpression expression, Tier tier, TraceMode mode, String generator, List<Step> steps) {
+    
+    public static ExecutionPlan of(IExpression expression) {
+        Tier tier = expression instanceof CompiledExpression compiled ? compiled.rollingTier() : Tier.INTERPRETED;
+        IExpression root = expression instanceof CompiledExpression compiled ? compiled.root() : expression;
+        List<Step> steps = new ArrayList<>();
+        add(steps, root, 0, tier);
+        return new ExecutionPlan(expression, tier, DiceResults.getMode(), RandomUtil.getRandom().getClass().getSimpleName(), List.copyOf(steps));
+    }
+    
+    /**
+     * @return the estimated cost of the whole expression
+     */
+    public CostEstimate cost() {
+        return steps.getFirst().cost();
+    }
+    
+    /**
+     * The nodes a plan or a profile descends into, those the node rolls itself: the members of a pool
+     * rather than the set holding them. Single dice belong to the node rolling them.
+     */
+    static IExpression[] children(IExpression node) {
+        IExpression[] rolled = switch (node) {
+            case CompiledExpression compiled -> new IExpression[]{compiled.root()};
+            case ExpressionSet(IExpression[] members) -> members;
+            case Plus(IExpression a, IExpression b) -> new IExpression[]{a, b};
+            case Subtract(IExpression a, IExpression b) -> new IExpression[]{a, b};
+            case Multiply(IExpression a, IExpression b) -> new IExpression[]{a, b};
+            case Divide(IExpression a, IExpression b) -> new IExpression[]{a, b};
+            case Sum sum -> new IExpression[]{sum.dices()};
+            case Keep keep -> keep.expressions().expressions();
+            case Drop drop -> drop.expressions().expressions();
+            case Median median -> median.dices().expressions();
+            case Min min -> min.dices().expressions();
+            case Max max -> max.dices().expressions();
+            case Average average -> average.dices().expressions();
+            default -> new IExpression[0];
+        };
+        return Arrays.stream(rolled).filter(child -> !(child instanceof Dice)).toArray(IExpression[]::new);
+    }
+    
+    /**
+     * @param tier the tier rolling the parent, or the expression for the root
+     */
+    private static void add(List<Step> steps, IExpression node, int depth, Tier tier) {
+        // a program runs what it inlines and calls the rest, which then rolls its subtree as a tree
+        Tier rolling = tier == Tier.FLATTENED && !RollProgram.inlines(node) ? Tier.INTERPRETED : tier;
+        CostEstimate cost = CostEstimator.estimate(node);
+        Sampler sampler = rolling == Tier.SAMPLED ? Sampler.ALIAS : cost.expectedDraws() == 0 ? Sampler.NONE : Sampler.GENERATOR;
+        steps.add(new Step(node, depth, strategy(node, rolling), rolling, sampler, cost));
+        for (IExpression child : children(node)) {
+            add(steps, child, depth + 1, rolling);
+        }
+    }
+    
+    private static Strategy strategy(IExpression node, Tier tier) {
+        return switch (node) {
+            case Number ignored -> Strategy.CONSTANT;
+            case Dice ignored -> Strategy.DRAW;
+            case DiceSet set when set.isPure() && (tier == Tier.FLATTENED || DiceResults.getMode() == TraceMode.HISTOGRAM) -> Strategy.BULK;
+            case DiceSet ignored -> Strategy.COMBINE;
+            case ExpressionSet ignored -> Strategy.COMBINE;
+            case Plus ignored -> Strategy.COMBINE;
+            case Subtract ignored -> Strategy.COMBINE;
+            case Multiply ignored -> Strategy.COMBINE;
+            case Divide ignored -> Strategy.COMBINE;
+            case Min ignored -> Strategy.COMBINE;
+            case Max ignored -> Strategy.COMBINE;
+            case Average ignored -> Strategy.COMBINE;
+            case Sum ignored -> Strategy.COMBINE;
+            case Keep ignored -> Strategy.SORT;
+            case Drop ignored -> Strategy.SORT;
+            case Median ignored -> Strategy.SORT;
+            case Explode ignored -> Strategy.CHAIN;
+            case Reroll ignored -> Strategy.CHAIN;
+            case Emphasis emphasis -> emphasis.variant() == Emphasis.EmphasisVariant.REROLL ? Strategy.CHAIN : Strategy.PAIR;
+            default -> Strategy.OPAQUE;
+        };
+    }
+    
+    /**
+     * Render the plan as a table, one line per step with the node indented by its depth.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        builder.append(expression).append(": ").append(tier).append(", trace ").append(mode).append(", ").append(generator).append('\n');
+        builder.append(String.format("%-9s %-11s %-9s %8s %10s %9s %6s  %s\n", "strategy", "tier", "sampler", "dice", "draws", "bytes", "chain", "node"));
+        for (Step step : steps) {
+            CostEstimate cost = step.cost();
+            builder.append(String.format("%-9s %-11s %-9s %8d %10.2f %9d %6d  %s%s\n", step.strategy(), step.tier(), step.sampler(),
+                    cost.dice(), cost.expectedDraws(), cost.memoryBytes(), cost.explosionDepth(), "  ".repeat(step.depth()), step.node()));
+        }
+        return builder;
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+    
+    /**
+     * How one node would be rolled.
+     * @param node the node
+     * @param depth how far below the root
+     * @param strategy how the node evaluates its children
+     * @param tier the form rolling the node, see {@link Tier}
+     * @param sampler where the randomness of the node comes from
+     * @param cost the estimated cost of one roll of the subtree
+     */
+    public record Step(IExpression node, int depth, Strategy strategy, Tier tier, Sampler sampler, CostEstimate cost) {
+    }
+    
+    public enum Strategy {
+        /**
+         * A number, nothing to roll.
+         */
+        CONSTANT,
+        /**
+         * A single die.
+         */
+        DRAW,
+        /**
+         * Dice of one kind drawn and added up in a single loop.
+         */
+        BULK,
+        /**
+         * The values of the children combined in one pass, by arithmetic, sum, min, max or average.
+         */
+        COMBINE,
+        /**
+         * The children rolled into a fresh array which is sorted, by keep, drop or median.
+         */
+        SORT,
+        /**
+         * Dice rolled again as long as they trigger, by explode, reroll or emphasis on a tie.
+         */
+        CHAIN,
+        /**
+         * Every die rolled twice and one of the two kept, by emphasis high or low.
+         */
+        PAIR,
+        /**
+         * A node the plan does not know, rolled as it is.
+         */
+        OPAQUE
+    }
+    
+    public enum Sampler {
+        /**
+         * Draws nothing.
+         */
+        NONE,
+        /**
+         * Every die is drawn from the generator.
+         */
+        GENERATOR,
+        /**
+         * The alias table of the expression draws the total, no node below it is rolled.
+         */
+        ALIAS
+    }
+}
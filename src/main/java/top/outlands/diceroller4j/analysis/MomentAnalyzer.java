@@ -0,0 +1,549 @@
+package top.outlands.diceroller4j.analysis;
+
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.distribution.UnsupportedDistributionException;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.expressions.mechanic.Drop;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.expressions.statistics.Average;
+import top.outlands.diceroller4j.expressions.statistics.Max;
+import top.outlands.diceroller4j.expressions.statistics.Median;
+import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.expressions.statistics.Sum;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Computes {@link Moments} bottom-up without rolling or building whole distributions.
+ * <ul>
+ *     <li>Sums, differences and products of independent sub-expressions combine in closed form.</li>
+ *     <li>Min, max and median of a pure pool use the binomial form of order statistics,
+ *     keep and drop of a small pure pool use an exact table of the kept sum.</li>
+ *     <li>Explode and reroll use the geometric series of their chains, emphasis enumerates the pairs of a die.</li>
+ * </ul>
+ * Pools of mixed members and division take the moments of their exact {@link Distribution} while it is small enough
+ * to build, see {@link #EXACT_WORK}, and only when their members are plain sums, differences and products of dice
+ * and numbers, so no distribution is built twice for a pool nested in another. Beyond that they are approximated:
+ * a mixed pool takes the moments of the members ranked by mean, which understates the spread of the ranks, so the mean
+ * of a max comes out too low and that of a min too high. Division beyond the bound divides the means and ignores
+ * the truncation and the spread of the divisor.
+ * Large pure pools and average are approximated as well, approximations are reported as not exact.
+ * The moments of a compiled expression are cached, see {@link CompiledExpression#moments()}.
+ */
+public class MomentAnalyzer {
+    
+    /**
+     * Pure pools needing more steps than this to get order statistics are approximated.
+     */
+    public static final long ORDER_STATISTIC_WORK = 200_000;
+    /**
+     * Keep and drop tables needing more steps than this are approximated.
+     */
+    public static final long TABLE_WORK = 200_000;
+    /**
+     * Mixed pools and quotients whose exact distribution takes more steps than this to build, members included,
+     * are approximated.
+     */
+    public static final long EXACT_WORK = 200_000;
+    /**
+     * Emphasis on dice with more sides than this is approximated.
+     */
+    public static final int EMPHASIS_SIDES = 400;
+    
+    private static final Moments UNKNOWN = new Moments(Integer.MIN_VALUE, Integer.MAX_VALUE, Double.NaN, Double.NaN, false, false);
+    
+    public static Moments moments(IExpression expression) {
+        return switch (expression) {
+            case CompiledExpression compiled -> compiled.moments();
+            case Number(int value) -> Moments.constant(value);
+            case Dice(int sides) -> Moments.die(sides);
+            case DiceSet set -> {
+                Moments sum = Moments.constant(0);
+                for (Dice dice : set.dices()) {
+                    sum = sum.plus(Moments.die(dice.sides()));
+                }
+                yield sum;
+            }
+            case ExpressionSet set -> {
+                Moments sum = Moments.constant(0);
+                for (IExpression member : set.expressions()) {
+                    sum = sum.plus(moments(member));
+                }
+                yield sum;
+            }
+            case Sum sum -> moments(sum.dices());
+            case Plus(IExpression a, IExpression b) -> moments(a).plus(moments(b));
+            case Subtract(IExpression a, IExpression b) -> moments(a).minus(moments(b));
+            case Multiply(IExpression a, IExpression b) -> moments(a).times(moments(b));
+            case Divide(IExpression a, IExpression b) -> divide(expression, a, b);
+            case Keep keep -> keep(keep, keep.expressions(), keep.count(), !keep.inverted());
+            case Drop drop -> keep(drop, drop.expressions(), drop.expressions().expressions().length - drop.count(), !drop.inverted());
+            case Min min -> rank(min, min.dices(), 0);
+            case Max max -> rank(max, max.dices(), max.dices().expressions().length - 1);
+            case Median median -> rank(median, median.dices(), median.dices().expressions().length / 2);
+            case Average average -> average(average.dices());
+            case Explode explode -> perDie(explode.diceSet(), sides -> explode(sides, explode.times(), explode.threshold(), explode.relation()));
+            case Reroll reroll -> perDie(reroll.diceSet(), sides -> reroll(sides, reroll.times(), reroll.threshold(), reroll.relation()));
+            case Emphasis emphasis -> perDie(emphasis.diceSet(), sides -> emphasis(sides, emphasis.variant(), emphasis.from()));
+            default -> UNKNOWN;
+        };
+    }
+    
+    // ==================== arithmetic ====================
+    
+    private static Moments divide(IExpression node, IExpression numerator, IExpression denominator) {
+        Moments a = moments(numerator), b = moments(denominator);
+        boolean overflow = a.overflow() || b.overflow();
+        if (b.min() == b.max()) {
+            long divisor = b.min();
+            if (divisor == 0) return UNKNOWN;
+            if (a.min() == a.max()) return Moments.constant(a.min() / divisor);
+            if (divisor == 1) return a;
+        }
+        if (!overflow) {
+            Moments exact = exact(node, new IExpression[]{numerator, denominator}, width(a) * width(b));
+            if (exact != null) return exact;
+        }
+        if (b.min() == b.max()) {
+            long divisor = b.min();
+            long x = a.min() / divisor, y = a.max() / divisor;
+            return new Moments(Math.min(x, y), Math.max(x, y), a.mean() / divisor, a.variance() / ((double) divisor * divisor), false, overflow);
+        }
+        if (b.min() > 0 || b.max() < 0) {
+            // truncated division is monotone in each operand while the divisor keeps its sign
+            long p = a.min() / b.min(), q = a.min() / b.max(), r = a.max() / b.min(), s = a.max() / b.max();
+            return new Moments(Math.min(Math.min(p, q), Math.min(r, s)), Math.max(Math.max(p, q), Math.max(r, s)),
+                    a.mean() / b.mean(), a.variance() / (b.mean() * b.mean()), false, overflow);
+        }
+        // the divisor may be 0 or ±1
+        long bound = Math.max(Math.abs(Math.max(a.min(), -Long.MAX_VALUE)), Math.abs(Math.max(a.max(), -Long.MAX_VALUE)));
+        return new Moments(-bound, bound, Double.NaN, Double.NaN, false, overflow);
+    }
+    
+    private static Moments average(ExpressionSet set) {
+        Moments sum = moments(set);
+        int n = set.expressions().length;
+        boolean exact = sum.min() == sum.max() || n == 1 && sum.exact();
+        return new Moments(sum.min() / n, sum.max() / n, sum.mean() / n, sum.variance() / ((double) n * n), exact, sum.overflow());
+    }
+    
+    // ==================== pools ====================
+    
+    /**
+     * @param kept how many members are summed
+     * @param highest whether the highest or the lowest members are kept
+     */
+    private static Moments keep(IExpression node, ExpressionSet set, int kept, boolean highest) {
+        IExpression[] members = set.expressions();
+        int n = members.length;
+        int k = Math.clamp(kept, 0, n);
+        if (k == 0) return Moments.constant(0);
+        if (k == n) return moments(set);
+        if (k == 1) return rank(node, set, highest ? n - 1 : 0);
+        int sides = pureSides(members);
+        if (sides > 0) return keepPure(n, sides, k, highest);
+        Moments[] ranked = rankedMembers(members);
+        // every combination of member values is gone through
+        double combinations = 1;
+        for (Moments member : ranked) {
+            combinations *= width(member);
+        }
+        if (!overflows(ranked)) {
+            Moments exact = exact(node, members, combinations * n);
+            if (exact != null) return exact;
+        }
+        Moments sum = Moments.constant(0);
+        for (int i = 0; i < k; i++) {
+            sum = sum.plus(ranked[highest ? n - 1 - i : i]);
+        }
+        // the members of each rank are not the same in every roll
+        return new Moments(sum.min(), sum.max(), sum.mean(), sum.variance(), false, sum.overflow());
+    }
+    
+    private static Moments keepPure(int n, int sides, int k, boolean highest) {
+        long min = k, max = (long) k * sides;
+        double mean, variance;
+        boolean exact;
+        if ((double) sides * n * n * ((double) k * sides + 1) <= TABLE_WORK) {
+            Distribution table = Distribution.keepHighest(n, sides, k);
+            mean = table.mean();
+            variance = table.variance();
+            exact = true;
+        } else {
+            mean = 0;
+            variance = 0;
+            for (int i = 0; i < k; i++) {
+                int rank = n - 1 - i;
+                mean += 0.5 + sides * uniformRankMean(n, rank);
+                variance += (double) sides * sides * uniformRankVariance(n, rank);
+            }
+            // the continuous approximation can pass the largest sum by half a face per die
+            mean = (double) sides * n <= ORDER_STATISTIC_WORK ? keepHighestMean(n, sides, k) : Math.clamp(mean, min, max);
+            exact = false;
+        }
+        if (!highest) {
+            // the lowest k of a die are the highest k of the die turned upside down
+            mean = (double) k * (sides + 1) - mean;
+        }
+        return new Moments(min, max, mean, variance, exact, false);
+    }
+    
+    /**
+     * E[sum of highest k] = sum over faces v of E[min(#dice at least v, k)].
+     */
+    private static double keepHighestMean(int n, int sides, int k) {
+        double mean = 0;
+        for (int face = 1; face <= sides; face++) {
+            Distribution counts = Distribution.binomial(n, (double) (sides - face + 1) / sides);
+            for (int c = 0; c <= n; c++) {
+                mean += counts.probability(c) * Math.min(c, k);
+            }
+        }
+        return mean;
+    }
+    
+    /**
+     * @param rank the index of the member in the pool sorted ascending
+     */
+    private static Moments rank(IExpression node, ExpressionSet set, int rank) {
+        IExpression[] members = set.expressions();
+        int n = members.length;
+        if (n == 1) return moments(members[0]);
+        int sides = pureSides(members);
+        if (sides > 0) return orderStatistic(n, sides, rank);
+        Moments[] ranked = rankedMembers(members);
+        if (!overflows(ranked)) {
+            // the distribution of a rank goes through every value once per pair of members
+            long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+            for (Moments member : ranked) {
+                lo = Math.min(lo, member.min());
+                hi = Math.max(hi, member.max());
+            }
+            Moments exact = exact(node, members, ((double) hi - lo + 1) * n * n);
+            if (exact != null) return exact;
+        }
+        long[] mins = new long[n], maxes = new long[n];
+        for (int i = 0; i < n; i++) {
+            mins[i] = ranked[i].min();
+            maxes[i] = ranked[i].max();
+        }
+        Arrays.sort(mins);
+        Arrays.sort(maxes);
+        Moments at = ranked[rank];
+        return new Moments(mins[rank], maxes[rank], at.mean(), at.variance(), false, at.overflow());
+    }
+    
+    /**
+     * The rank-th smallest of n dice is at least v exactly when at least n - rank dice are.
+     */
+    private static Moments orderStatistic(int n, int sides, int rank) {
+        if ((double) sides * n > ORDER_STATISTIC_WORK) {
+            double mean = Math.clamp(0.5 + sides * uniformRankMean(n, rank), 1, sides);
+            return new Moments(1, sides, mean, (double) sides * sides * uniformRankVariance(n, rank), false, false);
+        }
+        double first = 1, second = 1;
+        for (int face = 2; face <= sides; face++) {
+            double atLeast = Distribution.binomial(n, (double) (sides - face + 1) / sides)
+                    .probability(Relation.GREATER_OR_EQUAL, n - rank);
+            first += atLeast;
+            second += (2.0 * face - 1) * atLeast;
+        }
+        return new Moments(1, sides, first, Math.max(0, second - first * first), true, false);
+    }
+    
+    private static double uniformRankMean(int n, int rank) {
+        return (rank + 1.0) / (n + 1);
+    }
+    
+    private static double uniformRankVariance(int n, int rank) {
+        double a = rank + 1.0;
+        return a * (n + 1 - a) / ((n + 1.0) * (n + 1) * (n + 2));
+    }
+    
+    /**
+     * @param work the steps to combine the distributions of the members into that of the node
+     * @return the moments of the distribution of the node, null if a member is not a plain combination of dice and numbers,
+     * it all takes more than {@link #EXACT_WORK} steps or it cannot be built
+     */
+    private static Moments exact(IExpression node, IExpression[] members, double work) {
+        for (IExpression member : members) {
+            if (work > EXACT_WORK) return null;
+            Build build = build(member);
+            if (build == null) return null;
+            work += build.work();
+        }
+        if (work > EXACT_WORK) return null;
+        try {
+            Distribution distribution = Distributions.of(node);
+            return new Moments(distribution.min(), distribution.max(), distribution.mean(), distribution.variance(), true, false);
+        } catch (UnsupportedDistributionException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Bounds of a plain combination of dice and numbers, and about how many steps building its distribution takes.
+     */
+    private record Build(long min, long max, double work) {
+        
+        double width() {
+            return (double) max - min + 1;
+        }
+    }
+    
+    /**
+     * @return how to build the distribution of the node, null unless it only sums, subtracts and multiplies dice and numbers
+     */
+    private static Build build(IExpression node) {
+        return switch (node) {
+            case CompiledExpression compiled -> build(compiled.root());
+            case Number(int value) -> new Build(value, value, 1);
+            case Dice(int sides) -> new Build(1, sides, sides);
+            case DiceSet set -> {
+                // every die is added to the sum of those before it in one pass over the sum
+                long max = 0;
+                for (Dice dice : set.dices()) {
+                    max = Moments.add(max, dice.sides());
+                }
+                int n = set.dices().length;
+                yield new Build(n, max, (double) n * ((double) max - n + 1));
+            }
+            case ExpressionSet set -> {
+                Build sum = new Build(0, 0, 0);
+                for (IExpression member : set.expressions()) {
+                    Build next = build(member);
+                    if (next == null) yield null;
+                    sum = new Build(Moments.add(sum.min(), next.min()), Moments.add(sum.max(), next.max()),
+                            sum.work() + next.work() + sum.width() * next.width());
+                }
+                yield sum;
+            }
+            case Sum sum -> build(sum.dices());
+            case Plus(IExpression a, IExpression b) -> combine(a, b, (x, y) -> new long[]{Moments.add(x.min(), y.min()), Moments.add(x.max(), y.max())});
+            case Subtract(IExpression a, IExpression b) -> combine(a, b, (x, y) ->
+                    new long[]{Moments.add(x.min(), Moments.negate(y.max())), Moments.add(x.max(), Moments.negate(y.min()))});
+            case Multiply(IExpression a, IExpression b) -> combine(a, b, (x, y) -> {
+                long p = Moments.multiply(x.min(), y.min()), q = Moments.multiply(x.min(), y.max());
+                long r = Moments.multiply(x.max(), y.min()), t = Moments.multiply(x.max(), y.max());
+                return new long[]{Math.min(Math.min(p, q), Math.min(r, t)), Math.max(Math.max(p, q), Math.max(r, t))};
+            });
+            default -> null;
+        };
+    }
+    
+    /**
+     * @param bounds the smallest and the largest value of the combination
+     */
+    private static Build combine(IExpression a, IExpression b, BiFunction<Build, Build, long[]> bounds) {
+        Build x = build(a);
+        if (x == null) return null;
+        Build y = build(b);
+        if (y == null) return null;
+        long[] range = bounds.apply(x, y);
+        return new Build(range[0], range[1], x.work() + y.work() + x.width() * y.width());
+    }
+    
+    private static double width(Moments moments) {
+        return (double) moments.max() - moments.min() + 1;
+    }
+    
+    private static boolean overflows(Moments[] members) {
+        for (Moments member : members) {
+            if (member.overflow()) return true;
+        }
+        return false;
+    }
+    
+    private static Moments[] rankedMembers(IExpression[] members) {
+        Moments[] moments = new Moments[members.length];
+        for (int i = 0; i < members.length; i++) {
+            moments[i] = moments(members[i]);
+        }
+        Arrays.sort(moments, Comparator.comparingDouble(Moments::mean));
+        return moments;
+    }
+    
+    /**
+     * @return the sides shared by every member, 0 unless they are all the same die
+     */
+    private static int pureSides(IExpression[] members) {
+        if (!(members[0] instanceof Dice(int sides))) return 0;
+        for (IExpression member : members) {
+            if (!(member instanceof Dice(int other)) || other != sides) return 0;
+        }
+        return sides;
+    }
+    
+    // ==================== chains ====================
+    
+    private interface DieMoments {
+        Moments of(int sides);
+    }
+    
+    private static Moments perDie(DiceSet set, DieMoments die) {
+        Map<Integer, Moments> bySides = new HashMap<>();
+        Moments sum = Moments.constant(0);
+        for (Dice dice : set.dices()) {
+            sum = sum.plus(bySides.computeIfAbsent(dice.sides(), die::of));
+        }
+        return sum;
+    }
+    
+    /**
+     * Faces of a die that trigger a relation, as an interval.
+     */
+    private record Faces(int sides, long lo, long hi) {
+        
+        static Faces triggering(int sides, int threshold, Relation relation) {
+            return switch (relation) {
+                case GREATER_OR_EQUAL -> new Faces(sides, Math.max(1, threshold), sides);
+                case LESS_OR_EQUAL -> new Faces(sides, 1, Math.min(sides, threshold));
+                case EQUAL -> new Faces(sides, threshold, threshold);
+            };
+        }
+        
+        long count() {
+            return lo > sides || hi < 1 || lo > hi ? 0 : hi - lo + 1;
+        }
+        
+        double sum() {
+            return count() == 0 ? 0 : (lo + hi) * (double) count() / 2;
+        }
+        
+        double squares() {
+            return count() == 0 ? 0 : squares(hi) - squares(lo - 1);
+        }
+        
+        /**
+         * @return the moments of a die roll conditioned on triggering
+         */
+        Moments triggered() {
+            double mean = sum() / count();
+            return new Moments(lo, hi, mean, Math.max(0, squares() / count() - mean * mean), true, false);
+        }
+        
+        /**
+         * @return the moments of a die roll conditioned on not triggering
+         */
+        Moments missed() {
+            long count = sides - count();
+            double mean = (sides * (sides + 1.0) / 2 - sum()) / count;
+            double second = (squares(sides) - squares()) / count;
+            long min = count() == 0 || lo > 1 ? 1 : hi + 1;
+            long max = count() == 0 || hi < sides ? sides : lo - 1;
+            return new Moments(min, max, mean, Math.max(0, second - mean * mean), true, false);
+        }
+        
+        private static double squares(double x) {
+            return x * (x + 1) * (2 * x + 1) / 6;
+        }
+    }
+    
+    /**
+     * A die is rolled again at most times + 1 times, or without end when times is 0.
+     */
+    private static Moments explode(int sides, int times, int threshold, Relation relation) {
+        Faces faces = Faces.triggering(sides, threshold, relation);
+        Moments die = Moments.die(sides);
+        if (faces.count() == 0) return die;
+        Moments a = faces.triggered();
+        double q = (double) faces.count() / sides;
+        if (q >= 1) {
+            if (times == 0) return new Moments(Long.MAX_VALUE, Long.MAX_VALUE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, false, true);
+            // every roll triggers, so all times + 2 rolls are plain dice
+            long rolls = (long) times + 2;
+            return new Moments(rolls, Moments.multiply(rolls, sides), rolls * die.mean(), rolls * die.variance(), true, false);
+        }
+        Moments b = faces.missed();
+        if (times == 0) {
+            // the amount of exploded dice K is geometric
+            double expected = q / (1 - q);
+            double variance = q / ((1 - q) * (1 - q));
+            double mean = expected * a.mean() + b.mean();
+            return new Moments(b.min(), Long.MAX_VALUE, mean,
+                    expected * a.variance() + variance * a.mean() * a.mean() + b.variance(), true, true);
+        }
+        long limit = (long) times + 1;
+        double first = 0, second = 0, reach = 1;
+        for (long j = 0; j < limit && reach > Double.MIN_NORMAL; j++) {
+            double p = reach * (1 - q);
+            double mean = j * a.mean() + b.mean();
+            first += p * mean;
+            second += p * (j * a.variance() + b.variance() + mean * mean);
+            reach *= q;
+        }
+        if (reach > Double.MIN_NORMAL) {
+            // every allowed explosion happened, the last die is not conditioned
+            double mean = limit * a.mean() + die.mean();
+            first += reach * mean;
+            second += reach * (limit * a.variance() + die.variance() + mean * mean);
+        }
+        long max = Moments.add(Moments.multiply(limit, a.max()), sides);
+        return new Moments(b.min(), max, first, Math.max(0, second - first * first), true, false);
+    }
+    
+    /**
+     * The kept roll is the first that does not trigger, or the last allowed one.
+     */
+    private static Moments reroll(int sides, int times, int threshold, Relation relation) {
+        Faces faces = Faces.triggering(sides, threshold, relation);
+        Moments die = Moments.die(sides);
+        if (faces.count() == 0) return die;
+        double q = (double) faces.count() / sides;
+        if (q >= 1) return times == 0 ? UNKNOWN : die;
+        Moments b = faces.missed();
+        double last = times == 0 ? 0 : Math.pow(q, (double) times + 1);
+        if (last == 0) return b;
+        double mean = (1 - last) * b.mean() + last * die.mean();
+        double second = (1 - last) * (b.variance() + b.mean() * b.mean()) + last * (die.variance() + die.mean() * die.mean());
+        return new Moments(1, sides, mean, Math.max(0, second - mean * mean), true, false);
+    }
+    
+    private static Moments emphasis(int sides, Emphasis.EmphasisVariant variant, int from) {
+        if (sides > EMPHASIS_SIDES) {
+            Moments die = Moments.die(sides);
+            return new Moments(1, sides, die.mean(), die.variance(), false, false);
+        }
+        int average = from < 0 ? sides / 2 : from;
+        double weight = 0, first = 0, second = 0;
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int a = 1; a <= sides; a++) {
+            for (int b = 1; b <= sides; b++) {
+                int compared = Integer.compare(Math.abs(a - average), Math.abs(b - average));
+                int value;
+                if (compared == 0) {
+                    if (variant == Emphasis.EmphasisVariant.REROLL) continue;
+                    value = variant == Emphasis.EmphasisVariant.HIGH ? Math.max(a, b) : Math.min(a, b);
+                } else {
+                    value = compared < 0 ? b : a;
+                }
+                weight++;
+                first += value;
+                second += (double) value * value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        if (weight == 0) return UNKNOWN;
+        double mean = first / weight;
+        return new Moments(min, max, mean, Math.max(0, second / weight - mean * mean), true, false);
+    }
+}
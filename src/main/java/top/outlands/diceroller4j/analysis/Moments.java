@@ -0,0 +1,76 @@
+package top.outlands.diceroller4j.analysis;
+
+/**
+ * Range and first two moments of the value of an expression.
+ * @param min the smallest value a roll can take, saturated to the long range
+ * @param max the largest value a roll can take, {@link Long#MAX_VALUE} if unbounded
+ * @param mean the expected value
+ * @param variance the variance, infinite if unbounded
+ * @param exact whether mean and variance are exact rather than approximated
+ * @param overflow whether this or any sub-expression can leave the int range, so an int accumulator may wrap
+ */
+public record Moments(long min, long max, double mean, double variance, boolean exact, boolean overflow) {
+    
+    public Moments {
+        overflow = overflow || min < Integer.MIN_VALUE || max > Integer.MAX_VALUE;
+    }
+    
+    public static Moments constant(long value) {
+        return new Moments(value, value, value, 0, true, false);
+    }
+    
+    /**
+     * A fair die.
+     */
+    public static Moments die(int sides) {
+        return new Moments(1, sides, (sides + 1) / 2.0, ((double) sides * sides - 1) / 12, true, false);
+    }
+    
+    public double standardDeviation() {
+        return Math.sqrt(variance);
+    }
+    
+    /**
+     * @return the moments of the sum of two independent values
+     */
+    public Moments plus(Moments other) {
+        return new Moments(add(min, other.min), add(max, other.max), mean + other.mean, variance + other.variance,
+                exact && other.exact, overflow || other.overflow);
+    }
+    
+    /**
+     * @return the moments of the difference of two independent values
+     */
+    public Moments minus(Moments other) {
+        return new Moments(add(min, negate(other.max)), add(max, negate(other.min)), mean - other.mean, variance + other.variance,
+                exact && other.exact, overflow || other.overflow);
+    }
+    
+    /**
+     * @return the moments of the product of two independent values
+     */
+    public Moments times(Moments other) {
+        long a = multiply(min, other.min), b = multiply(min, other.max), c = multiply(max, other.min), d = multiply(max, other.max);
+        double second = (variance + mean * mean) * (other.variance + other.mean * other.mean);
+        double product = mean * other.mean;
+        return new Moments(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)),
+                product, Math.max(0, second - product * product), exact && other.exact, overflow || other.overflow);
+    }
+    
+    static long add(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0) return a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        return r;
+    }
+    
+    static long multiply(long a, long b) {
+        long hi = Math.multiplyHigh(a, b);
+        long lo = a * b;
+        if (hi != (lo >> 63)) return (a < 0) != (b < 0) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        return lo;
+    }
+    
+    static long negate(long a) {
+        return a == Long.MIN_VALUE ? Long.MAX_VALUE : -a;
+    }
+}
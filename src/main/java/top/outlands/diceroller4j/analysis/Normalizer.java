@@ -0,0 +1,236 @@
+package top.outlands.diceroller4j.analysis;
+
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.expressions.mechanic.Drop;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.expressions.statistics.Average;
+import top.outlands.diceroller4j.expressions.statistics.Max;
+import top.outlands.diceroller4j.expressions.statistics.Median;
+import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.expressions.statistics.Sum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rewrites a tree into a normal form that rolls with the same distribution, so statistically identical
+ * expressions like {@code 2d6}, {@code (d6,d6)}, {@code d6+d6} and {@code (d6,d6) sum} share one cache key.
+ * <ul>
+ *     <li>Sums are flattened, their dice gathered into one pool sorted by sides, so equal dice form runs,
+ *     then come the other terms in canonical order, the subtracted ones and the folded constant.</li>
+ *     <li>Products are flattened the same way, with the constant factors folded.</li>
+ *     <li>Members of keep, drop, min, max, median and average pools and the dice of explode, reroll
+ *     and emphasis are sorted, their order does not matter.</li>
+ * </ul>
+ * Constants are folded with int arithmetic, which wraps exactly like rolling the original tree would.
+ * Division is neither reordered nor folded by zero.
+ * <p>
+ * The string of a normal form serves as a cache key, so it has to tell normal forms apart: the arithmetic nodes
+ * parenthesize an operand wherever the grouping that a flattened set no longer shows would change the tree.
+ */
+public class Normalizer {
+    
+    private static final Comparator<Dice> BY_SIDES = Comparator.comparingInt(Dice::sides);
+    
+    public static CompiledExpression normalize(IExpression expression) {
+        return new CompiledExpression(node(expression));
+    }
+    
+    private static IExpression node(IExpression expression) {
+        return switch (expression) {
+            case CompiledExpression compiled -> node(compiled.root());
+            case Number ignored -> expression;
+            case Dice ignored -> expression;
+            case DiceSet ignored -> sum(expression);
+            case ExpressionSet ignored -> sum(expression);
+            case Sum ignored -> sum(expression);
+            case Plus ignored -> sum(expression);
+            case Subtract ignored -> sum(expression);
+            case Multiply ignored -> product(expression);
+            case Divide(IExpression dividend, IExpression divisor) -> {
+                IExpression a = node(dividend);
+                IExpression b = node(divisor);
+                if (b instanceof Number(int y) && y != 0) {
+                    if (a instanceof Number(int x)) yield new Number(x / y);
+                    if (y == 1) yield a;
+                }
+                yield new Divide(a, b);
+            }
+            case Keep keep -> new Keep(pool(keep.expressions()), keep.count(), keep.inverted());
+            case Drop drop -> new Drop(pool(drop.expressions()), drop.count(), drop.inverted());
+            case Min min -> new Min(pool(min.dices()));
+            case Max max -> new Max(pool(max.dices()));
+            case Median median -> new Median(pool(median.dices()));
+            case Average average -> new Average(pool(average.dices()));
+            case Explode explode -> new Explode(sorted(explode.diceSet()), explode.times(), explode.threshold(), explode.relation());
+            case Reroll reroll -> new Reroll(sorted(reroll.diceSet()), reroll.times(), reroll.threshold(), reroll.relation());
+            case Emphasis emphasis -> new Emphasis(sorted(emphasis.diceSet()), emphasis.variant(), emphasis.from());
+            default -> expression;
+        };
+    }
+    
+    // ==================== sums ====================
+    
+    private static IExpression sum(IExpression expression) {
+        Terms terms = new Terms();
+        terms.collect(expression, false);
+        IExpression result = pool(terms.dice);
+        for (IExpression term : canonical(terms.added)) {
+            result = result == null ? term : new Plus(result, term);
+        }
+        IExpression subtracted = pool(terms.subtractedDice);
+        if (result == null && (terms.constant != 0 || subtracted != null || !terms.subtracted.isEmpty())) {
+            // nothing to subtract from but the constant
+            result = new Number(terms.constant);
+            terms.constant = 0;
+        }
+        if (subtracted != null) result = new Subtract(result, subtracted);
+        for (IExpression term : canonical(terms.subtracted)) {
+            result = new Subtract(result, term);
+        }
+        if (result == null) return new Number(terms.constant);
+        if (terms.constant > 0) return new Plus(result, new Number(terms.constant));
+        if (terms.constant < 0) return new Subtract(result, new Number(-terms.constant));
+        return result;
+    }
+    
+    private static final class Terms {
+        final List<Dice> dice = new ArrayList<>();
+        final List<Dice> subtractedDice = new ArrayList<>();
+        final List<IExpression> added = new ArrayList<>();
+        final List<IExpression> subtracted = new ArrayList<>();
+        int constant;
+        
+        void collect(IExpression expression, boolean negated) {
+            switch (expression) {
+                case CompiledExpression compiled -> collect(compiled.root(), negated);
+                case Number(int value) -> constant += negated ? -value : value;
+                case Dice dice -> (negated ? subtractedDice : this.dice).add(dice);
+                case DiceSet set -> (negated ? subtractedDice : dice).addAll(Arrays.asList(set.dices()));
+                case ExpressionSet set -> {
+                    for (IExpression member : set.expressions()) {
+                        collect(member, negated);
+                    }
+                }
+                case Sum sum -> collect(sum.dices(), negated);
+                case Plus(IExpression augend, IExpression addend) -> {
+                    collect(augend, negated);
+                    collect(addend, negated);
+                }
+                case Subtract(IExpression minuend, IExpression subtrahend) -> {
+                    collect(minuend, negated);
+                    collect(subtrahend, !negated);
+                }
+                default -> {
+                    IExpression normal = node(expression);
+                    if (normal instanceof Number || normal instanceof Dice || normal instanceof DiceSet
+                            || normal instanceof Plus || normal instanceof Subtract) {
+                        // folded down to something that joins this sum
+                        collect(normal, negated);
+                    } else {
+                        (negated ? subtracted : added).add(normal);
+                    }
+                }
+            }
+        }
+    }
+    
+    // ==================== products ====================
+    
+    private static IExpression product(IExpression expression) {
+        List<IExpression> factors = new ArrayList<>();
+        int constant = collectFactors(expression, factors, 1);
+        IExpression result = null;
+        for (IExpression factor : canonical(factors)) {
+            result = result == null ? factor : new Multiply(result, factor);
+        }
+        if (result == null) return new Number(constant);
+        return constant == 1 ? result : new Multiply(result, new Number(constant));
+    }
+    
+    private static int collectFactors(IExpression expression, List<IExpression> factors, int constant) {
+        switch (expression) {
+            case CompiledExpression compiled -> {
+                return collectFactors(compiled.root(), factors, constant);
+            }
+            case Number(int value) -> {
+                return constant * value;
+            }
+            case Multiply(IExpression multiplier, IExpression multiplicator) -> {
+                return collectFactors(multiplicator, factors, collectFactors(multiplier, factors, constant));
+            }
+            default -> {
+                IExpression normal = node(expression);
+                if (normal instanceof Number || normal instanceof Multiply) {
+                    return collectFactors(normal, factors, constant);
+                }
+                factors.add(normal);
+                return constant;
+            }
+        }
+    }
+    
+    // ==================== pools ====================
+    
+    private static ExpressionSet pool(ExpressionSet set) {
+        List<IExpression> members = new ArrayList<>(set.expressions().length);
+        for (IExpression member : set.expressions()) {
+            members.add(node(member));
+        }
+        return new ExpressionSet(canonical(members).toArray(IExpression[]::new));
+    }
+    
+    private static DiceSet sorted(DiceSet set) {
+        Dice[] dices = set.dices().clone();
+        Arrays.sort(dices, BY_SIDES);
+        return new DiceSet(dices);
+    }
+    
+    /**
+     * @return the dice as one sorted pool, a single die on its own, null without dice
+     */
+    private static IExpression pool(List<Dice> dice) {
+        if (dice.isEmpty()) return null;
+        if (dice.size() == 1) return dice.getFirst();
+        Dice[] dices = dice.toArray(Dice[]::new);
+        Arrays.sort(dices, BY_SIDES);
+        return new DiceSet(dices);
+    }
+    
+    /**
+     * Sort by kind, numbers and dice by value, everything else by canonical string.
+     */
+    private static List<IExpression> canonical(List<IExpression> nodes) {
+        if (nodes.size() < 2) return nodes;
+        record Keyed(int rank, int value, String text, IExpression node) {
+        }
+        List<Keyed> keyed = new ArrayList<>(nodes.size());
+        for (IExpression node : nodes) {
+            keyed.add(switch (node) {
+                case Number(int value) -> new Keyed(0, value, "", node);
+                case Dice(int sides) -> new Keyed(1, sides, "", node);
+                default -> new Keyed(2, 0, node.toString(), node);
+            });
+        }
+        keyed.sort(Comparator.comparingInt(Keyed::rank).thenComparingInt(Keyed::value).thenComparing(Keyed::text));
+        List<IExpression> sorted = new ArrayList<>(nodes.size());
+        for (Keyed k : keyed) {
+            sorted.add(k.node());
+        }
+        return sorted;
+    }
+}
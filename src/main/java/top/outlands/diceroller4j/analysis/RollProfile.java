@@ -0,0 +1,71 @@
+package top.outlands.diceroller4j.analysis;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Where the time and the draws of rolling an expression go, node by node in the order of {@link ExecutionPlan}.
+ * Times and counts are summed over all samples.
+ * @param expression the expression profiled
+ * @param samples how often every node was rolled
+ * @param dieNanos the time of rolling a lone d6 as often, to tell the dice of a node from the work around them
+ * @param nodes the nodes, the root first, single dice belong to the node rolling them
+ */
+public record RollProfile(IExpression expression, int samples, long dieNanos, List<Node> nodes) {
+    
+    /**
+     * @return the time to roll the whole tree, all samples
+     */
+    public long totalNanos() {
+        return nodes.getFirst().totalNanos();
+    }
+    
+    /**
+     * @return the node spending the most time of its own, which is where to start optimizing
+     */
+    public Node hottest() {
+        return nodes.stream().max(Comparator.comparingLong(Node::selfNanos)).orElseThrow();
+    }
+    
+    /**
+     * Render the profile as a table of shares and per roll averages, one line per node indented by its depth.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        builder.append(expression).append(": ").append(samples).append(" samples, ");
+        builder.append(String.format("%.1f ns per roll, %.1f ns per die\n", (double) totalNanos() / samples, (double) dieNanos / samples));
+        builder.append(String.format("%6s %6s %9s %8s %8s %8s  %s\n", "self%", "total%", "ns", "draws", "dice", "loops", "node"));
+        long total = Math.max(1, totalNanos());
+        for (Node node : nodes) {
+            builder.append(String.format("%6.1f %6.1f %9.1f %8.2f %8.2f %8.2f  %s%s\n",
+                    100 * node.share(), 100.0 * node.totalNanos() / total, (double) node.totalNanos() / samples,
+                    (double) node.draws() / samples, (double) node.dice() / samples, (double) node.iterations() / samples,
+                    "  ".repeat(node.depth()), node.node()));
+        }
+        return builder;
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+    
+    /**
+     * One node of the tree.
+     * @param node the node
+     * @param depth how far below the root
+     * @param parent the index of the parent, -1 for the root
+     * @param totalNanos time spent rolling the subtree
+     * @param selfNanos the part of it not spent in the children
+     * @param share selfNanos over the time of the whole tree
+     * @param draws random values drawn by the subtree
+     * @param dice dice rolled by the subtree
+     * @param iterations extra rounds of the loop of the node itself: dice exploded or rerolled, ties of emphasis rolled again
+     */
+    public record Node(IExpression node, int depth, int parent, long totalNanos, long selfNanos, double share,
+                       long draws, long dice, long iterations) {
+    }
+}
@@ -0,0 +1,115 @@
+package top.outlands.diceroller4j.analysis;
+
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.random.CountingRandom;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures what each node of an expression costs, without attaching a profiler. Nodes hold no state,
+ * so every subtree is rolled on its own and does the same work as within the tree,
+ * the time of a node itself is that of its subtree less those of its children.
+ * <p>
+ * Every subtree is first rolled through a {@link CountingRandom}, which counts its draws and warms the tree up,
+ * then all are timed with the generator of this thread. Dice recording is turned off on this thread meanwhile.
+ * A compiled expression is profiled as its tree whatever its tier, see {@link ExecutionPlan} for the tier.
+ */
+public class RollProfiler {
+    
+    /**
+     * Every subtree is timed this often, the fastest counts.
+     */
+    private static final int ROUNDS = 2;
+    
+    // keeps the rolls from being optimized away
+    private static volatile int sink;
+    
+    /**
+     * Roll every subtree of the expression the given amount of times.
+     */
+    public static RollProfile profile(IExpression expression, int samples) {
+        if (samples < 1) throw new IllegalArgumentException("samples must be positive: " + samples);
+        List<IExpression> nodes = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        collect(expression instanceof CompiledExpression compiled ? compiled.root() : expression, 0, -1, nodes, depths, parents);
+        int size = nodes.size();
+        // a lone die goes last, to tell the dice from the work around them
+        IExpression[] measured = nodes.toArray(new IExpression[size + 1]);
+        measured[size] = new Dice(6);
+        long[] nanos = new long[size + 1];
+        long[] draws = new long[size + 1];
+        long[] dice = new long[size + 1];
+        DiceResults.withMode(TraceMode.NONE, () -> {
+            for (int i = 0; i < measured.length; i++) {
+                IExpression node = measured[i];
+                CountingRandom counting = new CountingRandom(RandomUtil.getRandom());
+                sink = RandomUtil.withRandom(counting, () -> roll(node, samples));
+                draws[i] = counting.draws();
+                dice[i] = counting.dice();
+            }
+            Arrays.fill(nanos, Long.MAX_VALUE);
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < measured.length; i++) {
+                    long start = System.nanoTime();
+                    sink = roll(measured[i], samples);
+                    nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+                }
+            }
+            return null;
+        });
+        long[] children = new long[size];
+        for (int i = 1; i < size; i++) {
+            children[parents.get(i)] += nanos[i];
+        }
+        double total = Math.max(1, nanos[0]);
+        List<RollProfile.Node> profiled = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // timing noise can make the children look slower than their parent
+            long self = Math.max(0, nanos[i] - children[i]);
+            profiled.add(new RollProfile.Node(nodes.get(i), depths.get(i), parents.get(i), nanos[i], self, self / total,
+                    draws[i], dice[i], iterations(nodes.get(i), dice[i], samples)));
+        }
+        return new RollProfile(expression, samples, nanos[size], List.copyOf(profiled));
+    }
+    
+    private static void collect(IExpression node, int depth, int parent, List<IExpression> nodes, List<Integer> depths, List<Integer> parents) {
+        int index = nodes.size();
+        nodes.add(node);
+        depths.add(depth);
+        parents.add(parent);
+        for (IExpression child : ExecutionPlan.children(node)) {
+            collect(child, depth + 1, index, nodes, depths, parents);
+        }
+    }
+    
+    private static int roll(IExpression node, int samples) {
+        int sum = 0;
+        for (int i = 0; i < samples; i++) {
+            sum += node.roll();
+        }
+        return sum;
+    }
+    
+    /**
+     * @return the rounds of the loop of the node beyond one per die of its set, emphasis rolling two dice a round
+     */
+    private static long iterations(IExpression node, long dice, int samples) {
+        return switch (node) {
+            case Explode explode -> dice - (long) samples * explode.diceSet().dices().length;
+            case Reroll reroll -> dice - (long) samples * reroll.diceSet().dices().length;
+            case Emphasis emphasis -> dice / 2 - (long) samples * emphasis.diceSet().dices().length;
+            default -> 0;
+        };
+    }
+}
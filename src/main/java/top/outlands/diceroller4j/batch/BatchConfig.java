@@ -0,0 +1,21 @@
+package top.outlands.diceroller4j.batch;
+
+/**
+ * How a {@link RollBatcher} gathers requests.
+ * @param maxBatch the most requests served at once, a batch is served as soon as this many wait
+ * @param lingerMicros the longest the first request of a batch waits for others to join it, while they keep arriving,
+ *                     0 serves whatever is waiting at once
+ * @param capacity the size of the ring of waiting requests, a power of two, submitting waits while it is full
+ */
+public record BatchConfig(int maxBatch, long lingerMicros, int capacity) {
+    
+    public static final BatchConfig DEFAULT = new BatchConfig(1024, 200, 1 << 16);
+    
+    public BatchConfig {
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+        if (lingerMicros < 0) throw new IllegalArgumentException("lingerMicros must not be negative: " + lingerMicros);
+        if (Integer.bitCount(capacity) != 1 || capacity < maxBatch) {
+            throw new IllegalArgumentException("capacity must be a power of two of at least maxBatch: " + capacity);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package top.outlands.diceroller4j.batch;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.distribution.AliasTable;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * Serves roll requests from many threads in batches on one thread of its own.
+ * Requests go into a bounded lock-free ring, the serving thread takes up to {@link BatchConfig#maxBatch()} of them,
+ * groups them by expression and serves each group in one go: expressions with a computable distribution are drawn
+ * from an {@link AliasTable} in bulk, one random value per roll, the others are rolled one by one.
+ * Tables are built on a thread of their own, so a wide distribution never holds up the batch that asked for it:
+ * an expression is rolled one by one until its table is ready.
+ * This pays off when many callers roll the same few expressions at once. A batch waits for company while requests
+ * keep arriving, up to {@link BatchConfig#lingerMicros()}, so a lone request is served after a short pause.
+ * <p>
+ * Rolls drawn from a table leave no dice in {@link top.outlands.diceroller4j.DiceResults}.
+ * Futures are completed and callbacks run on the serving thread, so they should hand off anything slow.
+ * Safe for concurrent use.
+ */
+public final class RollBatcher implements AutoCloseable {
+    
+    /**
+     * The most values the kept alias tables may span together, about 12 MiB.
+     */
+    public static final long MAX_TABLE_WEIGHT = 1 << 20;
+    /**
+     * A batch stops waiting for more requests once none arrived for this long, in nanoseconds.
+     */
+    static final long LINGER_STEP = 20_000;
+    
+    private final BatchConfig config;
+    private final DistributionCache distributions;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final CompiledExpression[] expressions;
+    private final Object[] sinks;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicInteger submitting = new AtomicInteger();
+    private final LinkedHashMap<CompiledExpression, Optional<AliasTable>> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<CompiledExpression> building = new HashSet<>();
+    private final ConcurrentLinkedQueue<Built> built = new ConcurrentLinkedQueue<>();
+    private final ExecutorService builder;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder served = new LongAdder();
+    private final LongAdder drawn = new LongAdder();
+    private final Thread server;
+    private long head;
+    private long tableWeight;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+    
+    public RollBatcher() {
+        this(BatchConfig.DEFAULT, new DistributionCache());
+    }
+    
+    /**
+     * @param distributions where the distributions behind the alias tables are computed
+     */
+    public RollBatcher(BatchConfig config, DistributionCache distributions) {
+        this.config = config;
+        this.distributions = distributions;
+        this.mask = config.capacity() - 1;
+        this.sequences = new AtomicLongArray(config.capacity());
+        for (int i = 0; i < config.capacity(); i++) {
+            sequences.set(i, i);
+        }
+        this.expressions = new CompiledExpression[config.capacity()];
+        this.sinks = new Object[config.capacity()];
+        this.builder = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("roll-batcher-tables").daemon().factory());
+        this.server = Thread.ofPlatform().name("roll-batcher").daemon().start(this::serve);
+    }
+    
+    /**
+     * @return the total, completed exceptionally if rolling fails
+     * @throws IllegalStateException once the batcher is closed
+     */
+    public CompletableFuture<Integer> submit(CompiledExpression expression) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        enqueue(expression, future);
+        return future;
+    }
+    
+    /**
+     * Roll and hand the total to the callback, on the serving thread. If rolling fails the callback is not called
+     * and the failure goes to the uncaught exception handler of the serving thread.
+     * @throws IllegalStateException once the batcher is closed
+     */
+    public void submit(CompiledExpression expression, IntConsumer callback) {
+        enqueue(expression, callback);
+    }
+    
+    /**
+     * @return the amount of batches served so far
+     */
+    public long batches() {
+        return batches.sum();
+    }
+    
+    /**
+     * @return the amount of requests served so far
+     */
+    public long served() {
+        return served.sum();
+    }
+    
+    /**
+     * @return the amount of requests served from an alias table so far
+     */
+    public long drawn() {
+        return drawn.sum();
+    }
+    
+    /**
+     * Stop taking requests and wait until every request taken is served, tables still being built are given up.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(server);
+        boolean interrupted = false;
+        while (server.isAlive()) {
+            try {
+                server.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        builder.shutdownNow();
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+    
+    private void enqueue(CompiledExpression expression, Object sink) {
+        // close() waits for threads between here and the end of offer, so nothing is left in the ring
+        submitting.incrementAndGet();
+        try {
+            if (closed) throw new IllegalStateException("Batcher closed");
+            while (!offer(expression, sink)) {
+                LockSupport.unpark(server);
+                Thread.onSpinWait();
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
+        if (waiting) LockSupport.unpark(server);
+    }
+    
+    /**
+     * Claim the next slot by moving the tail, then publish it by moving the slot's sequence one past the claim.
+     * A slot is free for the claim at position p when its sequence is p, which the serving thread sets once it took
+     * the request a lap before.
+     */
+    private boolean offer(CompiledExpression expression, Object sink) {
+        while (true) {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if (sequence < position) return false;
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                expressions[slot] = expression;
+                sinks[slot] = sink;
+                // a volatile write rather than a release, ordered before the read of waiting in enqueue
+                sequences.set(slot, position + 1);
+                return true;
+            }
+        }
+    }
+    
+    private boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+    
+    private void serve() {
+        int maxBatch = config.maxBatch();
+        long linger = TimeUnit.MICROSECONDS.toNanos(config.lingerMicros());
+        CompiledExpression[] batch = new CompiledExpression[maxBatch];
+        Object[] batchSinks = new Object[maxBatch];
+        int[] values = new int[maxBatch];
+        while (true) {
+            if (isEmpty()) {
+                if (closed && submitting.get() == 0 && isEmpty()) return;
+                waiting = true;
+                if (isEmpty() && !closed) LockSupport.park(this);
+                waiting = false;
+                continue;
+            }
+            // wait while requests keep coming, callers waiting on the batch will not send more
+            long deadline = System.nanoTime() + linger;
+            long seen = tail.get();
+            while (!closed && seen - head < maxBatch) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                LockSupport.parkNanos(this, Math.min(remaining, LINGER_STEP));
+                long now = tail.get();
+                if (now == seen) break;
+                seen = now;
+            }
+            int size = 0;
+            while (size < maxBatch && !isEmpty()) {
+                int slot = (int) head & mask;
+                batch[size] = expressions[slot];
+                batchSinks[size] = sinks[slot];
+                expressions[slot] = null;
+                sinks[slot] = null;
+                sequences.set(slot, head + config.capacity());
+                head++;
+                size++;
+            }
+            serve(batch, batchSinks, values, size);
+        }
+    }
+    
+    private void serve(CompiledExpression[] batch, Object[] batchSinks, int[] values, int size) {
+        for (Built table; (table = built.poll()) != null; ) {
+            building.remove(table.expression());
+            keep(table.expression(), table.table());
+        }
+        Map<CompiledExpression, List<Object>> groups = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            groups.computeIfAbsent(batch[i], e -> new ArrayList<>()).add(batchSinks[i]);
+            batch[i] = null;
+            batchSinks[i] = null;
+        }
+        // counted before completing, so a caller holding its total sees it counted
+        batches.increment();
+        for (Map.Entry<CompiledExpression, List<Object>> group : groups.entrySet()) {
+            CompiledExpression expression = group.getKey();
+            List<Object> callers = group.getValue();
+            Optional<AliasTable> table = table(expression);
+            served.add(callers.size());
+            if (table.isPresent()) {
+                table.get().sample(RandomUtil.getRandom(), values, callers.size());
+                drawn.add(callers.size());
+                for (int i = 0; i < callers.size(); i++) {
+                    complete(callers.get(i), values[i]);
+                }
+            } else {
+                for (Object sink : callers) {
+                    int total;
+                    try {
+                        total = expression.roll();
+                    } catch (RuntimeException e) {
+                        fail(sink, e);
+                        continue;
+                    }
+                    complete(sink, total);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the alias table of the expression, empty if its distribution cannot be computed or is too wide to keep,
+     * or while the table is being built
+     */
+    private Optional<AliasTable> table(CompiledExpression expression) {
+        Optional<AliasTable> table = tables.get(expression);
+        if (table != null) return table;
+        if (building.add(expression)) {
+            builder.execute(() -> built.add(new Built(expression, build(expression))));
+        }
+        return Optional.empty();
+    }
+    
+    /**
+     * Runs on the table thread.
+     */
+    private Optional<AliasTable> build(CompiledExpression expression) {
+        try {
+            Distribution distribution = distributions.get(expression);
+            return distribution.support() <= AliasTable.MAX_SUPPORT ? Optional.of(AliasTable.of(distribution)) : Optional.empty();
+        } catch (RuntimeException e) {
+            // usually an UnsupportedDistributionException, rolling reports anything else to the callers
+            return Optional.empty();
+        }
+    }
+    
+    private void keep(CompiledExpression expression, Optional<AliasTable> table) {
+        tables.put(expression, table);
+        tableWeight += weight(table);
+        for (Iterator<Optional<AliasTable>> eldest = tables.values().iterator(); tableWeight > MAX_TABLE_WEIGHT && eldest.hasNext(); ) {
+            tableWeight -= weight(eldest.next());
+            eldest.remove();
+        }
+    }
+    
+    private static long weight(Optional<AliasTable> table) {
+        return table.map(AliasTable::support).orElse(1);
+    }
+    
+    /**
+     * A table built for the serving thread to keep.
+     */
+    private record Built(CompiledExpression expression, Optional<AliasTable> table) {
+    }
+    
+    private static void complete(Object sink, int total) {
+        if (sink instanceof CompletableFuture<?> future) {
+            @SuppressWarnings("unchecked")
+            CompletableFuture<Integer> result = (CompletableFuture<Integer>) future;
+            result.complete(total);
+            return;
+        }
+        try {
+            ((IntConsumer) sink).accept(total);
+        } catch (RuntimeException e) {
+            uncaught(e);
+        }
+    }
+    
+    private static void fail(Object sink, RuntimeException e) {
+        if (sink instanceof CompletableFuture<?> future) {
+            future.completeExceptionally(e);
+        } else {
+            uncaught(e);
+        }
+    }
+    
+    private static void uncaught(Throwable e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollBatcher{" + served() + " served in " + batches() + " batches" + (closed ? ", closed" : "") + "}";
+    }
+}
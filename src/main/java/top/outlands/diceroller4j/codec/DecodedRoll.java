@@ -0,0 +1,9 @@
+package top.outlands.diceroller4j.codec;
+
+import top.outlands.diceroller4j.trace.RollTrace;
+
+/**
+ * A roll read back by {@link RollDecoder}.
+ */
+public record DecodedRoll(String expression, int total, RollTrace trace) {
+}
@@ -0,0 +1,201 @@
+package top.outlands.diceroller4j.codec;
+
+import top.outlands.diceroller4j.trace.RollTrace;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads back what {@link RollEncoder} wrote. Malformed input is reported with an {@link IllegalArgumentException}.
+ */
+public final class RollDecoder {
+    
+    private RollDecoder() {
+    }
+    
+    public static DecodedRoll decode(RollFormat format, ByteBuffer in) {
+        return decode(format, in, new RollTrace());
+    }
+    
+    /**
+     * Decode one roll from the buffer's position, leaving the position after it.
+     * @param trace receives the dice, it is reset first
+     */
+    public static DecodedRoll decode(RollFormat format, ByteBuffer in, RollTrace trace) {
+        trace.reset();
+        try {
+            return switch (format) {
+                case JSON -> decodeJson(in, trace);
+                case BINARY -> decodeBinary(in, trace);
+            };
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated roll", e);
+        }
+    }
+    
+    private static DecodedRoll decodeBinary(ByteBuffer in, RollTrace trace) {
+        int version = in.get();
+        if (version != RollEncoder.VERSION) throw new IllegalArgumentException("Unsupported version " + version);
+        int length = varint(in);
+        if (length < 0 || length > in.remaining()) throw new IllegalArgumentException("Truncated expression");
+        String expression = utf8(in, length);
+        int zigzag = varint(in);
+        int total = zigzag >>> 1 ^ -(zigzag & 1);
+        int size = varint(in);
+        if (size < 0 || size > in.remaining()) throw new IllegalArgumentException("Bad die count " + size);
+        int runs = varint(in);
+        int[] sides = new int[size];
+        int filled = 0;
+        for (int i = 0; i < runs; i++) {
+            int side = varint(in);
+            int run = varint(in);
+            if (run > size - filled) throw new IllegalArgumentException("Run exceeds die count");
+            for (int j = 0; j < run; j++) {
+                sides[filled++] = side;
+            }
+        }
+        if (filled != size) throw new IllegalArgumentException("Runs cover " + filled + " of " + size + " dice");
+        for (int i = 0; i < size; i++) {
+            trace.add(sides[i], varint(in));
+        }
+        return new DecodedRoll(expression, total, trace);
+    }
+    
+    private static DecodedRoll decodeJson(ByteBuffer in, RollTrace trace) {
+        expect(in, "{\"expression\":\"");
+        String expression = jsonString(in);
+        expect(in, ",\"total\":");
+        int total = decimal(in);
+        expect(in, ",\"sides\":[");
+        RollTrace sides = new RollTrace();
+        if (peek(in) != ']') {
+            do {
+                sides.add(decimal(in), 0);
+            } while (skip(in, ','));
+        }
+        expect(in, "],\"values\":[");
+        int count = 0;
+        if (peek(in) != ']') {
+            do {
+                if (count == sides.size()) throw new IllegalArgumentException("More values than sides");
+                trace.add(sides.sides(count++), decimal(in));
+            } while (skip(in, ','));
+        }
+        if (count != sides.size()) throw new IllegalArgumentException("Fewer values than sides");
+        expect(in, "]}");
+        return new DecodedRoll(expression, total, trace);
+    }
+    
+    private static String jsonString(ByteBuffer in) {
+        int start = in.position();
+        boolean escaped = false;
+        while (true) {
+            byte b = in.get();
+            if (b == '"') break;
+            if (b == '\\') {
+                escaped = true;
+                in.get();
+            }
+        }
+        int end = in.position() - 1;
+        if (!escaped) {
+            in.position(start);
+            String s = utf8(in, end - start);
+            in.get();
+            return s;
+        }
+        in.position(start);
+        StringBuilder builder = new StringBuilder(end - start);
+        while (in.position() < end) {
+            int from = in.position();
+            while (in.position() < end && in.get(in.position()) != '\\') in.get();
+            int run = in.position() - from;
+            in.position(from);
+            builder.append(utf8(in, run));
+            if (in.position() == end) break;
+            in.get();
+            byte c = in.get();
+            switch (c) {
+                case '"', '\\', '/' -> builder.append((char) c);
+                case 'n' -> builder.append('\n');
+                case 't' -> builder.append('\t');
+                case 'r' -> builder.append('\r');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'u' -> {
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(in.get(), 16);
+                        if (digit < 0) throw new IllegalArgumentException("Bad unicode escape");
+                        code = code << 4 | digit;
+                    }
+                    builder.append((char) code);
+                }
+                default -> throw new IllegalArgumentException("Bad escape \\" + (char) c);
+            }
+        }
+        in.get();
+        return builder.toString();
+    }
+    
+    private static int decimal(ByteBuffer in) {
+        boolean negative = skip(in, '-');
+        long value = 0;
+        int digits = 0;
+        while (in.hasRemaining()) {
+            int digit = in.get(in.position()) - '0';
+            if (digit < 0 || digit > 9) break;
+            in.get();
+            value = value * 10 + digit;
+            if (++digits > 10) throw new IllegalArgumentException("Number too long");
+        }
+        if (digits == 0) throw new IllegalArgumentException("Expected a number at " + in.position());
+        value = negative ? -value : value;
+        if (value != (int) value) throw new IllegalArgumentException("Number out of range");
+        return (int) value;
+    }
+    
+    private static int varint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+    
+    private static String utf8(ByteBuffer in, int length) {
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+    
+    private static byte peek(ByteBuffer in) {
+        return in.get(in.position());
+    }
+    
+    private static boolean skip(ByteBuffer in, char c) {
+        if (in.hasRemaining() && in.get(in.position()) == c) {
+            in.get();
+            return true;
+        }
+        return false;
+    }
+    
+    private static void expect(ByteBuffer in, String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (in.get() != token.charAt(i)) {
+                throw new IllegalArgumentException("Expected '" + token + "' at " + (in.position() - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package top.outlands.diceroller4j.codec;
+
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.trace.RollTrace;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a roll straight into bytes, digit by digit and char by char, without building intermediate Strings.
+ * An encoder keeps a scratch buffer for streams and is meant to be reused by one thread.
+ */
+public final class RollEncoder {
+    
+    static final int VERSION = 1;
+    
+    private static final byte[] EXPRESSION = ascii("{\"expression\":\"");
+    private static final byte[] TOTAL = ascii("\",\"total\":");
+    private static final byte[] SIDES = ascii(",\"sides\":[");
+    private static final byte[] VALUES = ascii("],\"values\":[");
+    private static final byte[] END = ascii("]}");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    
+    private final RollFormat format;
+    private final ByteBuffer scratch = ByteBuffer.allocate(8192);
+    private final StringBuilder text = new StringBuilder();
+    private ByteBuffer target;
+    private OutputStream stream;
+    
+    public RollEncoder(RollFormat format) {
+        this.format = format;
+    }
+    
+    public RollFormat format() {
+        return format;
+    }
+    
+    public void encode(IExpression expression, int total, RollTrace trace, ByteBuffer out) {
+        encode(render(expression), total, trace, out);
+    }
+    
+    /**
+     * @throws BufferOverflowException if the roll does not fit, the buffer position is then undefined
+     */
+    public void encode(CharSequence expression, int total, RollTrace trace, ByteBuffer out) {
+        target = out;
+        stream = null;
+        try {
+            write(expression, total, trace);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            target = null;
+        }
+    }
+    
+    public void encode(IExpression expression, int total, RollTrace trace, OutputStream out) throws IOException {
+        encode(render(expression), total, trace, out);
+    }
+    
+    private CharSequence render(IExpression expression) {
+        text.setLength(0);
+        return expression.appendTo(text);
+    }
+    
+    public void encode(CharSequence expression, int total, RollTrace trace, OutputStream out) throws IOException {
+        scratch.clear();
+        target = scratch;
+        stream = out;
+        try {
+            write(expression, total, trace);
+            drain();
+        } finally {
+            target = null;
+            stream = null;
+        }
+    }
+    
+    private void write(CharSequence expression, int total, RollTrace trace) throws IOException {
+        switch (format) {
+            case JSON -> writeJson(expression, total, trace);
+            case BINARY -> writeBinary(expression, total, trace);
+        }
+    }
+    
+    private void writeJson(CharSequence expression, int total, RollTrace trace) throws IOException {
+        put(EXPRESSION);
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                put('\\');
+                put('u');
+                put('0');
+                put('0');
+                put(HEX[c >> 4]);
+                put(HEX[c & 0xF]);
+            } else {
+                i = putUtf8(expression, i);
+            }
+        }
+        put(TOTAL);
+        putDecimal(total);
+        put(SIDES);
+        RollTrace.Cursor cursor = trace.cursor();
+        while (cursor.next()) {
+            if (cursor.index() > 0) put(',');
+            putDecimal(cursor.sides());
+        }
+        put(VALUES);
+        cursor = trace.cursor();
+        while (cursor.next()) {
+            if (cursor.index() > 0) put(',');
+            putDecimal(cursor.value());
+        }
+        put(END);
+    }
+    
+    private void writeBinary(CharSequence expression, int total, RollTrace trace) throws IOException {
+        put(VERSION);
+        putVarint(utf8Length(expression));
+        for (int i = 0; i < expression.length(); i++) {
+            i = putUtf8(expression, i);
+        }
+        putVarint((total << 1) ^ (total >> 31));
+        int size = trace.size();
+        putVarint(size);
+        int runs = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || trace.sides(i) != trace.sides(i - 1)) runs++;
+        }
+        putVarint(runs);
+        for (int start = 0; start < size; ) {
+            int sides = trace.sides(start);
+            int end = start + 1;
+            while (end < size && trace.sides(end) == sides) end++;
+            putVarint(sides);
+            putVarint(end - start);
+            start = end;
+        }
+        RollTrace.Cursor cursor = trace.cursor();
+        while (cursor.next()) {
+            putVarint(cursor.value());
+        }
+    }
+    
+    /**
+     * Write the char at {@code i}, or the surrogate pair starting there, as UTF-8.
+     * @return the index of the last char written
+     */
+    private int putUtf8(CharSequence s, int i) throws IOException {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            put(c);
+        } else if (c < 0x800) {
+            put(0xC0 | c >> 6);
+            put(0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            put(0xF0 | cp >> 18);
+            put(0x80 | cp >> 12 & 0x3F);
+            put(0x80 | cp >> 6 & 0x3F);
+            put(0x80 | cp & 0x3F);
+        } else {
+            put(0xE0 | c >> 12);
+            put(0x80 | c >> 6 & 0x3F);
+            put(0x80 | c & 0x3F);
+        }
+        return i;
+    }
+    
+    private static int utf8Length(CharSequence s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
+    private void putDecimal(int value) throws IOException {
+        long v = value;
+        if (v < 0) {
+            put('-');
+            v = -v;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= v) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            put('0' + (int) (v / divisor % 10));
+        }
+    }
+    
+    private void putVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            put(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        put(value);
+    }
+    
+    private void put(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            put(b);
+        }
+    }
+    
+    private void put(int b) throws IOException {
+        if (!target.hasRemaining()) drain();
+        target.put((byte) b);
+    }
+    
+    private void drain() throws IOException {
+        if (stream == null) throw new BufferOverflowException();
+        stream.write(scratch.array(), 0, scratch.position());
+        scratch.clear();
+    }
+    
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
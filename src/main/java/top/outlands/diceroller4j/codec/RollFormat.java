@@ -0,0 +1,16 @@
+package top.outlands.diceroller4j.codec;
+
+/**
+ * Wire formats of {@link RollEncoder} and {@link RollDecoder}.
+ */
+public enum RollFormat {
+    /**
+     * {@code {"expression":"4d6k3","total":14,"sides":[6,6,6,6],"values":[5,4,5,2]}}
+     */
+    JSON,
+    /**
+     * Version byte, then varints: expression length and UTF-8 bytes, zigzag total, die count,
+     * runs of equal sides as (sides, length) pairs and finally every value.
+     */
+    BINARY,
+}
@@ -0,0 +1,10 @@
+package top.outlands.diceroller4j.distribution;
+
+/**
+ * Outcome chances of comparing two independent rolls a and b.
+ * @param greater the chance a is greater than b
+ * @param equal the chance a equals b
+ * @param less the chance a is less than b
+ */
+public record Comparison(double greater, double equal, double less) {
+}
@@ -0,0 +1,424 @@
+package top.outlands.diceroller4j.distribution;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+import top.outlands.diceroller4j.schedule.Cooperative;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Exact probability mass function over a contiguous range of int values.
+ * The long operations pass a {@link Cooperative#yieldPoint()} once per row.
+ * Instances are immutable.
+ */
+public final class Distribution {
+    
+    /**
+     * Results spanning more values than this are refused.
+     */
+    public static final int MAX_SUPPORT = 1 << 22;
+    /**
+     * Pairwise operations taking more steps than this are refused.
+     */
+    public static final long MAX_WORK = 200_000_000;
+    
+    private final int min;
+    private final double[] pmf;
+    
+    private Distribution(int min, double[] pmf) {
+        this.min = min;
+        this.pmf = pmf;
+    }
+    
+    /**
+     * @param min the value of the first mass
+     * @param pmf the mass of each value from min on, copied
+     */
+    public static Distribution of(int min, double[] pmf) {
+        return trimmed(min, pmf.clone());
+    }
+    
+    public static Distribution constant(int value) {
+        return new Distribution(value, new double[]{1});
+    }
+    
+    public static Distribution die(int sides) {
+        double[] pmf = new double[sides];
+        Arrays.fill(pmf, 1.0 / sides);
+        return new Distribution(1, pmf);
+    }
+    
+    /**
+     * @return the amount of successes in n trials of the given chance
+     */
+    public static Distribution binomial(int n, double p) {
+        double[] pmf = new double[n + 1];
+        if (p >= 1) {
+            pmf[n] = 1;
+            return new Distribution(0, pmf);
+        }
+        if (p <= 0) {
+            pmf[0] = 1;
+            return new Distribution(0, pmf);
+        }
+        pmf[0] = Math.pow(1 - p, n);
+        if (pmf[0] > 0) {
+            double ratio = p / (1 - p);
+            for (int c = 0; c < n; c++) {
+                pmf[c + 1] = pmf[c] * (n - c) / (c + 1) * ratio;
+            }
+        } else {
+            // (1 - p)^n underflows, go through logarithms
+            double logP = Math.log(p), logQ = Math.log1p(-p);
+            double[] logFactorial = new double[n + 1];
+            for (int i = 2; i <= n; i++) {
+                logFactorial[i] = logFactorial[i - 1] + Math.log(i);
+            }
+            for (int c = 0; c <= n; c++) {
+                pmf[c] = Math.exp(logFactorial[n] - logFactorial[c] - logFactorial[n - c] + c * logP + (n - c) * logQ);
+            }
+        }
+        return new Distribution(0, pmf);
+    }
+    
+    /**
+     * Sum of the highest k of n dice, placing the dice face by face from the top:
+     * the dice not placed yet are uniform on the faces left, so the count showing the current face is binomial.
+     */
+    public static Distribution keepHighest(int n, int sides, int k) {
+        int width = k * sides + 1;
+        double[][] placed = new double[n + 1][];
+        placed[0] = new double[width];
+        placed[0][0] = 1;
+        for (int face = sides; face >= 1; face--) {
+            double[][] next = new double[n + 1][];
+            for (int j = 0; j <= n; j++) {
+                if (placed[j] == null) continue;
+                Cooperative.yieldPoint();
+                int rest = n - j;
+                Distribution counts = binomial(rest, 1.0 / face);
+                for (int c = 0; c <= rest; c++) {
+                    double w = counts.pmf[c];
+                    if (w == 0) continue;
+                    int gain = Math.min(c, Math.max(0, k - j)) * face;
+                    double[] from = placed[j];
+                    double[] to = next[j + c];
+                    if (to == null) to = next[j + c] = new double[width];
+                    for (int value = 0; value + gain < width; value++) {
+                        if (from[value] != 0) to[value + gain] += from[value] * w;
+                    }
+                }
+            }
+            placed = next;
+        }
+        return trimmed(0, placed[n]);
+    }
+    
+    public int min() {
+        return min;
+    }
+    
+    public int max() {
+        return min + pmf.length - 1;
+    }
+    
+    /**
+     * @return the amount of values from min to max
+     */
+    public int support() {
+        return pmf.length;
+    }
+    
+    public double probability(int value) {
+        long index = (long) value - min;
+        return index < 0 || index >= pmf.length ? 0 : pmf[(int) index];
+    }
+    
+    /**
+     * @return the chance the value stands in the relation to the threshold, like {@code value >= threshold}
+     */
+    public double probability(Relation relation, int threshold) {
+        return switch (relation) {
+            case EQUAL -> probability(threshold);
+            case LESS_OR_EQUAL -> cdf(threshold);
+            case GREATER_OR_EQUAL -> threshold == Integer.MIN_VALUE ? 1 : 1 - cdf(threshold - 1);
+        };
+    }
+    
+    /**
+     * @return the chance the value is at most x
+     */
+    public double cdf(int x) {
+        if (x < min) return 0;
+        long last = Math.min((long) x - min, pmf.length - 1);
+        double sum = 0;
+        for (int i = 0; i <= last; i++) {
+            sum += pmf[i];
+        }
+        return Math.min(1, sum);
+    }
+    
+    public double mean() {
+        double mean = 0;
+        for (int i = 0; i < pmf.length; i++) {
+            mean += pmf[i] * ((double) min + i);
+        }
+        return mean;
+    }
+    
+    public double variance() {
+        double mean = mean();
+        double variance = 0;
+        for (int i = 0; i < pmf.length; i++) {
+            double d = (double) min + i - mean;
+            variance += pmf[i] * d * d;
+        }
+        return variance;
+    }
+    
+    /**
+     * @return the total mass, 1 up to rounding and truncated chain tails
+     */
+    public double mass() {
+        double sum = 0;
+        for (double p : pmf) {
+            sum += p;
+        }
+        return sum;
+    }
+    
+    /**
+     * @return the distribution of the sum of this and an independent value
+     */
+    public Distribution plus(Distribution other) {
+        if (other.pmf.length == 1 && other.pmf[0] == 1) return shift(other.min);
+        if (pmf.length == 1 && pmf[0] == 1) return other.shift(min);
+        long lo = (long) min + other.min;
+        checkRange(lo, (long) max() + other.max());
+        checkWork((long) pmf.length * other.pmf.length);
+        double[] sum = new double[pmf.length + other.pmf.length - 1];
+        for (int i = 0; i < pmf.length; i++) {
+            double p = pmf[i];
+            if (p == 0) continue;
+            Cooperative.yieldPoint();
+            for (int j = 0; j < other.pmf.length; j++) {
+                sum[i + j] += p * other.pmf[j];
+            }
+        }
+        return new Distribution((int) lo, sum);
+    }
+    
+    /**
+     * @return the distribution of the sum of n independent copies of this
+     */
+    public Distribution sum(int n) {
+        if (n == 0) return constant(0);
+        Distribution result = null;
+        Distribution power = this;
+        for (int left = n; left > 0; left >>= 1) {
+            if ((left & 1) != 0) result = result == null ? power : result.plus(power);
+            if (left > 1) power = power.plus(power);
+        }
+        return result;
+    }
+    
+    /**
+     * @return the distribution of the sum of this and an independent die, in time linear in the support
+     */
+    public Distribution plusDie(int sides) {
+        checkRange((long) min + 1, (long) max() + sides);
+        checkWork((long) pmf.length + sides);
+        double[] sum = new double[pmf.length + sides - 1];
+        double window = 0;
+        for (int i = 0; i < sum.length; i++) {
+            // sum[i] is the mean of pmf[i - sides + 1 .. i]
+            if (i < pmf.length) window += pmf[i];
+            if (i - sides >= 0) window -= pmf[i - sides];
+            sum[i] = window / sides;
+        }
+        return new Distribution(min + 1, sum);
+    }
+    
+    public Distribution minus(Distribution other) {
+        return plus(other.negate());
+    }
+    
+    public Distribution negate() {
+        checkRange(-(long) max(), -(long) min);
+        double[] reversed = new double[pmf.length];
+        for (int i = 0; i < pmf.length; i++) {
+            reversed[pmf.length - 1 - i] = pmf[i];
+        }
+        return new Distribution(-max(), reversed);
+    }
+    
+    public Distribution shift(int offset) {
+        if (offset == 0) return this;
+        checkRange((long) min + offset, (long) max() + offset);
+        return new Distribution(min + offset, pmf);
+    }
+    
+    /**
+     * @return the distribution of the product of this and an independent value
+     */
+    public Distribution times(Distribution other) {
+        long a = (long) min * other.min, b = (long) min * other.max(), c = (long) max() * other.min, d = (long) max() * other.max();
+        checkRange(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+        return pairwise(other, (x, y) -> x * y);
+    }
+    
+    /**
+     * @return the distribution of this divided by an independent value with truncation, like int division
+     * @throws UnsupportedDistributionException if the divisor can be 0
+     */
+    public Distribution divide(Distribution other) {
+        if (other.probability(0) > 0) throw new UnsupportedDistributionException("Divisor can be 0");
+        return pairwise(other, (x, y) -> x / y);
+    }
+    
+    /**
+     * @return the distribution of the function of the value, the function must keep the value range
+     */
+    public Distribution map(IntUnaryOperator function) {
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (int i = 0; i < pmf.length; i++) {
+            if (pmf[i] == 0) continue;
+            int v = function.applyAsInt(min + i);
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        checkRange(lo, hi);
+        double[] mapped = new double[hi - lo + 1];
+        for (int i = 0; i < pmf.length; i++) {
+            if (pmf[i] != 0) mapped[function.applyAsInt(min + i) - lo] += pmf[i];
+        }
+        return new Distribution(lo, mapped);
+    }
+    
+    /**
+     * @return the masses of this and the other added together, for sub-distributions that partition a whole
+     */
+    public Distribution combine(Distribution other) {
+        int lo = Math.min(min, other.min);
+        int hi = Math.max(max(), other.max());
+        checkRange(lo, hi);
+        double[] combined = new double[hi - lo + 1];
+        for (int i = 0; i < pmf.length; i++) {
+            combined[min - lo + i] += pmf[i];
+        }
+        for (int i = 0; i < other.pmf.length; i++) {
+            combined[other.min - lo + i] += other.pmf[i];
+        }
+        return new Distribution(lo, combined);
+    }
+    
+    /**
+     * @return the distribution scaled by the factor, which does not sum to 1 unless the factor is 1
+     */
+    public Distribution scale(double factor) {
+        double[] scaled = new double[pmf.length];
+        for (int i = 0; i < pmf.length; i++) {
+            scaled[i] = pmf[i] * factor;
+        }
+        return new Distribution(min, scaled);
+    }
+    
+    /**
+     * Compare two independent values in one merge scan over both supports, carrying the running CDF of this.
+     */
+    public Comparison compare(Distribution other) {
+        double greater = 0, equal = 0;
+        double below = 0;
+        int i = 0;
+        for (int j = 0; j < other.pmf.length; j++) {
+            double b = other.pmf[j];
+            if (b == 0) continue;
+            long v = (long) other.min + j;
+            while (i < pmf.length && (long) min + i < v) {
+                below += pmf[i++];
+            }
+            double a = i < pmf.length && (long) min + i == v ? pmf[i] : 0;
+            equal += a * b;
+            greater += b * Math.max(0, 1 - below - a);
+        }
+        double less = Math.max(0, 1 - greater - equal);
+        return new Comparison(greater, equal, less);
+    }
+    
+    public double[] toArray() {
+        return pmf.clone();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Distribution other && min == other.min && Arrays.equals(pmf, other.pmf);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * min + Arrays.hashCode(pmf);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < pmf.length; i++) {
+            if (pmf[i] == 0) continue;
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(min + i).append('=').append(pmf[i]);
+        }
+        return builder.append('}').toString();
+    }
+    
+    private interface IntBinaryOperator {
+        int apply(int x, int y);
+    }
+    
+    private Distribution pairwise(Distribution other, IntBinaryOperator operator) {
+        checkWork((long) pmf.length * other.pmf.length);
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (int i = 0; i < pmf.length; i++) {
+            if (pmf[i] == 0) continue;
+            Cooperative.yieldPoint();
+            for (int j = 0; j < other.pmf.length; j++) {
+                if (other.pmf[j] == 0) continue;
+                int v = operator.apply(min + i, other.min + j);
+                lo = Math.min(lo, v);
+                hi = Math.max(hi, v);
+            }
+        }
+        checkRange(lo, hi);
+        double[] result = new double[hi - lo + 1];
+        for (int i = 0; i < pmf.length; i++) {
+            if (pmf[i] == 0) continue;
+            Cooperative.yieldPoint();
+            for (int j = 0; j < other.pmf.length; j++) {
+                if (other.pmf[j] != 0) result[operator.apply(min + i, other.min + j) - lo] += pmf[i] * other.pmf[j];
+            }
+        }
+        return new Distribution(lo, result);
+    }
+    
+    private static Distribution trimmed(int min, double[] pmf) {
+        int from = 0, to = pmf.length - 1;
+        while (from < to && pmf[from] == 0) from++;
+        while (to > from && pmf[to] == 0) to--;
+        if (from == 0 && to == pmf.length - 1) return new Distribution(min, pmf);
+        return new Distribution(min + from, Arrays.copyOfRange(pmf, from, to + 1));
+    }
+    
+    private static void checkRange(long lo, long hi) {
+        if (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) {
+            throw new UnsupportedDistributionException("Values can overflow int: [" + lo + ", " + hi + "]");
+        }
+        if (hi - lo + 1 > MAX_SUPPORT) {
+            throw new UnsupportedDistributionException("Too many values: " + (hi - lo + 1) + " > " + MAX_SUPPORT);
+        }
+    }
+    
+    private static void checkWork(long work) {
+        if (work > MAX_WORK) throw new UnsupportedDistributionException("Too much work: " + work + " > " + MAX_WORK);
+    }
+}
@@ -0,0 +1,117 @@
+package top.outlands.diceroller4j.distribution;
+
+import top.outlands.diceroller4j.LruCache;
+import top.outlands.diceroller4j.analysis.Normalizer;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.jfr.DistributionEvent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoizes the distributions of normalized sub-expressions, so expressions sharing parts compose cached results:
+ * {@code 2d6+3d4+3} reuses {@code 2d6} and {@code 3d4} once any expression computed them,
+ * single dice and constants are cheaper to build than to look up and are not cached.
+ * <p>
+ * The cache is bounded by weight, the total support of the cached distributions.
+ * Once it is exceeded, the least recently used entries are evicted as described in {@link LruCache}.
+ * Safe for concurrent use, two threads missing the same key at once may both compute it.
+ */
+public final class DistributionCache {
+    
+    /**
+     * Default bound, about 8 MiB of masses.
+     */
+    public static final long DEFAULT_MAX_WEIGHT = 1 << 20;
+    
+    private final LruCache<CompiledExpression, Distribution> table;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    public DistributionCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+    
+    /**
+     * @param maxWeight the most values the cached distributions may span together
+     */
+    public DistributionCache(long maxWeight) {
+        this.table = new LruCache<>(maxWeight, Distribution::support);
+    }
+    
+    /**
+     * @return the distribution of the expression, composed from cached sub-distributions where possible
+     * @throws UnsupportedDistributionException see {@link Distributions#of(IExpression)}
+     */
+    public Distribution get(IExpression expression) {
+        DistributionEvent event = new DistributionEvent();
+        event.begin();
+        IExpression normalized = expression instanceof CompiledExpression compiled ? compiled.normalized() : Normalizer.normalize(expression);
+        Distribution distribution = lookup(normalized);
+        event.complete(expression, distribution);
+        return distribution;
+    }
+    
+    /**
+     * @return the amount of cached distributions
+     */
+    public int size() {
+        return table.size();
+    }
+    
+    /**
+     * @return the total support of the cached distributions
+     */
+    public long weight() {
+        return table.weight();
+    }
+    
+    /**
+     * @return the amount of sub-expressions whose distribution was found in the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+    
+    /**
+     * @return the amount of sub-expressions whose distribution had to be computed
+     */
+    public long misses() {
+        return misses.sum();
+    }
+    
+    /**
+     * @return the amount of distributions evicted to stay within the bound
+     */
+    public long evictions() {
+        return table.evictions();
+    }
+    
+    public void clear() {
+        table.clear();
+    }
+    
+    /**
+     * @param node a normalized node, whose children are normalized too
+     */
+    private Distribution lookup(IExpression node) {
+        return lookup(new CompiledExpression(node));
+    }
+    
+    private Distribution lookup(CompiledExpression key) {
+        IExpression node = key.root();
+        // leaves are cheaper to build than to look up
+        if (node instanceof Number || node instanceof Dice) return Distributions.of(node);
+        Distribution cached = table.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        Distribution distribution = Distributions.of(node, this::lookup);
+        table.putIfAbsent(key, distribution);
+        return distribution;
+    }
+}
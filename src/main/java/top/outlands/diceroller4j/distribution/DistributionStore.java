@@ -0,0 +1,194 @@
+package top.outlands.diceroller4j.distribution;
+
+import org.jspecify.annotations.Nullable;
+import top.outlands.diceroller4j.analysis.Normalizer;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Precomputed distributions keyed by canonical expression, read from a memory-mapped file
+ * written by {@link DistributionStoreBuilder}. Lookups read the mapping in place without copying,
+ * so processes opening the same file share it through the page cache.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ * header   magic, version, count, CRC32C of everything after the header (4 bytes each),
+ *          offset of the keys, offset of the data (8 bytes each)
+ * index    count records sorted by key hash: hash (8), key offset (4), key length (4),
+ *          data offset (8), min (4), support (4)
+ * keys     the UTF-8 canonical expressions
+ * data     for each record the masses and then the cumulative masses of its support (8 bytes each)
+ * </pre>
+ * The whole file is checked when opened. Close the store only once no thread reads from it anymore,
+ * reads after closing throw {@link IllegalStateException}.
+ */
+public final class DistributionStore implements AutoCloseable {
+    
+    static final int MAGIC = 'D' | 'R' << 8 | 'D' << 16 | 'S' << 24;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    
+    static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    
+    private final Arena arena;
+    private final MemorySegment file;
+    private final int count;
+    private final long keys;
+    
+    private DistributionStore(Arena arena, MemorySegment file) throws IOException {
+        this.arena = arena;
+        this.file = file;
+        long size = file.byteSize();
+        if (size < HEADER_SIZE) throw new IOException("Truncated store: " + size + " bytes");
+        if (file.get(INT, 0) != MAGIC) throw new IOException("Not a distribution store");
+        int version = file.get(INT, 4);
+        if (version != VERSION) throw new IOException("Unsupported store version " + version);
+        count = file.get(INT, 8);
+        keys = file.get(LONG, 16);
+        long data = file.get(LONG, 24);
+        if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE != keys || keys > data || data > size) {
+            throw new IOException("Bad store sections");
+        }
+        if (checksum(file) != file.get(INT, 12)) throw new IOException("Store checksum mismatch");
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long record = record(i);
+            long hash = file.get(LONG, record);
+            long key = keys + Integer.toUnsignedLong(file.get(INT, record + 8));
+            long keyEnd = key + Integer.toUnsignedLong(file.get(INT, record + 12));
+            long offset = file.get(LONG, record + 16);
+            int min = file.get(INT, record + 24);
+            int support = file.get(INT, record + 28);
+            if (hash < previous || keyEnd > data || support <= 0 || (long) min + support - 1 > Integer.MAX_VALUE
+                    || offset < data || offset % Double.BYTES != 0 || offset + 2L * support * Double.BYTES > size) {
+                throw new IOException("Bad store record " + i);
+            }
+            previous = hash;
+        }
+    }
+    
+    /**
+     * Map and check the store.
+     * @throws IOException if the file cannot be read or is not a valid store
+     */
+    public static DistributionStore open(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new DistributionStore(arena, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return the stored distribution of an expression with the same canonical form, null if there is none
+     */
+    public @Nullable StoredDistribution get(IExpression expression) {
+        return get((expression instanceof CompiledExpression compiled ? compiled.normalized() : Normalizer.normalize(expression)).toString());
+    }
+    
+    /**
+     * @param canonical the canonical form, see {@link Normalizer}
+     */
+    public @Nullable StoredDistribution get(String canonical) {
+        byte[] key = canonical.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long at = file.get(LONG, record(mid));
+            if (at < hash) {
+                lo = mid + 1;
+            } else if (at > hash) {
+                hi = mid - 1;
+            } else {
+                // go back to the first record of the hash, then through every one of them
+                while (mid > 0 && file.get(LONG, record(mid - 1)) == hash) mid--;
+                for (int i = mid; i < count && file.get(LONG, record(i)) == hash; i++) {
+                    if (keyEquals(record(i), key)) return stored(record(i));
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @return the amount of stored distributions
+     */
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * @return the canonical expression of the i-th record, in hash order
+     */
+    public String key(int i) {
+        long record = record(i);
+        long key = keys + Integer.toUnsignedLong(file.get(INT, record + 8));
+        byte[] bytes = file.asSlice(key, Integer.toUnsignedLong(file.get(INT, record + 12))).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public void close() {
+        arena.close();
+    }
+    
+    /**
+     * 64-bit FNV-1a of the UTF-8 key.
+     */
+    static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    /**
+     * Mappings of shared arenas cannot be viewed as a ByteBuffer, so the bytes go through a small chunk.
+     */
+    private static int checksum(MemorySegment file) {
+        CRC32C crc = new CRC32C();
+        byte[] chunk = new byte[64 * 1024];
+        for (long offset = HEADER_SIZE; offset < file.byteSize(); offset += chunk.length) {
+            int length = (int) Math.min(chunk.length, file.byteSize() - offset);
+            MemorySegment.copy(file, ValueLayout.JAVA_BYTE, offset, chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+    
+    private long record(int i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException(i);
+        return HEADER_SIZE + (long) i * RECORD_SIZE;
+    }
+    
+    private boolean keyEquals(long record, byte[] key) {
+        if (Integer.toUnsignedLong(file.get(INT, record + 12)) != key.length) return false;
+        long offset = keys + Integer.toUnsignedLong(file.get(INT, record + 8));
+        return MemorySegment.mismatch(file, offset, offset + key.length, MemorySegment.ofArray(key), 0, key.length) == -1;
+    }
+    
+    private StoredDistribution stored(long record) {
+        int support = file.get(INT, record + 28);
+        long offset = file.get(LONG, record + 16);
+        return new StoredDistribution(file.get(INT, record + 24), support, file.asSlice(offset, 2L * support * Double.BYTES));
+    }
+}
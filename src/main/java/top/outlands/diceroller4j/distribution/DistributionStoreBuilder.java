@@ -0,0 +1,158 @@
+package top.outlands.diceroller4j.distribution;
+
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.analysis.Normalizer;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static top.outlands.diceroller4j.distribution.DistributionStore.HEADER_SIZE;
+import static top.outlands.diceroller4j.distribution.DistributionStore.RECORD_SIZE;
+
+/**
+ * Builds a {@link DistributionStore} file. Expressions with the same canonical form are stored once,
+ * and their distributions are computed through a shared {@link DistributionCache}.
+ * <p>
+ * As a tool: {@code DistributionStoreBuilder <expressions> <store>} reads one expression per line,
+ * skipping blank lines and lines starting with {@code #}, and reports those that cannot be stored.
+ */
+public final class DistributionStoreBuilder {
+    
+    private final DistributionCache cache = new DistributionCache();
+    private final Map<String, Distribution> entries = new LinkedHashMap<>();
+    
+    /**
+     * @return false if an expression with the same canonical form was already added
+     * @throws UnsupportedDistributionException if the distribution cannot be computed exactly
+     * @throws IllegalArgumentException if the canonical form does not compile back to itself
+     */
+    public boolean add(IExpression expression) {
+        CompiledExpression canonical = Normalizer.normalize(expression);
+        String key = canonical.toString();
+        checkKey(canonical, key);
+        if (entries.containsKey(key)) return false;
+        entries.put(key, cache.get(canonical));
+        return true;
+    }
+    
+    /**
+     * The key is all the store keeps of an expression, so it has to compile back to the same normal form,
+     * otherwise looking up another expression could find its distribution.
+     */
+    private static void checkKey(CompiledExpression canonical, String key) {
+        CompiledExpression parsed;
+        try {
+            parsed = DiceExpressionCompiler.compile(key, CompileLimits.UNLIMITED);
+        } catch (InvalidExpressionException e) {
+            throw new IllegalArgumentException("Canonical form does not compile: " + key, e);
+        }
+        if (!Normalizer.normalize(parsed).equals(canonical)) {
+            throw new IllegalArgumentException("Canonical form compiles to another expression: " + key);
+        }
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Write the store to a temporary file next to the path and move it over the path,
+     * so processes that mapped the previous store keep reading it unchanged.
+     */
+    public void write(Path path) throws IOException {
+        record Pending(long hash, byte[] key, Distribution distribution) {
+        }
+        List<Pending> pending = new ArrayList<>(entries.size());
+        long keysSize = 0, dataSize = 0;
+        for (Map.Entry<String, Distribution> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            pending.add(new Pending(DistributionStore.hash(key), key, entry.getValue()));
+            keysSize += key.length;
+            dataSize += 2L * entry.getValue().support() * Double.BYTES;
+        }
+        pending.sort(Comparator.comparingLong(Pending::hash));
+        long keys = HEADER_SIZE + (long) pending.size() * RECORD_SIZE;
+        long data = (keys + keysSize + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+        long size = data + dataSize;
+        if (size > Integer.MAX_VALUE) throw new IOException("Store too large: " + size + " bytes");
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(DistributionStore.MAGIC).putInt(DistributionStore.VERSION).putInt(pending.size()).putInt(0);
+        buffer.putLong(keys).putLong(data);
+        long keyOffset = 0, dataOffset = data;
+        for (Pending p : pending) {
+            buffer.putLong(p.hash()).putInt((int) keyOffset).putInt(p.key().length);
+            buffer.putLong(dataOffset).putInt(p.distribution().min()).putInt(p.distribution().support());
+            keyOffset += p.key().length;
+            dataOffset += 2L * p.distribution().support() * Double.BYTES;
+        }
+        for (Pending p : pending) {
+            buffer.put(p.key());
+        }
+        buffer.position((int) data);
+        for (Pending p : pending) {
+            double[] pmf = p.distribution().toArray();
+            for (double mass : pmf) {
+                buffer.putDouble(mass);
+            }
+            double cumulative = 0;
+            for (double mass : pmf) {
+                cumulative += mass;
+                buffer.putDouble(Math.min(1, cumulative));
+            }
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_SIZE, (int) size - HEADER_SIZE);
+        buffer.putInt(12, (int) crc.getValue());
+        Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: DistributionStoreBuilder <expressions> <store>");
+            System.exit(2);
+        }
+        DistributionStoreBuilder builder = new DistributionStoreBuilder();
+        int skipped = 0;
+        for (String line : Files.readAllLines(Path.of(args[0]))) {
+            String expression = line.strip();
+            if (expression.isEmpty() || expression.startsWith("#")) continue;
+            try {
+                builder.add(DiceExpressionCompiler.compile(expression, CompileLimits.UNLIMITED));
+            } catch (InvalidExpressionException | UnsupportedDistributionException | IllegalArgumentException e) {
+                System.err.println("Skipped " + expression + ": " + e.getMessage());
+                skipped++;
+            }
+        }
+        builder.write(Path.of(args[1]));
+        System.out.println("Stored " + builder.size() + " distributions, skipped " + skipped);
+    }
+}
@@ -0,0 +1,356 @@
+package top.outlands.diceroller4j.distribution;
+
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.expressions.mechanic.Drop;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+import top.outlands.diceroller4j.expressions.mechanic.RelationChecker;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.expressions.statistics.Average;
+import top.outlands.diceroller4j.expressions.statistics.Max;
+import top.outlands.diceroller4j.expressions.statistics.Median;
+import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.expressions.statistics.Sum;
+import top.outlands.diceroller4j.schedule.Cooperative;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Builds the exact {@link Distribution} of an expression bottom-up.
+ * Chains that never end are cut once less than {@link #CHAIN_TAIL} of the mass is left.
+ */
+public class Distributions {
+    
+    /**
+     * Mass left in the tail of an endless explode chain when it is cut.
+     */
+    public static final double CHAIN_TAIL = 1e-15;
+    /**
+     * Pools of mixed members with more value combinations than this are refused.
+     */
+    public static final long ENUMERATION_LIMIT = 1_000_000;
+    /**
+     * Emphasis on dice with more sides than this is refused.
+     */
+    public static final int EMPHASIS_SIDES = 2_000;
+    
+    /**
+     * @throws UnsupportedDistributionException if the distribution is unbounded, too large, can overflow int or can fail to roll
+     */
+    public static Distribution of(IExpression expression) {
+        return of(expression, Distributions::of);
+    }
+    
+    /**
+     * Build the distribution of a node from those of its children, as resolved by the given function.
+     * Pools of dice are resolved one run of equal dice at a time.
+     */
+    static Distribution of(IExpression expression, Function<IExpression, Distribution> children) {
+        return switch (expression) {
+            case CompiledExpression compiled -> of(compiled.root(), children);
+            case Number(int value) -> Distribution.constant(value);
+            case Dice(int sides) -> Distribution.die(sides);
+            case DiceSet set -> dice(set.dices(), children);
+            case ExpressionSet set -> {
+                Distribution sum = Distribution.constant(0);
+                for (IExpression member : set.expressions()) {
+                    sum = member instanceof Dice(int sides) ? sum.plusDie(sides) : sum.plus(children.apply(member));
+                }
+                yield sum;
+            }
+            case Sum sum -> children.apply(sum.dices());
+            case Plus(IExpression a, IExpression b) -> children.apply(a).plus(children.apply(b));
+            case Subtract(IExpression a, IExpression b) -> children.apply(a).minus(children.apply(b));
+            case Multiply(IExpression a, IExpression b) -> children.apply(a).times(children.apply(b));
+            case Divide(IExpression a, IExpression b) -> children.apply(a).divide(children.apply(b));
+            case Keep keep -> keep(keep.expressions(), keep.count(), !keep.inverted(), children);
+            case Drop drop -> keep(drop.expressions(), drop.expressions().expressions().length - drop.count(), !drop.inverted(), children);
+            case Min min -> rank(min.dices(), 0, children);
+            case Max max -> rank(max.dices(), max.dices().expressions().length - 1, children);
+            case Median median -> rank(median.dices(), median.dices().expressions().length / 2, children);
+            case Average average -> {
+                int n = average.dices().expressions().length;
+                yield children.apply(average.dices()).map(v -> v / n);
+            }
+            case Explode explode -> perDie(explode.diceSet(), sides -> explode(sides, explode.times(), explode.threshold(), explode.relation()));
+            case Reroll reroll -> perDie(reroll.diceSet(), sides -> reroll(sides, reroll.times(), reroll.threshold(), reroll.relation()));
+            case Emphasis emphasis -> perDie(emphasis.diceSet(), sides -> emphasis(sides, emphasis.variant(), emphasis.from()));
+            default -> throw new UnsupportedDistributionException("Unknown expression " + expression.getClass().getSimpleName());
+        };
+    }
+    
+    /**
+     * A run of equal dice is summed directly, a pool of several runs sums the runs.
+     */
+    private static Distribution dice(Dice[] dices, Function<IExpression, Distribution> children) {
+        Map<Integer, Integer> counts = new LinkedHashMap<>();
+        for (Dice dice : dices) {
+            counts.merge(dice.sides(), 1, Integer::sum);
+        }
+        Distribution sum = Distribution.constant(0);
+        if (counts.size() == 1) {
+            for (Dice dice : dices) {
+                sum = sum.plusDie(dice.sides());
+            }
+            return sum;
+        }
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            Dice[] run = new Dice[entry.getValue()];
+            Arrays.fill(run, new Dice(entry.getKey()));
+            sum = sum.plus(children.apply(run.length == 1 ? run[0] : new DiceSet(run)));
+        }
+        return sum;
+    }
+    
+    // ==================== pools ====================
+    
+    /**
+     * @param kept how many members are summed
+     * @param highest whether the highest or the lowest members are kept
+     */
+    private static Distribution keep(ExpressionSet set, int kept, boolean highest, Function<IExpression, Distribution> children) {
+        IExpression[] members = set.expressions();
+        int n = members.length;
+        int k = Math.clamp(kept, 0, n);
+        if (k == 0) return Distribution.constant(0);
+        if (k == n) return children.apply(set);
+        if (k == 1) return rank(set, highest ? n - 1 : 0, children);
+        int sides = pureSides(members);
+        if (sides > 0) {
+            if ((double) sides * n * n * ((double) k * sides + 1) > Distribution.MAX_WORK) {
+                throw new UnsupportedDistributionException("Pool too large: " + n + "d" + sides);
+            }
+            Distribution table = Distribution.keepHighest(n, sides, k);
+            // the lowest k of a die are the highest k of the die turned upside down
+            return highest ? table : table.map(v -> k * (sides + 1) - v);
+        }
+        return enumerate(members, children, sorted -> {
+            int sum = 0;
+            for (int i = 0; i < k; i++) {
+                sum += sorted[highest ? n - 1 - i : i];
+            }
+            return sum;
+        });
+    }
+    
+    /**
+     * The rank-th smallest member is at most x exactly when more than rank members are.
+     * @param rank the index of the member in the pool sorted ascending
+     */
+    private static Distribution rank(ExpressionSet set, int rank, Function<IExpression, Distribution> children) {
+        IExpression[] members = set.expressions();
+        int n = members.length;
+        if (n == 1) return children.apply(members[0]);
+        Distribution[] distributions = new Distribution[n];
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        boolean pure = pureSides(members) > 0;
+        for (int i = 0; i < n; i++) {
+            distributions[i] = pure && i > 0 ? distributions[0] : children.apply(members[i]);
+            lo = Math.min(lo, distributions[i].min());
+            hi = Math.max(hi, distributions[i].max());
+        }
+        long width = (long) hi - lo + 1;
+        if (width * (pure ? n : (long) n * n) > Distribution.MAX_WORK) {
+            throw new UnsupportedDistributionException("Pool too large: " + n + " members over " + width + " values");
+        }
+        double[] cdf = new double[(int) width];
+        double[] below = new double[n];
+        for (int x = 0; x < width; x++) {
+            for (int i = 0; i < (pure ? 1 : n); i++) {
+                below[i] += distributions[i].probability(lo + x);
+            }
+            // the amount of members at most x follows a (Poisson) binomial distribution
+            double atLeast = 0;
+            if (pure) {
+                Distribution count = Distribution.binomial(n, Math.min(1, below[0]));
+                for (int c = rank + 1; c <= n; c++) {
+                    atLeast += count.probability(c);
+                }
+            } else {
+                double[] count = new double[n + 1];
+                count[0] = 1;
+                for (int i = 0; i < n; i++) {
+                    double p = Math.min(1, below[i]);
+                    for (int c = i + 1; c > 0; c--) {
+                        count[c] = count[c] * (1 - p) + count[c - 1] * p;
+                    }
+                    count[0] *= 1 - p;
+                }
+                for (int c = rank + 1; c <= n; c++) {
+                    atLeast += count[c];
+                }
+            }
+            cdf[x] = atLeast;
+        }
+        double[] pmf = new double[cdf.length];
+        for (int x = 0; x < cdf.length; x++) {
+            pmf[x] = Math.max(0, cdf[x] - (x == 0 ? 0 : cdf[x - 1]));
+        }
+        return Distribution.of(lo, pmf);
+    }
+    
+    /**
+     * Go through every combination of member values, for pools of mixed members.
+     */
+    private static Distribution enumerate(IExpression[] members, Function<IExpression, Distribution> children, ToIntFunction<int[]> ofSorted) {
+        int n = members.length;
+        Distribution[] distributions = new Distribution[n];
+        double combinations = 1;
+        for (int i = 0; i < n; i++) {
+            distributions[i] = children.apply(members[i]);
+            combinations *= distributions[i].support();
+        }
+        if (combinations > ENUMERATION_LIMIT) {
+            throw new UnsupportedDistributionException("Too many combinations: " + (long) combinations + " > " + ENUMERATION_LIMIT);
+        }
+        Map<Integer, Double> masses = new LinkedHashMap<>();
+        int[] index = new int[n];
+        int[] values = new int[n];
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        while (true) {
+            double p = 1;
+            for (int i = 0; i < n && p > 0; i++) {
+                values[i] = distributions[i].min() + index[i];
+                p *= distributions[i].probability(values[i]);
+            }
+            if (p > 0) {
+                Arrays.sort(values);
+                int value = ofSorted.applyAsInt(values);
+                masses.merge(value, p, Double::sum);
+                lo = Math.min(lo, value);
+                hi = Math.max(hi, value);
+            }
+            if (index[0] == 0) Cooperative.yieldPoint();
+            int i = 0;
+            while (i < n && ++index[i] == distributions[i].support()) {
+                index[i++] = 0;
+            }
+            if (i == n) break;
+        }
+        double[] pmf = new double[hi - lo + 1];
+        for (Map.Entry<Integer, Double> entry : masses.entrySet()) {
+            pmf[entry.getKey() - lo] = entry.getValue();
+        }
+        return Distribution.of(lo, pmf);
+    }
+    
+    private static int pureSides(IExpression[] members) {
+        if (!(members[0] instanceof Dice(int sides))) return 0;
+        for (IExpression member : members) {
+            if (!(member instanceof Dice(int other)) || other != sides) return 0;
+        }
+        return sides;
+    }
+    
+    // ==================== chains ====================
+    
+    private static Distribution perDie(DiceSet set, IntFunction<Distribution> die) {
+        Map<Integer, Integer> counts = new LinkedHashMap<>();
+        for (Dice dice : set.dices()) {
+            counts.merge(dice.sides(), 1, Integer::sum);
+        }
+        Distribution sum = Distribution.constant(0);
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            sum = sum.plus(die.apply(entry.getKey()).sum(entry.getValue()));
+        }
+        return sum;
+    }
+    
+    /**
+     * @return the masses of the faces that trigger, or that do not, of one die
+     */
+    private static Distribution faces(int sides, int threshold, Relation relation, boolean triggering) {
+        RelationChecker checker = relation.getChecker();
+        double[] pmf = new double[sides];
+        for (int face = 1; face <= sides; face++) {
+            if (checker.check(face, threshold) == triggering) pmf[face - 1] = 1.0 / sides;
+        }
+        return Distribution.of(1, pmf);
+    }
+    
+    /**
+     * A die is rolled again at most times + 1 times, or without end when times is 0.
+     */
+    private static Distribution explode(int sides, int times, int threshold, Relation relation) {
+        Distribution trigger = faces(sides, threshold, relation, true);
+        double q = trigger.mass();
+        if (q == 0) return Distribution.die(sides);
+        if (times == 0 && q >= 1) throw new UnsupportedDistributionException("Explodes forever");
+        Distribution miss = faces(sides, threshold, relation, false);
+        long limit = times == 0 ? Long.MAX_VALUE : (long) times + 1;
+        double levels = q < 1 ? Math.min(limit, Math.ceil(Math.log(CHAIN_TAIL) / Math.log(q))) : limit;
+        if (levels * levels * sides * sides / 2 > Distribution.MAX_WORK) {
+            throw new UnsupportedDistributionException("Explosion chain too long: " + (long) levels + " levels");
+        }
+        // j exploded dice, then one that does not trigger, or the unconditioned last die
+        Distribution result = q < 1 ? miss : null;
+        Distribution chain = trigger;
+        for (long j = 1; j < limit && chain.mass() > CHAIN_TAIL; j++) {
+            if (q < 1) result = result.combine(chain.plus(miss));
+            chain = chain.plus(trigger);
+        }
+        if (times != 0 && chain.mass() > CHAIN_TAIL) {
+            Distribution last = chain.plus(Distribution.die(sides));
+            result = result == null ? last : result.combine(last);
+        }
+        return result;
+    }
+    
+    /**
+     * The kept roll is the first that does not trigger, or the last allowed one.
+     */
+    private static Distribution reroll(int sides, int times, int threshold, Relation relation) {
+        Distribution miss = faces(sides, threshold, relation, false);
+        double q = 1 - miss.mass();
+        if (q <= 0) return Distribution.die(sides);
+        double last = times == 0 ? 0 : Math.pow(q, (double) times + 1);
+        if (q >= 1) {
+            if (times == 0) throw new UnsupportedDistributionException("Rerolls forever");
+            return Distribution.die(sides);
+        }
+        Distribution kept = miss.scale((1 - last) / (1 - q));
+        return last == 0 ? kept : kept.combine(Distribution.die(sides).scale(last));
+    }
+    
+    private static Distribution emphasis(int sides, Emphasis.EmphasisVariant variant, int from) {
+        if (sides > EMPHASIS_SIDES) throw new UnsupportedDistributionException("Emphasis on d" + sides);
+        int average = from < 0 ? sides / 2 : from;
+        double[] counts = new double[sides];
+        double total = 0;
+        for (int a = 1; a <= sides; a++) {
+            for (int b = 1; b <= sides; b++) {
+                int compared = Integer.compare(Math.abs(a - average), Math.abs(b - average));
+                int value;
+                if (compared == 0) {
+                    if (variant == Emphasis.EmphasisVariant.REROLL) continue;
+                    value = variant == Emphasis.EmphasisVariant.HIGH ? Math.max(a, b) : Math.min(a, b);
+                } else {
+                    value = compared < 0 ? b : a;
+                }
+                counts[value - 1]++;
+                total++;
+            }
+        }
+        if (total == 0) throw new UnsupportedDistributionException("Emphasis ties forever");
+        for (int i = 0; i < sides; i++) {
+            counts[i] /= total;
+        }
+        return Distribution.of(1, counts);
+    }
+}
@@ -0,0 +1,26 @@
+package top.outlands.diceroller4j.distribution;
+
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+
+/**
+ * Exact chances of roll outcomes, from the distributions of the expressions instead of sampling.
+ */
+public class Probability {
+    
+    /**
+     * @return the chance a roll stands in the relation to the threshold, like {@code 1d20+5 >= 15}
+     * @throws UnsupportedDistributionException see {@link Distributions#of(IExpression)}
+     */
+    public static double probability(IExpression expression, Relation relation, int threshold) {
+        return Distributions.of(expression).probability(relation, threshold);
+    }
+    
+    /**
+     * @return the chances that a roll of a is greater than, equal to or less than an independent roll of b
+     * @throws UnsupportedDistributionException see {@link Distributions#of(IExpression)}
+     */
+    public static Comparison compare(IExpression a, IExpression b) {
+        return Distributions.of(a).compare(Distributions.of(b));
+    }
+}
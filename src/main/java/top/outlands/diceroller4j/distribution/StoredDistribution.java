@@ -0,0 +1,79 @@
+package top.outlands.diceroller4j.distribution;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+
+import java.lang.foreign.MemorySegment;
+
+import static top.outlands.diceroller4j.distribution.DistributionStore.DOUBLE;
+
+/**
+ * A distribution read in place from a {@link DistributionStore}, valid until the store is closed.
+ * Cumulative masses are stored too, so every query is a single read.
+ */
+public final class StoredDistribution {
+    
+    private final int min;
+    private final int support;
+    private final MemorySegment masses;
+    
+    StoredDistribution(int min, int support, MemorySegment masses) {
+        this.min = min;
+        this.support = support;
+        this.masses = masses;
+    }
+    
+    public int min() {
+        return min;
+    }
+    
+    public int max() {
+        return min + support - 1;
+    }
+    
+    public int support() {
+        return support;
+    }
+    
+    public double probability(int value) {
+        long index = (long) value - min;
+        return index < 0 || index >= support ? 0 : masses.get(DOUBLE, index * Double.BYTES);
+    }
+    
+    /**
+     * @return the chance the value stands in the relation to the threshold, like {@code value >= threshold}
+     */
+    public double probability(Relation relation, int threshold) {
+        return switch (relation) {
+            case EQUAL -> probability(threshold);
+            case LESS_OR_EQUAL -> cdf(threshold);
+            case GREATER_OR_EQUAL -> threshold == Integer.MIN_VALUE ? 1 : 1 - cdf(threshold - 1);
+        };
+    }
+    
+    /**
+     * @return the chance the value is at most x
+     */
+    public double cdf(int x) {
+        long index = (long) x - min;
+        if (index < 0) return 0;
+        return masses.get(DOUBLE, (support + Math.min(index, support - 1)) * Double.BYTES);
+    }
+    
+    /**
+     * @return a heap copy
+     */
+    public Distribution toDistribution() {
+        double[] pmf = new double[support];
+        for (int i = 0; i < support; i++) {
+            pmf[i] = masses.get(DOUBLE, (long) i * Double.BYTES);
+        }
+        return Distribution.of(min, pmf);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return toDistribution().toString();
+    }
+}
@@ -0,0 +1,11 @@
+package top.outlands.diceroller4j.distribution;
+
+/**
+ * The exact distribution of an expression cannot be computed, because it is unbounded, too large,
+ * can overflow int or can fail to roll.
+ */
+public class UnsupportedDistributionException extends RuntimeException {
+    public UnsupportedDistributionException(String message) {
+        super(message);
+    }
+}
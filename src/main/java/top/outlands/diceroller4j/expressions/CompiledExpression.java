@@ -0,0 +1,268 @@
+package top.outlands.diceroller4j.expressions;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.RollBudget;
+import top.outlands.diceroller4j.analysis.ExecutionPlan;
+import top.outlands.diceroller4j.analysis.MomentAnalyzer;
+import top.outlands.diceroller4j.analysis.Moments;
+import top.outlands.diceroller4j.analysis.Normalizer;
+import top.outlands.diceroller4j.distribution.AliasTable;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.distribution.UnsupportedDistributionException;
+import top.outlands.diceroller4j.jfr.RollEvent;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.random.CountingRandom;
+import top.outlands.diceroller4j.trace.ExplainTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The root of a compiled tree. Nodes are records and cannot cache anything themselves,
+ * so the canonical string is rendered once on first use and the structural hash is computed up front,
+ * which makes compiled trees cheap to log and to use as cache or dedup keys.
+ * Two compiled expressions are equal when their trees are.
+ * <p>
+ * A compiled expression counts its rolls and moves itself to faster {@link Tier}s as the {@link TieringPolicy}
+ * thresholds are passed. The faster forms are built on a background thread and published through volatile fields,
+ * rolls carry on with the current form meanwhile. Every tier rolls the same distribution.
+ */
+public final class CompiledExpression implements IExpression {
+    
+    private static final AtomicIntegerFieldUpdater<CompiledExpression> PROMOTING =
+            AtomicIntegerFieldUpdater.newUpdater(CompiledExpression.class, "promoting");
+    private static volatile TieringPolicy policy = TieringPolicy.DEFAULT;
+    
+    private final IExpression root;
+    private final int hash;
+    private String canonical;
+    private Moments moments;
+    private CompiledExpression normalized;
+    // racy like the canonical string, a lost count only delays a promotion
+    private long rolls;
+    private volatile long nextPromotion;
+    private volatile int promoting;
+    private volatile boolean unsampled;
+    private volatile RollProgram program;
+    private volatile AliasTable table;
+    
+    public CompiledExpression(IExpression root) {
+        this.root = root instanceof CompiledExpression compiled ? compiled.root : root;
+        this.hash = this.root.hashCode();
+        this.nextPromotion = policy.flattenAfter();
+    }
+    
+    /**
+     * Applies to the thresholds expressions pass from now on.
+     */
+    public static void setTieringPolicy(TieringPolicy policy) {
+        CompiledExpression.policy = policy;
+    }
+    
+    public static TieringPolicy getTieringPolicy() {
+        return policy;
+    }
+    
+    public IExpression root() {
+        return root;
+    }
+    
+    @Override
+    public int roll() {
+        if (RollMetrics.ENABLED) {
+            RollMetrics.rolled(this);
+            long start = System.nanoTime();
+            int total = rollRecorded();
+            RollMetrics.rollTime(System.nanoTime() - start);
+            return total;
+        }
+        return rollRecorded();
+    }
+    
+    private int rollRecorded() {
+        RollEvent event = new RollEvent();
+        return event.isEnabled() && RollEvent.sample() ? record(event) : rollTiered();
+    }
+    
+    private int rollTiered() {
+        if (++rolls >= nextPromotion) promoteLater();
+        AliasTable t = usableTable();
+        return t != null ? t.sample(RandomUtil.getRandom()) : rollUnsampled();
+    }
+    
+    /**
+     * Roll like {@link #rollTiered()}, through a generator counting the draws of the roll.
+     */
+    private int record(RollEvent event) {
+        if (++rolls >= nextPromotion) promoteLater();
+        AliasTable t = usableTable();
+        CountingRandom random = new CountingRandom(RandomUtil.getRandom());
+        event.begin();
+        int total = t != null ? t.sample(random) : RandomUtil.withRandom(random, this::rollUnsampled);
+        event.complete(this, random, total);
+        return total;
+    }
+    
+    private @Nullable AliasTable usableTable() {
+        AliasTable t = table;
+        // a chosen generator is expected to repeat its rolls, which only the tree and the program do
+        return t != null && DiceResults.getMode() == TraceMode.NONE && ExplainTrace.current() == null && !RandomUtil.isChosen() ? t : null;
+    }
+    
+    private int rollUnsampled() {
+        RollProgram p = program;
+        return p != null ? RollBudget.within(p::roll) : RollBudget.within(root::roll);
+    }
+    
+    /**
+     * @return the fastest form built so far, see {@link Tier#SAMPLED} for when it is used
+     */
+    public Tier tier() {
+        return table != null ? Tier.SAMPLED : program != null ? Tier.FLATTENED : Tier.INTERPRETED;
+    }
+    
+    /**
+     * @return the form a roll on this thread would take now, {@link #tier()} unless the alias table cannot be used
+     */
+    public Tier rollingTier() {
+        return usableTable() != null ? Tier.SAMPLED : program != null ? Tier.FLATTENED : Tier.INTERPRETED;
+    }
+    
+    /**
+     * @return how each node would be rolled now, see {@link ExecutionPlan}
+     */
+    public ExecutionPlan explain() {
+        return ExecutionPlan.of(this);
+    }
+    
+    /**
+     * @return how often this was rolled, give or take concurrent rolls
+     */
+    public long rolls() {
+        return rolls;
+    }
+    
+    /**
+     * Build the faster forms up to the tier on this thread now, whatever the count, for example to warm up.
+     * @return the tier reached, lower than asked if the distribution cannot be sampled
+     */
+    public Tier promote(Tier tier) {
+        if (tier.compareTo(Tier.FLATTENED) >= 0 && program == null) program = RollProgram.compile(root);
+        if (tier == Tier.SAMPLED && table == null && !unsampled) sample(policy);
+        return tier();
+    }
+    
+    /**
+     * @return the range and moments of the value, computed once
+     */
+    public Moments moments() {
+        Moments m = moments;
+        if (m == null) {
+            m = MomentAnalyzer.moments(root);
+            moments = m;
+        }
+        return m;
+    }
+    
+    /**
+     * @return the normal form, computed once, see {@link Normalizer}
+     */
+    public CompiledExpression normalized() {
+        CompiledExpression n = normalized;
+        if (n == null) {
+            n = Normalizer.normalize(root);
+            normalized = n;
+        }
+        return n;
+    }
+    
+    private void promoteLater() {
+        if (!PROMOTING.compareAndSet(this, 0, 1)) return;
+        TieringPolicy p = policy;
+        Tier target = program == null ? Tier.FLATTENED : Tier.SAMPLED;
+        long threshold = target == Tier.FLATTENED ? p.flattenAfter() : p.sampleAfter();
+        if (rolls < threshold || target == Tier.SAMPLED && (table != null || unsampled)) {
+            // the policy changed or the work is done
+            nextPromotion = target == Tier.SAMPLED && (table != null || unsampled) ? Long.MAX_VALUE : threshold;
+            promoting = 0;
+            return;
+        }
+        nextPromotion = Long.MAX_VALUE;
+        Promoter.EXECUTOR.execute(() -> {
+            try {
+                if (target == Tier.FLATTENED) {
+                    program = RollProgram.compile(root);
+                    nextPromotion = policy.sampleAfter();
+                } else {
+                    sample(policy);
+                }
+            } finally {
+                promoting = 0;
+            }
+        });
+    }
+    
+    private void sample(TieringPolicy p) {
+        AliasTable sampler = sampler(p);
+        if (sampler == null) {
+            unsampled = true;
+        } else {
+            table = sampler;
+        }
+    }
+    
+    private @Nullable AliasTable sampler(TieringPolicy p) {
+        try {
+            Distribution distribution = Promoter.DISTRIBUTIONS.get(root);
+            return distribution.support() <= p.maxSampledSupport() ? AliasTable.of(distribution) : null;
+        } catch (UnsupportedDistributionException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Started on the first promotion.
+     */
+    private static final class Promoter {
+        
+        private static final DistributionCache DISTRIBUTIONS = new DistributionCache();
+        private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "expression-tiering");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CompiledExpression other && hash == other.hash && root.equals(other.root);
+    }
+    
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append(toString());
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        // racy but idempotent, like String.hashCode
+        String s = canonical;
+        if (s == null) {
+            s = root.appendTo(new StringBuilder()).toString();
+            canonical = s;
+        }
+        return s;
+    }
+}
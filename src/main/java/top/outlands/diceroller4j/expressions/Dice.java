@@ -3,18 +3,31 @@ package top.outlands.diceroller4j.expressions;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.DiceResults;
 import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 public record Dice(int sides) implements IExpression {
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) {
+            RollMetrics.rolled(this);
+            RollMetrics.dice(1);
+        }
         int value = RandomUtil.getRandom().nextInt(sides) + 1;
         DiceResults.addRollResult(sides, value);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) trace.leaf(this, sides, value);
         return value;
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append('d').append(sides);
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        return  "d" + sides;
+        return appendTo(new StringBuilder()).toString();
     }
 }
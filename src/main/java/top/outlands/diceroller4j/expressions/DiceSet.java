@@ -1,32 +1,74 @@
 package top.outlands.diceroller4j.expressions;
 
 import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
 
 import java.util.Arrays;
+import java.util.Random;
 
 public record DiceSet(Dice[] dices) implements IExpression {
     
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            int sum = 0;
+            for (Dice dice : dices) {
+                sum += dice.roll();
+            }
+            return trace.exit(id, sum);
+        }
+        if (DiceResults.getMode() == TraceMode.HISTOGRAM && isPure()) {
+            // sample straight into the face counts instead of going through every die
+            int sides = dices[0].sides();
+            int[] counts = DiceResults.getHistogram().counts(sides);
+            Random random = RandomUtil.getRandom();
+            if (RollMetrics.ENABLED) RollMetrics.dice(dices.length);
+            int sum = 0;
+            for (int i = 0; i < dices.length; i++) {
+                int value = random.nextInt(sides) + 1;
+                counts[value - 1]++;
+                sum += value;
+            }
+            return sum;
+        }
         return Arrays.stream(dices).mapToInt(Dice::roll).sum();
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        if (isPure()) {
+            if (dices.length != 1) builder.append(dices.length);
+            return dices[0].appendTo(builder);
+        }
+        builder.append('(');
+        for (Dice d : dices) {
+            d.appendTo(builder).append(", ");
+        }
+        builder.deleteCharAt(builder.length() - 2);
+        return builder.append(')');
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        int face = dices[0].sides();
-        boolean pure = isPure();
-        if (pure) {
-            return (dices.length == 1 ? "" : dices.length) + "d" + face;
-        } else {
-            StringBuilder set = new StringBuilder("(");
-            for (Dice d : dices) {
-                set.append("d").append(d.sides()).append(", ");
-            }
-            set.deleteCharAt(set.length() - 2);
-            set.append(")");
-            return set.toString();
-        }
+        return appendTo(new StringBuilder()).toString();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DiceSet(Dice[] other) && Arrays.equals(dices, other);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(dices);
     }
     
     public boolean isPure() {
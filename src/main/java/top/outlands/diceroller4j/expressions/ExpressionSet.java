@@ -1,6 +1,8 @@
 package top.outlands.diceroller4j.expressions;
 
 import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Arrays;
 import java.util.Random;
@@ -9,27 +11,63 @@ public record ExpressionSet(IExpression[] expressions) implements IExpression {
     
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            return trace.exit(id, Arrays.stream(expressions).mapToInt(IExpression::roll).sum());
+        }
         return Arrays.stream(expressions).mapToInt(IExpression::roll).sum();
     }
     
     @Override
-    @NonNull
-    public String toString() {
-        if (isDiceSet()) {
-            return new DiceSet(Arrays.stream(expressions).map(e -> (Dice) e).toArray(Dice[]::new)).toString();
+    public StringBuilder appendTo(StringBuilder builder) {
+        boolean diceSet = isDiceSet();
+        if (diceSet && isPure()) {
+            // render like the equivalent DiceSet, without building one
+            if (expressions.length != 1) builder.append(expressions.length);
+            return expressions[0].appendTo(builder);
         }
-        StringBuilder full = new StringBuilder("(");
+        builder.append('(');
         for (IExpression expression : expressions) {
-            full.append(expression.toString());
-            full.append(", ");
+            expression.appendTo(builder).append(", ");
         }
-        full.setLength(full.length() - 2);
-        full.append(")");
-        return full.toString();
+        if (diceSet) {
+            builder.deleteCharAt(builder.length() - 2);
+        } else {
+            builder.setLength(builder.length() - 2);
+        }
+        return builder.append(')');
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ExpressionSet(IExpression[] other) && Arrays.equals(expressions, other);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(expressions);
     }
     
     public boolean isDiceSet() {
-        return Arrays.stream(expressions).allMatch(e -> e instanceof Dice);
+        for (IExpression expression : expressions) {
+            if (!(expression instanceof Dice)) return false;
+        }
+        return true;
+    }
+    
+    private boolean isPure() {
+        for (IExpression expression : expressions) {
+            if (!expression.equals(expressions[0])) return false;
+        }
+        return true;
     }
 
 }
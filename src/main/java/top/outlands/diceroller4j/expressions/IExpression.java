@@ -1,5 +1,25 @@
 package top.outlands.diceroller4j.expressions;
 
+import java.io.IOException;
+
 public interface IExpression {
     int roll();
+    
+    /**
+     * Write the canonical form of this expression in one pass, children straight into the same builder.
+     * {@code toString()} of every node delegates here.
+     */
+    default StringBuilder appendTo(StringBuilder builder) {
+        return builder.append(this);
+    }
+    
+    /**
+     * Write the canonical form to any appendable, through a single buffer unless it already is a StringBuilder.
+     */
+    default Appendable appendTo(Appendable out) throws IOException {
+        if (out instanceof StringBuilder builder) {
+            return appendTo(builder);
+        }
+        return out.append(appendTo(new StringBuilder(64)));
+    }
 }
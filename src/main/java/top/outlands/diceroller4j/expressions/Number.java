@@ -1,16 +1,26 @@
 package top.outlands.diceroller4j.expressions;
 
 import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 public record Number(int value) implements IExpression {
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) trace.leaf(this, 0, value);
         return value;
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append(value);
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        return Integer.toString(value);
+        return appendTo(new StringBuilder()).toString();
     }
 }
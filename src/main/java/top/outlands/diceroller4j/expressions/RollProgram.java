@@ -0,0 +1,196 @@
+package top.outlands.diceroller4j.expressions;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A tree flattened into postfix code for a stack machine: numbers, dice and arithmetic run in one loop
+ * that looks up the generator and the trace mode once per roll instead of once per node,
+ * other nodes are called as they are. Dice are drawn and recorded in the same order as the tree rolls them,
+ * so the results are the same for the same generator. Rolls under an {@link ExplainTrace} go to the tree.
+ * Instances are immutable.
+ */
+public final class RollProgram {
+    
+    private static final int NUMBER = 0, DIE = 1, DICE = 2, ADD = 3, SUBTRACT = 4, MULTIPLY = 5, DIVIDE = 6, CALL = 7;
+    
+    private final IExpression root;
+    private final int[] code;
+    private final IExpression[] calls;
+    private final int depth;
+    
+    private RollProgram(IExpression root, int[] code, IExpression[] calls, int depth) {
+        this.root = root;
+        this.code = code;
+        this.calls = calls;
+        this.depth = depth;
+    }
+    
+    public static RollProgram compile(IExpression root) {
+        Builder builder = new Builder();
+        builder.emit(root);
+        return new RollProgram(root, Arrays.copyOf(builder.code, builder.size), builder.calls.toArray(IExpression[]::new), builder.maxDepth);
+    }
+    
+    public int roll() {
+        if (ExplainTrace.current() != null) return root.roll();
+        Random random = RandomUtil.getRandom();
+        TraceMode mode = DiceResults.getMode();
+        int[] code = this.code;
+        int[] stack = new int[depth];
+        int top = 0;
+        for (int pc = 0; pc < code.length; ) {
+            switch (code[pc++]) {
+                case NUMBER -> stack[top++] = code[pc++];
+                case DIE -> {
+                    int sides = code[pc++];
+                    if (RollMetrics.ENABLED) RollMetrics.dice(1);
+                    int value = random.nextInt(sides) + 1;
+                    if (mode != TraceMode.NONE) DiceResults.addRollResult(sides, value);
+                    stack[top++] = value;
+                }
+                case DICE -> {
+                    int sides = code[pc++], n = code[pc++];
+                    stack[top++] = dice(random, mode, sides, n);
+                }
+                case ADD -> {
+                    top--;
+                    stack[top - 1] += stack[top];
+                }
+                case SUBTRACT -> {
+                    top--;
+                    stack[top - 1] -= stack[top];
+                }
+                case MULTIPLY -> {
+                    top--;
+                    stack[top - 1] *= stack[top];
+                }
+                case DIVIDE -> {
+                    top--;
+                    stack[top - 1] /= stack[top];
+                }
+                case CALL -> stack[top++] = calls[code[pc++]].roll();
+                default -> throw new IllegalStateException("Bad instruction at " + (pc - 1));
+            }
+        }
+        return stack[0];
+    }
+    
+    /**
+     * @return true if programs run the node in their loop, false if they call it
+     */
+    public static boolean inlines(IExpression node) {
+        return node instanceof Number || node instanceof Dice || node instanceof DiceSet || node instanceof ExpressionSet
+                || node instanceof Plus || node instanceof Subtract || node instanceof Multiply || node instanceof Divide;
+    }
+    
+    /**
+     * @return the amount of nodes left to the tree
+     */
+    public int calls() {
+        return calls.length;
+    }
+    
+    private static int dice(Random random, TraceMode mode, int sides, int n) {
+        if (RollMetrics.ENABLED) RollMetrics.dice(n);
+        int sum = 0;
+        if (mode == TraceMode.HISTOGRAM) {
+            int[] counts = DiceResults.getHistogram().counts(sides);
+            for (int i = 0; i < n; i++) {
+                int value = random.nextInt(sides) + 1;
+                counts[value - 1]++;
+                sum += value;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int value = random.nextInt(sides) + 1;
+                if (mode != TraceMode.NONE) DiceResults.addRollResult(sides, value);
+                sum += value;
+            }
+        }
+        return sum;
+    }
+    
+    private static final class Builder {
+        
+        private int[] code = new int[16];
+        private int size;
+        private final List<IExpression> calls = new ArrayList<>();
+        private int depth;
+        private int maxDepth;
+        
+        private void emit(IExpression node) {
+            switch (node) {
+                case Number(int value) -> push(NUMBER, value);
+                case Dice(int sides) -> push(DIE, sides);
+                case DiceSet set when set.isPure() -> {
+                    push(DICE, set.dices()[0].sides());
+                    append(set.dices().length);
+                }
+                case DiceSet(Dice[] dices) -> sum(dices);
+                case ExpressionSet(IExpression[] members) -> sum(members);
+                case Plus(IExpression augend, IExpression addend) -> binary(ADD, augend, addend);
+                case Subtract(IExpression minuend, IExpression subtrahend) -> binary(SUBTRACT, minuend, subtrahend);
+                case Multiply(IExpression multiplier, IExpression multiplicator) -> binary(MULTIPLY, multiplier, multiplicator);
+                case Divide(IExpression dividend, IExpression divisor) -> binary(DIVIDE, dividend, divisor);
+                default -> {
+                    push(CALL, calls.size());
+                    calls.add(node);
+                }
+            }
+        }
+        
+        private void sum(IExpression[] members) {
+            if (members.length == 0) {
+                push(NUMBER, 0);
+                return;
+            }
+            emit(members[0]);
+            for (int i = 1; i < members.length; i++) {
+                emit(members[i]);
+                pop(ADD);
+            }
+        }
+        
+        private void binary(int op, IExpression left, IExpression right) {
+            emit(left);
+            emit(right);
+            pop(op);
+        }
+        
+        private void push(int op, int operand) {
+            append(op);
+            append(operand);
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+        
+        private void pop(int op) {
+            append(op);
+            depth--;
+        }
+        
+        private void append(int word) {
+            if (size == code.length) code = Arrays.copyOf(code, size * 2);
+            code[size++] = word;
+        }
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollProgram{" + code.length + " words, " + calls.length + " calls}";
+    }
+}
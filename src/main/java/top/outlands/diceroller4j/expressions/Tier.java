@@ -0,0 +1,21 @@
+package top.outlands.diceroller4j.expressions;
+
+/**
+ * How a {@link CompiledExpression} is rolled, from the slowest to the fastest.
+ */
+public enum Tier {
+    /**
+     * Every node rolls its children.
+     */
+    INTERPRETED,
+    /**
+     * A {@link RollProgram} rolls the arithmetic and the dice in a single loop, and the nodes it does not know.
+     * Draws and records the same dice in the same order as the tree.
+     */
+    FLATTENED,
+    /**
+     * An alias table of the exact distribution draws the total, while no dice are recorded or explained and
+     * the generator is the default one. Otherwise rolled as {@link #FLATTENED}.
+     */
+    SAMPLED
+}
@@ -0,0 +1,19 @@
+package top.outlands.diceroller4j.expressions;
+
+/**
+ * When compiled expressions move to faster {@link Tier}s, by how often they were rolled.
+ * @param flattenAfter rolls before flattening
+ * @param sampleAfter rolls before building an alias table, at least flattenAfter
+ * @param maxSampledSupport the most values a distribution may span to be sampled
+ */
+public record TieringPolicy(long flattenAfter, long sampleAfter, int maxSampledSupport) {
+    
+    public static final TieringPolicy DEFAULT = new TieringPolicy(1_000, 10_000, 1 << 16);
+    public static final TieringPolicy DISABLED = new TieringPolicy(Long.MAX_VALUE, Long.MAX_VALUE, 0);
+    
+    public TieringPolicy {
+        if (flattenAfter < 1) throw new IllegalArgumentException("flattenAfter must be positive: " + flattenAfter);
+        if (sampleAfter < flattenAfter) throw new IllegalArgumentException("sampleAfter must be at least flattenAfter: " + sampleAfter);
+        if (maxSampledSupport < 0) throw new IllegalArgumentException("maxSampledSupport must not be negative: " + maxSampledSupport);
+    }
+}
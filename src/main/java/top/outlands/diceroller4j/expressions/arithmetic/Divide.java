@@ -3,19 +3,33 @@ package top.outlands.diceroller4j.expressions.arithmetic;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.IExpression;
 import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Random;
 
 public record Divide(IExpression dividend, IExpression divisor) implements IExpression {
-
+    
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            return trace.exit(id, dividend.roll() / divisor.roll());
+        }
         return dividend.roll() / divisor.roll();
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        Operands.append(builder, dividend, Operands.isSum(dividend)).append(" / ");
+        return Operands.append(builder, divisor, Operands.isSum(divisor) || Operands.isProduct(divisor));
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        return dividend.toString() + " / " + divisor.toString();
+        return appendTo(new StringBuilder()).toString();
     }
 }
@@ -3,18 +3,32 @@ package top.outlands.diceroller4j.expressions.arithmetic;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.IExpression;
 import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Random;
 
 public record Multiply(IExpression multiplier, IExpression multiplicator) implements IExpression {
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            return trace.exit(id, multiplier.roll() * multiplicator.roll());
+        }
         return multiplier.roll() * multiplicator.roll();
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        Operands.append(builder, multiplier, Operands.isSum(multiplier)).append(" * ");
+        return Operands.append(builder, multiplicator, Operands.isSum(multiplicator) || multiplicator instanceof Divide);
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        return multiplier.toString() + " * " + multiplicator.toString(); 
+        return appendTo(new StringBuilder()).toString();
     }
 }
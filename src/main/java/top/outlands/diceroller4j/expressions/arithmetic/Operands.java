@@ -0,0 +1,27 @@
+package top.outlands.diceroller4j.expressions.arithmetic;
+
+import top.outlands.diceroller4j.expressions.IExpression;
+
+/**
+ * Renders the operands of arithmetic nodes. A parsed tree holds an {@code ExpressionSet} wherever the text had parentheses,
+ * a tree built or rewritten in code does not, so they are added wherever leaving them out would parse into another tree.
+ */
+final class Operands {
+    
+    private Operands() {
+    }
+    
+    static StringBuilder append(StringBuilder builder, IExpression operand, boolean grouped) {
+        if (!grouped) return operand.appendTo(builder);
+        builder.append('(');
+        return operand.appendTo(builder).append(')');
+    }
+    
+    static boolean isSum(IExpression operand) {
+        return operand instanceof Plus || operand instanceof Subtract;
+    }
+    
+    static boolean isProduct(IExpression operand) {
+        return operand instanceof Multiply || operand instanceof Divide;
+    }
+}
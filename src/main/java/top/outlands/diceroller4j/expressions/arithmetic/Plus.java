@@ -3,18 +3,32 @@ package top.outlands.diceroller4j.expressions.arithmetic;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.IExpression;
 import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Random;
 
 public record Plus(IExpression augend, IExpression addend) implements IExpression {
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            return trace.exit(id, augend.roll() + addend.roll());
+        }
         return augend.roll() + addend.roll();
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        augend.appendTo(builder).append(" + ");
+        return addend.appendTo(builder);
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        return augend.toString() + " + " + addend.toString();
+        return appendTo(new StringBuilder()).toString();
     }
 }
@@ -3,18 +3,32 @@ package top.outlands.diceroller4j.expressions.arithmetic;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.IExpression;
 import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Random;
 
 public record Subtract(IExpression minuend, IExpression subtrahend) implements IExpression {
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            return trace.exit(id, minuend.roll() - subtrahend.roll());
+        }
         return minuend.roll() - subtrahend.roll();
     }
-
+    
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        minuend.appendTo(builder).append(" - ");
+        return Operands.append(builder, subtrahend, Operands.isSum(subtrahend));
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        return minuend.toString() + " - " + subtrahend.toString();
+        return appendTo(new StringBuilder()).toString();
     }
 }
\ No newline at end of file
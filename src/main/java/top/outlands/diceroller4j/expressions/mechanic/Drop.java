@@ -3,6 +3,8 @@ package top.outlands.diceroller4j.expressions.mechanic;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.ExpressionSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Arrays;
 
@@ -15,7 +17,18 @@ import java.util.Arrays;
 public record Drop(ExpressionSet expressions, int count, boolean inverted) implements IExpression {
     @Override
     public int roll() {
-        int[] values = Arrays.stream(expressions.expressions()).mapToInt(IExpression::roll).toArray();
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            int length = expressions.expressions().length;
+            int pool = trace.rollPool(expressions.expressions());
+            return trace.exit(id, inverted ? trace.keepRanked(pool, 0, length - count) : trace.keepRanked(pool, count, length));
+        }
+        return drop(Arrays.stream(expressions.expressions()).mapToInt(IExpression::roll).toArray());
+    }
+    
+    private int drop(int[] values) {
         Arrays.sort(values);
         int sum = 0;
         if (inverted) {
@@ -30,22 +43,22 @@ public record Drop(ExpressionSet expressions, int count, boolean inverted) imple
         return sum;
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        int start = builder.length();
+        expressions.appendTo(builder);
+        if (inverted) {
+            return builder.append(" drop highest ").append(count);
+        }
+        if (builder.charAt(start) != '(') {
+            return builder.append('d').append(count);
+        }
+        return builder.append(" drop ").append(count);
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        String expr = expressions().toString();
-        if (expr.charAt(0) != '(') {
-            if (!inverted) {
-                return expr + "d" + count;
-            }  else {
-                return expr + " drop highest " + count;
-            }
-        }  else {
-            if (!inverted) {
-                return expr + " drop " + count;
-            } else  {
-                return expr + " drop highest " + count;
-            }
-        }
+        return appendTo(new StringBuilder()).toString();
     }
 }
\ No newline at end of file
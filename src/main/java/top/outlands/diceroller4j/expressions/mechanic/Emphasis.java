@@ -1,25 +1,37 @@
 package top.outlands.diceroller4j.expressions.mechanic;
 
 import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.RollBudget;
 import top.outlands.diceroller4j.expressions.Dice;
 import top.outlands.diceroller4j.expressions.DiceSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Random;
 
 public record Emphasis(DiceSet diceSet, EmphasisVariant variant, int from) implements IExpression {
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        int id = trace == null ? ExplainTrace.NONE : trace.enter(this);
+        RollBudget.Counter budget = RollBudget.current();
         int sum = 0;
         for (int i = 0 ; i < diceSet.dices().length ; i++) {
             Dice dice = diceSet.dices()[i];
+            budget.charge(this, 2);
             int a = dice.roll();
             int b = dice.roll();
             int average = from < 0 ? dice.sides() / 2 : from;
-            switch (Integer.compare(Math.abs(a - average),  Math.abs(b - average))){
+            int compared = Integer.compare(Math.abs(a - average),  Math.abs(b - average));
+            switch (compared){
                 case 0 -> {
                     switch (variant) {
-                        case REROLL -> i--;
+                        case REROLL -> {
+                            if (RollMetrics.ENABLED) RollMetrics.rerolled();
+                            i--;
+                        }
                         case HIGH -> sum += Math.max(a, b);
                         case LOW -> sum += Math.min(a, b);
                     }
@@ -27,25 +39,42 @@ public record Emphasis(DiceSet diceSet, EmphasisVariant variant, int from) imple
                 case -1 -> sum += b;
                 case 1 -> sum += a;
             }
+            if (trace != null) {
+                int second = trace.next() - 1;
+                int first = second - 1;
+                if (compared == 0 && variant == EmphasisVariant.REROLL) {
+                    trace.flag(first, ExplainTrace.REROLLED);
+                    trace.flag(second, ExplainTrace.REROLLED);
+                } else if (compared == 0) {
+                    boolean keepFirst = variant == EmphasisVariant.HIGH ? a >= b : a <= b;
+                    trace.flag(keepFirst ? second : first, ExplainTrace.DROPPED);
+                } else {
+                    trace.flag(compared < 0 ? first : second, ExplainTrace.DROPPED);
+                }
+            }
         }
-        return sum;
+        return trace == null ? sum : trace.exit(id, sum);
     }
     
     @Override
-    @NonNull
-    public String toString() {
-        String expr = diceSet.toString();
+    public StringBuilder appendTo(StringBuilder builder) {
+        diceSet.appendTo(builder);
         if (from < 0) {
-            expr += " emphasis";
+            builder.append(" emphasis");
         } else {
-            expr += " furthest from " + from;
+            builder.append(" furthest from ").append(from);
         }
-        expr += switch (variant) {
-            case REROLL -> "";
-            case LOW ->  " low";
+        return builder.append(switch (variant) {
+            case REROLL -> " reroll";
+            case LOW -> " low";
             case HIGH -> " high";
-        };
-        return expr;
+        });
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
     }
     
     public enum EmphasisVariant {
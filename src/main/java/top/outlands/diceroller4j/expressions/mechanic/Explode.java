@@ -1,47 +1,65 @@
 package top.outlands.diceroller4j.expressions.mechanic;
 
 import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.RollBudget;
 import top.outlands.diceroller4j.expressions.DiceSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Random;
 
 public record Explode(DiceSet diceSet, int times, int threshold, Relation relation) implements IExpression {
-
+    
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
         RelationChecker checker = relation.getChecker();
+        ExplainTrace trace = ExplainTrace.current();
+        int id = trace == null ? ExplainTrace.NONE : trace.enter(this);
+        RollBudget.Counter budget = RollBudget.current();
         int sum = 0;
         for (IExpression dice : diceSet.dices()) {
+            budget.charge(this, 1);
             int result = dice.roll();
             sum += result;
             int counter = 0;
             while (checker.check(result, threshold) && (counter <= times || times == 0)) {
+                budget.charge(this, 1);
+                if (trace != null) trace.flagLast(ExplainTrace.EXPLODED);
+                if (RollMetrics.ENABLED) RollMetrics.exploded();
                 counter++;
                 result = dice.roll();
                 sum += result;
             }
         }
-        return sum;
+        return trace == null ? sum : trace.exit(id, sum);
     }
     
     @Override
-    @NonNull
-    public String toString() {
-        String expr = diceSet.toString();
-        if (expr.charAt(0) != '(') {
-            if (times == 0 && relation == Relation.GREATER_OR_EQUAL) {
-                return expr + "e" + threshold;
-            }
+    public StringBuilder appendTo(StringBuilder builder) {
+        int start = builder.length();
+        diceSet.appendTo(builder);
+        if (builder.charAt(start) != '(' && times == 0 && relation == Relation.GREATER_OR_EQUAL) {
+            return builder.append('e').append(threshold);
+        }
+        builder.append(" explode");
+        if (times == 0) {
+            builder.append(" always");
+        } else {
+            builder.append(times).append(" times");
         }
-        expr += " explode";
-        expr += times == 0 ? " always" : times + " times";
-        expr += " on " + threshold;
-        expr += switch (relation) {
+        builder.append(" on ").append(threshold);
+        return builder.append(switch (relation) {
             case GREATER_OR_EQUAL -> " or more";
             case LESS_OR_EQUAL -> "  or less";
             case EQUAL -> "";
-        };
-        return expr;
+        });
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
     }
 }
@@ -3,6 +3,8 @@ package top.outlands.diceroller4j.expressions.mechanic;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.ExpressionSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Arrays;
 import java.util.Random;
@@ -16,7 +18,18 @@ import java.util.Random;
 public record Keep(ExpressionSet expressions, int count, boolean inverted) implements IExpression {
     @Override
     public int roll() {
-        int[] values = Arrays.stream(expressions.expressions()).mapToInt(IExpression::roll).toArray();
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            int length = expressions.expressions().length;
+            int pool = trace.rollPool(expressions.expressions());
+            return trace.exit(id, inverted ? trace.keepRanked(pool, 0, count) : trace.keepRanked(pool, length - count, length));
+        }
+        return keep(Arrays.stream(expressions.expressions()).mapToInt(IExpression::roll).toArray());
+    }
+    
+    private int keep(int[] values) {
         Arrays.sort(values);
         int sum = 0;
         if (inverted) {
@@ -31,22 +44,22 @@ public record Keep(ExpressionSet expressions, int count, boolean inverted) imple
         return sum;
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        int start = builder.length();
+        expressions.appendTo(builder);
+        if (inverted) {
+            return builder.append(" keep lowest ").append(count);
+        }
+        if (builder.charAt(start) != '(') {
+            return builder.append('k').append(count);
+        }
+        return builder.append(" keep ").append(count);
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        String expr = expressions().toString();
-        if (expr.charAt(0) != '(') {
-            if (!inverted) {
-                return expr + "k" + count;
-            }  else {
-                return expr + " keep lowest " + count;
-            }
-        }  else {
-            if (!inverted) {
-                return expr + " keep " + count;
-            } else  {
-                return expr + " keep lowest " + count;
-            }
-        }
+        return appendTo(new StringBuilder()).toString();
     }
 }
@@ -3,6 +3,8 @@ package top.outlands.diceroller4j.expressions.statistics;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.ExpressionSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Arrays;
 
@@ -10,16 +12,28 @@ public record Average(ExpressionSet dices) implements IExpression {
 
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            return trace.exit(id, Arrays.stream(dices.expressions()).mapToInt(IExpression::roll).sum() / dices.expressions().length);
+        }
         return Arrays.stream(dices.expressions()).mapToInt(IExpression::roll).sum() / dices.expressions().length;
     }
     
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        int start = builder.length();
+        dices.appendTo(builder);
+        if (builder.charAt(start) != '(') {
+            builder.append(' ');
+        }
+        return builder.append("average");
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        String expr = dices.toString();
-        if (expr.charAt(0) != '(') {
-            expr += " ";
-        }
-        return expr + "average";
+        return appendTo(new StringBuilder()).toString();
     }
 }
\ No newline at end of file
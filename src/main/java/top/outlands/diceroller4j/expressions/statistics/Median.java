@@ -3,26 +3,42 @@ package top.outlands.diceroller4j.expressions.statistics;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.ExpressionSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Arrays;
 import java.util.Random;
 
 public record Median(ExpressionSet dices) implements IExpression {
-
+    
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            int length = dices.expressions().length;
+            int pool = trace.rollPool(dices.expressions());
+            return trace.exit(id, trace.keepRanked(pool, length / 2, length / 2 + 1));
+        }
         int[] values = Arrays.stream(dices.expressions()).mapToInt(d -> d.roll()).toArray();
         Arrays.sort(values);
         return values[values.length / 2];
     }
-
+    
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        int start = builder.length();
+        dices.appendTo(builder);
+        if (builder.charAt(start) != '(') {
+            builder.append(' ');
+        }
+        return builder.append("median");
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        String expr = dices.toString();
-        if (expr.charAt(0) != '(') {
-            expr += " ";
-        }
-        return expr + "median";
+        return appendTo(new StringBuilder()).toString();
     }
 }
\ No newline at end of file
@@ -3,23 +3,38 @@ package top.outlands.diceroller4j.expressions.statistics;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.ExpressionSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
 
 import java.util.Arrays;
 
 public record Min(ExpressionSet dices) implements IExpression {
-
+    
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
+        ExplainTrace trace = ExplainTrace.current();
+        if (trace != null) {
+            int id = trace.enter(this);
+            int pool = trace.rollPool(dices.expressions());
+            return trace.exit(id, trace.keepRanked(pool, 0, 1));
+        }
         return Arrays.stream(dices.expressions()).mapToInt(IExpression::roll).min().getAsInt();
     }
-
+    
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        int start = builder.length();
+        dices.appendTo(builder);
+        if (builder.charAt(start) != '(') {
+            builder.append(' ');
+        }
+        return builder.append("min");
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        String expr = dices.toString();
-        if (expr.charAt(0) != '(') {
-            expr += " ";
-        }
-        return expr + "min";
+        return appendTo(new StringBuilder()).toString();
     }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package top.outlands.diceroller4j.expressions.statistics;
 import org.jspecify.annotations.NonNull;
 import top.outlands.diceroller4j.expressions.ExpressionSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.metrics.RollMetrics;
 
 import java.util.Random;
 
@@ -10,16 +11,23 @@ public record Sum(ExpressionSet dices) implements IExpression {
 
     @Override
     public int roll() {
+        if (RollMetrics.ENABLED) RollMetrics.rolled(this);
         return dices.roll();
     }
 
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        int start = builder.length();
+        dices.appendTo(builder);
+        if (builder.charAt(start) != '(') {
+            builder.append(' ');
+        }
+        return builder.append("sum");
+    }
+    
     @Override
     @NonNull
     public String toString() {
-        String expr = dices.toString();
-        if (expr.charAt(0) != '(') {
-            expr += " ";
-        }
-        return expr + "sum";
+        return appendTo(new StringBuilder()).toString();
     }
 }
@@ -0,0 +1,43 @@
+package top.outlands.diceroller4j.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import top.outlands.diceroller4j.analysis.CostEstimator;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+/**
+ * An expression compiled, or found in an {@link top.outlands.diceroller4j.ExpressionCache}.
+ */
+@Name(RollEvents.PREFIX + "Compile")
+@Label("Expression Compile")
+@Category(RollEvents.CATEGORY)
+@Description("An expression compiled or taken from a cache")
+public final class CompileEvent extends Event {
+    
+    @Label("Expression")
+    String expression;
+    
+    @Label("Input Length")
+    int inputLength;
+    
+    @Label("Nodes")
+    int nodes;
+    
+    @Label("Cache Hit")
+    boolean cacheHit;
+    
+    /**
+     * Commit the event if it is recorded and took long enough, the tree is only walked then.
+     */
+    public void complete(String input, IExpression compiled, boolean cacheHit) {
+        if (!shouldCommit()) return;
+        this.expression = input;
+        this.inputLength = input.length();
+        this.nodes = CostEstimator.nodes(compiled);
+        this.cacheHit = cacheHit;
+        commit();
+    }
+}
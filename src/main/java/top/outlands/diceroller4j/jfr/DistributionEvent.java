@@ -0,0 +1,34 @@
+package top.outlands.diceroller4j.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+/**
+ * One distribution taken from a {@link top.outlands.diceroller4j.distribution.DistributionCache},
+ * computed or composed from cached parts.
+ */
+@Name(RollEvents.PREFIX + "Distribution")
+@Label("Distribution")
+@Category(RollEvents.CATEGORY)
+@Description("The exact distribution of an expression computed or taken from a cache")
+public final class DistributionEvent extends Event {
+    
+    @Label("Expression")
+    String expression;
+    
+    @Label("Support")
+    @Description("The amount of values from the least to the greatest")
+    int support;
+    
+    public void complete(IExpression expression, Distribution distribution) {
+        if (!shouldCommit()) return;
+        this.expression = expression.toString();
+        this.support = distribution.support();
+        commit();
+    }
+}
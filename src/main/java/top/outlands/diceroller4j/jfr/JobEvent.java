@@ -0,0 +1,49 @@
+package top.outlands.diceroller4j.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A background job of a {@link top.outlands.diceroller4j.schedule.RollScheduler}, from its submission to its end,
+ * committed by whichever thread ended it.
+ */
+@Name(RollEvents.PREFIX + "Job")
+@Label("Background Job")
+@Category(RollEvents.CATEGORY)
+@Description("A simulation, distribution or other job run in steps on a scheduler")
+public final class JobEvent extends Event {
+    
+    @Label("Kind")
+    String kind;
+    
+    @Label("Expression")
+    String expression;
+    
+    @Label("Samples")
+    @Description("The rolls asked for, 0 if the job does not roll")
+    long samples;
+    
+    @Label("Threads")
+    @Description("The workers of the scheduler")
+    int threads;
+    
+    @Label("Steps")
+    int steps;
+    
+    @Label("Outcome")
+    String outcome;
+    
+    public void complete(String kind, String expression, long samples, int threads, int steps, String outcome) {
+        if (!shouldCommit()) return;
+        this.kind = kind;
+        this.expression = expression;
+        this.samples = samples;
+        this.threads = threads;
+        this.steps = steps;
+        this.outcome = outcome;
+        commit();
+    }
+}
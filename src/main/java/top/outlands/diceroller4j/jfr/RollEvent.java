@@ -0,0 +1,80 @@
+package top.outlands.diceroller4j.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.random.CountingRandom;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One roll of a compiled expression out of every {@code sampleEvery}, picked at random. Rolls are far too many
+ * and too short to record them all, the setting keeps the cost of a recording down without a duration threshold
+ * hiding the short ones. Dice and draws are counted by a {@link CountingRandom} around the roll's generator.
+ */
+@Name(RollEvents.PREFIX + "Roll")
+@Label("Roll")
+@Category(RollEvents.CATEGORY)
+@Description("A sampled roll of a compiled expression")
+public final class RollEvent extends Event {
+    
+    private static volatile int sampleEvery = SampleEvery.DEFAULT;
+    
+    @Label("Expression")
+    String expression;
+    
+    @Label("Expression Id")
+    @Description("The structural hash of the expression")
+    int expressionId;
+    
+    @Label("Tier")
+    String tier;
+    
+    @Label("Dice")
+    long dice;
+    
+    @Label("Random Draws")
+    long draws;
+    
+    @Label("Total")
+    int total;
+    
+    /**
+     * Check {@link #isEnabled()} first.
+     * @return whether to record this roll
+     */
+    public static boolean sample() {
+        int every = sampleEvery;
+        return every <= 1 || ThreadLocalRandom.current().nextInt(every) == 0;
+    }
+    
+    public void complete(CompiledExpression expression, CountingRandom random, int total) {
+        if (!shouldCommit()) return;
+        this.expression = expression.toString();
+        this.expressionId = expression.hashCode();
+        this.tier = expression.tier().name();
+        this.dice = random.dice();
+        this.draws = random.draws();
+        this.total = total;
+        commit();
+    }
+    
+    /**
+     * Rolls are picked in {@link #sample()}, every roll that gets here is recorded.
+     */
+    @SettingDefinition
+    @Name("sampleEvery")
+    @Label("Sample Every")
+    @Description("Record one roll out of this many")
+    boolean sampleEvery(SampleEvery setting) {
+        return true;
+    }
+    
+    static void setSampleEvery(int every) {
+        sampleEvery = every;
+    }
+}
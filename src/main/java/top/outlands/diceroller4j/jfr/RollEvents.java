@@ -0,0 +1,54 @@
+package top.outlands.diceroller4j.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+
+/**
+ * The Flight Recorder events of the library, all under the {@value #CATEGORY} category.
+ * <p>
+ * Events cost nothing while no recording enables them: each is created and checked with {@code isEnabled()},
+ * which the JIT reduces to a constant until a recording starts. Enabled events only fill in their fields
+ * once they passed their threshold. The bundled {@value #SETTINGS} enables them all with thresholds for production,
+ * it holds nothing else, so it is meant to go along with the JDK's own settings.
+ */
+public final class RollEvents {
+    
+    public static final String CATEGORY = "Dice Roller";
+    public static final String PREFIX = "top.outlands.diceroller4j.";
+    /**
+     * The settings file, a resource next to this class.
+     */
+    public static final String SETTINGS = "diceroller4j.jfc";
+    
+    public static final List<Class<? extends jdk.jfr.Event>> EVENTS = List.of(
+            CompileEvent.class, RollEvent.class, SimulationEvent.class, DistributionEvent.class, JobEvent.class);
+    
+    private RollEvents() {
+    }
+    
+    /**
+     * @return the bundled settings, for {@code new Recording(configuration)}
+     */
+    public static Configuration configuration() throws IOException, ParseException {
+        InputStream in = RollEvents.class.getResourceAsStream(SETTINGS);
+        if (in == null) throw new IOException("Missing resource " + SETTINGS);
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        }
+    }
+    
+    /**
+     * Make the events known to the recorder before they first happen, so tools list them from the start.
+     */
+    public static void register() {
+        EVENTS.forEach(FlightRecorder::register);
+    }
+}
@@ -0,0 +1,44 @@
+package top.outlands.diceroller4j.jfr;
+
+import jdk.jfr.SettingControl;
+
+import java.util.Set;
+
+/**
+ * The {@code sampleEvery} setting of {@link RollEvent}, a positive number of rolls.
+ * When recordings ask for different values, the most frequent sampling wins.
+ */
+public final class SampleEvery extends SettingControl {
+    
+    static final int DEFAULT = 1000;
+    
+    private int value = DEFAULT;
+    
+    @Override
+    public String combine(Set<String> values) {
+        int every = Integer.MAX_VALUE;
+        for (String v : values) {
+            every = Math.min(every, parse(v));
+        }
+        return Integer.toString(every == Integer.MAX_VALUE ? DEFAULT : every);
+    }
+    
+    @Override
+    public void setValue(String value) {
+        this.value = parse(value);
+        RollEvent.setSampleEvery(this.value);
+    }
+    
+    @Override
+    public String getValue() {
+        return Integer.toString(value);
+    }
+    
+    private static int parse(String value) {
+        try {
+            return Math.max(1, Integer.parseInt(value.strip()));
+        } catch (NumberFormatException e) {
+            return DEFAULT;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package top.outlands.diceroller4j.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+/**
+ * One call of {@link top.outlands.diceroller4j.simulation.Simulator}, on the thread that made it.
+ * A simulation job of a {@link top.outlands.diceroller4j.schedule.RollScheduler} makes one per step.
+ */
+@Name(RollEvents.PREFIX + "Simulation")
+@Label("Simulation")
+@Category(RollEvents.CATEGORY)
+@Description("An expression rolled many times in a row")
+public final class SimulationEvent extends Event {
+    
+    @Label("Expression")
+    String expression;
+    
+    @Label("Samples")
+    long samples;
+    
+    public void complete(IExpression expression, long samples) {
+        if (!shouldCommit()) return;
+        this.expression = expression.toString();
+        this.samples = samples;
+        commit();
+    }
+}
@@ -0,0 +1,16 @@
+package top.outlands.diceroller4j.journal;
+
+/**
+ * How a {@link RollJournal} lays out and flushes its segments.
+ * @param segmentBytes the size of a segment file, a new one is started once it is full
+ * @param forceIntervalMillis how often appended records are forced to disk, all at once
+ */
+public record JournalConfig(long segmentBytes, long forceIntervalMillis) {
+    
+    public static final JournalConfig DEFAULT = new JournalConfig(64L * 1024 * 1024, 100);
+    
+    public JournalConfig {
+        if (segmentBytes < 4096) throw new IllegalArgumentException("Segments must hold at least 4096 bytes: " + segmentBytes);
+        if (forceIntervalMillis < 1) throw new IllegalArgumentException("forceIntervalMillis must be positive");
+    }
+}
@@ -0,0 +1,162 @@
+package top.outlands.diceroller4j.journal;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.trace.RollTrace;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static top.outlands.diceroller4j.journal.RollJournal.FILE_HEADER;
+import static top.outlands.diceroller4j.journal.RollJournal.INT;
+import static top.outlands.diceroller4j.journal.RollJournal.LONG;
+import static top.outlands.diceroller4j.journal.RollJournal.MAGIC;
+import static top.outlands.diceroller4j.journal.RollJournal.RECORD_HEADER;
+import static top.outlands.diceroller4j.journal.RollJournal.VERSION;
+import static top.outlands.diceroller4j.journal.RollJournal.WIDE;
+import static top.outlands.diceroller4j.journal.RollJournal.segments;
+
+/**
+ * Walks the records of a {@link RollJournal} directory in order, one segment mapping at a time.
+ * Call {@link #next()} and then read the fields of the current record, which are read from the mapping on access,
+ * so skipping records costs only their size. Segments still being written are read up to their last finished record.
+ * <p>
+ * Not safe for concurrent use.
+ */
+public final class JournalReader implements AutoCloseable {
+    
+    private final List<Path> segments;
+    private int index = -1;
+    private Arena arena;
+    private MemorySegment memory;
+    private long sequence;
+    private long at;
+    private long next;
+    
+    private JournalReader(List<Path> segments) {
+        this.segments = segments;
+    }
+    
+    /**
+     * Read the segments in the directory as they are now, those started later are not seen.
+     */
+    public static JournalReader open(Path directory) throws IOException {
+        return new JournalReader(segments(directory));
+    }
+    
+    /**
+     * Move to the next record.
+     * @return false once there are no more records
+     * @throws IOException if a segment cannot be mapped or is not a journal segment
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (memory != null && next + RECORD_HEADER <= memory.byteSize()) {
+                int size = memory.get(INT, next);
+                VarHandle.acquireFence();
+                // 0 is a record not written yet, anything else out of bounds was torn off
+                if (size >= RECORD_HEADER && next + size <= memory.byteSize()) {
+                    at = next;
+                    next += size;
+                    return true;
+                }
+            }
+            if (!advance()) return false;
+        }
+    }
+    
+    public long timestamp() {
+        return memory.get(LONG, at + 8);
+    }
+    
+    /**
+     * @return the id of the canonical expression, see {@link RollJournal#expressionId}
+     */
+    public long expression() {
+        return memory.get(LONG, at + 16);
+    }
+    
+    public long seed() {
+        return memory.get(LONG, at + 24);
+    }
+    
+    public long roll() {
+        return memory.get(LONG, at + 32);
+    }
+    
+    public int total() {
+        return memory.get(INT, at + 40);
+    }
+    
+    /**
+     * @return the amount of dice kept with the record, 0 if only the total was
+     */
+    public int dice() {
+        return memory.get(INT, at + 4) & ~WIDE;
+    }
+    
+    /**
+     * Append the dice kept with the record to the trace.
+     */
+    public RollTrace trace(RollTrace trace) {
+        int dice = dice();
+        boolean wide = (memory.get(INT, at + 4) & WIDE) != 0;
+        long offset = at + RECORD_HEADER;
+        for (int i = 0; i < dice; i++) {
+            if (wide) {
+                trace.add(memory.get(INT, offset), memory.get(INT, offset + 4));
+                offset += 8;
+            } else {
+                int die = memory.get(INT, offset);
+                trace.add(die >>> 16, die & 0xffff);
+                offset += 4;
+            }
+        }
+        return trace;
+    }
+    
+    /**
+     * @return the sequence number of the segment holding the current record
+     */
+    public long sequence() {
+        return sequence;
+    }
+    
+    @Override
+    public void close() {
+        if (arena != null) arena.close();
+        arena = null;
+        memory = null;
+    }
+    
+    private boolean advance() throws IOException {
+        close();
+        if (++index >= segments.size()) return false;
+        arena = Arena.ofConfined();
+        try (FileChannel channel = FileChannel.open(segments.get(index), StandardOpenOption.READ)) {
+            memory = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        if (memory.byteSize() < FILE_HEADER || memory.get(INT, 0) != MAGIC) {
+            throw new IOException("Not a journal segment: " + segments.get(index));
+        }
+        int version = memory.get(INT, 4);
+        if (version != VERSION) throw new IOException("Unsupported journal version " + version + ": " + segments.get(index));
+        sequence = memory.get(LONG, 8);
+        next = FILE_HEADER;
+        return true;
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "JournalReader{segment " + sequence + ", offset " + at + "}";
+    }
+}
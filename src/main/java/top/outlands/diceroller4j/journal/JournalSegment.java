@@ -0,0 +1,105 @@
+package top.outlands.diceroller4j.journal;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One mapped segment file being written. Writers reserve space by moving {@link #position} forward,
+ * the reservation that crosses the end sets the limit, and the segment is retired
+ * once every record before the limit has been written.
+ */
+final class JournalSegment {
+    
+    final Path path;
+    final long sequence;
+    final MemorySegment memory;
+    final AtomicLong position = new AtomicLong(RollJournal.FILE_HEADER);
+    private final Arena arena;
+    private final FileChannel channel;
+    private final AtomicLong committed = new AtomicLong(RollJournal.FILE_HEADER);
+    private final AtomicBoolean retired = new AtomicBoolean();
+    private volatile long limit = -1;
+    
+    private JournalSegment(Path path, long sequence, Arena arena, FileChannel channel, MemorySegment memory) {
+        this.path = path;
+        this.sequence = sequence;
+        this.arena = arena;
+        this.channel = channel;
+        this.memory = memory;
+    }
+    
+    static JournalSegment create(Path path, long sequence, long bytes) throws IOException {
+        Arena arena = Arena.ofShared();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MemorySegment memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena);
+            memory.set(RollJournal.INT, 0, RollJournal.MAGIC);
+            memory.set(RollJournal.INT, 4, RollJournal.VERSION);
+            memory.set(RollJournal.LONG, 8, sequence);
+            return new JournalSegment(path, sequence, arena, channel, memory);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            if (channel != null) channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return the offset reserved for a record of the given size, or -1 once the segment is full
+     */
+    long reserve(long size) {
+        long at = position.getAndAdd(size);
+        if (at + size <= memory.byteSize()) return at;
+        // the first reservation past the end marks where the records stop
+        if (at <= memory.byteSize()) {
+            limit = at;
+            tryRetire();
+        }
+        return -1;
+    }
+    
+    void commit(long size) {
+        committed.addAndGet(size);
+        tryRetire();
+    }
+    
+    /**
+     * Stop taking records, as if it were full.
+     */
+    void seal() {
+        reserve(memory.byteSize());
+    }
+    
+    boolean isRetired() {
+        return retired.get();
+    }
+    
+    void force() {
+        memory.force();
+    }
+    
+    /**
+     * Unmap and cut the file down to the records, only once retired.
+     */
+    void close() throws IOException {
+        try {
+            memory.force();
+            arena.close();
+            channel.truncate(limit);
+        } finally {
+            channel.close();
+        }
+    }
+    
+    private void tryRetire() {
+        long l = limit;
+        if (l >= 0 && committed.get() == l) retired.set(true);
+    }
+}
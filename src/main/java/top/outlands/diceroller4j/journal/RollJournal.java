@@ -0,0 +1,281 @@
+package top.outlands.diceroller4j.journal;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import top.outlands.diceroller4j.analysis.Normalizer;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.trace.RollTrace;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of rolls in memory-mapped segment files, read back by {@link JournalReader}.
+ * <p>
+ * Appending reserves space by bumping an atomic position and writes the record straight into the mapping,
+ * so rolling threads neither lock nor wait for the disk. A background thread forces the segments every
+ * {@link JournalConfig#forceIntervalMillis()}, and {@link #sync()} waits for the next such force,
+ * which covers the records of every thread at once. The same thread forces, unmaps and cuts down
+ * full segments once every record in them is written.
+ * <p>
+ * Segment files are named by sequence number. Layout, little endian:
+ * <pre>
+ * header   magic, version (4 bytes each), sequence number (8)
+ * records  size (4), dice (4), timestamp in epoch millis (8), expression id (8), seed (8), roll id (8),
+ *          total (4), unused (4), then the dice, padded to 8 bytes
+ * </pre>
+ * A die takes 4 bytes, sides in the high half and value in the low half, unless a side or value exceeds
+ * 16 bits, in which case the top bit of the dice count is set and each die takes 8 bytes, sides then value.
+ * The size of a record is written last, so a record with a size of 0 is not written yet, and nothing after it is read.
+ * Safe for concurrent use.
+ */
+public final class RollJournal implements AutoCloseable {
+    
+    static final int MAGIC = 'D' | 'R' << 8 | 'J' << 16 | 'L' << 24;
+    static final int VERSION = 1;
+    static final int FILE_HEADER = 16;
+    static final int RECORD_HEADER = 48;
+    static final int WIDE = 1 << 31;
+    static final String SUFFIX = ".journal";
+    
+    static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    
+    private final Path directory;
+    private final JournalConfig config;
+    private final ReentrantLock rotating = new ReentrantLock();
+    private final Queue<JournalSegment> rotated = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<CompletableFuture<Void>> nextForce = new AtomicReference<>(new CompletableFuture<>());
+    private final ScheduledExecutorService flusher;
+    private volatile JournalSegment current;
+    private volatile boolean closed;
+    
+    private RollJournal(Path directory, JournalConfig config) throws IOException {
+        this.directory = directory;
+        this.config = config;
+        long sequence = lastSequence(directory) + 1;
+        this.current = JournalSegment.create(segmentPath(directory, sequence), sequence, config.segmentBytes());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "roll-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, config.forceIntervalMillis(), config.forceIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Start a new segment after those already in the directory, which is created if missing.
+     */
+    public static RollJournal open(Path directory, JournalConfig config) throws IOException {
+        Files.createDirectories(directory);
+        return new RollJournal(directory, config);
+    }
+    
+    public static RollJournal open(Path directory) throws IOException {
+        return open(directory, JournalConfig.DEFAULT);
+    }
+    
+    /**
+     * @return a 64-bit FNV-1a hash of the canonical form, equal for expressions that only differ in how they are written
+     */
+    public static long expressionId(IExpression expression) {
+        CompiledExpression canonical = expression instanceof CompiledExpression compiled ? compiled.normalized() : Normalizer.normalize(expression);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : canonical.toString().getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    /**
+     * Append a roll stamped with the current time.
+     * @param trace the dice to keep with it, or null to keep only the total
+     * @throws IllegalStateException once the journal is closed
+     */
+    public void append(long expression, long seed, long roll, int total, @Nullable RollTrace trace) {
+        int dice = trace == null ? 0 : trace.size();
+        boolean wide = trace != null && isWide(trace);
+        long bytes = RECORD_HEADER + (long) dice * (wide ? 8 : 4);
+        long size = (bytes + 7) & ~7L;
+        if (size > config.segmentBytes() - FILE_HEADER) throw new IllegalArgumentException("Record of " + size + " bytes does not fit a segment");
+        long timestamp = System.currentTimeMillis();
+        while (true) {
+            if (closed) throw new IllegalStateException("Journal closed");
+            JournalSegment segment = current;
+            long at = segment.reserve(size);
+            if (at < 0) {
+                rotate(segment);
+                continue;
+            }
+            MemorySegment memory = segment.memory;
+            memory.set(INT, at + 4, wide ? dice | WIDE : dice);
+            memory.set(LONG, at + 8, timestamp);
+            memory.set(LONG, at + 16, expression);
+            memory.set(LONG, at + 24, seed);
+            memory.set(LONG, at + 32, roll);
+            memory.set(INT, at + 40, total);
+            long offset = at + RECORD_HEADER;
+            for (int i = 0; i < dice; i++) {
+                if (wide) {
+                    memory.set(INT, offset, trace.sides(i));
+                    memory.set(INT, offset + 4, trace.value(i));
+                    offset += 8;
+                } else {
+                    memory.set(INT, offset, trace.sides(i) << 16 | trace.value(i));
+                    offset += 4;
+                }
+            }
+            // publish the size only after the body, readers stop at a size of 0
+            VarHandle.releaseFence();
+            memory.set(INT, at, (int) size);
+            segment.commit(size);
+            return;
+        }
+    }
+    
+    /**
+     * Wait until everything appended so far is on disk, which takes up to one force interval.
+     * Threads waiting together share the same force.
+     */
+    public void sync() {
+        if (closed) return;
+        try {
+            nextForce.get().join();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof UncheckedIOException io) throw io;
+            throw e;
+        }
+    }
+    
+    /**
+     * @return the sequence number of the segment being written
+     */
+    public long sequence() {
+        return current.sequence;
+    }
+    
+    public Path directory() {
+        return directory;
+    }
+    
+    /**
+     * Stop taking records, wait for those being written, then force, unmap and cut down the last segment.
+     */
+    @Override
+    public void close() throws IOException {
+        rotating.lock();
+        JournalSegment last;
+        try {
+            if (closed) return;
+            closed = true;
+            last = current;
+            last.seal();
+            rotated.add(last);
+        } finally {
+            rotating.unlock();
+        }
+        while (!last.isRetired()) {
+            Thread.onSpinWait();
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) throw new IOException("Journal flusher did not stop");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the journal", e);
+        }
+        flush();
+    }
+    
+    private void rotate(JournalSegment full) {
+        rotating.lock();
+        try {
+            if (closed) throw new IllegalStateException("Journal closed");
+            if (current != full) return;
+            long sequence = full.sequence + 1;
+            current = JournalSegment.create(segmentPath(directory, sequence), sequence, config.segmentBytes());
+            rotated.add(full);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            rotating.unlock();
+        }
+    }
+    
+    /**
+     * Close the full segments every writer is done with and force the others, on the flusher thread or once it stopped.
+     */
+    private void flush() {
+        CompletableFuture<Void> done = nextForce.getAndSet(new CompletableFuture<>());
+        try {
+            for (Iterator<JournalSegment> segments = rotated.iterator(); segments.hasNext(); ) {
+                JournalSegment segment = segments.next();
+                if (segment.isRetired()) {
+                    segments.remove();
+                    segment.close();
+                } else {
+                    segment.force();
+                }
+            }
+            JournalSegment segment = current;
+            if (!segment.isRetired()) segment.force();
+            done.complete(null);
+        } catch (IOException e) {
+            done.completeExceptionally(new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+    }
+    
+    private static boolean isWide(RollTrace trace) {
+        for (int i = 0; i < trace.size(); i++) {
+            if ((trace.sides(i) | trace.value(i)) >>> 16 != 0) return true;
+        }
+        return false;
+    }
+    
+    static Path segmentPath(Path directory, long sequence) {
+        return directory.resolve(String.format("%016d", sequence) + SUFFIX);
+    }
+    
+    /**
+     * @return the segment files in the directory, oldest first
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+    
+    private static long lastSequence(Path directory) throws IOException {
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) return 0;
+        String name = segments.getLast().getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollJournal{" + directory + ", segment " + current.sequence + (closed ? ", closed" : "") + "}";
+    }
+}
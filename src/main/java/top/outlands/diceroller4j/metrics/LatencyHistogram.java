@@ -0,0 +1,117 @@
+package top.outlands.diceroller4j.metrics;
+
+import org.jspecify.annotations.NonNull;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations in nanoseconds counted into buckets of a quarter of a power of two each, so any recorded duration is
+ * at most 25% below the upper bound its bucket reports. Recording is two striped adds and a max, without locks.
+ * Safe for concurrent use, a snapshot taken while recording may miss the latest durations.
+ */
+public final class LatencyHistogram {
+    
+    private static final int SUB_BITS = 2;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+    
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    /**
+     * @param nanos negative durations, from a clock going back, count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets[bucket(value)].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+    
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(counts, total.sum(), max.get());
+    }
+    
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        total.reset();
+        max.reset();
+    }
+    
+    static int bucket(long value) {
+        if (value < SUB) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return (exponent - SUB_BITS + 1) * SUB + sub;
+    }
+    
+    /**
+     * @return the largest value counted into the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB) return bucket;
+        if (bucket == BUCKETS - 1) return Long.MAX_VALUE;
+        int exponent = bucket / SUB + SUB_BITS - 1;
+        int sub = bucket % SUB;
+        return ((long) (SUB + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+    
+    /**
+     * The counts of a histogram at one point in time.
+     * @param totalNanos the sum of the recorded durations
+     * @param maxNanos the longest recorded duration
+     */
+    public record Snapshot(long[] counts, long totalNanos, long maxNanos) {
+        
+        public long count() {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            return count;
+        }
+        
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+        
+        /**
+         * @param p from 0 to 1
+         * @return the upper bound of the bucket holding the duration of that rank, at most the longest duration, 0 if empty
+         */
+        public long percentile(double p) {
+            if (p < 0 || p > 1) throw new IllegalArgumentException("p must be between 0 and 1: " + p);
+            long count = count();
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), maxNanos);
+            }
+            return maxNanos;
+        }
+        
+        @Override
+        @NonNull
+        public String toString() {
+            return "LatencyHistogram.Snapshot{count=" + count() + ", mean=" + Math.round(mean()) + "ns, p50=" + percentile(0.5)
+                    + "ns, p99=" + percentile(0.99) + "ns, max=" + maxNanos + "ns}";
+        }
+    }
+}
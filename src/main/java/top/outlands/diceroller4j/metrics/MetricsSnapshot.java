@@ -0,0 +1,58 @@
+package top.outlands.diceroller4j.metrics;
+
+import org.jspecify.annotations.NonNull;
+
+import java.util.Map;
+
+/**
+ * The values of {@link RollMetrics} at one point in time.
+ * @param compiles expressions compiled, not counting cache hits
+ * @param cacheHits compiles answered by an {@link top.outlands.diceroller4j.ExpressionCache}
+ * @param cacheMisses compiles an {@link top.outlands.diceroller4j.ExpressionCache} had to do
+ * @param diceRolled dice whose faces were drawn
+ * @param randomDraws values drawn from the generators, by dice and by sampled totals
+ * @param explosions extra dice rolled by explode
+ * @param rerolls dice rolled again by reroll and emphasis
+ * @param nodeRolls rolls by node type, by simple class name
+ */
+public record MetricsSnapshot(boolean enabled, long compiles, long cacheHits, long cacheMisses, long diceRolled, long randomDraws,
+                              long explosions, long rerolls, Map<String, Long> nodeRolls,
+                              LatencyHistogram.Snapshot compileLatency, LatencyHistogram.Snapshot rollLatency) {
+    
+    /**
+     * Write one {@code name value} line per metric, latencies in nanoseconds.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        line(builder, "enabled", enabled ? 1 : 0);
+        line(builder, "compiles", compiles);
+        line(builder, "cache.hits", cacheHits);
+        line(builder, "cache.misses", cacheMisses);
+        line(builder, "dice.rolled", diceRolled);
+        line(builder, "random.draws", randomDraws);
+        line(builder, "explosions", explosions);
+        line(builder, "rerolls", rerolls);
+        nodeRolls.forEach((node, rolls) -> line(builder, "rolls." + node, rolls));
+        latency(builder, "compile", compileLatency);
+        latency(builder, "roll", rollLatency);
+        return builder;
+    }
+    
+    private static void latency(StringBuilder builder, String name, LatencyHistogram.Snapshot latency) {
+        line(builder, name + ".count", latency.count());
+        line(builder, name + ".mean", Math.round(latency.mean()));
+        line(builder, name + ".p50", latency.percentile(0.5));
+        line(builder, name + ".p99", latency.percentile(0.99));
+        line(builder, name + ".p999", latency.percentile(0.999));
+        line(builder, name + ".max", latency.maxNanos());
+    }
+    
+    private static void line(StringBuilder builder, String name, long value) {
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+}
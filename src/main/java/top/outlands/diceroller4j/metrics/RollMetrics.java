@@ -0,0 +1,120 @@
+package top.outlands.diceroller4j.metrics;
+
+import top.outlands.diceroller4j.expressions.IExpression;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms on the compile and roll paths, off unless the JVM is started with
+ * {@code -Ddiceroller4j.metrics=true}.
+ * <p>
+ * Every instrumented path checks {@link #ENABLED} first. It is a static final constant, so with metrics off
+ * the JIT folds those branches away and the paths run as they did before they were instrumented.
+ * Counters are striped {@link LongAdder}s and histograms are {@link LatencyHistogram}s, cheap to update from many threads.
+ * <p>
+ * Nodes count their own rolls. A {@link top.outlands.diceroller4j.expressions.Tier#FLATTENED} expression rolls its
+ * arithmetic and dice without the nodes, so only the expression, the dice and the nodes it still calls are counted;
+ * a {@link top.outlands.diceroller4j.expressions.Tier#SAMPLED} one counts a draw and no dice.
+ */
+public final class RollMetrics {
+    
+    public static final String PROPERTY = "diceroller4j.metrics";
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+    
+    private static final LongAdder compiles = new LongAdder();
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder cacheMisses = new LongAdder();
+    private static final LongAdder diceRolled = new LongAdder();
+    private static final LongAdder randomDraws = new LongAdder();
+    private static final LongAdder explosions = new LongAdder();
+    private static final LongAdder rerolls = new LongAdder();
+    private static final Map<Class<?>, LongAdder> nodes = new ConcurrentHashMap<>();
+    // a lookup per node roll, cheaper than hashing the class
+    private static final ClassValue<LongAdder> NODES = new ClassValue<>() {
+        @Override
+        protected LongAdder computeValue(Class<?> type) {
+            return nodes.computeIfAbsent(type, t -> new LongAdder());
+        }
+    };
+    private static final LatencyHistogram compileLatency = new LatencyHistogram();
+    private static final LatencyHistogram rollLatency = new LatencyHistogram();
+    
+    private RollMetrics() {
+    }
+    
+    public static void compiled(long nanos) {
+        compiles.increment();
+        compileLatency.record(nanos);
+    }
+    
+    public static void cacheHit() {
+        cacheHits.increment();
+    }
+    
+    public static void cacheMiss() {
+        cacheMisses.increment();
+    }
+    
+    public static void rolled(IExpression node) {
+        NODES.get(node.getClass()).increment();
+    }
+    
+    /**
+     * A compiled expression was rolled in the given time.
+     */
+    public static void rollTime(long nanos) {
+        rollLatency.record(nanos);
+    }
+    
+    /**
+     * Dice were rolled, one draw each.
+     */
+    public static void dice(int n) {
+        diceRolled.add(n);
+        randomDraws.add(n);
+    }
+    
+    /**
+     * Values were drawn without rolling dice.
+     */
+    public static void draws(int n) {
+        randomDraws.add(n);
+    }
+    
+    public static void exploded() {
+        explosions.increment();
+    }
+    
+    public static void rerolled() {
+        rerolls.increment();
+    }
+    
+    /**
+     * @return the values so far, all zero while metrics are off
+     */
+    public static MetricsSnapshot snapshot() {
+        Map<String, Long> rolls = new TreeMap<>();
+        nodes.forEach((type, count) -> rolls.merge(type.getSimpleName(), count.sum(), Long::sum));
+        return new MetricsSnapshot(ENABLED, compiles.sum(), cacheHits.sum(), cacheMisses.sum(), diceRolled.sum(), randomDraws.sum(),
+                explosions.sum(), rerolls.sum(), rolls, compileLatency.snapshot(), rollLatency.snapshot());
+    }
+    
+    /**
+     * Start counting from zero, updates racing with the reset may be lost.
+     */
+    public static void reset() {
+        compiles.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        diceRolled.reset();
+        randomDraws.reset();
+        explosions.reset();
+        rerolls.reset();
+        nodes.values().forEach(LongAdder::reset);
+        compileLatency.reset();
+        rollLatency.reset();
+    }
+}
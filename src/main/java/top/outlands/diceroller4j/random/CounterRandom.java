@@ -0,0 +1,116 @@
+package top.outlands.diceroller4j.random;
+
+import org.jspecify.annotations.NonNull;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Counter based generator in the style of SplitMix64: the i-th value of a roll is a pure function of
+ * (seed, roll id, i), so any die of any roll can be recomputed with {@link #die} without generating the values before it.
+ * <p>
+ * A roll is selected with {@link #startRoll(long)}, after which every {@link #nextInt(int)} takes exactly one value,
+ * so the n-th die rolled is always value n. Bounded ints come from the high half of a 64 by 32 bit product,
+ * biased by less than 2^-32 and never rejected. Not safe for concurrent use.
+ */
+public final class CounterRandom implements RandomGenerator {
+    
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    
+    private final long seed;
+    private long roll;
+    private long key;
+    private long counter;
+    
+    public CounterRandom(long seed) {
+        this.seed = seed;
+        startRoll(0);
+    }
+    
+    /**
+     * Restart at the first value of the given roll.
+     */
+    public void startRoll(long roll) {
+        this.roll = roll;
+        this.key = key(seed, roll);
+        this.counter = 0;
+    }
+    
+    public long seed() {
+        return seed;
+    }
+    
+    public long roll() {
+        return roll;
+    }
+    
+    /**
+     * @return the amount of values taken since {@link #startRoll(long)}, the index of the next one
+     */
+    public long counter() {
+        return counter;
+    }
+    
+    /**
+     * @return the value {@link #nextLong()} returns at the given index of the roll
+     */
+    public static long at(long seed, long roll, long index) {
+        return value(key(seed, roll), index);
+    }
+    
+    /**
+     * @return the face of the die rolled at the given index of the roll, from 1 to sides
+     */
+    public static int die(long seed, long roll, long index, int sides) {
+        return bounded(at(seed, roll, index), sides) + 1;
+    }
+    
+    @Override
+    public long nextLong() {
+        return value(key, counter++);
+    }
+    
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+    
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+        return bounded(nextLong(), bound);
+    }
+    
+    @Override
+    public int nextInt(int origin, int bound) {
+        if (origin >= bound) throw new IllegalArgumentException("bound must be greater than origin");
+        return (int) (origin + (Math.unsignedMultiplyHigh(nextLong(), (long) bound - origin)));
+    }
+    
+    private static long key(long seed, long roll) {
+        // distinct rolls start far apart on the Weyl sequence
+        return mix(mix(seed) + mix(roll + GOLDEN_GAMMA));
+    }
+    
+    private static long value(long key, long index) {
+        return mix(key + (index + 1) * GOLDEN_GAMMA);
+    }
+    
+    private static int bounded(long value, int bound) {
+        return (int) Math.unsignedMultiplyHigh(value, bound);
+    }
+    
+    /**
+     * The SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "CounterRandom{seed=" + seed + ", roll=" + roll + ", counter=" + counter + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package top.outlands.diceroller4j.random;
+
+import org.jspecify.annotations.NonNull;
+
+import java.util.Random;
+
+/**
+ * Passes every draw on to another generator and counts them, so a roll made with it draws the same values
+ * as with the other one. Bounded ints, which is how dice are rolled, are counted apart as dice.
+ * Not safe for concurrent use.
+ */
+public final class CountingRandom extends Random {
+    
+    private final Random random;
+    private long draws;
+    private long dice;
+    
+    public CountingRandom(Random random) {
+        super(0);
+        this.random = random;
+    }
+    
+    /**
+     * @return how many values were drawn
+     */
+    public long draws() {
+        return draws;
+    }
+    
+    /**
+     * @return how many of the draws were bounded ints
+     */
+    public long dice() {
+        return dice;
+    }
+    
+    @Override
+    public int nextInt(int bound) {
+        draws++;
+        dice++;
+        return random.nextInt(bound);
+    }
+    
+    @Override
+    public int nextInt(int origin, int bound) {
+        draws++;
+        dice++;
+        return random.nextInt(origin, bound);
+    }
+    
+    @Override
+    public int nextInt() {
+        draws++;
+        return random.nextInt();
+    }
+    
+    @Override
+    public long nextLong() {
+        draws++;
+        return random.nextLong();
+    }
+    
+    @Override
+    public long nextLong(long bound) {
+        draws++;
+        return random.nextLong(bound);
+    }
+    
+    @Override
+    public long nextLong(long origin, long bound) {
+        draws++;
+        return random.nextLong(origin, bound);
+    }
+    
+    @Override
+    public boolean nextBoolean() {
+        draws++;
+        return random.nextBoolean();
+    }
+    
+    @Override
+    public float nextFloat() {
+        draws++;
+        return random.nextFloat();
+    }
+    
+    @Override
+    public double nextDouble() {
+        draws++;
+        return random.nextDouble();
+    }
+    
+    @Override
+    public double nextGaussian() {
+        draws++;
+        return random.nextGaussian();
+    }
+    
+    @Override
+    public void nextBytes(byte[] bytes) {
+        draws++;
+        random.nextBytes(bytes);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "CountingRandom{" + draws + " draws, " + dice + " dice}";
+    }
+}
@@ -0,0 +1,9 @@
+package top.outlands.diceroller4j.random;
+
+import top.outlands.diceroller4j.trace.RollTrace;
+
+/**
+ * A roll recomputed by {@link RollAudit#replay}, with every die in the order it was rolled.
+ */
+public record ReplayedRoll(String expression, long roll, int total, RollTrace trace) {
+}
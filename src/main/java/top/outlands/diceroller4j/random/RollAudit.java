@@ -0,0 +1,92 @@
+package top.outlands.diceroller4j.random;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.journal.RollJournal;
+import top.outlands.diceroller4j.trace.ExplainTrace;
+import top.outlands.diceroller4j.trace.RollTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.Random;
+
+/**
+ * Rolls whose dice are drawn from a {@link CounterRandom}, so a roll is fully determined by the seed,
+ * the expression and its roll id. An audit log only needs to keep those, and {@link #replay} rebuilds the dice on demand.
+ * <p>
+ * Rolls draw from the generator through {@link RandomUtil#withRandom} on the rolling thread only, and are appended to the
+ * {@link RollJournal} if there is one, as the seed, roll id and total without the dice.
+ * Not safe for concurrent use, but audits on different threads do not disturb each other.
+ */
+public final class RollAudit {
+    
+    private final CounterRandom generator;
+    private final Random random;
+    private final @Nullable RollJournal journal;
+    private IExpression lastExpression;
+    private long lastId;
+    
+    public RollAudit(long seed) {
+        this(seed, null);
+    }
+    
+    public RollAudit(long seed, @Nullable RollJournal journal) {
+        this.generator = new CounterRandom(seed);
+        this.random = Random.from(generator);
+        this.journal = journal;
+    }
+    
+    public long seed() {
+        return generator.seed();
+    }
+    
+    /**
+     * Roll with the dice of the given roll id, the same total every time.
+     */
+    public int roll(IExpression expression, long roll) {
+        int total = draw(expression, roll);
+        if (journal != null) {
+            if (expression != lastExpression) {
+                lastId = RollJournal.expressionId(expression);
+                lastExpression = expression;
+            }
+            journal.append(lastId, generator.seed(), roll, total, null);
+        }
+        return total;
+    }
+    
+    /**
+     * Roll the given roll id again, recording every die into a trace of its own whatever the current {@link TraceMode}.
+     * {@link DiceResults} is left alone, and nothing is journaled.
+     */
+    public ReplayedRoll replay(IExpression expression, long roll) {
+        ExplainTrace explained = new ExplainTrace();
+        generator.startRoll(roll);
+        int total = DiceResults.withMode(TraceMode.NONE, () -> RandomUtil.withRandom(random, () -> ExplainTrace.explain(expression, explained).total()));
+        RollTrace trace = new RollTrace();
+        for (int id = 0; id < explained.size(); id++) {
+            if (explained.isDie(id)) trace.add(explained.sides(id), explained.value(id));
+        }
+        return new ReplayedRoll(expression.toString(), roll, total, trace);
+    }
+    
+    /**
+     * @return the face of the die rolled at the given index of a roll, without rolling the ones before it
+     */
+    public int die(long roll, long index, int sides) {
+        return CounterRandom.die(generator.seed(), roll, index, sides);
+    }
+    
+    private int draw(IExpression expression, long roll) {
+        generator.startRoll(roll);
+        return RandomUtil.withRandom(random, expression::roll);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollAudit{seed=" + generator.seed() + "}";
+    }
+}
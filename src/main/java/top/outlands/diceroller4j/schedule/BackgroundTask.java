@@ -0,0 +1,23 @@
+package top.outlands.diceroller4j.schedule;
+
+/**
+ * Long work run by a {@link RollScheduler} a step at a time, so interactive work gets the worker between steps.
+ * Steps should take a few milliseconds at most, or call {@link Cooperative#yieldPoint()} in their loops.
+ * A task is only ever run by one thread at a time and needs no synchronization of its own.
+ * @param <T> the type of the result
+ */
+public interface BackgroundTask<T> {
+    
+    /**
+     * Do the next piece of the work.
+     * @return true once the work is done and {@link #result()} is ready
+     */
+    boolean step();
+    
+    /**
+     * @return how much of the work is done, from 0 to 1
+     */
+    double progress();
+    
+    T result();
+}
@@ -0,0 +1,70 @@
+package top.outlands.diceroller4j.schedule;
+
+import top.outlands.diceroller4j.DiceResults;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Yield points for long loops. Called from inside a step of a {@link RollScheduler} background job,
+ * a yield point runs the interactive work waiting on the scheduler and stops the job once it is cancelled.
+ * Anywhere else it does nothing, at the cost of one volatile read while no job is running at all.
+ */
+public final class Cooperative {
+    
+    private static final ThreadLocal<RollJob<?>> CURRENT = new ThreadLocal<>();
+    private static final AtomicInteger running = new AtomicInteger();
+    
+    private Cooperative() {
+    }
+    
+    /**
+     * @throws CancellationException if the job being run on this thread was cancelled
+     */
+    public static void yieldPoint() {
+        if (running.get() != 0) {
+            RollJob<?> job = CURRENT.get();
+            if (job != null) job.yieldPoint();
+        }
+    }
+    
+    /**
+     * Run a step of the job on this thread, with yield points in it answering to the job.
+     */
+    static boolean step(RollJob<?> job) {
+        RollJob<?> previous = CURRENT.get();
+        CURRENT.set(job);
+        running.incrementAndGet();
+        try {
+            return job.step();
+        } finally {
+            running.decrementAndGet();
+            restore(previous);
+        }
+    }
+    
+    /**
+     * Run interactive work from a yield point, where yield points do not answer to the suspended job
+     * and dice are recorded in the mode set for all threads rather than the one the job rolls with.
+     */
+    static void suspended(Runnable work) {
+        RollJob<?> job = CURRENT.get();
+        CURRENT.remove();
+        try {
+            DiceResults.withMode(null, () -> {
+                work.run();
+                return null;
+            });
+        } finally {
+            restore(job);
+        }
+    }
+    
+    private static void restore(RollJob<?> job) {
+        if (job == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(job);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package top.outlands.diceroller4j.schedule;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.jfr.JobEvent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A background job on a {@link RollScheduler}: its result, its progress and a way to stop it.
+ * Safe for concurrent use.
+ * @param <T> the type of the result
+ */
+public final class RollJob<T> {
+    
+    private final RollScheduler scheduler;
+    private final BackgroundTask<T> task;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private volatile double progress;
+    private volatile int steps;
+    
+    /**
+     * @param kind what the job does, for its {@link JobEvent}
+     * @param expression what it rolls, if anything
+     * @param samples how many rolls it makes, 0 if it does not roll
+     */
+    RollJob(RollScheduler scheduler, BackgroundTask<T> task, String kind, @Nullable IExpression expression, long samples) {
+        this.scheduler = scheduler;
+        this.task = task;
+        JobEvent event = new JobEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            future.whenComplete((result, failure) -> event.complete(kind, expression == null ? null : expression.toString(), samples,
+                    scheduler.workers(), steps, isCancelled() ? "cancelled" : failure != null ? "failed" : "done"));
+        }
+    }
+    
+    /**
+     * @return the result, completed exceptionally with a {@link CancellationException} if the job is cancelled
+     */
+    public CompletableFuture<T> future() {
+        return future;
+    }
+    
+    /**
+     * @return how much of the work is done, from 0 to 1, as of the last step or yield point
+     */
+    public double progress() {
+        return progress;
+    }
+    
+    /**
+     * @return how many steps were run so far
+     */
+    public int steps() {
+        return steps;
+    }
+    
+    /**
+     * Stop the job at its next yield point or step, whichever comes first.
+     * @return false if it already finished
+     */
+    public boolean cancel() {
+        return future.cancel(false);
+    }
+    
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+    
+    public boolean isDone() {
+        return future.isDone();
+    }
+    
+    /**
+     * Called on the worker, with the job as the current one of {@link Cooperative}.
+     * @return true once the job is finished, one way or another
+     */
+    boolean step() {
+        if (future.isDone()) return true;
+        boolean done;
+        try {
+            done = task.step();
+        } catch (CancellationException e) {
+            future.cancel(false);
+            return true;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            return true;
+        }
+        steps++;
+        progress = done ? 1 : task.progress();
+        if (done) future.complete(task.result());
+        return done;
+    }
+    
+    void yieldPoint() {
+        if (future.isDone() || scheduler.isClosed()) throw new CancellationException("Job cancelled");
+        progress = task.progress();
+        scheduler.runInteractive();
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollJob{" + (isCancelled() ? "cancelled" : isDone() ? "done" : Math.round(progress * 100) + "%") + "}";
+    }
+}
@@ -0,0 +1,257 @@
+package top.outlands.diceroller4j.schedule;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.simulation.RollStatistics;
+import top.outlands.diceroller4j.simulation.Simulator;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs interactive rolls and background jobs on the same workers without the jobs holding up the rolls.
+ * <p>
+ * Work goes into one of two lanes. Workers always take interactive work first, and run background jobs a step at a time,
+ * putting a job back behind the others after each step, so jobs share the workers and a roll waits for a step at most.
+ * Steps are cut shorter by {@link Cooperative#yieldPoint()}, which the simulation loops and the convolutions of
+ * {@link Distribution} call: there a worker runs the interactive work waiting and carries on with the job,
+ * or abandons the job if it was cancelled.
+ * <p>
+ * Safe for concurrent use.
+ */
+public final class RollScheduler implements AutoCloseable {
+    
+    /**
+     * Rolls per step of a simulation job.
+     */
+    public static final long SIMULATION_STEP = 1 << 16;
+    
+    private final Queue<Runnable> interactive = new ConcurrentLinkedQueue<>();
+    private final Queue<RollJob<?>> background = new ConcurrentLinkedQueue<>();
+    private final Object monitor = new Object();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final LongAdder yielded = new LongAdder();
+    private final Thread[] workers;
+    private volatile boolean closed;
+    
+    public RollScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    public RollScheduler(int workers) {
+        if (workers < 1) throw new IllegalArgumentException("workers must be positive: " + workers);
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = Thread.ofPlatform().name("roll-scheduler-", i).daemon().start(this::work);
+        }
+    }
+    
+    /**
+     * Roll on the interactive lane.
+     * @throws IllegalStateException once the scheduler is closed
+     */
+    public CompletableFuture<Integer> roll(IExpression expression) {
+        return interactive(expression::roll);
+    }
+    
+    /**
+     * Run short work on the interactive lane, ahead of every background job.
+     * @throws IllegalStateException once the scheduler is closed
+     */
+    public <T> CompletableFuture<T> interactive(Supplier<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            if (future.isDone()) return;
+            try {
+                future.complete(work.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        offer(interactive, task);
+        return future;
+    }
+    
+    /**
+     * Run a job on the background lane.
+     * @throws IllegalStateException once the scheduler is closed
+     */
+    public <T> RollJob<T> submit(BackgroundTask<T> task) {
+        return submit(task, "task", null, 0);
+    }
+    
+    /**
+     * Roll the expression the given amount of times on the background lane, {@link #SIMULATION_STEP} rolls a step.
+     */
+    public RollJob<RollStatistics> simulate(IExpression expression, long samples) {
+        return submit(new BackgroundTask<RollStatistics>() {
+            private final RollStatistics statistics = new RollStatistics();
+            
+            @Override
+            public boolean step() {
+                Simulator.simulate(expression, Math.min(SIMULATION_STEP, samples - statistics.count()), statistics);
+                return statistics.count() >= samples;
+            }
+            
+            @Override
+            public double progress() {
+                return samples == 0 ? 1 : (double) statistics.count() / samples;
+            }
+            
+            @Override
+            public RollStatistics result() {
+                return statistics;
+            }
+        }, "simulation", expression, samples);
+    }
+    
+    /**
+     * Compute the distribution of the expression on the background lane, in one step broken up by the yield points
+     * of the convolutions. Progress stays at 0 until it is done.
+     */
+    public RollJob<Distribution> distribution(IExpression expression, DistributionCache cache) {
+        return submit(new BackgroundTask<Distribution>() {
+            private Distribution distribution;
+            
+            @Override
+            public boolean step() {
+                distribution = cache.get(expression);
+                return true;
+            }
+            
+            @Override
+            public double progress() {
+                return distribution == null ? 0 : 1;
+            }
+            
+            @Override
+            public Distribution result() {
+                return distribution;
+            }
+        }, "distribution", expression, 0);
+    }
+    
+    /**
+     * @return the amount of worker threads
+     */
+    public int workers() {
+        return workers.length;
+    }
+    
+    /**
+     * @return how many interactive tasks were run from a yield point inside a background job
+     */
+    public long yielded() {
+        return yielded.sum();
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Stop taking work, run the interactive work already taken and cancel the background jobs.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        // whatever was offered while the workers stopped
+        Runnable task;
+        while ((task = interactive.poll()) != null) {
+            task.run();
+        }
+        RollJob<?> job;
+        while ((job = background.poll()) != null) {
+            job.cancel();
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+    
+    private <T> RollJob<T> submit(BackgroundTask<T> task, String kind, @Nullable IExpression expression, long samples) {
+        RollJob<T> job = new RollJob<>(this, task, kind, expression, samples);
+        offer(background, job);
+        return job;
+    }
+    
+    /**
+     * Called from a yield point of a background job on this thread.
+     */
+    void runInteractive() {
+        if (interactive.isEmpty()) return;
+        Cooperative.suspended(() -> {
+            Runnable task;
+            while ((task = interactive.poll()) != null) {
+                // counted before running, so whoever waits on the task sees it counted
+                yielded.increment();
+                task.run();
+            }
+        });
+    }
+    
+    private <T> void offer(Queue<T> lane, T work) {
+        if (closed) throw new IllegalStateException("Scheduler closed");
+        lane.add(work);
+        // the workers may have stopped and close() drained the lanes before the add, take it back if nobody took it
+        if (closed && lane.remove(work)) throw new IllegalStateException("Scheduler closed");
+        if (idle.get() > 0) {
+            synchronized (monitor) {
+                monitor.notify();
+            }
+        }
+    }
+    
+    private void work() {
+        while (true) {
+            Runnable task = interactive.poll();
+            if (task != null) {
+                task.run();
+                continue;
+            }
+            RollJob<?> job = closed ? null : background.poll();
+            if (job != null) {
+                if (!Cooperative.step(job)) background.add(job);
+                continue;
+            }
+            synchronized (monitor) {
+                idle.incrementAndGet();
+                try {
+                    while (interactive.isEmpty() && (closed || background.isEmpty())) {
+                        if (closed) return;
+                        monitor.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    idle.decrementAndGet();
+                }
+            }
+        }
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollScheduler{" + workers.length + " workers, " + interactive.size() + " interactive, " + background.size() + " background"
+                + (closed ? ", closed" : "") + "}";
+    }
+}
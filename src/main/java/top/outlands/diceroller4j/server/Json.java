@@ -0,0 +1,41 @@
+package top.outlands.diceroller4j.server;
+
+/**
+ * The little JSON the server writes, appended straight to a builder.
+ */
+final class Json {
+    
+    private Json() {
+    }
+    
+    static void string(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+    
+    /**
+     * NaN and the infinities have no JSON form and are written as null.
+     */
+    static void number(StringBuilder json, double value) {
+        if (Double.isFinite(value)) {
+            json.append(value);
+        } else {
+            json.append("null");
+        }
+    }
+}
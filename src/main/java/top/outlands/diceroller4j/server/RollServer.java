@@ -0,0 +1,417 @@
+package top.outlands.diceroller4j.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.ExpressionCache;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.RollBudgetExceededException;
+import top.outlands.diceroller4j.analysis.CostEstimate;
+import top.outlands.diceroller4j.analysis.CostEstimator;
+import top.outlands.diceroller4j.analysis.ExecutionPlan;
+import top.outlands.diceroller4j.codec.RollDecoder;
+import top.outlands.diceroller4j.codec.RollEncoder;
+import top.outlands.diceroller4j.codec.RollFormat;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.distribution.UnsupportedDistributionException;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+import top.outlands.diceroller4j.metrics.LatencyHistogram;
+import top.outlands.diceroller4j.metrics.MetricsSnapshot;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.random.CounterRandom;
+import top.outlands.diceroller4j.simulation.RollStatistics;
+import top.outlands.diceroller4j.trace.ExplainTrace;
+import top.outlands.diceroller4j.trace.RollTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Rolls and distributions over HTTP on the JDK's built-in server, one virtual thread per request.
+ * Every endpoint takes GET requests and answers JSON:
+ * <pre>
+ * /roll?expression=4d6k3[&amp;seed=S&amp;roll=R]                 one roll with its dice, written by a {@link RollEncoder}
+ * /bulk?expression=3d6&amp;count=N[&amp;seed=S][&amp;totals=true]   N rolls summed up by {@link RollStatistics}, see {@link #BULK_DRAWS}
+ * /distribution?expression=2d6                        the exact distribution
+ * /probability?expression=d20+5&amp;relation=ge&amp;value=15    the chance of rolling eq, le or ge the value
+ * /explain?expression=4d6k3                           the {@link ExecutionPlan} of the cached expression
+ * /metrics                                            the {@link RollMetrics} snapshot, all zero unless they are on
+ * </pre>
+ * Expressions are compiled once through an {@link ExpressionCache} and distributions come from a {@link DistributionCache}.
+ * Each request rolls with its own {@link CounterRandom}, seeded at random unless a seed is given, and answers with the seed,
+ * so any roll can be replayed: roll i of a bulk request is {@code /roll} with the same seed and roll id i.
+ * The body of {@code /roll} is the {@link RollFormat#JSON} of a roll that {@link RollDecoder} reads back,
+ * its seed and roll id are sent in the {@code Roll-Seed} and {@code Roll-Id} headers.
+ * Malformed requests are answered with 400 and expressions that cannot be rolled or analyzed with 422,
+ * both with an {@code error} message.
+ * <p>
+ * Requests are answered with the {@link TraceMode} {@link TraceMode#NONE} on their own thread, see {@link DiceResults#withMode}:
+ * the shared trace of {@link DiceResults} cannot follow concurrent requests, the dice of a roll are taken from
+ * its own {@link ExplainTrace} instead. The rest of the process keeps its mode.
+ */
+public final class RollServer implements AutoCloseable {
+    
+    /**
+     * The most rolls a bulk request may ask for.
+     */
+    public static final int BULK_LIMIT = 1_000_000;
+    /**
+     * The most random draws a bulk request may be expected to take, its count times the
+     * {@link CostEstimate#expectedDraws() expected draws} of one roll.
+     */
+    public static final long BULK_DRAWS = 50_000_000;
+    /**
+     * The most totals a bulk request may list.
+     */
+    public static final int TOTALS_LIMIT = 10_000;
+    
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ExpressionCache expressions;
+    private final DistributionCache distributions;
+    
+    private RollServer(HttpServer server, ExpressionCache expressions, DistributionCache distributions) {
+        this.server = server;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.expressions = expressions;
+        this.distributions = distributions;
+        server.setExecutor(executor);
+        server.createContext("/roll", exchange -> handle(exchange, this::roll));
+        server.createContext("/bulk", exchange -> handle(exchange, json(this::bulk)));
+        server.createContext("/distribution", exchange -> handle(exchange, json(this::distribution)));
+        server.createContext("/probability", exchange -> handle(exchange, json(this::probability)));
+        server.createContext("/explain", exchange -> handle(exchange, json(this::explain)));
+        server.createContext("/metrics", exchange -> handle(exchange, json(RollServer::metrics)));
+    }
+    
+    /**
+     * Listen on the address, port 0 picks a free one.
+     */
+    public static RollServer start(InetSocketAddress address) throws IOException {
+        return start(address, new ExpressionCache(), new DistributionCache());
+    }
+    
+    public static RollServer start(InetSocketAddress address, ExpressionCache expressions, DistributionCache distributions) throws IOException {
+        RollServer server = new RollServer(HttpServer.create(address, 0), expressions, distributions);
+        server.server.start();
+        return server;
+    }
+    
+    /**
+     * Serve on the port given as the only argument, 8080 by default, until the process is stopped.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        RollServer server = start(new InetSocketAddress(port));
+        System.out.println("Serving rolls on " + server.uri());
+    }
+    
+    public int port() {
+        return server.getAddress().getPort();
+    }
+    
+    public URI uri() {
+        return URI.create("http://localhost:" + port() + "/");
+    }
+    
+    public ExpressionCache expressions() {
+        return expressions;
+    }
+    
+    public DistributionCache distributions() {
+        return distributions;
+    }
+    
+    /**
+     * Stop accepting requests and wait for those in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+    
+    private void roll(Map<String, String> query, Headers headers, ByteArrayOutputStream body) throws InvalidExpressionException {
+        CompiledExpression expression = expression(query);
+        long seed = seed(query);
+        long roll = number(query, "roll", 0);
+        CounterRandom generator = new CounterRandom(seed);
+        generator.startRoll(roll);
+        ExplainTrace trace = new ExplainTrace();
+        int total = RandomUtil.withRandom(Random.from(generator), () -> ExplainTrace.explain(expression, trace).total());
+        RollTrace dice = new RollTrace(trace.size());
+        for (int id = 0; id < trace.size(); id++) {
+            if (trace.isDie(id)) dice.add(trace.sides(id), trace.value(id));
+        }
+        try {
+            new RollEncoder(RollFormat.JSON).encode(expression, total, dice, body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        headers.set("Roll-Seed", Long.toString(seed));
+        headers.set("Roll-Id", Long.toString(roll));
+    }
+    
+    private void bulk(Map<String, String> query, StringBuilder json) throws InvalidExpressionException {
+        CompiledExpression expression = expression(query);
+        long seed = seed(query);
+        long count = number(query, "count", 1);
+        if (count < 1 || count > BULK_LIMIT) throw new IllegalArgumentException("count must be from 1 to " + BULK_LIMIT);
+        double draws = count * CostEstimator.estimate(expression).expectedDraws();
+        if (!(draws <= BULK_DRAWS)) {
+            throw new IllegalArgumentException("Too many draws expected: " + (long) draws + " > " + BULK_DRAWS + ", ask for fewer rolls");
+        }
+        boolean totals = Boolean.parseBoolean(query.get("totals"));
+        if (totals && count > TOTALS_LIMIT) throw new IllegalArgumentException("At most " + TOTALS_LIMIT + " totals can be listed");
+        CounterRandom generator = new CounterRandom(seed);
+        Random random = Random.from(generator);
+        RollStatistics statistics = new RollStatistics();
+        int[] listed = new int[totals ? (int) count : 0];
+        for (int roll = 0; roll < count; roll++) {
+            generator.startRoll(roll);
+            int total = RandomUtil.withRandom(random, expression::roll);
+            statistics.add(total);
+            if (totals) listed[roll] = total;
+        }
+        json.append("{\"expression\":");
+        Json.string(json, expression.toString());
+        json.append(",\"seed\":").append(seed).append(",\"count\":").append(count);
+        json.append(",\"mean\":");
+        Json.number(json, statistics.mean());
+        json.append(",\"standardDeviation\":");
+        Json.number(json, statistics.standardDeviation());
+        json.append(",\"min\":").append(statistics.min()).append(",\"max\":").append(statistics.max());
+        json.append(",\"p50\":").append(statistics.percentile(0.5)).append(",\"p99\":").append(statistics.percentile(0.99));
+        json.append(",\"exact\":").append(statistics.isExact());
+        if (totals) {
+            json.append(",\"totals\":[");
+            for (int i = 0; i < listed.length; i++) {
+                if (i > 0) json.append(',');
+                json.append(listed[i]);
+            }
+            json.append(']');
+        }
+        json.append('}');
+    }
+    
+    private void distribution(Map<String, String> query, StringBuilder json) throws InvalidExpressionException {
+        CompiledExpression expression = expression(query);
+        Distribution distribution = distributions.get(expression);
+        json.append("{\"expression\":");
+        Json.string(json, expression.toString());
+        json.append(",\"min\":").append(distribution.min()).append(",\"max\":").append(distribution.max());
+        json.append(",\"mean\":");
+        Json.number(json, distribution.mean());
+        json.append(",\"variance\":");
+        Json.number(json, distribution.variance());
+        json.append(",\"pmf\":[");
+        for (int value = distribution.min(); value <= distribution.max(); value++) {
+            if (value > distribution.min()) json.append(',');
+            Json.number(json, distribution.probability(value));
+        }
+        json.append("]}");
+    }
+    
+    private void probability(Map<String, String> query, StringBuilder json) throws InvalidExpressionException {
+        CompiledExpression expression = expression(query);
+        Relation relation = switch (required(query, "relation")) {
+            case "eq" -> Relation.EQUAL;
+            case "le" -> Relation.LESS_OR_EQUAL;
+            case "ge" -> Relation.GREATER_OR_EQUAL;
+            default -> throw new IllegalArgumentException("relation must be eq, le or ge");
+        };
+        long value = number(query, "value", 0);
+        if (value != (int) value) throw new IllegalArgumentException("value out of range: " + value);
+        double probability = distributions.get(expression).probability(relation, (int) value);
+        json.append("{\"expression\":");
+        Json.string(json, expression.toString());
+        json.append(",\"relation\":\"").append(query.get("relation")).append("\",\"value\":").append(value);
+        json.append(",\"probability\":");
+        Json.number(json, probability);
+        json.append('}');
+    }
+    
+    private void explain(Map<String, String> query, StringBuilder json) throws InvalidExpressionException {
+        ExecutionPlan plan = expression(query).explain();
+        json.append("{\"expression\":");
+        Json.string(json, plan.expression().toString());
+        json.append(",\"tier\":\"").append(plan.tier()).append("\",\"steps\":[");
+        for (int i = 0; i < plan.steps().size(); i++) {
+            ExecutionPlan.Step step = plan.steps().get(i);
+            CostEstimate cost = step.cost();
+            if (i > 0) json.append(',');
+            json.append("{\"node\":");
+            Json.string(json, step.node().toString());
+            json.append(",\"depth\":").append(step.depth());
+            json.append(",\"strategy\":\"").append(step.strategy()).append("\",\"tier\":\"").append(step.tier());
+            json.append("\",\"sampler\":\"").append(step.sampler()).append("\",\"dice\":").append(cost.dice());
+            json.append(",\"expectedDraws\":");
+            Json.number(json, cost.expectedDraws());
+            json.append(",\"memoryBytes\":").append(cost.memoryBytes()).append(",\"explosionDepth\":").append(cost.explosionDepth());
+            json.append('}');
+        }
+        json.append("]}");
+    }
+    
+    private static void metrics(Map<String, String> query, StringBuilder json) {
+        MetricsSnapshot snapshot = RollMetrics.snapshot();
+        json.append("{\"enabled\":").append(snapshot.enabled());
+        json.append(",\"compiles\":").append(snapshot.compiles());
+        json.append(",\"cacheHits\":").append(snapshot.cacheHits()).append(",\"cacheMisses\":").append(snapshot.cacheMisses());
+        json.append(",\"diceRolled\":").append(snapshot.diceRolled()).append(",\"randomDraws\":").append(snapshot.randomDraws());
+        json.append(",\"explosions\":").append(snapshot.explosions()).append(",\"rerolls\":").append(snapshot.rerolls());
+        json.append(",\"nodeRolls\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : snapshot.nodeRolls().entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            Json.string(json, entry.getKey());
+            json.append(':').append(entry.getValue());
+        }
+        json.append("},\"compileLatency\":");
+        latency(json, snapshot.compileLatency());
+        json.append(",\"rollLatency\":");
+        latency(json, snapshot.rollLatency());
+        json.append('}');
+    }
+    
+    private static void latency(StringBuilder json, LatencyHistogram.Snapshot latency) {
+        json.append("{\"count\":").append(latency.count()).append(",\"meanNanos\":");
+        Json.number(json, latency.mean());
+        json.append(",\"p50Nanos\":").append(latency.percentile(0.5)).append(",\"p99Nanos\":").append(latency.percentile(0.99));
+        json.append(",\"maxNanos\":").append(latency.maxNanos()).append('}');
+    }
+    
+    private CompiledExpression expression(Map<String, String> query) throws InvalidExpressionException {
+        return expressions.compile(required(query, "expression"));
+    }
+    
+    private static long seed(Map<String, String> query) {
+        return query.containsKey("seed") ? number(query, "seed", 0) : ThreadLocalRandom.current().nextLong();
+    }
+    
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isBlank()) throw new IllegalArgumentException("Missing " + name);
+        return value;
+    }
+    
+    private static long number(Map<String, String> query, String name, long fallback) {
+        String value = query.get(name);
+        if (value == null) return fallback;
+        try {
+            return Long.parseLong(value.strip());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: " + value);
+        }
+    }
+    
+    static Map<String, String> query(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) return query;
+        for (String pair : raw.split("&")) {
+            if (pair.isEmpty()) continue;
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            query.putIfAbsent(name, value);
+        }
+        return query;
+    }
+    
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            int status = 200;
+            ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                status = 405;
+                error(body, "Only GET is supported");
+            } else if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+                status = 404;
+                error(body, "Not found");
+            } else {
+                Map<String, String> query = query(exchange.getRequestURI());
+                status = DiceResults.withMode(TraceMode.NONE, () -> answer(handler, query, exchange.getResponseHeaders(), body));
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.writeTo(out);
+            }
+        }
+    }
+    
+    /**
+     * @return the status of the answer written
+     */
+    private static int answer(Handler handler, Map<String, String> query, Headers headers, ByteArrayOutputStream body) {
+        try {
+            handler.handle(query, headers, body);
+            return 200;
+        } catch (InvalidExpressionException | IllegalArgumentException e) {
+            error(body, e.getMessage());
+            return 400;
+        } catch (UnsupportedDistributionException | RollBudgetExceededException e) {
+            error(body, e.getMessage());
+            return 422;
+        } catch (RuntimeException e) {
+            error(body, "Internal error");
+            return 500;
+        }
+    }
+    
+    private static void error(ByteArrayOutputStream body, String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.string(json, message == null ? "" : message);
+        json.append('}');
+        body.reset();
+        body.writeBytes(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * An endpoint answering JSON built in a StringBuilder.
+     */
+    private static Handler json(JsonHandler handler) {
+        return (query, headers, body) -> {
+            StringBuilder json = new StringBuilder(256);
+            handler.handle(query, json);
+            body.writeBytes(json.toString().getBytes(StandardCharsets.UTF_8));
+        };
+    }
+    
+    @FunctionalInterface
+    private interface Handler {
+        void handle(Map<String, String> query, Headers headers, ByteArrayOutputStream body) throws InvalidExpressionException;
+    }
+    
+    @FunctionalInterface
+    private interface JsonHandler {
+        void handle(Map<String, String> query, StringBuilder json) throws InvalidExpressionException;
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollServer{" + uri() + "}";
+    }
+}
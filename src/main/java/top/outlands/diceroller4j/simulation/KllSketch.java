@@ -0,0 +1,179 @@
+package top.outlands.diceroller4j.simulation;
+
+import org.jspecify.annotations.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * KLL quantile sketch of an int stream (Karnin, Lang and Liberty). Level h holds values standing for 2^h values each;
+ * a full level is sorted and every other value, from a random start, is promoted to the next level.
+ * <p>
+ * With the default k of 200 the rank of a returned quantile is off by at most about 1.65% of the count
+ * with 99% confidence, like the DataSketches KLL sketch, and at most about 3k + log2(count) values are kept.
+ * Sketches merge into the same bounds. Not safe for concurrent use, merge sketches fed by separate threads instead.
+ */
+public final class KllSketch {
+    
+    public static final int DEFAULT_K = 200;
+    private static final double DECAY = 2.0 / 3;
+    
+    private final int k;
+    private int[][] levels = new int[0][];
+    private int[] sizes = new int[0];
+    private int retained;
+    private int capacity;
+    private long count;
+    private long random = 0x9E3779B97F4A7C15L;
+    
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+    
+    /**
+     * @param k the accuracy, the rank error shrinks about as 1 / k
+     */
+    public KllSketch(int k) {
+        if (k < 8) throw new IllegalArgumentException("k must be at least 8: " + k);
+        this.k = k;
+        grow();
+    }
+    
+    public void add(int value) {
+        append(0, value);
+        count++;
+        if (retained >= capacity) compress();
+    }
+    
+    /**
+     * Add a value that occurred the given amount of times, in time logarithmic in the weight.
+     */
+    public void add(int value, long weight) {
+        // each set bit of the weight is one value on the level of that bit
+        for (int h = 0; weight != 0; h++, weight >>>= 1) {
+            if ((weight & 1) == 0) continue;
+            while (h >= levels.length) grow();
+            append(h, value);
+            count += 1L << h;
+            if (retained >= capacity) compress();
+        }
+    }
+    
+    /**
+     * Fold the other sketch into this one, the other is left unchanged.
+     */
+    public KllSketch merge(KllSketch other) {
+        while (levels.length < other.levels.length) grow();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        while (retained >= capacity) compress();
+        return this;
+    }
+    
+    public long count() {
+        return count;
+    }
+    
+    /**
+     * @return the amount of values kept
+     */
+    public int retained() {
+        return retained;
+    }
+    
+    /**
+     * @param p the fraction of values at most the quantile, from 0 to 1
+     * @return the smallest kept value whose estimated rank reaches p of the count
+     */
+    public int quantile(double p) {
+        if (count == 0) throw new IllegalArgumentException("Empty sketch");
+        if (!(p >= 0 && p <= 1)) throw new IllegalArgumentException("Bad quantile " + p);
+        long[] weighted = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                // value in the high half so sorting orders by value, level in the low bits
+                weighted[n++] = (long) levels[h][i] << 32 | h;
+            }
+        }
+        Arrays.sort(weighted);
+        long total = 0;
+        for (long w : weighted) {
+            total += 1L << (int) w;
+        }
+        double target = Math.max(1, Math.ceil(p * total));
+        long seen = 0;
+        for (long w : weighted) {
+            seen += 1L << (int) w;
+            if (seen >= target) return (int) (w >> 32);
+        }
+        return (int) (weighted[n - 1] >> 32);
+    }
+    
+    private void append(int h, int value) {
+        if (sizes[h] == levels[h].length) levels[h] = Arrays.copyOf(levels[h], Math.max(8, levels[h].length * 2));
+        levels[h][sizes[h]++] = value;
+        retained++;
+    }
+    
+    /**
+     * Compact the lowest full level, then those above it that overflow in turn.
+     */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] < levelCapacity(h)) continue;
+            if (h + 1 == levels.length) grow();
+            int[] level = levels[h];
+            int size = sizes[h];
+            Arrays.sort(level, 0, size);
+            // an odd value out stays behind
+            int odd = size & 1;
+            int keep = odd == 1 ? level[size - 1] : 0;
+            int offset = nextBit();
+            for (int i = offset; i < size - odd; i += 2) {
+                append(h + 1, level[i]);
+            }
+            retained -= size;
+            sizes[h] = 0;
+            if (odd == 1) append(h, keep);
+            if (retained < capacity) return;
+        }
+    }
+    
+    private void grow() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = new int[8];
+        sizes = Arrays.copyOf(sizes, levels.length);
+        capacity = 0;
+        for (int h = 0; h < levels.length; h++) {
+            capacity += levelCapacity(h);
+        }
+    }
+    
+    /**
+     * Levels far below the top shrink geometrically, down to 2.
+     */
+    private int levelCapacity(int h) {
+        int depth = levels.length - h - 1;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(DECAY, depth)));
+    }
+    
+    /**
+     * A fixed xorshift, so equal streams give equal sketches.
+     */
+    private int nextBit() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (int) (random >>> 63);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "KllSketch{k=" + k + ", count=" + count + ", retained=" + retained + "}";
+    }
+}
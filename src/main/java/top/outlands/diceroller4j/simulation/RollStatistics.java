@@ -0,0 +1,173 @@
+package top.outlands.diceroller4j.simulation;
+
+import org.jspecify.annotations.NonNull;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Running statistics of an unbounded stream of rolls in constant memory: count, mean and variance by Welford's method,
+ * min and max, and percentiles.
+ * <p>
+ * Percentiles are exact while the rolls span at most {@link #EXACT_SPAN} values, which are counted one by one.
+ * Beyond that the counts move into a {@link KllSketch}, whose rank error and memory bounds then apply.
+ * Either way the accumulator holds at most a few tens of KiB.
+ * <p>
+ * Not safe for concurrent use: give each thread its own accumulator and {@link #merge} them,
+ * which needs no locks.
+ */
+public final class RollStatistics {
+    
+    /**
+     * Rolls spanning at most this many values are counted exactly.
+     */
+    public static final int EXACT_SPAN = 1 << 12;
+    
+    private long count;
+    private double mean;
+    private double m2;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    
+    private int base;
+    private long[] counts = new long[0];
+    private KllSketch sketch;
+    
+    public void add(int value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (sketch != null) {
+            sketch.add(value);
+        } else if ((long) max - min < EXACT_SPAN) {
+            count(value, 1);
+        } else {
+            toSketch();
+            sketch.add(value);
+        }
+    }
+    
+    /**
+     * Add every sample of a segment of ints, like {@link SampleBuffer#segment()}.
+     */
+    public void add(MemorySegment samples) {
+        long n = samples.byteSize() / Integer.BYTES;
+        for (long i = 0; i < n; i++) {
+            add(samples.getAtIndex(ValueLayout.JAVA_INT, i));
+        }
+    }
+    
+    /**
+     * Fold the other accumulator into this one, the other is left unchanged.
+     */
+    public RollStatistics merge(RollStatistics other) {
+        if (other.count == 0) return this;
+        long total = count + other.count;
+        // Chan et al., the combined second moment of two parts
+        double delta = other.mean - mean;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        mean += delta * other.count / total;
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        if (sketch == null && other.sketch == null && (long) max - min < EXACT_SPAN) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) count(other.base + i, other.counts[i]);
+            }
+            return this;
+        }
+        if (sketch == null) toSketch();
+        if (other.sketch != null) {
+            sketch.merge(other.sketch);
+        } else {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) sketch.add(other.base + i, other.counts[i]);
+            }
+        }
+        return this;
+    }
+    
+    public long count() {
+        return count;
+    }
+    
+    public double mean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+    
+    /**
+     * @return the population variance
+     */
+    public double variance() {
+        return count == 0 ? Double.NaN : m2 / count;
+    }
+    
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+    
+    public int min() {
+        return min;
+    }
+    
+    public int max() {
+        return max;
+    }
+    
+    /**
+     * @return whether percentiles are exact
+     */
+    public boolean isExact() {
+        return sketch == null;
+    }
+    
+    /**
+     * @param p the fraction of rolls at most the percentile, from 0 to 1
+     * @return the nearest rank percentile, estimated once the rolls span more than {@link #EXACT_SPAN} values
+     */
+    public int percentile(double p) {
+        if (count == 0) throw new IllegalArgumentException("No rolls");
+        if (!(p >= 0 && p <= 1)) throw new IllegalArgumentException("Bad percentile " + p);
+        if (sketch != null) return Math.clamp(sketch.quantile(p), min, max);
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return base + i;
+        }
+        return max;
+    }
+    
+    private void count(int value, long n) {
+        if (counts.length == 0 || value < base || (long) value - base >= counts.length) {
+            // twice the rolled span, with the room on the side the new value is, but never more than the exact span
+            int length = (int) Math.min(EXACT_SPAN, Math.max(16, 2 * ((long) max - min + 1)));
+            int low = counts.length != 0 && value < base ? (int) Math.max(Integer.MIN_VALUE, (long) max - length + 1) : min;
+            long[] grown = new long[length];
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) grown[base + i - low] += counts[i];
+            }
+            counts = grown;
+            base = low;
+        }
+        counts[value - base] += n;
+    }
+    
+    private void toSketch() {
+        sketch = new KllSketch();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) sketch.add(base + i, counts[i]);
+        }
+        counts = new long[0];
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return "RollStatistics{count=" + count + ", mean=" + mean() + ", sd=" + standardDeviation() + ", min=" + min + ", max=" + max
+                + (count == 0 ? "" : ", median=" + percentile(0.5)) + "}";
+    }
+}
@@ -0,0 +1,170 @@
+package top.outlands.diceroller4j.simulation;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Rolled values kept off-heap in a {@link MemorySegment}, so sample sets can outgrow the heap without burdening the GC.
+ * The memory belongs to an arena and is released when it closes: the buffer's own arena on {@link #close()},
+ * or the caller's when given one. A mapped file is cut to the samples written when it closes,
+ * so loading it again finds as many as there were.
+ * <p>
+ * Not safe for concurrent use.
+ */
+public final class SampleBuffer implements AutoCloseable {
+    
+    private final Arena arena;
+    private final boolean owned;
+    private final MemorySegment segment;
+    private final @Nullable Path file;
+    private final long capacity;
+    private long size;
+    
+    private SampleBuffer(Arena arena, boolean owned, MemorySegment segment, @Nullable Path file, long size) {
+        this.arena = arena;
+        this.owned = owned;
+        this.segment = segment;
+        this.file = file;
+        this.capacity = segment.byteSize() / Integer.BYTES;
+        this.size = size;
+    }
+    
+    /**
+     * Allocate native memory released by {@link #close()}.
+     */
+    public static SampleBuffer allocate(long capacity) {
+        Arena arena = Arena.ofConfined();
+        return new SampleBuffer(arena, true, arena.allocate(checkCapacity(capacity) * Integer.BYTES, Integer.BYTES), null, 0);
+    }
+    
+    /**
+     * Allocate native memory released when the arena closes, {@link #close()} does nothing.
+     */
+    public static SampleBuffer allocate(Arena arena, long capacity) {
+        return new SampleBuffer(arena, false, arena.allocate(checkCapacity(capacity) * Integer.BYTES, Integer.BYTES), null, 0);
+    }
+    
+    /**
+     * Create or truncate a file of the given capacity and write samples straight into its mapping,
+     * which the OS pages out as needed. Unmapped by {@link #close()}, which cuts the file to the samples written.
+     */
+    public static SampleBuffer map(Path path, long capacity) throws IOException {
+        return map(path, checkCapacity(capacity), 0, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    
+    /**
+     * Map the samples of an existing file, as written through {@link #map(Path, long)}, to analyze or sort them.
+     */
+    public static SampleBuffer load(Path path) throws IOException {
+        return map(path, -1, -1);
+    }
+    
+    private static SampleBuffer map(Path path, long capacity, long size, StandardOpenOption... options) throws IOException {
+        Arena arena = Arena.ofConfined();
+        try (FileChannel channel = FileChannel.open(path, options(options))) {
+            long bytes = capacity < 0 ? channel.size() / Integer.BYTES * Integer.BYTES : capacity * Integer.BYTES;
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena);
+            return new SampleBuffer(arena, true, segment, path, size < 0 ? bytes / Integer.BYTES : size);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+    
+    private static StandardOpenOption[] options(StandardOpenOption... extra) {
+        StandardOpenOption[] options = new StandardOpenOption[extra.length + 2];
+        options[0] = StandardOpenOption.READ;
+        options[1] = StandardOpenOption.WRITE;
+        System.arraycopy(extra, 0, options, 2, extra.length);
+        return options;
+    }
+    
+    public void add(int value) {
+        if (size == capacity) throw new IllegalStateException("Sample buffer full: " + capacity);
+        segment.setAtIndex(ValueLayout.JAVA_INT, size++, value);
+    }
+    
+    public int get(long index) {
+        return segment.getAtIndex(ValueLayout.JAVA_INT, checkIndex(index));
+    }
+    
+    public void set(long index, int value) {
+        segment.setAtIndex(ValueLayout.JAVA_INT, checkIndex(index), value);
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    public long capacity() {
+        return capacity;
+    }
+    
+    public boolean isFull() {
+        return size == capacity;
+    }
+    
+    public void clear() {
+        size = 0;
+    }
+    
+    /**
+     * @return the samples written so far, valid until the arena closes
+     */
+    public MemorySegment segment() {
+        return segment.asSlice(0, size * Integer.BYTES);
+    }
+    
+    /**
+     * Sort the samples in place, see {@link Samples#sort(MemorySegment)}.
+     */
+    public void sort() {
+        Samples.sort(segment());
+    }
+    
+    public SampleHistogram histogram() {
+        return Samples.histogram(segment());
+    }
+    
+    /**
+     * Flush a mapped buffer to its file, does nothing for native memory.
+     */
+    public void force() {
+        if (segment.isMapped()) segment.force();
+    }
+    
+    /**
+     * Release the memory, and cut a mapped file to the samples written once it is unmapped.
+     * @throws UncheckedIOException if the file cannot be cut
+     */
+    @Override
+    public void close() {
+        if (!owned) return;
+        arena.close();
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(size * Integer.BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    
+    private long checkIndex(long index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return index;
+    }
+    
+    private static long checkCapacity(long capacity) {
+        if (capacity < 0 || capacity > Long.MAX_VALUE / Integer.BYTES) throw new IllegalArgumentException("Bad capacity " + capacity);
+        return capacity;
+    }
+}
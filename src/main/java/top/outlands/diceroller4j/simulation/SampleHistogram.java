@@ -0,0 +1,91 @@
+package top.outlands.diceroller4j.simulation;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.distribution.Distribution;
+
+/**
+ * How many times each value from min on was rolled.
+ */
+public final class SampleHistogram {
+    
+    private final int min;
+    private final long[] counts;
+    private final long total;
+    
+    SampleHistogram(int min, long[] counts) {
+        this.min = min;
+        this.counts = counts;
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        this.total = total;
+    }
+    
+    public int min() {
+        return min;
+    }
+    
+    public int max() {
+        return min + counts.length - 1;
+    }
+    
+    public long count(int value) {
+        long index = (long) value - min;
+        return index < 0 || index >= counts.length ? 0 : counts[(int) index];
+    }
+    
+    /**
+     * @return the amount of samples
+     */
+    public long total() {
+        return total;
+    }
+    
+    public double mean() {
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += (double) counts[i] * ((double) min + i);
+        }
+        return sum / total;
+    }
+    
+    /**
+     * @param p the fraction of samples at most the percentile, from 0 to 1
+     * @return the nearest rank percentile, the same as {@link Samples#percentile} on the sorted samples
+     */
+    public int percentile(double p) {
+        if (total == 0) throw new IllegalArgumentException("No samples");
+        if (!(p >= 0 && p <= 1)) throw new IllegalArgumentException("Bad percentile " + p);
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return min + i;
+        }
+        return max();
+    }
+    
+    /**
+     * @return the empirical distribution of the samples
+     */
+    public Distribution toDistribution() {
+        double[] pmf = new double[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            pmf[i] = (double) counts[i] / total;
+        }
+        return Distribution.of(min, pmf);
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(min + i).append('=').append(counts[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
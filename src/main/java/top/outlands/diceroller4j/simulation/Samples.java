@@ -0,0 +1,131 @@
+package top.outlands.diceroller4j.simulation;
+
+import top.outlands.diceroller4j.distribution.Distribution;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Sorting, histograms and percentiles over int samples in a {@link MemorySegment}, without copying them onto the heap.
+ */
+public class Samples {
+    
+    /**
+     * Samples spanning at most this many values are sorted by counting, in two sequential passes.
+     */
+    public static final int COUNTING_RANGE = Distribution.MAX_SUPPORT;
+    
+    /**
+     * Sort in place. Samples spanning few values, as rolls do, are counted and written back in order,
+     * others are heap sorted, which needs no memory besides the segment.
+     */
+    public static void sort(MemorySegment samples) {
+        long n = count(samples);
+        if (n < 2) return;
+        long[] range = range(samples);
+        if (range[1] - range[0] < COUNTING_RANGE) {
+            SampleHistogram histogram = histogram(samples, (int) range[0], (int) range[1]);
+            long at = 0;
+            for (int value = histogram.min(); value <= histogram.max(); value++) {
+                for (long c = histogram.count(value); c > 0; c--) {
+                    samples.setAtIndex(ValueLayout.JAVA_INT, at++, value);
+                }
+            }
+        } else {
+            heapSort(samples, n);
+        }
+    }
+    
+    /**
+     * @return how many times each value was rolled
+     * @throws IllegalArgumentException if the samples span more than {@link #COUNTING_RANGE} values
+     */
+    public static SampleHistogram histogram(MemorySegment samples) {
+        if (count(samples) == 0) return new SampleHistogram(0, new long[0]);
+        long[] range = range(samples);
+        if (range[1] - range[0] >= COUNTING_RANGE) {
+            throw new IllegalArgumentException("Samples span " + (range[1] - range[0] + 1) + " values");
+        }
+        return histogram(samples, (int) range[0], (int) range[1]);
+    }
+    
+    /**
+     * @param sorted samples sorted ascending
+     * @param p the fraction of samples at most the percentile, from 0 to 1
+     * @return the smallest sample that at least p of the samples are at most, the nearest rank
+     */
+    public static int percentile(MemorySegment sorted, double p) {
+        long n = count(sorted);
+        if (n == 0) throw new IllegalArgumentException("No samples");
+        if (!(p >= 0 && p <= 1)) throw new IllegalArgumentException("Bad percentile " + p);
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        return sorted.getAtIndex(ValueLayout.JAVA_INT, Math.min(rank, n) - 1);
+    }
+    
+    public static boolean isSorted(MemorySegment samples) {
+        long n = count(samples);
+        for (long i = 1; i < n; i++) {
+            if (samples.getAtIndex(ValueLayout.JAVA_INT, i - 1) > samples.getAtIndex(ValueLayout.JAVA_INT, i)) return false;
+        }
+        return true;
+    }
+    
+    private static long count(MemorySegment samples) {
+        return samples.byteSize() / Integer.BYTES;
+    }
+    
+    /**
+     * @return the smallest and largest sample
+     */
+    private static long[] range(MemorySegment samples) {
+        long n = count(samples);
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (long i = 0; i < n; i++) {
+            int value = samples.getAtIndex(ValueLayout.JAVA_INT, i);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return new long[]{min, max};
+    }
+    
+    private static SampleHistogram histogram(MemorySegment samples, int min, int max) {
+        long n = count(samples);
+        long[] counts = new long[max - min + 1];
+        for (long i = 0; i < n; i++) {
+            counts[samples.getAtIndex(ValueLayout.JAVA_INT, i) - min]++;
+        }
+        return new SampleHistogram(min, counts);
+    }
+    
+    private static void heapSort(MemorySegment samples, long n) {
+        for (long i = n / 2 - 1; i >= 0; i--) {
+            siftDown(samples, i, n);
+        }
+        for (long end = n - 1; end > 0; end--) {
+            int top = samples.getAtIndex(ValueLayout.JAVA_INT, 0);
+            samples.setAtIndex(ValueLayout.JAVA_INT, 0, samples.getAtIndex(ValueLayout.JAVA_INT, end));
+            samples.setAtIndex(ValueLayout.JAVA_INT, end, top);
+            siftDown(samples, 0, end);
+        }
+    }
+    
+    private static void siftDown(MemorySegment samples, long i, long n) {
+        int value = samples.getAtIndex(ValueLayout.JAVA_INT, i);
+        while (true) {
+            long child = 2 * i + 1;
+            if (child >= n) break;
+            int larger = samples.getAtIndex(ValueLayout.JAVA_INT, child);
+            if (child + 1 < n) {
+                int right = samples.getAtIndex(ValueLayout.JAVA_INT, child + 1);
+                if (right > larger) {
+                    child++;
+                    larger = right;
+                }
+            }
+            if (larger <= value) break;
+            samples.setAtIndex(ValueLayout.JAVA_INT, i, larger);
+            i = child;
+        }
+        samples.setAtIndex(ValueLayout.JAVA_INT, i, value);
+    }
+}
@@ -0,0 +1,70 @@
+package top.outlands.diceroller4j.simulation;
+
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.jfr.SimulationEvent;
+import top.outlands.diceroller4j.schedule.Cooperative;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+/**
+ * Rolls an expression many times into a {@link SampleBuffer} or a {@link RollStatistics},
+ * with dice recording turned off on the rolling thread only.
+ */
+public class Simulator {
+    
+    /**
+     * The loops pass a {@link Cooperative#yieldPoint()} every 64 rolls.
+     */
+    private static final long YIELD_MASK = 63;
+    
+    /**
+     * Roll into a new buffer of native memory, which the caller closes.
+     */
+    public static SampleBuffer simulate(IExpression expression, long samples) {
+        SampleBuffer buffer = SampleBuffer.allocate(samples);
+        try {
+            return simulate(expression, samples, buffer);
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Append the given amount of rolls to the buffer.
+     * @throws IllegalStateException if the buffer cannot hold them, before rolling
+     */
+    public static SampleBuffer simulate(IExpression expression, long samples, SampleBuffer buffer) {
+        if (samples > buffer.capacity() - buffer.size()) {
+            throw new IllegalStateException("Sample buffer holds " + (buffer.capacity() - buffer.size()) + " more, not " + samples);
+        }
+        SimulationEvent event = new SimulationEvent();
+        event.begin();
+        DiceResults.withMode(TraceMode.NONE, () -> {
+            for (long i = 0; i < samples; i++) {
+                if ((i & YIELD_MASK) == 0) Cooperative.yieldPoint();
+                buffer.add(expression.roll());
+            }
+            return buffer;
+        });
+        event.complete(expression, samples);
+        return buffer;
+    }
+    
+    /**
+     * Fold the given amount of rolls into the statistics without keeping them, in constant memory.
+     */
+    public static RollStatistics simulate(IExpression expression, long samples, RollStatistics statistics) {
+        SimulationEvent event = new SimulationEvent();
+        event.begin();
+        DiceResults.withMode(TraceMode.NONE, () -> {
+            for (long i = 0; i < samples; i++) {
+                if ((i & YIELD_MASK) == 0) Cooperative.yieldPoint();
+                statistics.add(expression.roll());
+            }
+            return statistics;
+        });
+        event.complete(expression, samples);
+        return statistics;
+    }
+}
@@ -0,0 +1,324 @@
+package top.outlands.diceroller4j.trace;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A roll broken down along the expression tree, one entry per node that took part in the roll.
+ * Entries are numbered in the order they were rolled, so a parent always comes before its children,
+ * and are kept in parallel arrays that are reused by the next explanation on the same thread.
+ * <p>
+ * Nodes only record into a trace during {@link #explain(IExpression)}, otherwise {@link #current()} is null
+ * and rolling does nothing more than before.
+ */
+public final class ExplainTrace {
+    
+    /**
+     * The value was discarded by keep, drop, min, max, median or emphasis.
+     */
+    public static final int DROPPED = 1;
+    /**
+     * The die was superseded by a reroll.
+     */
+    public static final int REROLLED = 2;
+    /**
+     * The die exploded, the next die of its parent is chained to it.
+     */
+    public static final int EXPLODED = 4;
+    
+    public static final int NONE = -1;
+    
+    private static final ThreadLocal<ExplainTrace> POOL = ThreadLocal.withInitial(ExplainTrace::new);
+    private static final ThreadLocal<ExplainTrace> ACTIVE = new ThreadLocal<>();
+    private static final AtomicInteger explaining = new AtomicInteger();
+    
+    private IExpression[] nodes = new IExpression[16];
+    private int[] parents = new int[16];
+    private int[] firstChildren = new int[16];
+    private int[] lastChildren = new int[16];
+    private int[] nextSiblings = new int[16];
+    private int[] values = new int[16];
+    private int[] sides = new int[16];
+    private int[] flags = new int[16];
+    private int size;
+    
+    private int[] open = new int[16];
+    private int depth;
+    
+    // the pools being rolled, innermost last: the length of each, then the ids and the values of its members
+    private int[] scratch = new int[32];
+    private int scratchSize;
+    private long[] ranked = new long[16];
+    
+    private int total;
+    
+    /**
+     * Roll the expression once, recording into this thread's pooled trace.
+     * The returned trace is overwritten by the next explanation on the same thread.
+     */
+    public static ExplainTrace explain(IExpression expression) {
+        return explain(expression, POOL.get());
+    }
+    
+    /**
+     * Roll the expression once, recording into the given trace.
+     */
+    public static ExplainTrace explain(IExpression expression, ExplainTrace trace) {
+        if (ACTIVE.get() != null) throw new IllegalStateException("Already explaining a roll on this thread");
+        trace.reset();
+        ACTIVE.set(trace);
+        explaining.incrementAndGet();
+        try {
+            trace.total = expression.roll();
+        } finally {
+            explaining.decrementAndGet();
+            ACTIVE.remove();
+        }
+        return trace;
+    }
+    
+    /**
+     * @return the trace nodes of this thread should record into, null when not explaining
+     */
+    public static @Nullable ExplainTrace current() {
+        return explaining.get() == 0 ? null : ACTIVE.get();
+    }
+    
+    public void reset() {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+        depth = 0;
+        scratchSize = 0;
+        total = 0;
+    }
+    
+    /**
+     * Open a node, everything recorded until {@link #exit(int, int)} becomes its children.
+     * @return the id of the node
+     */
+    public int enter(IExpression node) {
+        int id = add(node, 0);
+        if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+        open[depth++] = id;
+        return id;
+    }
+    
+    /**
+     * Close the node and record its value.
+     * @return the value, for chaining
+     */
+    public int exit(int id, int value) {
+        values[id] = value;
+        depth--;
+        return value;
+    }
+    
+    /**
+     * Record a node without children.
+     * @return the id of the node
+     */
+    public int leaf(IExpression node, int sides, int value) {
+        int id = add(node, sides);
+        values[id] = value;
+        return id;
+    }
+    
+    public void flag(int id, int flag) {
+        flags[id] |= flag;
+    }
+    
+    /**
+     * Flag the node recorded last, that is the die that was just rolled.
+     */
+    public void flagLast(int flag) {
+        flags[size - 1] |= flag;
+    }
+    
+    /**
+     * Roll every member of a pool as a child of the open node.
+     * The ids and values of the members are kept in scratch space of this trace until {@link #keepRanked(int, int, int)}.
+     * @return the pool, to pass to {@link #keepRanked(int, int, int)}
+     */
+    public int rollPool(IExpression[] pool) {
+        int base = scratchSize;
+        int length = pool.length;
+        if (base + 1 + 2 * length > scratch.length) scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, base + 1 + 2 * length));
+        scratch[base] = length;
+        scratchSize = base + 1 + 2 * length;
+        for (int i = 0; i < length; i++) {
+            int id = size;
+            int value = pool[i].roll();
+            // the members may roll pools of their own, which can grow the scratch space
+            scratch[base + 1 + i] = id;
+            scratch[base + 1 + length + i] = value;
+        }
+        return base;
+    }
+    
+    /**
+     * Flag every pool member as {@link #DROPPED} but those ranked from {@code from} (inclusive) to {@code to} (exclusive)
+     * when the pool is sorted by value, and release the scratch space of the pool.
+     * @param pool the pool returned by {@link #rollPool(IExpression[])}
+     * @return the sum of the values kept
+     */
+    public int keepRanked(int pool, int from, int to) {
+        int length = scratch[pool];
+        if (length > ranked.length) ranked = new long[Math.max(ranked.length * 2, length)];
+        for (int i = 0; i < length; i++) {
+            ranked[i] = (long) scratch[pool + 1 + length + i] << 32 | i;
+        }
+        Arrays.sort(ranked, 0, length);
+        int sum = 0;
+        for (int rank = 0; rank < length; rank++) {
+            if (rank < from || rank >= to) {
+                flag(scratch[pool + 1 + (int) ranked[rank]], DROPPED);
+            } else {
+                sum += (int) (ranked[rank] >> 32);
+            }
+        }
+        scratchSize = pool;
+        return sum;
+    }
+    
+    /**
+     * @return the id the next recorded node will get
+     */
+    public int next() {
+        return size;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return the value of the whole roll
+     */
+    public int total() {
+        return total;
+    }
+    
+    public IExpression expression(int id) {
+        return nodes[check(id)];
+    }
+    
+    public int parent(int id) {
+        return parents[check(id)];
+    }
+    
+    public int firstChild(int id) {
+        return firstChildren[check(id)];
+    }
+    
+    public int nextSibling(int id) {
+        return nextSiblings[check(id)];
+    }
+    
+    public int value(int id) {
+        return values[check(id)];
+    }
+    
+    /**
+     * @return the sides of a die, 0 for every other node
+     */
+    public int sides(int id) {
+        return sides[check(id)];
+    }
+    
+    public int flags(int id) {
+        return flags[check(id)];
+    }
+    
+    public boolean isDie(int id) {
+        return sides[check(id)] > 0;
+    }
+    
+    /**
+     * Render the roll the way dice.run breaks it down, like {@code [6, 5, ~~2~~] + 3}.
+     * Discarded values are struck through and exploded dice are marked with {@code !}.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        if (size > 0) appendNode(builder, 0);
+        return builder;
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+    
+    private void appendNode(StringBuilder builder, int id) {
+        boolean struck = (flags[id] & (DROPPED | REROLLED)) != 0;
+        if (struck) builder.append("~~");
+        IExpression node = nodes[id];
+        if (sides[id] > 0 || node instanceof Number) {
+            builder.append(values[id]);
+            if ((flags[id] & EXPLODED) != 0) builder.append('!');
+        } else {
+            String operator = switch (node) {
+                case Plus ignored -> " + ";
+                case Subtract ignored -> " - ";
+                case Multiply ignored -> " * ";
+                case Divide ignored -> " / ";
+                default -> null;
+            };
+            if (operator == null) builder.append('[');
+            for (int child = firstChildren[id]; child != NONE; child = nextSiblings[child]) {
+                if (child != firstChildren[id]) builder.append(operator == null ? ", " : operator);
+                appendNode(builder, child);
+            }
+            if (operator == null) builder.append(']');
+        }
+        if (struck) builder.append("~~");
+    }
+    
+    private int add(IExpression node, int side) {
+        if (size == nodes.length) grow();
+        int id = size++;
+        int parent = depth == 0 ? NONE : open[depth - 1];
+        nodes[id] = node;
+        parents[id] = parent;
+        firstChildren[id] = NONE;
+        lastChildren[id] = NONE;
+        nextSiblings[id] = NONE;
+        values[id] = 0;
+        sides[id] = side;
+        flags[id] = 0;
+        if (parent != NONE) {
+            if (lastChildren[parent] == NONE) {
+                firstChildren[parent] = id;
+            } else {
+                nextSiblings[lastChildren[parent]] = id;
+            }
+            lastChildren[parent] = id;
+        }
+        return id;
+    }
+    
+    private void grow() {
+        int capacity = nodes.length * 2;
+        nodes = Arrays.copyOf(nodes, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        values = Arrays.copyOf(values, capacity);
+        sides = Arrays.copyOf(sides, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+    
+    private int check(int id) {
+        if (id < 0 || id >= size) throw new IndexOutOfBoundsException(id);
+        return id;
+    }
+}
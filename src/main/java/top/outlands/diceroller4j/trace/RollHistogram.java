@@ -0,0 +1,102 @@
+package top.outlands.diceroller4j.trace;
+
+import org.jspecify.annotations.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * How often each face came up, one {@code int[sides]} per distinct die size.
+ * Its size depends on the die sizes rolled, never on the amount of dice.
+ */
+public final class RollHistogram {
+    
+    private int[] sizes = new int[4];
+    private int[][] counts = new int[4][];
+    private int distinct;
+    
+    public void add(int sides, int value) {
+        counts(sides)[value - 1]++;
+    }
+    
+    /**
+     * The live face counts of the die size, index {@code face - 1} holds the count of {@code face}.
+     * Samplers may increment it directly.
+     */
+    public int[] counts(int sides) {
+        for (int i = 0; i < distinct; i++) {
+            if (sizes[i] == sides) return counts[i];
+        }
+        if (distinct == sizes.length) {
+            sizes = Arrays.copyOf(sizes, distinct * 2);
+            counts = Arrays.copyOf(counts, distinct * 2);
+        }
+        sizes[distinct] = sides;
+        counts[distinct] = new int[sides];
+        return counts[distinct++];
+    }
+    
+    public int count(int sides, int face) {
+        for (int i = 0; i < distinct; i++) {
+            if (sizes[i] == sides) return counts[i][face - 1];
+        }
+        return 0;
+    }
+    
+    /**
+     * @return the die sizes seen since the histogram was created, in order of appearance
+     */
+    public int[] sides() {
+        return Arrays.copyOf(sizes, distinct);
+    }
+    
+    public long dice() {
+        long dice = 0;
+        for (int i = 0; i < distinct; i++) {
+            for (int c : counts[i]) {
+                dice += c;
+            }
+        }
+        return dice;
+    }
+    
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < distinct; i++) {
+            int[] faces = counts[i];
+            for (int f = 0; f < faces.length; f++) {
+                sum += (long) faces[f] * (f + 1);
+            }
+        }
+        return sum;
+    }
+    
+    /**
+     * Zero every count, the die sizes and their arrays are kept for the next roll.
+     */
+    public void reset() {
+        for (int i = 0; i < distinct; i++) {
+            Arrays.fill(counts[i], 0);
+        }
+    }
+    
+    public StringBuilder appendTo(StringBuilder builder) {
+        builder.append('{');
+        for (int i = 0; i < distinct; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append('d').append(sizes[i]).append("=[");
+            int[] faces = counts[i];
+            for (int f = 0; f < faces.length; f++) {
+                if (f > 0) builder.append(", ");
+                builder.append(faces[f]);
+            }
+            builder.append(']');
+        }
+        return builder.append('}');
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+}
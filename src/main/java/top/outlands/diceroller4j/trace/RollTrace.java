@@ -0,0 +1,164 @@
+package top.outlands.diceroller4j.trace;
+
+import org.jspecify.annotations.NonNull;
+import top.outlands.diceroller4j.expressions.RollResult;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Log of rolled dice, kept as two parallel primitive arrays instead of one object per die.
+ * The buffers only grow, {@link #reset()} keeps them for the next roll.
+ */
+public final class RollTrace {
+    
+    private int[] sides;
+    private int[] values;
+    private int size;
+    
+    public RollTrace() {
+        this(16);
+    }
+    
+    public RollTrace(int capacity) {
+        sides = new int[Math.max(capacity, 1)];
+        values = new int[Math.max(capacity, 1)];
+    }
+    
+    public void add(int side, int value) {
+        if (size == sides.length) {
+            int capacity = sides.length + (sides.length >> 1) + 1;
+            sides = Arrays.copyOf(sides, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        sides[size] = side;
+        values[size] = value;
+        size++;
+    }
+    
+    public void reset() {
+        size = 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return how many dice fit before the buffers grow, each taking two ints
+     */
+    public int capacity() {
+        return sides.length;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public int sides(int index) {
+        return sides[checkIndex(index)];
+    }
+    
+    public int value(int index) {
+        return values[checkIndex(index)];
+    }
+    
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+    
+    /**
+     * Copy {@code length} sides starting at {@code from} into {@code destination}.
+     */
+    public void copySides(int from, int[] destination, int offset, int length) {
+        System.arraycopy(sides, checkRange(from, length), destination, offset, length);
+    }
+    
+    /**
+     * Copy {@code length} values starting at {@code from} into {@code destination}.
+     */
+    public void copyValues(int from, int[] destination, int offset, int length) {
+        System.arraycopy(values, checkRange(from, length), destination, offset, length);
+    }
+    
+    public int[] toSidesArray() {
+        return Arrays.copyOf(sides, size);
+    }
+    
+    public int[] toValuesArray() {
+        return Arrays.copyOf(values, size);
+    }
+    
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    /**
+     * Live read only view, every {@link RollResult} is created on access.
+     */
+    public List<RollResult> asList() {
+        return new ResultView();
+    }
+    
+    @Override
+    @NonNull
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append('d').append(sides[i]).append('=').append(values[i]);
+        }
+        return builder.append(']').toString();
+    }
+    
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return index;
+    }
+    
+    private int checkRange(int from, int length) {
+        if (from < 0 || length < 0 || from + length > size) throw new IndexOutOfBoundsException(from + length);
+        return from;
+    }
+    
+    /**
+     * Walks the trace without boxing: call {@link #next()} and then read {@link #sides()} and {@link #value()}.
+     */
+    public final class Cursor {
+        private int index = -1;
+        
+        public boolean next() {
+            return ++index < size;
+        }
+        
+        public int index() {
+            return index;
+        }
+        
+        public int sides() {
+            return sides[index];
+        }
+        
+        public int value() {
+            return values[index];
+        }
+    }
+    
+    private final class ResultView extends AbstractList<RollResult> implements RandomAccess {
+        @Override
+        public RollResult get(int index) {
+            return new RollResult(sides(index), value(index));
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package top.outlands.diceroller4j.trace;
+
+/**
+ * How {@link top.outlands.diceroller4j.DiceResults} records rolled dice.
+ */
+public enum TraceMode {
+    /**
+     * One entry per die in a {@link RollTrace}.
+     */
+    INDIVIDUAL,
+    /**
+     * One face count per die size in a {@link RollHistogram}, constant in size however many dice are rolled.
+     */
+    HISTOGRAM,
+    /**
+     * Nothing is recorded.
+     */
+    NONE,
+}
@@ -0,0 +1,171 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimitExceededException;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.InvalidExpressionException;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.IExpression;
+
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 恶意输入下的编译测试
+ * 测试内容包括：
+ * 1. 长空白、深括号、近似关键字等输入被默认限制拒绝
+ * 2. 输入长度、骰子数量与嵌套深度限制
+ * 3. 随机输入只会抛出 InvalidExpressionException
+ */
+public class CompilerAdversarialTest {
+
+    private static final CompileLimits LIMITS = new CompileLimits(Integer.MAX_VALUE, Double.POSITIVE_INFINITY, Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 32, 1_000);
+
+    // ==================== 恶意输入测试 ====================
+
+    @Nested
+    @DisplayName("恶意输入测试")
+    class AdversarialTests {
+
+        @Test
+        @DisplayName("长空白 - (d6,d8) keep <空白> highes 3")
+        void testWhitespaceRun() {
+            assertRejected(n -> "(d6,d8) keep" + " ".repeat(n) + "highes 3");
+        }
+
+        @Test
+        @DisplayName("近似关键字 - (d6,d8) explode always always ... on 6 or mor")
+        void testNearMissKeywords() {
+            assertRejected(n -> "(d6,d8) explode" + " always".repeat(n / 7) + " on 6 or mor");
+        }
+
+        @Test
+        @DisplayName("长运算链 - 1*1*1*...")
+        void testLongOperatorChain() {
+            assertRejected(n -> "(" + "1*1*1*1*1*1*1*1, ".repeat(n / 17) + "1)");
+        }
+
+        @Test
+        @DisplayName("深括号 - 32层嵌套的长表达式")
+        void testDeepParentheses() {
+            assertRejected(n -> "(".repeat(32) + "d6" + ", 1".repeat(n / 3) + ")".repeat(32));
+        }
+
+        @Test
+        @DisplayName("最大max - 长 (d4,d6) ma...x")
+        void testLongMaxLikeSuffix() {
+            assertRejected(n -> "(d4,d6) m" + "a".repeat(n) + "x");
+        }
+    }
+
+    // ==================== 输入限制测试 ====================
+
+    @Nested
+    @DisplayName("输入限制测试")
+    class InputLimitTests {
+
+        @Test
+        @DisplayName("超长输入 - 默认限制拒绝")
+        void testInputTooLong() {
+            assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("1" + "+1".repeat(5000)));
+        }
+
+        @Test
+        @DisplayName("带空格的骰池 - 数量与 d 之间的空格不影响解析前的骰子计数")
+        void testSpacedPools() throws Exception {
+            assertEquals("9999d6", DiceExpressionCompiler.compile("99 99 d6").toString());
+            for (String expression : new String[]{"(9999 d6, 9999 d6)", "(" + "5000 d6, ".repeat(200) + "1)", "10001 d6"}) {
+                CompileLimitExceededException e = assertThrows(CompileLimitExceededException.class,
+                        () -> DiceExpressionCompiler.compile(expression));
+                // 在解析前就被拒绝，而不是解析后由代价估计拒绝
+                assertTrue(e.getMessage().startsWith("Too many dice written"), e.getMessage());
+            }
+        }
+
+        @Test
+        @DisplayName("运算链 - 平铺的长链不算嵌套，超出链长才被拒绝")
+        void testOperatorChainTooLong() throws Exception {
+            IExpression sum = DiceExpressionCompiler.compile("d6" + " + d6".repeat(199));
+            int total = sum.roll();
+            assertTrue(total >= 200 && total <= 1200);
+            CompileLimitExceededException e = assertThrows(CompileLimitExceededException.class,
+                    () -> DiceExpressionCompiler.compile("1" + "+1".repeat(257)));
+            assertTrue(e.getMessage().startsWith("Chain too long"), e.getMessage());
+            // 外层括号的链长累加到内层，括号仍按嵌套计算
+            assertDoesNotThrow(() -> DiceExpressionCompiler.compile("(1" + "+1".repeat(100) + ")+1" + "+1".repeat(100)));
+            assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("(1" + "+1".repeat(150) + ")+1" + "+1".repeat(150)));
+            e = assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("(".repeat(129) + "1" + ")".repeat(129)));
+            assertTrue(e.getMessage().startsWith("Nested too deep"), e.getMessage());
+        }
+
+        @Test
+        @DisplayName("嵌套过深 - 100000层括号在超出深度时被拒绝")
+        void testNestingTooDeep() {
+            String expression = "(".repeat(100_000) + "d6" + ")".repeat(100_000);
+            CompileLimitExceededException e = assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile(expression, LIMITS));
+            assertTrue(e.getMessage().startsWith("Nested too deep"), e.getMessage());
+        }
+
+        @Test
+        @DisplayName("嵌套括号 - ((2d4 + 3)) * 2 与 (2d4 + 3) * 2 结果一致")
+        void testNestedParentheses() throws Exception {
+            IExpression flat = DiceExpressionCompiler.compile("(2d4 + 3) * 2");
+            IExpression nested = DiceExpressionCompiler.compile("((2d4 + 3)) * 2");
+            for (int i = 0; i < 50; i++) {
+                RandomUtil.setRandom(new Random(i));
+                int expected = flat.roll();
+                RandomUtil.setRandom(new Random(i));
+                assertEquals(expected, nested.roll());
+            }
+        }
+    }
+
+    // ==================== 随机输入测试 ====================
+
+    @Nested
+    @DisplayName("随机输入测试")
+    class FuzzTests {
+
+        @Test
+        @DisplayName("随机输入 - 只应抛出InvalidExpressionException")
+        void testRandomInput() {
+            String alphabet = "0123456789d%(),+-*/x kehlrspaotimnuvfwg";
+            Random random = new Random(42);
+            for (int i = 0; i < 20_000; i++) {
+                StringBuilder expression = new StringBuilder();
+                int length = 1 + random.nextInt(24);
+                for (int j = 0; j < length; j++) {
+                    expression.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                try {
+                    DiceExpressionCompiler.compile(expression.toString());
+                } catch (InvalidExpressionException ignored) {
+                } catch (RuntimeException e) {
+                    fail("'" + expression + "' 抛出 " + e);
+                }
+            }
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    /**
+     * 默认限制拒绝长输入，宽松限制下同样的输入只会编译成功或抛出 InvalidExpressionException，
+     * 编译耗时随长度的增长见 CompilerBenchmark
+     */
+    private static void assertRejected(IntFunction<String> generator) {
+        String large = generator.apply(160_000);
+        assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile(large));
+        for (int n : new int[]{100, 20_000}) {
+            try {
+                assertNotNull(DiceExpressionCompiler.compile(generator.apply(n), LIMITS));
+            } catch (CompileLimitExceededException e) {
+                fail("宽松限制下 " + n + " 被拒绝: " + e.getMessage());
+            } catch (InvalidExpressionException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.random.CounterRandom;
+import top.outlands.diceroller4j.random.ReplayedRoll;
+import top.outlands.diceroller4j.random.RollAudit;
+import top.outlands.diceroller4j.trace.RollTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 计数器随机数测试
+ * 测试内容包括：
+ * 1. 按 (种子, 掷骰编号, 序号) 随机访问
+ * 2. 审计掷骰的重放与单个骰子的重算
+ * 3. 分布均匀性
+ * 4. 并发重放互不干扰
+ */
+public class CounterRandomTest {
+
+    // ==================== 随机访问测试 ====================
+
+    @Nested
+    @DisplayName("随机访问测试")
+    class AccessTests {
+
+        @Test
+        @DisplayName("随机访问 - 与顺序生成的值一致")
+        void testAt() {
+            CounterRandom random = new CounterRandom(42);
+            random.startRoll(7);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(CounterRandom.at(42, 7, i), random.nextLong());
+            }
+            assertEquals(100, random.counter());
+            random.startRoll(7);
+            assertEquals(CounterRandom.at(42, 7, 0), random.nextLong());
+        }
+
+        @Test
+        @DisplayName("一骰一值 - 每次有界取值恰好消耗一个计数")
+        void testOneValuePerDie() {
+            CounterRandom random = new CounterRandom(-3);
+            random.startRoll(1);
+            for (int i = 0; i < 1000; i++) {
+                int sides = 1 + i % 100;
+                assertEquals(CounterRandom.die(-3, 1, i, sides), random.nextInt(sides) + 1);
+            }
+        }
+
+        @Test
+        @DisplayName("均匀性 - d6 各面频率接近 1/6")
+        void testUniform() {
+            CounterRandom random = new CounterRandom(5);
+            long[] counts = new long[6];
+            int n = 600_000;
+            for (int roll = 0; roll < n / 6; roll++) {
+                random.startRoll(roll);
+                for (int i = 0; i < 6; i++) {
+                    counts[random.nextInt(6)]++;
+                }
+            }
+            double chiSquare = 0;
+            for (long count : counts) {
+                chiSquare += Math.pow(count - n / 6.0, 2) / (n / 6.0);
+            }
+            // 自由度 5，p = 0.001 的临界值
+            assertTrue(chiSquare < 20.5, "卡方 " + chiSquare);
+        }
+    }
+
+    // ==================== 审计测试 ====================
+
+    @Nested
+    @DisplayName("审计测试")
+    class AuditTests {
+
+        @Test
+        @DisplayName("重放 - 相同编号得到相同的骰子与总数")
+        void testReplay() throws Exception {
+            IExpression expression = DiceExpressionCompiler.compile("4d6k3 + 2d10 explode always on 9 or more + d20");
+            RollAudit audit = new RollAudit(2024);
+            Random previous = RandomUtil.getRandom();
+            int[] totals = new int[50];
+            for (int roll = 0; roll < totals.length; roll++) {
+                totals[roll] = audit.roll(expression, roll);
+            }
+            assertSame(previous, RandomUtil.getRandom());
+            RollAudit later = new RollAudit(2024);
+            for (int roll = totals.length - 1; roll >= 0; roll--) {
+                ReplayedRoll replayed = later.replay(expression, roll);
+                assertEquals(totals[roll], replayed.total());
+                RollTrace trace = replayed.trace();
+                assertTrue(trace.size() >= 7);
+                for (int i = 0; i < trace.size(); i++) {
+                    assertEquals(trace.value(i), later.die(roll, i, trace.sides(i)), "roll " + roll + " die " + i);
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("重放 - 不影响当前的记录模式与结果")
+        void testReplayKeepsResults() throws Exception {
+            TraceMode mode = DiceResults.getMode();
+            try {
+                DiceResults.setMode(TraceMode.INDIVIDUAL);
+                DiceResults.clear();
+                DiceExpressionCompiler.compile("3d6").roll();
+                int[] before = DiceResults.getTrace().toValuesArray();
+                ReplayedRoll replayed = new RollAudit(1).replay(DiceExpressionCompiler.compile("5d8"), 3);
+                assertEquals(5, replayed.trace().size());
+                assertArrayEquals(before, DiceResults.getTrace().toValuesArray());
+                DiceResults.setMode(TraceMode.NONE);
+                replayed = new RollAudit(1).replay(DiceExpressionCompiler.compile("5d8"), 3);
+                assertEquals(5, replayed.trace().size());
+                assertEquals(TraceMode.NONE, DiceResults.getMode());
+                assertArrayEquals(before, DiceResults.getTrace().toValuesArray());
+            } finally {
+                DiceResults.setMode(mode);
+            }
+        }
+    }
+
+    // ==================== 并发测试 ====================
+
+    @Nested
+    @DisplayName("并发测试")
+    class ConcurrencyTests {
+
+        @Test
+        @DisplayName("并发重放 - 各线程的重放互不干扰，也不写入全局结果")
+        void testConcurrentReplay() throws Exception {
+            IExpression expression = DiceExpressionCompiler.compile("4d6k3 + d10 explode always on 10");
+            RollAudit audit = new RollAudit(77);
+            ReplayedRoll[] expected = new ReplayedRoll[64];
+            for (int roll = 0; roll < expected.length; roll++) {
+                expected[roll] = audit.replay(expression, roll);
+            }
+            TraceMode mode = DiceResults.getMode();
+            try {
+                DiceResults.setMode(TraceMode.INDIVIDUAL);
+                DiceResults.clear();
+                DiceExpressionCompiler.compile("2d6").roll();
+                int[] before = DiceResults.getTrace().toValuesArray();
+                try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+                    List<Future<ReplayedRoll>> futures = new ArrayList<>();
+                    for (int roll = 0; roll < expected.length; roll++) {
+                        long id = roll;
+                        // 每个线程用自己的审计器，种子相同
+                        futures.add(executor.submit(() -> new RollAudit(77).replay(expression, id)));
+                    }
+                    for (int roll = 0; roll < expected.length; roll++) {
+                        ReplayedRoll replayed = futures.get(roll).get();
+                        assertEquals(expected[roll].total(), replayed.total());
+                        assertArrayEquals(expected[roll].trace().toValuesArray(), replayed.trace().toValuesArray());
+                    }
+                }
+                assertArrayEquals(before, DiceResults.getTrace().toValuesArray());
+            } finally {
+                DiceResults.setMode(mode);
+            }
+        }
+    }
+}
@@ -3,14 +3,33 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimitExceededException;
+import top.outlands.diceroller4j.CompileLimits;
 import top.outlands.diceroller4j.DiceExpressionCompiler;
 import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.InvalidExpressionException;
 import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.RollBudget;
+import top.outlands.diceroller4j.RollBudgetExceededException;
+import top.outlands.diceroller4j.analysis.CostEstimate;
+import top.outlands.diceroller4j.analysis.CostEstimator;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Dice;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
 import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.Number;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
 import top.outlands.diceroller4j.expressions.RollResult;
 
+import java.io.StringWriter;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -21,6 +40,8 @@ import static org.junit.jupiter.api.Assertions.*;
  * 2. 复杂表达式的正确计算
  * 3. 四则运算顺序的正确理解
  * 4. 特定表达式的简化
+ * 5. 规范字符串缓存与结构相等
+ * 6. 单趟渲染
  */
 public class DiceExpressionTest {
 
@@ -910,6 +931,190 @@ public class DiceExpressionTest {
         }
     }
 
+    // ==================== 编译限制与投掷预算测试 ====================
+
+    @Nested
+    @DisplayName("编译限制与投掷预算测试")
+    class CompileLimitsTests {
+
+        @Test
+        @DisplayName("超大骰池 - 999999999d6 应在分配前被拒绝")
+        void testHugePoolRejected() {
+            assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("999999999d6"));
+            assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("(6000d6, 6000d6)"));
+        }
+
+        @Test
+        @DisplayName("超出int范围的数字 - 应抛出InvalidExpressionException")
+        void testNumberOutOfRange() {
+            assertThrows(InvalidExpressionException.class, () -> DiceExpressionCompiler.compile("99999999999d6"));
+        }
+
+        @Test
+        @DisplayName("无限爆炸 - d1 explode always on 1 应被拒绝")
+        void testEndlessExplodeRejected() {
+            assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("d1 explode always on 1"));
+            assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("d6 reroll always on 6 or less"));
+        }
+
+        @Test
+        @DisplayName("成本估算 - 4d6k3 与 d6e6")
+        void testCostEstimate() throws Exception {
+            CostEstimate keep = CostEstimator.estimate(DiceExpressionCompiler.compile("4d6k3"));
+            assertEquals(4, keep.dice());
+            assertEquals(4.0, keep.expectedDraws(), 1e-9);
+            assertEquals(0, keep.explosionDepth());
+
+            CostEstimate explode = CostEstimator.estimate(DiceExpressionCompiler.compile("d6e6"));
+            assertEquals(1, explode.dice());
+            assertEquals(1.2, explode.expectedDraws(), 1e-9);
+            assertEquals(12, explode.explosionDepth());
+        }
+
+        @Test
+        @DisplayName("自定义限制 - UNLIMITED 允许 20000d6")
+        void testCustomLimits() throws Exception {
+            assertThrows(CompileLimitExceededException.class, () -> DiceExpressionCompiler.compile("20000d6"));
+            assertNotNull(DiceExpressionCompiler.compile("20000d6", CompileLimits.UNLIMITED));
+        }
+
+        @Test
+        @DisplayName("投掷预算 - 超出预算时抛出RollBudgetExceededException")
+        void testRollBudget() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("d1 explode always on 1", CompileLimits.UNLIMITED);
+            int previous = RollBudget.getMaxDraws();
+            RollBudget.setMaxDraws(100);
+            try {
+                assertThrows(RollBudgetExceededException.class, expr::roll);
+            } finally {
+                RollBudget.setMaxDraws(previous);
+            }
+        }
+
+        @Test
+        @DisplayName("投掷预算 - 一次投掷中所有爆骰、重掷与强调节点共用同一预算")
+        void testRollBudgetShared() throws Exception {
+            int previous = RollBudget.getMaxDraws();
+            RollBudget.setMaxDraws(100);
+            try {
+                // 强调每对 2 次，爆骰与重掷每颗骰子 1 次，各自都不超过 100
+                IExpression emphasis = DiceExpressionCompiler.compile("30d6 emphasis high");
+                IExpression explode = DiceExpressionCompiler.compile("45d6 explode always on 7");
+                for (int i = 0; i < 3; i++) {
+                    assertDoesNotThrow(emphasis::roll);
+                    assertDoesNotThrow(explode::roll);
+                }
+                assertDoesNotThrow(DiceExpressionCompiler.compile("45d6 reroll always on 0 + 45d6 explode always on 7")::roll);
+                // 合起来 105 次
+                IExpression both = DiceExpressionCompiler.compile("30d6 emphasis high + 45d6 explode always on 7");
+                RollBudgetExceededException e = assertThrows(RollBudgetExceededException.class, both::roll);
+                assertTrue(e.getMessage().contains("explode"), e.getMessage());
+                assertThrows(RollBudgetExceededException.class,
+                        DiceExpressionCompiler.compile("(30d6 emphasis high, 20d6 reroll always on 0, 25d6 explode always on 7) keep 2")::roll);
+            } finally {
+                RollBudget.setMaxDraws(previous);
+            }
+        }
+    }
+
+    // ==================== 规范形式与结构相等测试 ====================
+
+    @Nested
+    @DisplayName("规范形式与结构相等测试")
+    class CanonicalFormTests {
+
+        @Test
+        @DisplayName("缓存字符串 - 多次toString返回同一实例")
+        void testCachedString() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("(4d6k3, 2d8 + 1) * 2");
+            String first = expr.toString();
+            assertSame(first, expr.toString());
+            assertEquals(((CompiledExpression) expr).root().toString(), first);
+        }
+
+        @Test
+        @DisplayName("结构相等 - 分别编译的相同表达式相等且哈希一致")
+        void testStructuralEquality() throws Exception {
+            for (String expression : List.of("4d6k3", "(d4, d6, d8) + 3", "(2d6, d20e20) keep 1", "3d6 emphasis high", "(d6, d8) median")) {
+                IExpression a = DiceExpressionCompiler.compile(expression);
+                IExpression b = DiceExpressionCompiler.compile(expression);
+                assertNotSame(a, b);
+                assertEquals(a, b, expression);
+                assertEquals(a.hashCode(), b.hashCode(), expression);
+            }
+            assertNotEquals(DiceExpressionCompiler.compile("4d6k3"), DiceExpressionCompiler.compile("4d6k2"));
+            assertNotEquals(DiceExpressionCompiler.compile("(d4, d6)"), DiceExpressionCompiler.compile("(d4, d8)"));
+        }
+
+        @Test
+        @DisplayName("去重键 - 编译结果可作为HashSet元素")
+        void testAsKey() throws Exception {
+            Set<IExpression> keys = new HashSet<>();
+            for (int i = 0; i < 3; i++) {
+                keys.add(DiceExpressionCompiler.compile("(d4, d6) + 2d8"));
+                keys.add(DiceExpressionCompiler.compile("d20 + 5"));
+            }
+            assertEquals(2, keys.size());
+        }
+    }
+
+    // ==================== 单趟渲染测试 ====================
+
+    @Nested
+    @DisplayName("单趟渲染测试")
+    class AppendToTests {
+
+        @Test
+        @DisplayName("一致性 - appendTo追加到已有内容后与toString一致")
+        void testMatchesToString() throws Exception {
+            for (String expression : List.of("4d6k3", "(d4, d6) keep lowest 1", "d6 explode 2 times on 5 or more", "(d6, d8) reroll always on 2",
+                    "3d6 furthest from 2 low", "(4d6k3, 2d8 + 1, d20e20) * 2", "(d6,d8,d10)median")) {
+                IExpression expr = DiceExpressionCompiler.compile(expression);
+                IExpression root = ((CompiledExpression) expr).root();
+                StringBuilder builder = new StringBuilder("roll: ");
+                root.appendTo(builder);
+                assertEquals("roll: " + expr, builder.toString(), expression);
+            }
+        }
+
+        @Test
+        @DisplayName("Appendable - 写入Writer")
+        void testAppendable() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("(2d6, d20e20) keep 1 + 3");
+            StringWriter writer = new StringWriter();
+            expr.appendTo(writer);
+            assertEquals(expr.toString(), writer.toString());
+        }
+
+        @Test
+        @DisplayName("深层嵌套渲染 - 800层一趟渲染完，外层输出包含内层输出且长度随深度线性增长")
+        void testDeepNesting() {
+            String small = nested(100).toString();
+            StringBuilder builder = new StringBuilder("roll: ");
+            nested(800).appendTo(builder);
+            String large = builder.substring("roll: ".length());
+            // 外层的前 100 层就是 nested(100)
+            assertTrue(large.contains(small));
+            // Keep 与加法交替，每两层多出的只有常数个字符和层号多出的位数
+            int perTwoLevels = nested(12).toString().length() - nested(10).toString().length();
+            assertTrue(large.length() - small.length() <= 350L * (perTwoLevels + 2), small.length() + " / " + large.length());
+            assertEquals(large, nested(800).toString());
+        }
+
+        /**
+         * 逐层交替嵌套 ExpressionSet、Keep、Explode 与加法
+         */
+        private IExpression nested(int depth) {
+            IExpression expr = new Dice(6);
+            for (int i = 0; i < depth; i++) {
+                DiceSet dice = new DiceSet(new Dice[]{new Dice(6), new Dice(8)});
+                ExpressionSet set = new ExpressionSet(new IExpression[]{expr, new Explode(dice, 0, 6, Relation.GREATER_OR_EQUAL), new Number(i)});
+                expr = i % 2 == 0 ? new Keep(set, 2, false) : new Plus(set, new Number(1));
+            }
+            return expr;
+        }
+    }
+
     // ==================== 辅助方法 ====================
 
     private void assertToStringEquals(String expression) throws Exception {
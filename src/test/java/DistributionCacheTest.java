@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分布缓存测试
+ * 测试内容包括：
+ * 1. 缓存结果与直接计算一致
+ * 2. 子表达式复用
+ * 3. 按权重淘汰与并发访问
+ * 4. 常用表达式语料上的命中率与重复查询
+ */
+public class DistributionCacheTest {
+
+    /**
+     * 常用表达式语料：攻击、伤害、属性与豁免
+     */
+    private static final List<String> CORPUS = List.of(
+            "d20 + 5", "2d6 + 4", "2d6 + 1d4 + 3", "8d6 + 2d6", "4d6k3", "4d6k3 + 2d6", "2d20k1 + 5", "2d20 keep lowest 1 + 3",
+            "10d6 + 4d8", "d6e6 + 2d6", "d10e10 + d6", "4d6 reroll 1 times on 1", "(d20 + 5) * 2", "6d6 + 2d8 + 1d4",
+            "12d6 + 4d10 + 2d8", "20d6 + 10d10", "6d10k3 + 4d8", "3d20 median + d6");
+
+    // ==================== 正确性测试 ====================
+
+    @Nested
+    @DisplayName("正确性测试")
+    class CorrectnessTests {
+
+        @Test
+        @DisplayName("一致性 - 缓存结果与直接计算相同")
+        void testMatchesDirect() throws Exception {
+            DistributionCache cache = new DistributionCache();
+            for (int round = 0; round < 2; round++) {
+                for (String expression : CORPUS) {
+                    assertClose(expression, Distributions.of(compile(expression)), cache.get(compile(expression)));
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("复用 - 2d6+3d4+3 复用 2d6 与 3d4")
+        void testReuse() throws Exception {
+            DistributionCache cache = new DistributionCache();
+            cache.get(compile("2d6"));
+            cache.get(compile("3d4 + 0"));
+            long hits = cache.hits();
+            cache.get(compile("2d6 + 3d4 + 3"));
+            assertEquals(hits + 2, cache.hits());
+            cache.get(compile("3 + 3d4 + 2d6"));
+            assertEquals(hits + 3, cache.hits(), "重排后的表达式应整体命中");
+        }
+    }
+
+    // ==================== 淘汰与并发测试 ====================
+
+    @Nested
+    @DisplayName("淘汰与并发测试")
+    class EvictionTests {
+
+        @Test
+        @DisplayName("淘汰 - 总权重不超过上限")
+        void testBounded() throws Exception {
+            DistributionCache cache = new DistributionCache(2000);
+            for (int n = 1; n <= 60; n++) {
+                cache.get(compile(n + "d6 + " + n + "d8"));
+                assertTrue(cache.weight() <= 2000, "权重 " + cache.weight());
+            }
+            assertTrue(cache.evictions() > 0);
+            cache.clear();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.weight());
+        }
+
+        @Test
+        @DisplayName("并发 - 8个线程共享缓存")
+        void testConcurrent() throws Exception {
+            DistributionCache cache = new DistributionCache(500);
+            List<Distribution> expected = new ArrayList<>();
+            for (String expression : CORPUS) {
+                expected.add(Distributions.of(compile(expression)));
+            }
+            try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    int offset = t;
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < 200; i++) {
+                            int index = (i + offset) % CORPUS.size();
+                            assertClose(CORPUS.get(index), expected.get(index), cache.get(compile(CORPUS.get(index))));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            assertTrue(cache.weight() <= 500, "权重 " + cache.weight());
+        }
+    }
+
+    // ==================== 语料测试 ====================
+
+    @Nested
+    @DisplayName("语料测试")
+    class CorpusTests {
+
+        @Test
+        @DisplayName("命中率 - 带不同加值的语料应大量复用，重复查询全部命中且不再计算")
+        void testCorpus() throws Exception {
+            List<CompiledExpression> corpus = new ArrayList<>();
+            for (int bonus = 0; bonus < 20; bonus++) {
+                for (String expression : CORPUS) {
+                    corpus.add(compile(expression + " + " + bonus));
+                }
+            }
+            // 首次计算时已能复用子表达式
+            DistributionCache cache = new DistributionCache();
+            List<Distribution> first = cached(corpus, cache);
+            double hitRate = (double) cache.hits() / (cache.hits() + cache.misses());
+            assertTrue(hitRate > 0.4, "命中率 " + hitRate);
+
+            // 重复查询直接返回缓存的结果，与直接计算一致
+            long misses = cache.misses(), hits = cache.hits();
+            List<Distribution> again = cached(corpus, cache);
+            assertEquals(Long.valueOf(misses), Long.valueOf(cache.misses()));
+            assertEquals(Long.valueOf(hits + corpus.size()), Long.valueOf(cache.hits()));
+            for (int i = 0; i < corpus.size(); i++) {
+                assertSame(first.get(i), again.get(i));
+                assertClose(corpus.get(i).toString(), Distributions.of(corpus.get(i)), again.get(i));
+            }
+        }
+
+        private List<Distribution> cached(List<CompiledExpression> corpus, DistributionCache cache) {
+            List<Distribution> distributions = new ArrayList<>();
+            for (CompiledExpression expr : corpus) {
+                distributions.add(cache.get(expr));
+            }
+            return distributions;
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static CompiledExpression compile(String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression, CompileLimits.UNLIMITED);
+    }
+
+    private static void assertClose(String expression, Distribution expected, Distribution actual) {
+        assertEquals(expected.min(), actual.min(), expression);
+        assertEquals(expected.max(), actual.max(), expression);
+        for (int v = expected.min(); v <= expected.max(); v++) {
+            assertEquals(expected.probability(v), actual.probability(v), 1e-12, expression + " = " + v);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionStore;
+import top.outlands.diceroller4j.distribution.DistributionStoreBuilder;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.distribution.StoredDistribution;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分布存储测试
+ * 测试内容包括：
+ * 1. 写入与读取往返一致
+ * 2. 损坏文件的完整性检查
+ * 3. 构建工具
+ * 4. 打开存储预热，查询结果与重新计算一致
+ */
+public class DistributionStoreTest {
+
+    private static final List<String> EXPRESSIONS = List.of("d20 + 5", "2d6 + 4", "4d6k3", "8d6", "d6e6 + 2d6", "2d20k1 + 3",
+            "3d8 + 1d4 + 1d6", "(d20 + 5) * 2", "d20 furthest from 5 reroll");
+
+    // ==================== 往返测试 ====================
+
+    @Nested
+    @DisplayName("往返测试")
+    class RoundTripTests {
+
+        @Test
+        @DisplayName("往返 - 读出的分布与计算结果相同")
+        void testRoundTrip() throws Exception {
+            Path path = build(EXPRESSIONS);
+            try (DistributionStore store = DistributionStore.open(path)) {
+                assertEquals(EXPRESSIONS.size(), store.size());
+                for (String expression : EXPRESSIONS) {
+                    Distribution expected = Distributions.of(compile(expression));
+                    StoredDistribution stored = store.get(compile(expression));
+                    assertNotNull(stored, expression);
+                    assertEquals(expected.min(), stored.min(), expression);
+                    assertEquals(expected.max(), stored.max(), expression);
+                    for (int v = expected.min() - 1; v <= expected.max() + 1; v++) {
+                        assertEquals(expected.probability(v), stored.probability(v), 1e-12, expression);
+                        assertEquals(expected.cdf(v), stored.cdf(v), 1e-12, expression);
+                    }
+                }
+                assertEquals(0.55, store.get(compile("5 + d20")).probability(Relation.GREATER_OR_EQUAL, 15), 1e-12);
+                assertNull(store.get(compile("d20 + 6")));
+            } finally {
+                Files.delete(path);
+            }
+        }
+
+        @Test
+        @DisplayName("去重 - 规范形式相同的表达式只存一次")
+        void testDeduplicated() throws Exception {
+            DistributionStoreBuilder builder = new DistributionStoreBuilder();
+            assertTrue(builder.add(compile("2d6 + 3")));
+            assertFalse(builder.add(compile("3 + d6 + d6")));
+            assertEquals(1, builder.size());
+        }
+
+        @Test
+        @DisplayName("分组 - 分组不同的表达式分别存储，规范形式无法编译回自身时拒绝")
+        void testGrouping() throws Exception {
+            List<String> expressions = List.of("(d20+5)/d4", "d20+5/d4");
+            Path path = build(expressions);
+            try (DistributionStore store = DistributionStore.open(path)) {
+                assertEquals(2, store.size());
+                for (String expression : expressions) {
+                    Distribution expected = Distributions.of(compile(expression));
+                    Distribution stored = store.get(compile(expression)).toDistribution();
+                    assertEquals(expected.mean(), stored.mean(), 1e-12, expression);
+                }
+            } finally {
+                Files.delete(path);
+            }
+            // 常量折叠出的负数无法写成表达式
+            DistributionStoreBuilder builder = new DistributionStoreBuilder();
+            assertThrows(IllegalArgumentException.class, () -> builder.add(compile("(1 - 3) * d6")));
+            assertEquals(0, builder.size());
+        }
+    }
+
+    // ==================== 完整性测试 ====================
+
+    @Nested
+    @DisplayName("完整性测试")
+    class IntegrityTests {
+
+        @Test
+        @DisplayName("损坏 - 改动任一字节、截断或错误魔数都应拒绝")
+        void testCorrupted() throws Exception {
+            Path path = build(EXPRESSIONS);
+            try {
+                byte[] original = Files.readAllBytes(path);
+                for (int offset : new int[]{40, original.length / 2, original.length - 1}) {
+                    byte[] corrupted = original.clone();
+                    corrupted[offset] ^= 1;
+                    Files.write(path, corrupted);
+                    assertThrows(IOException.class, () -> DistributionStore.open(path), "偏移 " + offset);
+                }
+                Files.write(path, java.util.Arrays.copyOf(original, original.length - 8));
+                assertThrows(IOException.class, () -> DistributionStore.open(path));
+                byte[] magic = original.clone();
+                magic[0] = 'X';
+                Files.write(path, magic);
+                assertThrows(IOException.class, () -> DistributionStore.open(path));
+                Files.write(path, new byte[3]);
+                assertThrows(IOException.class, () -> DistributionStore.open(path));
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // ==================== 工具测试 ====================
+
+    @Nested
+    @DisplayName("工具测试")
+    class ToolTests {
+
+        @Test
+        @DisplayName("构建工具 - 跳过注释、空行与无法计算的表达式")
+        void testMain() throws Exception {
+            Path input = Files.createTempFile("expressions", ".txt");
+            Path output = Files.createTempFile("distributions", ".store");
+            try {
+                Files.writeString(input, "# 攻击\nd20 + 5\n\n2d6 + 4\nd6 / (d4 - 1)\nnot a roll\n");
+                DistributionStoreBuilder.main(new String[]{input.toString(), output.toString()});
+                try (DistributionStore store = DistributionStore.open(output)) {
+                    assertEquals(2, store.size());
+                    assertNotNull(store.get(compile("2d6 + 4")));
+                }
+            } finally {
+                Files.delete(input);
+                Files.deleteIfExists(output);
+            }
+        }
+    }
+
+    // ==================== 预热测试 ====================
+
+    @Nested
+    @DisplayName("预热测试")
+    class WarmUpTests {
+
+        @Test
+        @DisplayName("预热 - 打开存储即可查询，结果与重新计算一致")
+        void testWarmUp() throws Exception {
+            List<String> expressions = new ArrayList<>();
+            for (int n = 1; n <= 40; n++) {
+                expressions.add(n + "d6 + " + n + "d8 + d20");
+                expressions.add((n + 10) + "d10k" + (n / 2 + 3));
+            }
+            Path path = build(expressions);
+            try (DistributionStore store = DistributionStore.open(path)) {
+                assertEquals(expressions.size(), store.size());
+                for (String expression : expressions) {
+                    CompiledExpression expr = compile(expression);
+                    Distribution expected = Distributions.of(expr);
+                    StoredDistribution stored = store.get(expr);
+                    assertEquals(expected.min(), stored.min(), expression);
+                    assertEquals(expected.max(), stored.max(), expression);
+                    assertEquals(1, stored.cdf(Integer.MAX_VALUE), 1e-9, expression);
+                    assertEquals(expected.mean(), stored.toDistribution().mean(), 1e-9, expression);
+                }
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static CompiledExpression compile(String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression, CompileLimits.UNLIMITED);
+    }
+
+    private static Path build(List<String> expressions) throws Exception {
+        DistributionStoreBuilder builder = new DistributionStoreBuilder();
+        for (String expression : expressions) {
+            builder.add(compile(expression));
+        }
+        Path path = Files.createTempFile("distributions", ".store");
+        builder.write(path);
+        return path;
+    }
+}
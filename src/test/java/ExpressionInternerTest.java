@@ -0,0 +1,241 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.ExpressionInterner;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.DiceSet;
+import top.outlands.diceroller4j.expressions.ExpressionSet;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.arithmetic.Divide;
+import top.outlands.diceroller4j.expressions.arithmetic.Multiply;
+import top.outlands.diceroller4j.expressions.arithmetic.Plus;
+import top.outlands.diceroller4j.expressions.arithmetic.Subtract;
+import top.outlands.diceroller4j.expressions.mechanic.Drop;
+import top.outlands.diceroller4j.expressions.mechanic.Emphasis;
+import top.outlands.diceroller4j.expressions.mechanic.Explode;
+import top.outlands.diceroller4j.expressions.mechanic.Keep;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.expressions.statistics.Average;
+import top.outlands.diceroller4j.expressions.statistics.Max;
+import top.outlands.diceroller4j.expressions.statistics.Median;
+import top.outlands.diceroller4j.expressions.statistics.Min;
+import top.outlands.diceroller4j.expressions.statistics.Sum;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 子树驻留测试
+ * 测试内容包括：
+ * 1. 相同子树共享同一实例
+ * 2. 驻留后投掷结果不变
+ * 3. 弱引用回收与并发驻留
+ * 4. 宏目录驻留前后的节点实例数
+ */
+public class ExpressionInternerTest {
+
+    // ==================== 共享测试 ====================
+
+    @Nested
+    @DisplayName("共享测试")
+    class SharingTests {
+
+        @Test
+        @DisplayName("公共子树 - d20 与 5 在不同表达式间共享")
+        void testSharedSubtrees() throws Exception {
+            ExpressionInterner interner = new ExpressionInterner();
+            Plus a = (Plus) compile(interner, "d20 + 5").root();
+            Plus b = (Plus) compile(interner, "(d20, d20) keep 1 + 5").root();
+            assertSame(a.addend(), b.addend());
+            Keep keep = (Keep) b.augend();
+            assertSame(a.augend(), keep.expressions().expressions()[0]);
+            assertSame(keep.expressions().expressions()[0], keep.expressions().expressions()[1]);
+        }
+
+        @Test
+        @DisplayName("相同宏 - 返回同一个编译结果")
+        void testSameExpression() throws Exception {
+            ExpressionInterner interner = new ExpressionInterner();
+            CompiledExpression first = compile(interner, "2d6 + 3");
+            assertSame(first, compile(interner, "2d6 + 3"));
+            assertTrue(interner.hits() > 0);
+        }
+
+        @Test
+        @DisplayName("结果不变 - 驻留前后同一种子投掷一致")
+        void testSameRolls() throws Exception {
+            ExpressionInterner interner = new ExpressionInterner();
+            for (String expression : List.of("4d6k3 + 2", "(d6, d8) explode always on 6", "3d6 emphasis high", "(2d6, d4 * 2) median")) {
+                IExpression plain = DiceExpressionCompiler.compile(expression);
+                IExpression interned = compile(interner, expression);
+                assertEquals(plain, interned);
+                for (int i = 0; i < 20; i++) {
+                    RandomUtil.setRandom(new Random(i));
+                    int expected = plain.roll();
+                    RandomUtil.setRandom(new Random(i));
+                    assertEquals(expected, interned.roll(), expression);
+                }
+            }
+        }
+    }
+
+    // ==================== 回收与并发测试 ====================
+
+    @Nested
+    @DisplayName("回收与并发测试")
+    class LifecycleTests {
+
+        @Test
+        @DisplayName("弱引用 - 不再使用的子树可被回收")
+        void testCollected() throws Exception {
+            ExpressionInterner interner = new ExpressionInterner();
+            List<IExpression> kept = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                kept.add(compile(interner, "d20 + " + i));
+            }
+            int before = interner.size();
+            kept.clear();
+            for (int i = 0; i < 10 && interner.size() >= before / 2; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertTrue(interner.size() < before / 2, "回收前 " + before + " 项，回收后 " + interner.size() + " 项");
+        }
+
+        @Test
+        @DisplayName("并发驻留 - 8个线程得到同一实例")
+        void testConcurrent() throws Exception {
+            ExpressionInterner interner = new ExpressionInterner();
+            List<String> catalog = catalog(2_000);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<List<IExpression>>> futures = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    futures.add(executor.submit(() -> {
+                        List<IExpression> compiled = new ArrayList<>();
+                        for (String expression : catalog) {
+                            compiled.add(compile(interner, expression));
+                        }
+                        return compiled;
+                    }));
+                }
+                List<IExpression> first = futures.get(0).get();
+                for (Future<List<IExpression>> future : futures) {
+                    List<IExpression> compiled = future.get();
+                    for (int i = 0; i < compiled.size(); i++) {
+                        assertSame(first.get(i), compiled.get(i));
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // ==================== 内存测试 ====================
+
+    @Nested
+    @DisplayName("内存测试")
+    class MemoryTests {
+
+        @Test
+        @DisplayName("节点数 - 20000个宏驻留后不同的节点实例不到原来的一半，且都是共享实例")
+        void testCatalogFootprint() throws Exception {
+            List<String> catalog = catalog(20_000);
+            List<IExpression> plain = new ArrayList<>();
+            for (String expression : catalog) {
+                plain.add(DiceExpressionCompiler.compile(expression));
+            }
+            ExpressionInterner interner = new ExpressionInterner();
+            List<IExpression> interned = new ArrayList<>();
+            for (String expression : catalog) {
+                interned.add(compile(interner, expression));
+            }
+
+            assertEquals(plain, interned);
+            int plainNodes = distinctNodes(plain);
+            int internedNodes = distinctNodes(interned);
+            String report = "驻留前 " + plainNodes + " 个节点，驻留后 " + internedNodes + " 个（"
+                    + interner.size() + " 个共享节点，命中 " + interner.hits() + " 次）";
+            // 每个宏至少有编译结果、根节点和一个骰子，未驻留时互不共享
+            assertTrue(plainNodes >= 3 * catalog.size(), report);
+            assertTrue(internedNodes * 2 < plainNodes, report);
+            // 驻留后的树里每个节点都是驻留表里的实例
+            assertTrue(internedNodes <= interner.size(), report);
+            for (IExpression expression : interned) {
+                assertSame(expression, interner.intern(expression));
+            }
+        }
+
+        /**
+         * 从根出发按引用去重统计可达的节点实例
+         */
+        private int distinctNodes(List<IExpression> roots) {
+            Set<IExpression> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<IExpression> pending = new ArrayDeque<>(roots);
+            while (!pending.isEmpty()) {
+                IExpression node = pending.pop();
+                if (seen.add(node)) {
+                    pending.addAll(children(node));
+                }
+            }
+            return seen.size();
+        }
+
+        private List<IExpression> children(IExpression node) {
+            return switch (node) {
+                case CompiledExpression compiled -> List.of(compiled.root());
+                case DiceSet set -> List.of(set.dices());
+                case ExpressionSet set -> List.of(set.expressions());
+                case Plus(IExpression a, IExpression b) -> List.of(a, b);
+                case Subtract(IExpression a, IExpression b) -> List.of(a, b);
+                case Multiply(IExpression a, IExpression b) -> List.of(a, b);
+                case Divide(IExpression a, IExpression b) -> List.of(a, b);
+                case Keep keep -> List.of(keep.expressions());
+                case Drop drop -> List.of(drop.expressions());
+                case Min min -> List.of(min.dices());
+                case Max max -> List.of(max.dices());
+                case Median median -> List.of(median.dices());
+                case Average average -> List.of(average.dices());
+                case Sum sum -> List.of(sum.dices());
+                case Explode explode -> List.of(explode.diceSet());
+                case Reroll reroll -> List.of(reroll.diceSet());
+                case Emphasis emphasis -> List.of(emphasis.diceSet());
+                default -> List.of();
+            };
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static CompiledExpression compile(ExpressionInterner interner, String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression, CompileLimits.DEFAULT, interner);
+    }
+
+    /**
+     * 模拟角色卡宏目录：少量模板配合不同加值
+     */
+    private static List<String> catalog(int size) {
+        String[] templates = {"d20 + %d", "(d20, d20) keep 1 + %d", "2d6 + %d", "%dd6", "d8 + d6 + %d", "4d6k3 + %d", "d20e20 + %d"};
+        Random random = new Random(2024);
+        List<String> catalog = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            catalog.add(String.format(templates[random.nextInt(templates.length)], 1 + random.nextInt(15)));
+        }
+        return catalog;
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 有界缓存测试
+ * 测试内容包括：
+ * 1. 超出上限时按最近使用淘汰到四分之三
+ * 2. 超过上限的单个值不缓存
+ * 3. 并发写入后权重与内容一致
+ */
+public class LruCacheTest {
+
+    // ==================== 淘汰测试 ====================
+
+    @Nested
+    @DisplayName("淘汰测试")
+    class EvictionTests {
+
+        @Test
+        @DisplayName("最近使用 - 读过的条目留下，最久未用的先淘汰")
+        void testLeastRecentlyUsed() {
+            LruCache<Integer, String> cache = new LruCache<>(8, value -> 1);
+            for (int i = 0; i < 8; i++) {
+                assertTrue(cache.putIfAbsent(i, "v" + i));
+            }
+            assertEquals("v0", cache.get(0));
+            assertTrue(cache.putIfAbsent(8, "v8"));
+            // 九个超出上限，淘汰到六个
+            assertEquals(6, cache.size());
+            assertEquals(6, cache.weight());
+            assertEquals(3, cache.evictions());
+            assertEquals("v0", cache.get(0));
+            assertNull(cache.get(1));
+            assertNull(cache.get(3));
+            assertEquals("v4", cache.get(4));
+        }
+
+        @Test
+        @DisplayName("权重 - 过重的值不缓存，已有的键不覆盖，清空后权重归零")
+        void testWeight() {
+            LruCache<String, String> cache = new LruCache<>(10, String::length);
+            assertFalse(cache.putIfAbsent("long", "x".repeat(11)));
+            assertTrue(cache.putIfAbsent("a", "aaaa"));
+            assertFalse(cache.putIfAbsent("a", "b"));
+            assertEquals("aaaa", cache.get("a"));
+            assertEquals(4, cache.weight());
+            cache.clear();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.weight());
+            assertThrows(IllegalArgumentException.class, () -> new LruCache<String, String>(0, String::length));
+        }
+    }
+
+    // ==================== 并发测试 ====================
+
+    @Nested
+    @DisplayName("并发测试")
+    class ConcurrencyTests {
+
+        @Test
+        @DisplayName("并发写入 - 权重等于留下的条目之和且不超过上限")
+        void testConcurrentPuts() throws Exception {
+            LruCache<Integer, Integer> cache = new LruCache<>(1000, value -> value % 7 + 1);
+            try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    int offset = t;
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < 20_000; i++) {
+                            int key = (i * 4 + offset) % 5000;
+                            if (cache.get(key) == null) cache.putIfAbsent(key, key);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            long[] weight = new long[1];
+            cache.forEach((key, value) -> weight[0] += value % 7 + 1);
+            assertEquals(weight[0], cache.weight());
+            assertTrue(cache.weight() <= 1000, cache.toString());
+            assertTrue(cache.evictions() > 0);
+        }
+    }
+}
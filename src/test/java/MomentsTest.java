@@ -0,0 +1,287 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.analysis.Moments;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 矩分析测试
+ * 测试内容包括：
+ * 1. 线性组合与乘积的精确矩
+ * 2. 纯骰池的 Keep/Drop/Median/Min/Max 与穷举结果一致
+ * 3. Explode/Reroll/Emphasis 与固定种子抽样一致
+ * 4. 混合骰池与除法在规模内的精确矩
+ * 5. 溢出与近似标记
+ * 6. 嵌套骰池与超规模输入只做有限的计算
+ */
+public class MomentsTest {
+
+    // ==================== 精确矩测试 ====================
+
+    @Nested
+    @DisplayName("精确矩测试")
+    class ExactTests {
+
+        @Test
+        @DisplayName("线性组合 - 2d6 + 3")
+        void testLinear() throws Exception {
+            Moments m = moments("2d6 + 3");
+            assertEquals(5, m.min());
+            assertEquals(15, m.max());
+            assertEquals(10.0, m.mean(), 1e-12);
+            assertEquals(35.0 / 6, m.variance(), 1e-12);
+            assertTrue(m.exact());
+        }
+
+        @Test
+        @DisplayName("乘积与差 - d6 * d4 - 2")
+        void testProduct() throws Exception {
+            Moments m = moments("d6 * d4 - 2");
+            assertEquals(-1, m.min());
+            assertEquals(22, m.max());
+            double[] expected = enumerate(new int[]{6, 4}, v -> v[0] * v[1] - 2);
+            assertEquals(expected[0], m.mean(), 1e-9);
+            assertEquals(expected[1], m.variance(), 1e-9);
+        }
+
+        @Test
+        @DisplayName("纯骰池 - 与穷举结果一致")
+        void testPurePools() throws Exception {
+            assertMatches("4d6k3", 4, 6, sorted -> sorted[1] + sorted[2] + sorted[3]);
+            assertMatches("4d6 keep lowest 3", 4, 6, sorted -> sorted[0] + sorted[1] + sorted[2]);
+            assertMatches("5d8d2", 5, 8, sorted -> sorted[2] + sorted[3] + sorted[4]);
+            assertMatches("5d8 drop highest 2", 5, 8, sorted -> sorted[0] + sorted[1] + sorted[2]);
+            assertMatches("3d10 median", 3, 10, sorted -> sorted[1]);
+            assertMatches("4d6 min", 4, 6, sorted -> sorted[0]);
+            assertMatches("4d6 max", 4, 6, sorted -> sorted[3]);
+        }
+
+        @Test
+        @DisplayName("混合骰池与除法 - 与穷举结果一致")
+        void testMixedPools() throws Exception {
+            assertMixed("(d4, d6, d8) max", new int[]{4, 6, 8}, faces -> Arrays.stream(faces).max().getAsInt());
+            assertMixed("(d6, d8) min", new int[]{6, 8}, faces -> Arrays.stream(faces).min().getAsInt());
+            assertMixed("(d4, d6, d10) median", new int[]{4, 6, 10}, faces -> Arrays.stream(faces).sorted().toArray()[1]);
+            assertMixed("(d4, d6, d8) keep 2", new int[]{4, 6, 8}, faces -> {
+                int[] sorted = faces.clone();
+                Arrays.sort(sorted);
+                return sorted[1] + sorted[2];
+            });
+            assertMixed("(d6, d8) keep 1", new int[]{6, 8}, faces -> Math.max(faces[0], faces[1]));
+            assertMixed("(d20 + 5) / d4", new int[]{20, 4}, faces -> (faces[0] + 5) / faces[1]);
+            assertMixed("d20 / 4", new int[]{20}, faces -> faces[0] / 4);
+            assertEquals(5.3333, moments("(d4, d6, d8) max").mean(), 1e-4);
+            assertEquals(33.5, moments("(d20 + 5) / d4").variance(), 0.1);
+        }
+
+        private void assertMixed(String expression, int[] sides, ToIntFunction<int[]> value) throws Exception {
+            double[] expected = enumerate(sides, value);
+            Moments m = moments(expression);
+            assertTrue(m.exact(), expression);
+            assertEquals(expected[0], m.mean(), 1e-9, expression);
+            assertEquals(expected[1], m.variance(), 1e-9, expression);
+        }
+
+        @Test
+        @DisplayName("缓存 - 编译结果的矩只计算一次")
+        void testCached() throws Exception {
+            CompiledExpression expr = DiceExpressionCompiler.compile("4d6k3 + 2");
+            assertSame(expr.moments(), expr.moments());
+        }
+
+        private void assertMatches(String expression, int n, int sides, ToIntFunction<int[]> ofSorted) throws Exception {
+            int[] dice = new int[n];
+            Arrays.fill(dice, sides);
+            double[] expected = enumerate(dice, values -> {
+                int[] sorted = values.clone();
+                Arrays.sort(sorted);
+                return ofSorted.applyAsInt(sorted);
+            });
+            Moments m = moments(expression);
+            assertTrue(m.exact(), expression);
+            assertEquals(expected[0], m.mean(), 1e-9, expression);
+            assertEquals(expected[1], m.variance(), 1e-9, expression);
+        }
+    }
+
+    // ==================== 链式机制测试 ====================
+
+    @Nested
+    @DisplayName("链式机制测试")
+    class ChainTests {
+
+        @Test
+        @DisplayName("无限爆炸 - d6e6 均值为 4.2")
+        void testExplodeAlways() throws Exception {
+            Moments m = moments("d6e6");
+            assertEquals(4.2, m.mean(), 1e-12);
+            assertEquals(Long.MAX_VALUE, m.max());
+            assertTrue(m.overflow());
+            assertSampled("d6e6", m);
+        }
+
+        @Test
+        @DisplayName("有限爆炸、重掷与强调 - 与抽样一致")
+        void testChains() throws Exception {
+            for (String expression : List.of("d6 explode 1 times on 5 or more", "(d4, d8) explode 2 times on 1", "d6r1",
+                    "2d6 reroll 1 times on 2 or less", "3d6 emphasis high", "d20 furthest from 5 reroll")) {
+                Moments m = moments(expression);
+                assertTrue(m.exact(), expression);
+                assertSampled(expression, m);
+            }
+        }
+
+        @Test
+        @DisplayName("无限重掷 - d6r1 为2到6的均匀分布")
+        void testRerollAlways() throws Exception {
+            Moments m = moments("d6r1");
+            assertEquals(2, m.min());
+            assertEquals(4.0, m.mean(), 1e-12);
+            assertEquals(2.0, m.variance(), 1e-12);
+        }
+
+        private void assertSampled(String expression, Moments m) throws Exception {
+            int samples = 200_000;
+            CompiledExpression expr = DiceExpressionCompiler.compile(expression);
+            RandomUtil.setRandom(new Random(36));
+            DiceResults.setMode(TraceMode.NONE);
+            double sum = 0, squares = 0;
+            try {
+                for (int i = 0; i < samples; i++) {
+                    int value = expr.roll();
+                    assertTrue(value >= m.min() && value <= m.max(), expression + " 超出范围: " + value);
+                    sum += value;
+                    squares += (double) value * value;
+                }
+            } finally {
+                DiceResults.setMode(TraceMode.INDIVIDUAL);
+            }
+            double mean = sum / samples;
+            double variance = squares / samples - mean * mean;
+            // 样本均值误差约为 sqrt(方差 / 样本数)，取5倍
+            assertEquals(m.mean(), mean, 5 * Math.sqrt(m.variance() / samples), expression);
+            assertEquals(m.variance(), variance, 0.05 * m.variance() + 1e-9, expression);
+        }
+    }
+
+    // ==================== 标记测试 ====================
+
+    @Nested
+    @DisplayName("标记测试")
+    class FlagTests {
+
+        @Test
+        @DisplayName("溢出 - 大乘积可能超出int范围")
+        void testOverflow() throws Exception {
+            assertFalse(moments("4d6k3 + 2d8").overflow());
+            Moments m = moments("5000d1000 * 5000d1000");
+            assertTrue(m.overflow());
+            assertEquals(25_000_000_000_000L, m.max());
+        }
+
+        @Test
+        @DisplayName("近似 - 超出精确计算规模的混合骰池与除法不是精确值")
+        void testApproximate() throws Exception {
+            assertTrue(moments("(d6, d8) keep 1").exact());
+            assertFalse(moments("(d6, 10000d1000) keep 1").exact());
+            assertFalse(moments("10000d1000 / (d6, 1000d1000) max").exact());
+            assertFalse(moments("d6 / (d6 - 3)").exact());
+            Moments divided = moments("d20 / 4");
+            assertEquals(0, divided.min());
+            assertEquals(5, divided.max());
+        }
+
+        @Test
+        @DisplayName("嵌套与超规模 - 嵌套骰池和超出构建规模的除法只给近似，不再构建整个分布")
+        void testBounded() throws Exception {
+            Moments nested = moments("((d4, d6) max, (d6, d8) min, d10) keep 2");
+            assertFalse(nested.exact());
+            assertEquals(2, nested.min());
+            assertEquals(16, nested.max());
+            assertTrue(moments("((d4, d6) max, d8) max").mean() <= 8);
+            Moments halved = moments("100000d2 / 2");
+            assertFalse(halved.exact());
+            assertEquals(50_000, halved.min());
+            assertEquals(100_000, halved.max());
+            assertEquals(75_000, halved.mean(), 1);
+            assertFalse(moments("d1000 emphasis high").exact());
+            assertTrue(moments("d20 emphasis high").exact());
+        }
+
+        @Test
+        @DisplayName("大骰池 - 1000d6k10 与 100000d1000k10 给出范围内的近似")
+        void testLargePool() throws Exception {
+            Moments m = moments("1000d6k10");
+            assertFalse(m.exact());
+            assertEquals(10, m.min());
+            assertEquals(60, m.max());
+            assertEquals(60, m.mean(), 0.5);
+            Moments huge = moments("100000d1000k10");
+            assertFalse(huge.exact());
+            assertEquals(10, huge.min());
+            assertEquals(10_000, huge.max());
+            assertTrue(huge.mean() > 9_990 && huge.mean() <= huge.max(), String.valueOf(huge.mean()));
+            assertTrue(huge.variance() >= 0 && huge.variance() < 100, String.valueOf(huge.variance()));
+        }
+
+        @Test
+        @DisplayName("批量排序 - 5000个候选表达式的矩都是精确值且均值落在取值范围内")
+        void testCandidates() throws Exception {
+            List<CompiledExpression> candidates = new ArrayList<>();
+            Random random = new Random(5);
+            for (int i = 0; i < 5000; i++) {
+                int n = 2 + random.nextInt(4);
+                candidates.add(DiceExpressionCompiler.compile(n + "d" + (4 + 2 * random.nextInt(5)) + "k" + (n - 1) + " + d6e6 + " + random.nextInt(10)));
+            }
+            candidates.sort((a, b) -> Double.compare(a.moments().mean(), b.moments().mean()));
+            for (CompiledExpression candidate : candidates) {
+                Moments m = candidate.moments();
+                assertTrue(m.exact(), candidate.toString());
+                assertTrue(m.mean() > m.min() && m.variance() > 0, candidate.toString());
+            }
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static Moments moments(String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression, CompileLimits.UNLIMITED).moments();
+    }
+
+    /**
+     * 穷举所有骰面组合
+     * @return 均值与方差
+     */
+    private static double[] enumerate(int[] sides, ToIntFunction<int[]> value) {
+        int[] faces = new int[sides.length];
+        Arrays.fill(faces, 1);
+        double count = 0, sum = 0, squares = 0;
+        while (true) {
+            int v = value.applyAsInt(faces);
+            count++;
+            sum += v;
+            squares += (double) v * v;
+            int i = 0;
+            while (i < faces.length && faces[i] == sides[i]) {
+                faces[i++] = 1;
+            }
+            if (i == faces.length) break;
+            faces[i]++;
+        }
+        double mean = sum / count;
+        return new double[]{mean, squares / count - mean * mean};
+    }
+}
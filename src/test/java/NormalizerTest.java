@@ -0,0 +1,184 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.analysis.Normalizer;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 规范化测试
+ * 测试内容包括：
+ * 1. 统计等价的写法得到同一规范形式
+ * 2. 常量折叠与交换律排序
+ * 3. 固定种子下规范形式与原表达式分布一致
+ */
+public class NormalizerTest {
+
+    // ==================== 规范形式测试 ====================
+
+    @Nested
+    @DisplayName("规范形式测试")
+    class NormalFormTests {
+
+        @Test
+        @DisplayName("骰池 - 2d6、(d6,d6)、d6+d6、(d6,d6) sum 规范形式相同")
+        void testDicePools() throws Exception {
+            CompiledExpression expected = normalize("2d6");
+            for (String expression : List.of("(d6,d6)", "d6+d6", "(d6,d6) sum", "(d6, d6)")) {
+                assertEquals(expected, normalize(expression), expression);
+                assertEquals(expected.hashCode(), normalize(expression).hashCode(), expression);
+            }
+            assertEquals("2d6", expected.toString());
+        }
+
+        @Test
+        @DisplayName("交换律 - 加法与乘法操作数排序")
+        void testCommutative() throws Exception {
+            assertEquals(normalize("d8 + d6 + 3"), normalize("3 + d6 + d8"));
+            assertEquals(normalize("(d8, d6) + 4d6k3"), normalize("4d6k3 + d6 + d8"));
+            assertEquals(normalize("2 * d6 * 3"), normalize("d6 * 6"));
+            assertEquals(normalize("(d8, d6) keep 1"), normalize("(d6, d8) keep 1"));
+            assertNotEquals(normalize("d6 - d8"), normalize("d8 - d6"));
+            assertNotEquals(normalize("d6 / 2"), normalize("2 / d6"));
+        }
+
+        @Test
+        @DisplayName("常量折叠 - 1 + 2 * 3、d20 + 5 - 2、10 / 3")
+        void testConstantFolding() throws Exception {
+            assertEquals("7", normalize("1 + 2 * 3").toString());
+            assertEquals("d20 + 3", normalize("d20 + 5 - 2").toString());
+            assertEquals("3", normalize("10 / 3").toString());
+            assertEquals("d6", normalize("d6 * 1").toString());
+            assertEquals("2d6", normalize("d6 + 3 + d6 - 3").toString());
+            assertEquals("10 - 2d6", normalize("10 - d6 - d6").toString());
+        }
+
+        @Test
+        @DisplayName("分组 - 分布不同的写法规范形式不同，且规范形式重新编译后不变")
+        void testGrouping() throws Exception {
+            List<List<String>> pairs = List.of(
+                    List.of("(d20+5)/d4", "d20+5/d4"),
+                    List.of("(d6+1)*2", "d6+1*2"),
+                    List.of("d6 * (d8 / 2)", "d6 * d8 / 2"),
+                    List.of("d20 / (d4 * 2)", "d20 / d4 * 2"),
+                    List.of("d20 / (d6 / 2)", "d20 / d6 / 2"),
+                    List.of("(d8 - d6) * d4", "d8 - d6 * d4"));
+            for (List<String> pair : pairs) {
+                CompiledExpression grouped = normalize(pair.get(0));
+                CompiledExpression flat = normalize(pair.get(1));
+                assertNotEquals(grouped.toString(), flat.toString(), pair.toString());
+                assertNotEquals(grouped, flat, pair.toString());
+                for (CompiledExpression normal : List.of(grouped, flat)) {
+                    assertEquals(normal, normalize(normal.toString()), normal.toString());
+                }
+            }
+            assertEquals("(d20 + 5) / d4", normalize("(d20+5)/d4").toString());
+        }
+
+        @Test
+        @DisplayName("幂等 - 规范形式再规范化不变")
+        void testIdempotent() throws Exception {
+            for (String expression : EXPRESSIONS) {
+                CompiledExpression once = normalize(expression);
+                assertEquals(once, Normalizer.normalize(once), expression);
+            }
+        }
+
+        @Test
+        @DisplayName("缓存 - 编译结果的规范形式只计算一次")
+        void testCached() throws Exception {
+            CompiledExpression expr = DiceExpressionCompiler.compile("d6 + 3 + d6");
+            assertSame(expr.normalized(), expr.normalized());
+            assertEquals(Normalizer.normalize(expr), expr.normalized());
+        }
+    }
+
+    // ==================== 等价性测试 ====================
+
+    @Nested
+    @DisplayName("等价性测试")
+    class EquivalenceTests {
+
+        @Test
+        @DisplayName("仅折叠常量 - 同一种子结果完全相同")
+        void testExactWhenOnlyFolding() throws Exception {
+            for (String expression : List.of("d20 + 5 - 2", "4d6k3 + 2 * 3", "d6 * 1 + 0", "(d6, 2d8) keep 1 + 10 / 3")) {
+                IExpression original = DiceExpressionCompiler.compile(expression);
+                IExpression normal = Normalizer.normalize(original);
+                for (int seed = 0; seed < 200; seed++) {
+                    RandomUtil.setRandom(new Random(seed));
+                    int expected = original.roll();
+                    RandomUtil.setRandom(new Random(seed));
+                    assertEquals(expected, normal.roll(), expression + " 种子 " + seed);
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("固定种子抽样 - 规范形式与原表达式的经验分布一致")
+        void testSameDistribution() throws Exception {
+            int samples = 20_000;
+            DiceResults.setMode(TraceMode.NONE);
+            try {
+                for (String expression : EXPRESSIONS) {
+                    IExpression original = DiceExpressionCompiler.compile(expression, CompileLimits.UNLIMITED);
+                    IExpression normal = Normalizer.normalize(original);
+                    int[] a = sample(original, samples, 1);
+                    int[] b = sample(normal, samples, 2);
+                    double distance = ksDistance(a, b);
+                    // 两样本KS检验在 α=0.001 时的临界值约为 1.95 * sqrt(2 / n)
+                    assertTrue(distance < 1.95 * Math.sqrt(2.0 / samples), expression + " -> " + normal + " KS距离 " + distance);
+                }
+            } finally {
+                DiceResults.setMode(TraceMode.INDIVIDUAL);
+            }
+        }
+
+        private int[] sample(IExpression expression, int samples, long seed) {
+            RandomUtil.setRandom(new Random(seed));
+            int[] values = new int[samples];
+            for (int i = 0; i < samples; i++) {
+                values[i] = expression.roll();
+            }
+            Arrays.sort(values);
+            return values;
+        }
+
+        /**
+         * 两组已排序样本经验分布函数的最大差
+         */
+        private double ksDistance(int[] a, int[] b) {
+            int i = 0, j = 0;
+            double max = 0;
+            while (i < a.length && j < b.length) {
+                int value = Math.min(a[i], b[j]);
+                while (i < a.length && a[i] == value) i++;
+                while (j < b.length && b[j] == value) j++;
+                max = Math.max(max, Math.abs((double) i / a.length - (double) j / b.length));
+            }
+            return max;
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static final List<String> EXPRESSIONS = List.of(
+            "(d6,d6)", "d8 + d6 + 3", "3 * d6 * 2 + 1", "(d8, d6, d4) keep 2", "(d10, d4) explode always on 4",
+            "10 - d6 - d4 + 2d6", "(d4, 2d6 + 1) median + d4", "(d6, d8) reroll 1 times on 1", "(d8, d6) emphasis high"
+    );
+
+    private static CompiledExpression normalize(String expression) throws Exception {
+        return Normalizer.normalize(DiceExpressionCompiler.compile(expression));
+    }
+}
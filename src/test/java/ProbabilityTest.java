@@ -0,0 +1,177 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.CompileLimits;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.distribution.Comparison;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.distribution.Probability;
+import top.outlands.diceroller4j.distribution.UnsupportedDistributionException;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.mechanic.Relation;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 精确概率测试
+ * 测试内容包括：
+ * 1. 阈值概率与比较概率与穷举结果一致
+ * 2. 各类节点的分布与矩分析、抽样一致
+ * 3. 不支持的表达式
+ * 4. 查询耗时
+ */
+public class ProbabilityTest {
+
+    // ==================== 查询测试 ====================
+
+    @Nested
+    @DisplayName("查询测试")
+    class QueryTests {
+
+        @Test
+        @DisplayName("阈值概率 - P(d20 + 5 >= 15) = 0.55")
+        void testThreshold() throws Exception {
+            IExpression expr = compile("d20 + 5");
+            assertEquals(0.55, Probability.probability(expr, Relation.GREATER_OR_EQUAL, 15), 1e-12);
+            assertEquals(0.05, Probability.probability(expr, Relation.EQUAL, 25), 1e-12);
+            assertEquals(0.5, Probability.probability(expr, Relation.LESS_OR_EQUAL, 15), 1e-12);
+            assertEquals(1, Probability.probability(expr, Relation.GREATER_OR_EQUAL, Integer.MIN_VALUE), 1e-12);
+        }
+
+        @Test
+        @DisplayName("比较 - 3d6 对 2d8 + 1 与穷举一致")
+        void testCompare() throws Exception {
+            double greater = 0, equal = 0, less = 0;
+            for (int a = 0; a < 6 * 6 * 6; a++) {
+                int x = a % 6 + a / 6 % 6 + a / 36 + 3;
+                for (int b = 0; b < 8 * 8; b++) {
+                    int y = b % 8 + b / 8 + 3;
+                    if (x > y) greater++;
+                    else if (x == y) equal++;
+                    else less++;
+                }
+            }
+            double total = greater + equal + less;
+            Comparison comparison = Probability.compare(compile("3d6"), compile("2d8 + 1"));
+            assertEquals(greater / total, comparison.greater(), 1e-12);
+            assertEquals(equal / total, comparison.equal(), 1e-12);
+            assertEquals(less / total, comparison.less(), 1e-12);
+            assertEquals(1, comparison.greater() + comparison.equal() + comparison.less(), 1e-12);
+        }
+
+        @Test
+        @DisplayName("比较 - 不相交的范围")
+        void testDisjoint() throws Exception {
+            Comparison comparison = Probability.compare(compile("d6 + 10"), compile("d6"));
+            assertEquals(1, comparison.greater(), 1e-12);
+            assertEquals(0, comparison.equal(), 1e-12);
+            assertEquals(0, comparison.less(), 1e-12);
+        }
+    }
+
+    // ==================== 分布测试 ====================
+
+    @Nested
+    @DisplayName("分布测试")
+    class DistributionTests {
+
+        @Test
+        @DisplayName("精确分布 - 总概率为1且与矩分析一致")
+        void testMatchesMoments() throws Exception {
+            for (String expression : List.of("4d6k3", "4d6 keep lowest 3", "5d8 drop highest 2", "3d10 median", "4d6 min", "d6 * d4 - 2", "d6e6", "d6 explode 1 times on 5 or more",
+                    "d6r1", "2d6 reroll 1 times on 2 or less", "3d6 emphasis high", "d20 furthest from 5 reroll")) {
+                CompiledExpression expr = compile(expression);
+                Distribution distribution = Distributions.of(expr);
+                assertEquals(1, distribution.mass(), 1e-9, expression);
+                assertEquals(expr.moments().mean(), distribution.mean(), 1e-9, expression);
+                assertEquals(expr.moments().variance(), distribution.variance(), 1e-9, expression);
+            }
+        }
+
+        @Test
+        @DisplayName("混合骰池与除法 - 与抽样一致")
+        void testSampled() throws Exception {
+            for (String expression : List.of("(d6, d8, d4) max", "(d6, 2d4) keep 1", "(d6, d8, d10) keep 2", "(d4, d6, d12) drop 1", "(d6, 2d4) median", "(2d6, d8) average", "3d6 / d3")) {
+                assertSampled(expression);
+            }
+        }
+
+        private void assertSampled(String expression) throws Exception {
+            int samples = 200_000;
+            CompiledExpression expr = compile(expression);
+            Distribution distribution = Distributions.of(expr);
+            int[] counts = new int[distribution.support()];
+            RandomUtil.setRandom(new Random(37));
+            DiceResults.setMode(TraceMode.NONE);
+            try {
+                for (int i = 0; i < samples; i++) {
+                    int value = expr.roll();
+                    assertTrue(value >= distribution.min() && value <= distribution.max(), expression + " 超出范围: " + value);
+                    counts[value - distribution.min()]++;
+                }
+            } finally {
+                DiceResults.setMode(TraceMode.INDIVIDUAL);
+            }
+            // 经验分布函数与精确分布函数的最大差距（KS统计量）
+            double empirical = 0, distance = 0;
+            for (int i = 0; i < counts.length; i++) {
+                empirical += (double) counts[i] / samples;
+                distance = Math.max(distance, Math.abs(empirical - distribution.cdf(distribution.min() + i)));
+            }
+            assertTrue(distance < 1.63 / Math.sqrt(samples), expression + " KS距离 " + distance);
+        }
+
+        @Test
+        @DisplayName("不支持 - 除数可能为0、永不停止的爆炸")
+        void testUnsupported() throws Exception {
+            assertThrows(UnsupportedDistributionException.class, () -> Distributions.of(compile("d6 / (d4 - 1)")));
+            assertThrows(UnsupportedDistributionException.class, () -> Distributions.of(compile("d1e1")));
+            assertThrows(UnsupportedDistributionException.class, () -> Distributions.of(compile("5000d1000 * 5000d1000")));
+        }
+    }
+
+    // ==================== 性能测试 ====================
+
+    @Nested
+    @DisplayName("性能测试")
+    class PerformanceTests {
+
+        @Test
+        @DisplayName("查询耗时 - 常见表达式平均每次应小于1毫秒")
+        void testQuerySpeed() throws Exception {
+            IExpression attack = compile("d20 + 7");
+            IExpression damage = compile("2d6 + 4");
+            IExpression stats = compile("4d6k3");
+            IExpression save = compile("d20 + 3");
+            int queries = 2000;
+            for (int i = 0; i < queries; i++) {
+                Probability.probability(attack, Relation.GREATER_OR_EQUAL, 15);
+                Probability.compare(stats, save);
+            }
+            long start = System.nanoTime();
+            double sink = 0;
+            for (int i = 0; i < queries; i++) {
+                sink += Probability.probability(attack, Relation.GREATER_OR_EQUAL, 10 + i % 15);
+                sink += Probability.probability(damage, Relation.LESS_OR_EQUAL, i % 16);
+                sink += Probability.compare(stats, save).greater();
+            }
+            double average = (System.nanoTime() - start) / 3.0 / queries / 1e6;
+            assertTrue(sink > 0);
+            assertTrue(average < 1, "平均耗时 " + average + "ms");
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static CompiledExpression compile(String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression, CompileLimits.UNLIMITED);
+    }
+}
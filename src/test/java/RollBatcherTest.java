@@ -0,0 +1,299 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.batch.BatchConfig;
+import top.outlands.diceroller4j.batch.RollBatcher;
+import top.outlands.diceroller4j.distribution.AliasTable;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 批量掷骰执行器测试
+ * 测试内容包括：
+ * 1. 别名表抽样的分布
+ * 2. 按表达式分组的批量服务与后台建表
+ * 3. 等待时间、回调与关闭
+ * 4. 多线程混合负载下的分组与抽样
+ */
+public class RollBatcherTest {
+
+    private static CompiledExpression compile(String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression);
+    }
+
+    /**
+     * 反复提交直到请求由别名表抽取，即别名表已在后台建好
+     */
+    private static void awaitTable(RollBatcher batcher, CompiledExpression expression) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            long drawn = batcher.drawn();
+            batcher.submit(expression).get(10, TimeUnit.SECONDS);
+            if (batcher.drawn() > drawn) return;
+            assertTrue(System.nanoTime() < deadline, expression + " 的别名表没有建好");
+        }
+    }
+
+    // ==================== 别名表测试 ====================
+
+    @Nested
+    @DisplayName("别名表测试")
+    class AliasTableTests {
+
+        @Test
+        @DisplayName("抽样频率 - 与精确分布一致")
+        void testFrequencies() throws Exception {
+            Distribution distribution = Distributions.of(compile("4d6k3"));
+            AliasTable table = AliasTable.of(distribution);
+            assertEquals(3, table.min());
+            assertEquals(18, table.max());
+            int n = 1_000_000;
+            int[] counts = new int[table.support()];
+            int[] values = table.sample(new SplittableRandom(5), new int[n], n);
+            for (int value : values) {
+                counts[value - table.min()]++;
+            }
+            for (int v = table.min(); v <= table.max(); v++) {
+                double expected = distribution.probability(v);
+                assertEquals(expected, counts[v - table.min()] / (double) n, 4 * Math.sqrt(expected / n) + 1e-4, "值 " + v);
+            }
+        }
+
+        @Test
+        @DisplayName("边界 - 常数与零概率的值")
+        void testEdges() {
+            AliasTable constant = AliasTable.of(Distribution.constant(7));
+            assertEquals(7, constant.sample(new SplittableRandom(1)));
+            // 中间的 2 概率为零，永远抽不到
+            AliasTable gap = AliasTable.of(Distribution.of(1, new double[]{0.5, 0, 0.5}));
+            SplittableRandom random = new SplittableRandom(2);
+            for (int i = 0; i < 10_000; i++) {
+                assertNotEquals(2, gap.sample(random));
+            }
+            assertThrows(IllegalArgumentException.class, () -> AliasTable.of(Distribution.die(AliasTable.MAX_SUPPORT + 1)));
+        }
+    }
+
+    // ==================== 批量服务测试 ====================
+
+    @Nested
+    @DisplayName("批量服务测试")
+    class ServeTests {
+
+        @Test
+        @DisplayName("分组 - 同一表达式的请求合并为一批")
+        void testBatching() throws Exception {
+            CompiledExpression d20 = compile("d20+5");
+            CompiledExpression stats = compile("4d6k3");
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            try (RollBatcher batcher = new RollBatcher(new BatchConfig(1024, 50_000, 4096), new DistributionCache())) {
+                awaitTable(batcher, d20);
+                awaitTable(batcher, stats);
+                long batches = batcher.batches(), served = batcher.served(), drawn = batcher.drawn();
+                for (int i = 0; i < 1000; i++) {
+                    futures.add(batcher.submit(i % 2 == 0 ? d20 : stats));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    int total = futures.get(i).get(10, TimeUnit.SECONDS);
+                    if (i % 2 == 0) {
+                        assertTrue(total >= 6 && total <= 25);
+                    } else {
+                        assertTrue(total >= 3 && total <= 18);
+                    }
+                }
+                // 等待 50 毫秒让请求凑成批，远少于每请求一批
+                assertTrue(batcher.batches() - batches < 20, batcher.toString());
+                assertEquals(1000, batcher.served() - served);
+                assertEquals(1000, batcher.drawn() - drawn);
+            }
+        }
+
+        @Test
+        @DisplayName("后台建表 - 新表达式的首批直接掷骰，别名表建好后改为抽取")
+        void testTableInBackground() throws Exception {
+            CompiledExpression expression = compile("3d8 + d4");
+            try (RollBatcher batcher = new RollBatcher(new BatchConfig(1024, 0, 4096), new DistributionCache())) {
+                int total = batcher.submit(expression).get(10, TimeUnit.SECONDS);
+                assertTrue(total >= 4 && total <= 28);
+                // 服务线程不等别名表，第一批总是逐个掷骰
+                assertEquals(1, batcher.served());
+                assertEquals(0, batcher.drawn());
+                awaitTable(batcher, expression);
+                long drawn = batcher.drawn();
+                for (int i = 0; i < 100; i++) {
+                    total = batcher.submit(expression).get(10, TimeUnit.SECONDS);
+                    assertTrue(total >= 4 && total <= 28);
+                }
+                assertEquals(drawn + 100, batcher.drawn());
+            }
+        }
+
+        @Test
+        @DisplayName("无法计算分布 - 逐个掷骰")
+        void testFallback() throws Exception {
+            // 超过 2000 面的强调骰不计算分布
+            CompiledExpression emphasis = compile("d3000 emphasis high");
+            try (RollBatcher batcher = new RollBatcher()) {
+                long sum = 0;
+                int n = 2000;
+                List<CompletableFuture<Integer>> futures = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    futures.add(batcher.submit(emphasis));
+                }
+                for (CompletableFuture<Integer> future : futures) {
+                    int total = future.get(10, TimeUnit.SECONDS);
+                    assertTrue(total >= 1 && total <= 3000);
+                    sum += total;
+                }
+                // 偏向两端但仍对称，均值在中点附近
+                assertEquals(1500.5, sum / (double) n, 100);
+                assertEquals(n, batcher.served());
+                assertEquals(0, batcher.drawn());
+            }
+        }
+
+        @Test
+        @DisplayName("多线程提交 - 不丢请求")
+        void testConcurrentSubmit() throws Exception {
+            CompiledExpression expression = compile("2d6");
+            int threads = 8, perThread = 20_000;
+            // 环很小，提交方需要等待空位
+            try (RollBatcher batcher = new RollBatcher(new BatchConfig(64, 100, 256), new DistributionCache())) {
+                List<CompletableFuture<Integer>> futures = new ArrayList<>();
+                try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+                    List<Future<List<CompletableFuture<Integer>>>> submitted = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        submitted.add(executor.submit(() -> {
+                            List<CompletableFuture<Integer>> mine = new ArrayList<>();
+                            for (int i = 0; i < perThread; i++) {
+                                mine.add(batcher.submit(expression));
+                            }
+                            return mine;
+                        }));
+                    }
+                    for (var future : submitted) {
+                        futures.addAll(future.get());
+                    }
+                }
+                long sum = 0;
+                for (CompletableFuture<Integer> future : futures) {
+                    sum += future.get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(threads * perThread, futures.size());
+                assertEquals(7.0, sum / (double) futures.size(), 0.05);
+            }
+        }
+    }
+
+    // ==================== 生命周期测试 ====================
+
+    @Nested
+    @DisplayName("生命周期测试")
+    class LifecycleTests {
+
+        @Test
+        @DisplayName("等待时间 - 单个请求不必等满等待上限")
+        void testLinger() throws Exception {
+            CompiledExpression expression = compile("d6");
+            // 等待上限一秒，但没有后续请求时批次提前结束
+            try (RollBatcher batcher = new RollBatcher(new BatchConfig(1024, 1_000_000, 4096), new DistributionCache())) {
+                batcher.submit(expression).get(10, TimeUnit.SECONDS);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 20; round++) {
+                    long start = System.nanoTime();
+                    batcher.submit(expression).get(10, TimeUnit.SECONDS);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                assertTrue(best < 50_000_000, "等待了 " + best / 1000 + "us");
+            }
+        }
+
+        @Test
+        @DisplayName("回调与关闭 - 关闭前提交的都会完成，关闭后拒绝")
+        void testCallbackAndClose() throws Exception {
+            CompiledExpression expression = compile("d8");
+            int[] totals = new int[500];
+            RollBatcher batcher = new RollBatcher(new BatchConfig(16, 10_000, 1024), new DistributionCache());
+            for (int i = 0; i < totals.length; i++) {
+                int index = i;
+                batcher.submit(expression, total -> totals[index] = total);
+            }
+            batcher.close();
+            // 关闭会等服务线程结束，回调的写入对这里可见
+            for (int total : totals) {
+                assertTrue(total >= 1 && total <= 8);
+            }
+            assertEquals(totals.length, batcher.served());
+            assertThrows(IllegalStateException.class, () -> batcher.submit(expression));
+        }
+    }
+
+    // ==================== 混合负载测试 ====================
+
+    @Nested
+    @DisplayName("混合负载测试")
+    class MixedLoadTests {
+
+        @Test
+        @DisplayName("混合负载 - 多线程提交骰子多的表达式，按表达式成批从别名表抽取")
+        void testMixedLoad() throws Exception {
+            CompiledExpression[] expressions = {compile("8d6k3"), compile("4d10+4d8+2d6"), compile("20d6")};
+            Distribution[] distributions = new Distribution[expressions.length];
+            for (int e = 0; e < expressions.length; e++) {
+                distributions[e] = Distributions.of(expressions[e]);
+            }
+            int threads = 4, perThread = 21_000;
+            AtomicInteger outOfRange = new AtomicInteger();
+            LongAdder[] sums = {new LongAdder(), new LongAdder(), new LongAdder()};
+            CountDownLatch done = new CountDownLatch(threads * perThread);
+            try (RollBatcher batcher = new RollBatcher();
+                 ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+                for (CompiledExpression expression : expressions) {
+                    awaitTable(batcher, expression);
+                }
+                long served = batcher.served(), drawn = batcher.drawn();
+                for (int t = 0; t < threads; t++) {
+                    int offset = t;
+                    executor.execute(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            int e = (i + offset) % expressions.length;
+                            batcher.submit(expressions[e], total -> {
+                                if (total < distributions[e].min() || total > distributions[e].max()) outOfRange.incrementAndGet();
+                                sums[e].add(total);
+                                done.countDown();
+                            });
+                        }
+                    });
+                }
+                assertTrue(done.await(30, TimeUnit.SECONDS), batcher.toString());
+                assertEquals(0, outOfRange.get());
+                assertEquals(threads * perThread, batcher.served() - served);
+                // 三种表达式的别名表都已建好，全部由别名表抽取
+                assertEquals(threads * perThread, batcher.drawn() - drawn);
+                // 同一表达式的请求合并，批数远少于请求数
+                assertTrue(batcher.batches() * 10 < batcher.served(), batcher.toString());
+                for (int e = 0; e < expressions.length; e++) {
+                    double mean = sums[e].sum() / (double) (threads * perThread / expressions.length);
+                    assertEquals(distributions[e].mean(), mean, 0.1, expressions[e].toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.codec.DecodedRoll;
+import top.outlands.diceroller4j.codec.RollDecoder;
+import top.outlands.diceroller4j.codec.RollEncoder;
+import top.outlands.diceroller4j.codec.RollFormat;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.trace.RollTrace;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 投掷结果编解码测试
+ * 测试内容包括：
+ * 1. JSON 与二进制格式的往返
+ * 2. ByteBuffer 与 OutputStream 输出一致
+ * 3. 预热后编码不分配对象
+ */
+public class RollCodecTest {
+
+    // ==================== 往返测试 ====================
+
+    @Nested
+    @DisplayName("往返测试")
+    class RoundTripTests {
+
+        @Test
+        @DisplayName("JSON - 输出格式、转义与往返")
+        void testJson() throws Exception {
+            RollTrace trace = new RollTrace();
+            trace.add(6, 5);
+            trace.add(6, 2);
+            trace.add(20, 17);
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            new RollEncoder(RollFormat.JSON).encode("a\"b\\c\n", -3, trace, buffer);
+            buffer.flip();
+            assertEquals("{\"expression\":\"a\\\"b\\\\c\\u000a\",\"total\":-3,\"sides\":[6,6,20],\"values\":[5,2,17]}",
+                    StandardCharsets.UTF_8.decode(buffer.duplicate()).toString());
+            DecodedRoll decoded = RollDecoder.decode(RollFormat.JSON, buffer);
+            assertEquals("a\"b\\c\n", decoded.expression());
+            assertEquals(-3, decoded.total());
+            assertEquals(trace.asList(), decoded.trace().asList());
+            assertFalse(buffer.hasRemaining());
+        }
+
+        @Test
+        @DisplayName("往返 - 两种格式在随机投掷下都能还原")
+        void testRoundTrip() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("(4d6k3, 2d8 + 1, d20e20, 3d100) + 5");
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            for (RollFormat format : RollFormat.values()) {
+                RollEncoder encoder = new RollEncoder(format);
+                for (int i = 0; i < 100; i++) {
+                    RandomUtil.setRandom(new Random(i));
+                    DiceResults.clear();
+                    int total = expr.roll();
+                    buffer.clear();
+                    encoder.encode(expr, total, DiceResults.getTrace(), buffer);
+                    buffer.flip();
+                    DecodedRoll decoded = RollDecoder.decode(format, buffer);
+                    assertEquals(expr.toString(), decoded.expression());
+                    assertEquals(total, decoded.total());
+                    assertEquals(DiceResults.getLastBatchResults(), decoded.trace().asList());
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("非ASCII与极值 - 中文表达式与Integer.MIN_VALUE")
+        void testEdgeValues() {
+            RollTrace trace = new RollTrace();
+            trace.add(Integer.MAX_VALUE, Integer.MAX_VALUE);
+            for (RollFormat format : RollFormat.values()) {
+                ByteBuffer buffer = ByteBuffer.allocate(256);
+                new RollEncoder(format).encode("骰子😀", Integer.MIN_VALUE, trace, buffer);
+                buffer.flip();
+                DecodedRoll decoded = RollDecoder.decode(format, buffer);
+                assertEquals("骰子😀", decoded.expression());
+                assertEquals(Integer.MIN_VALUE, decoded.total());
+                assertEquals(List.of(new RollResult(Integer.MAX_VALUE, Integer.MAX_VALUE)), decoded.trace().asList());
+            }
+        }
+
+        @Test
+        @DisplayName("流输出 - OutputStream与ByteBuffer字节一致")
+        void testStream() throws Exception {
+            RollTrace trace = largeTrace(10_000);
+            for (RollFormat format : RollFormat.values()) {
+                RollEncoder encoder = new RollEncoder(format);
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+                encoder.encode("10000d6", 35_000, trace, buffer);
+                buffer.flip();
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                encoder.encode("10000d6", 35_000, trace, stream);
+                byte[] expected = new byte[buffer.remaining()];
+                buffer.get(expected);
+                assertArrayEquals(expected, stream.toByteArray());
+            }
+        }
+
+        @Test
+        @DisplayName("二进制更紧凑 - 10000d6 同种骰子只写一次面数")
+        void testBinaryIsCompact() {
+            RollTrace trace = largeTrace(10_000);
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            new RollEncoder(RollFormat.BINARY).encode("10000d6", 35_000, trace, buffer);
+            assertTrue(buffer.position() < 10_020, "二进制长度 " + buffer.position());
+        }
+
+        @Test
+        @DisplayName("异常输入 - 缓冲区不足与截断数据")
+        void testMalformed() {
+            RollTrace trace = largeTrace(100);
+            assertThrows(BufferOverflowException.class, () -> new RollEncoder(RollFormat.JSON).encode("100d6", 1, trace, ByteBuffer.allocate(64)));
+            for (RollFormat format : RollFormat.values()) {
+                ByteBuffer buffer = ByteBuffer.allocate(1024);
+                new RollEncoder(format).encode("100d6", 1, trace, buffer);
+                buffer.flip();
+                buffer.limit(buffer.limit() / 2);
+                assertThrows(IllegalArgumentException.class, () -> RollDecoder.decode(format, buffer));
+            }
+        }
+    }
+
+    // ==================== 分配测试 ====================
+
+    @Nested
+    @DisplayName("分配测试")
+    class AllocationTests {
+
+        @Test
+        @DisplayName("无分配 - 预热后反复编码到同一缓冲区不分配对象")
+        void testNoAllocation() {
+            RollTrace trace = largeTrace(1_000);
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            for (RollFormat format : RollFormat.values()) {
+                RollEncoder encoder = new RollEncoder(format);
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+                for (int i = 0; i < 20_000; i++) {
+                    buffer.clear();
+                    encoder.encode("1000d6", 3_500, trace, buffer);
+                }
+                long before = threads.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < 1_000; i++) {
+                    buffer.clear();
+                    encoder.encode("1000d6", 3_500, trace, buffer);
+                }
+                long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+                // 每次编码分配一个对象就至少有 16000 字节
+                assertTrue(allocated < 1_000, format + " 编码 1000 次分配了 " + allocated + " 字节");
+                buffer.flip();
+                assertEquals(3_500, RollDecoder.decode(format, buffer).total());
+            }
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static RollTrace largeTrace(int dice) {
+        RollTrace trace = new RollTrace();
+        Random random = new Random(1);
+        for (int i = 0; i < dice; i++) {
+            trace.add(6, random.nextInt(6) + 1);
+        }
+        return trace;
+    }
+}
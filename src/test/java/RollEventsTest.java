@@ -0,0 +1,235 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.ExpressionCache;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.analysis.CostEstimator;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Tier;
+import top.outlands.diceroller4j.jfr.RollEvents;
+import top.outlands.diceroller4j.random.CountingRandom;
+import top.outlands.diceroller4j.schedule.RollJob;
+import top.outlands.diceroller4j.schedule.RollScheduler;
+import top.outlands.diceroller4j.simulation.RollStatistics;
+import top.outlands.diceroller4j.simulation.Simulator;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 飞行记录器事件测试
+ * 测试内容包括：
+ * 1. 自带的 .jfc 配置可以加载并启用全部事件
+ * 2. 编译、缓存命中、掷骰、模拟、分布与后台任务事件的字段
+ * 3. 掷骰事件的抽样设置
+ * 4. 计数随机数不改变掷出的值
+ */
+public class RollEventsTest {
+    
+    @AfterEach
+    void tearDown() {
+        RandomUtil.setRandom(ThreadLocalRandom.current());
+        DiceResults.setMode(TraceMode.INDIVIDUAL);
+    }
+    
+    /**
+     * 在录制中运行，返回本库的事件
+     */
+    private static List<RecordedEvent> record(Consumer<Recording> configure, ThrowingRunnable work) throws Exception {
+        Path file = Files.createTempFile("dice", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (Class<? extends jdk.jfr.Event> type : RollEvents.EVENTS) {
+                recording.enable(type).withoutThreshold();
+            }
+            configure.accept(recording);
+            recording.start();
+            work.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().startsWith(RollEvents.PREFIX))
+                    .toList();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(RollEvents.PREFIX + name)).toList();
+    }
+    
+    interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+    
+    // ==================== 配置测试 ====================
+    
+    @Nested
+    @DisplayName("配置测试")
+    class ConfigurationTests {
+        
+        @Test
+        @DisplayName("自带配置 - 启用全部事件并带掷骰抽样")
+        void testSettings() throws Exception {
+            Configuration configuration = RollEvents.configuration();
+            assertEquals("Dice Roller", configuration.getLabel());
+            for (Class<? extends jdk.jfr.Event> type : RollEvents.EVENTS) {
+                String name = type.getAnnotation(jdk.jfr.Name.class).value();
+                assertEquals("true", configuration.getSettings().get(name + "#enabled"), name);
+            }
+            assertEquals("1000", configuration.getSettings().get(RollEvents.PREFIX + "Roll#sampleEvery"));
+            RollEvents.register();
+            // 按自带配置录制：抽样为千分之一
+            CompiledExpression expression = DiceExpressionCompiler.compile("3d6");
+            Path file = Files.createTempFile("dice", ".jfr");
+            try (Recording recording = new Recording(configuration)) {
+                recording.start();
+                for (int i = 0; i < 200_000; i++) {
+                    expression.roll();
+                }
+                recording.stop();
+                recording.dump(file);
+                long rolls = RecordingFile.readAllEvents(file).stream()
+                        .filter(event -> event.getEventType().getName().equals(RollEvents.PREFIX + "Roll"))
+                        .count();
+                assertTrue(rolls > 100 && rolls < 400, "记录了 " + rolls + " 次");
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    // ==================== 事件测试 ====================
+    
+    @Nested
+    @DisplayName("事件测试")
+    class EventTests {
+        
+        @Test
+        @DisplayName("编译 - 长度、节点数与缓存命中")
+        void testCompile() throws Exception {
+            ExpressionCache cache = new ExpressionCache();
+            List<RecordedEvent> events = named(record(recording -> {
+            }, () -> {
+                cache.compile("4d6k3 + 2");
+                cache.compile("4d6k3 + 2");
+            }), "Compile");
+            assertEquals(2, events.size());
+            RecordedEvent compiled = events.get(0);
+            assertEquals("4d6k3 + 2", compiled.getString("expression"));
+            assertEquals(9, compiled.getInt("inputLength"));
+            assertEquals(CostEstimator.nodes(DiceExpressionCompiler.compile("4d6k3 + 2")), compiled.getInt("nodes"));
+            assertFalse(compiled.getBoolean("cacheHit"));
+            assertTrue(events.get(1).getBoolean("cacheHit"));
+        }
+        
+        @Test
+        @DisplayName("掷骰 - 每次都记录时骰子数、抽取数与总数")
+        void testRoll() throws Exception {
+            CompiledExpression expression = DiceExpressionCompiler.compile("3d6 + d6 explode always on 6");
+            List<RecordedEvent> events = named(record(recording -> recording.enable(RollEvents.PREFIX + "Roll").with("sampleEvery", "1"), () -> {
+                for (int i = 0; i < 100; i++) {
+                    expression.roll();
+                }
+            }), "Roll");
+            assertEquals(100, events.size());
+            for (RecordedEvent event : events) {
+                assertEquals(expression.toString(), event.getString("expression"));
+                assertEquals(expression.hashCode(), event.getInt("expressionId"));
+                assertEquals("INTERPRETED", event.getString("tier"));
+                long dice = event.getLong("dice");
+                assertTrue(dice >= 4, event.toString());
+                assertEquals(dice, event.getLong("draws"));
+                int total = event.getInt("total");
+                assertTrue(total >= 4 + (dice - 4) * 6, event.toString());
+            }
+        }
+        
+        @Test
+        @DisplayName("抽样层的掷骰 - 一次抽取，没有骰子")
+        void testSampledRoll() throws Exception {
+            DiceResults.setMode(TraceMode.NONE);
+            CompiledExpression expression = DiceExpressionCompiler.compile("10d6");
+            expression.promote(Tier.SAMPLED);
+            List<RecordedEvent> events = named(record(recording -> recording.enable(RollEvents.PREFIX + "Roll").with("sampleEvery", "1"), () -> {
+                for (int i = 0; i < 10; i++) {
+                    expression.roll();
+                }
+            }), "Roll");
+            assertEquals(10, events.size());
+            assertEquals("SAMPLED", events.get(0).getString("tier"));
+            assertEquals(0, events.get(0).getLong("dice"));
+            assertEquals(1, events.get(0).getLong("draws"));
+        }
+        
+        @Test
+        @DisplayName("模拟、分布与后台任务")
+        void testJobs() throws Exception {
+            CompiledExpression expression = DiceExpressionCompiler.compile("2d6");
+            List<RecordedEvent> events = record(recording -> {
+            }, () -> {
+                Simulator.simulate(expression, 5000, new RollStatistics());
+                new DistributionCache().get(DiceExpressionCompiler.compile("3d6"));
+                try (RollScheduler scheduler = new RollScheduler(1)) {
+                    RollJob<RollStatistics> job = scheduler.simulate(expression, 200_000);
+                    job.future().get(30, TimeUnit.SECONDS);
+                    RollJob<RollStatistics> endless = scheduler.simulate(expression, Long.MAX_VALUE);
+                    endless.cancel();
+                    assertThrows(Exception.class, () -> endless.future().get());
+                }
+            });
+            RecordedEvent simulation = named(events, "Simulation").get(0);
+            assertEquals("2d6", simulation.getString("expression"));
+            assertEquals(5000, simulation.getLong("samples"));
+            // 模拟中的 2d6 也会在后台升级时计算分布
+            RecordedEvent distribution = named(events, "Distribution").stream()
+                    .filter(event -> event.getString("expression").equals("3d6")).findFirst().orElseThrow();
+            assertEquals(16, distribution.getInt("support"));
+            List<RecordedEvent> jobs = named(events, "Job");
+            assertEquals(2, jobs.size());
+            RecordedEvent done = jobs.stream().filter(job -> job.getString("outcome").equals("done")).findFirst().orElseThrow();
+            assertEquals("simulation", done.getString("kind"));
+            assertEquals(200_000, done.getLong("samples"));
+            assertEquals(1, done.getInt("threads"));
+            assertEquals(4, done.getInt("steps"));
+            assertTrue(jobs.stream().anyMatch(job -> job.getString("outcome").equals("cancelled")));
+        }
+    }
+    
+    // ==================== 计数随机数测试 ====================
+    
+    @Nested
+    @DisplayName("计数随机数测试")
+    class CountingRandomTests {
+        
+        @Test
+        @DisplayName("透明 - 与被包装的随机数掷出相同的值")
+        void testSameValues() throws Exception {
+            CompiledExpression expression = DiceExpressionCompiler.compile("4d6k3 + 2d8 reroll always on 1");
+            int expected = RandomUtil.withRandom(new Random(11), expression::roll);
+            CountingRandom counting = new CountingRandom(new Random(11));
+            assertEquals(expected, RandomUtil.withRandom(counting, expression::roll));
+            assertTrue(counting.dice() >= 6);
+            assertEquals(counting.dice(), counting.draws());
+            counting.nextLong();
+            assertEquals(counting.dice() + 1, counting.draws());
+        }
+    }
+}
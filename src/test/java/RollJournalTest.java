@@ -0,0 +1,291 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.journal.JournalConfig;
+import top.outlands.diceroller4j.journal.JournalReader;
+import top.outlands.diceroller4j.journal.RollJournal;
+import top.outlands.diceroller4j.random.RollAudit;
+import top.outlands.diceroller4j.trace.RollTrace;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 掷骰日志测试
+ * 测试内容包括：
+ * 1. 记录的写入与读回
+ * 2. 分段轮转
+ * 3. 多线程无锁追加
+ * 4. 审计掷骰写入日志后的重放
+ */
+public class RollJournalTest {
+
+    private static final JournalConfig SMALL = new JournalConfig(4096, 10);
+
+    private static final List<Path> directories = new ArrayList<>();
+
+    private static Path directory() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        directories.add(directory);
+        return directory;
+    }
+
+    @AfterEach
+    void deleteDirectories() throws Exception {
+        for (Path directory : directories) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        directories.clear();
+    }
+
+    private static long count(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    // ==================== 读写测试 ====================
+
+    @Nested
+    @DisplayName("读写测试")
+    class ReadWriteTests {
+
+        @Test
+        @DisplayName("往返 - 字段与骰子原样读回")
+        void testRoundTrip() throws Exception {
+            Path directory = directory();
+            RollTrace narrow = new RollTrace();
+            narrow.add(6, 3);
+            narrow.add(20, 20);
+            narrow.add(65535, 65535);
+            RollTrace wide = new RollTrace();
+            wide.add(100_000, 99_999);
+            wide.add(6, 1);
+            try (RollJournal journal = RollJournal.open(directory)) {
+                journal.append(11, 1, 0, 42, null);
+                journal.append(12, 2, 1, 65599, narrow);
+                journal.append(13, 3, 2, 100_000, wide);
+            }
+            try (JournalReader reader = JournalReader.open(directory)) {
+                assertTrue(reader.next());
+                assertEquals(11, reader.expression());
+                assertEquals(42, reader.total());
+                assertEquals(0, reader.dice());
+                assertTrue(Math.abs(System.currentTimeMillis() - reader.timestamp()) < 60_000);
+                assertTrue(reader.next());
+                assertEquals(2, reader.seed());
+                assertEquals(1, reader.roll());
+                assertArrayEquals(narrow.toValuesArray(), reader.trace(new RollTrace()).toValuesArray());
+                assertArrayEquals(narrow.toSidesArray(), reader.trace(new RollTrace()).toSidesArray());
+                assertTrue(reader.next());
+                assertEquals(100_000, reader.total());
+                assertArrayEquals(wide.toValuesArray(), reader.trace(new RollTrace()).toValuesArray());
+                assertArrayEquals(wide.toSidesArray(), reader.trace(new RollTrace()).toSidesArray());
+                assertFalse(reader.next());
+            }
+            assertThrows(IllegalStateException.class, () -> {
+                try (RollJournal journal = RollJournal.open(directory)) {
+                    journal.close();
+                    journal.append(1, 1, 1, 1, null);
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("实时读取 - 同步后未关闭的日志也能读到")
+        void testLiveRead() throws Exception {
+            Path directory = directory();
+            try (RollJournal journal = RollJournal.open(directory, SMALL)) {
+                for (int i = 0; i < 10; i++) {
+                    journal.append(1, 0, i, i, null);
+                }
+                journal.sync();
+                try (JournalReader reader = JournalReader.open(directory)) {
+                    for (int i = 0; i < 10; i++) {
+                        assertTrue(reader.next());
+                        assertEquals(i, reader.roll());
+                    }
+                    assertFalse(reader.next());
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("表达式编号 - 写法不同的等价表达式编号相同")
+        void testExpressionId() throws Exception {
+            assertEquals(RollJournal.expressionId(DiceExpressionCompiler.compile("2 + d6")),
+                    RollJournal.expressionId(DiceExpressionCompiler.compile("d6+2")));
+            assertNotEquals(RollJournal.expressionId(DiceExpressionCompiler.compile("d6")),
+                    RollJournal.expressionId(DiceExpressionCompiler.compile("d8")));
+        }
+
+        @Test
+        @DisplayName("表达式编号 - 只差分组的不同表达式编号不同")
+        void testExpressionIdGrouping() throws Exception {
+            List<List<String>> pairs = List.of(
+                    List.of("(d20+5)/d4", "d20+5/d4"),
+                    List.of("(d6+1)*2", "d6+1*2"),
+                    List.of("d20 / (d4 * 2)", "d20 / d4 * 2"),
+                    List.of("(d8 - d6) * d4", "d8 - d6 * d4"));
+            for (List<String> pair : pairs) {
+                assertNotEquals(RollJournal.expressionId(DiceExpressionCompiler.compile(pair.get(0))),
+                        RollJournal.expressionId(DiceExpressionCompiler.compile(pair.get(1))), pair.toString());
+            }
+        }
+    }
+
+    // ==================== 轮转测试 ====================
+
+    @Nested
+    @DisplayName("轮转测试")
+    class RotationTests {
+
+        @Test
+        @DisplayName("分段 - 写满后开启新文件，读取顺序不变")
+        void testRotation() throws Exception {
+            Path directory = directory();
+            RollTrace trace = new RollTrace();
+            for (int i = 0; i < 40; i++) {
+                trace.add(6, 1 + i % 6);
+            }
+            try (RollJournal journal = RollJournal.open(directory, SMALL)) {
+                for (int i = 0; i < 200; i++) {
+                    journal.append(7, 0, i, i, i % 2 == 0 ? trace : null);
+                }
+                assertTrue(journal.sequence() > 5);
+            }
+            assertTrue(count(directory) > 5);
+            try (Stream<Path> files = Files.list(directory)) {
+                // 关闭后的分段截到最后一条记录
+                assertTrue(files.allMatch(file -> file.toFile().length() < 4096));
+            }
+            try (JournalReader reader = JournalReader.open(directory)) {
+                for (int i = 0; i < 200; i++) {
+                    assertTrue(reader.next());
+                    assertEquals(i, reader.roll());
+                    assertEquals(i % 2 == 0 ? 40 : 0, reader.dice());
+                }
+                assertFalse(reader.next());
+            }
+            try (RollJournal journal = RollJournal.open(directory, SMALL)) {
+                journal.append(7, 0, 200, 0, null);
+            }
+            try (JournalReader reader = JournalReader.open(directory)) {
+                long last = -1;
+                while (reader.next()) last = reader.roll();
+                assertEquals(200, last);
+            }
+        }
+
+        @Test
+        @DisplayName("并发追加 - 多线程写入的记录不丢不重")
+        void testConcurrent() throws Exception {
+            Path directory = directory();
+            int threads = 8, perThread = 5_000;
+            try (RollJournal journal = RollJournal.open(directory, new JournalConfig(64 * 1024, 5))) {
+                try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        int thread = t;
+                        futures.add(executor.submit(() -> {
+                            RollTrace trace = new RollTrace();
+                            for (int i = 0; i < perThread; i++) {
+                                trace.reset();
+                                for (int d = 0; d < i % 5; d++) {
+                                    trace.add(6, 1 + d);
+                                }
+                                journal.append(thread, 0, (long) thread * perThread + i, i, trace);
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                }
+            }
+            BitSet seen = new BitSet(threads * perThread);
+            try (JournalReader reader = JournalReader.open(directory)) {
+                while (reader.next()) {
+                    int roll = (int) reader.roll();
+                    assertFalse(seen.get(roll), "重复记录 " + roll);
+                    seen.set(roll);
+                    assertEquals(roll % perThread, reader.total());
+                    assertEquals(roll % perThread % 5, reader.dice());
+                    assertEquals(roll / perThread, reader.expression());
+                }
+            }
+            assertEquals(threads * perThread, seen.cardinality());
+        }
+    }
+
+    // ==================== 审计测试 ====================
+
+    @Nested
+    @DisplayName("审计测试")
+    class AuditTests {
+
+        @Test
+        @DisplayName("重放 - 日志只存种子与编号即可还原每次掷骰")
+        void testAuditJournal() throws Exception {
+            Path directory = directory();
+            IExpression expression = DiceExpressionCompiler.compile("4d6k3 + d20");
+            int[] totals = new int[100];
+            try (RollJournal journal = RollJournal.open(directory)) {
+                RollAudit audit = new RollAudit(77, journal);
+                for (int roll = 0; roll < totals.length; roll++) {
+                    totals[roll] = audit.roll(expression, roll);
+                }
+                // 重放不写入日志
+                audit.replay(expression, 0);
+            }
+            RollAudit auditor = new RollAudit(77);
+            int records = 0;
+            try (JournalReader reader = JournalReader.open(directory)) {
+                while (reader.next()) {
+                    assertEquals(RollJournal.expressionId(expression), reader.expression());
+                    assertEquals(77, reader.seed());
+                    assertEquals(totals[(int) reader.roll()], reader.total());
+                    assertEquals(reader.total(), auditor.replay(expression, reader.roll()).total());
+                    records++;
+                }
+            }
+            assertEquals(totals.length, records);
+        }
+
+        @Test
+        @DisplayName("追加耗时 - 不等待落盘")
+        void testAppendLatency() throws Exception {
+            Path directory = directory();
+            try (RollJournal journal = RollJournal.open(directory, new JournalConfig(16L * 1024 * 1024, 1_000))) {
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < 20_000; i++) {
+                        journal.append(1, 2, (long) round * 20_000 + i, i, null);
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                // 每条追加平均不超过 5 微秒，远低于一次落盘
+                assertTrue(best < 20_000 * 5_000L, "20000 条耗时 " + best / 1000 + "us");
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.ExpressionCache;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.TieringPolicy;
+import top.outlands.diceroller4j.metrics.LatencyHistogram;
+import top.outlands.diceroller4j.metrics.MetricsSnapshot;
+import top.outlands.diceroller4j.metrics.RollMetrics;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 热路径指标测试
+ * 测试内容包括：
+ * 1. 延迟直方图的分桶、分位数与重置
+ * 2. 计数器与快照导出
+ * 3. 关闭时掷骰不留下任何计数
+ * 4. 开启时（子进程）编译、缓存、节点、骰子与随机数抽取的计数
+ */
+public class RollMetricsTest {
+
+    @AfterEach
+    void tearDown() {
+        RollMetrics.reset();
+    }
+
+    // ==================== 直方图测试 ====================
+
+    @Nested
+    @DisplayName("直方图测试")
+    class HistogramTests {
+
+        @Test
+        @DisplayName("分位数 - 误差不超过四分之一")
+        void testPercentiles() {
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (int i = 1; i <= 1000; i++) {
+                histogram.record(i * 1000L);
+            }
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            assertEquals(1000, snapshot.count());
+            assertEquals(500_500, snapshot.mean(), 1e-6);
+            assertEquals(1_000_000, snapshot.maxNanos());
+            for (double p : new double[]{0.1, 0.5, 0.9, 0.99}) {
+                long exact = (long) Math.ceil(p * 1000) * 1000;
+                long reported = snapshot.percentile(p);
+                assertTrue(reported >= exact && reported <= exact * 1.25, p + ": " + reported + " / " + exact);
+            }
+            // 最大值所在的桶不会超过最大值
+            assertEquals(1_000_000, snapshot.percentile(1));
+        }
+
+        @Test
+        @DisplayName("边界 - 零、负数、极大值与重置")
+        void testEdges() {
+            LatencyHistogram histogram = new LatencyHistogram();
+            assertEquals(0, histogram.snapshot().percentile(0.5));
+            histogram.record(-5);
+            histogram.record(0);
+            histogram.record(3);
+            histogram.record(Long.MAX_VALUE);
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            assertEquals(4, snapshot.count());
+            assertEquals(0, snapshot.percentile(0.5));
+            assertEquals(3, snapshot.percentile(0.75));
+            assertEquals(Long.MAX_VALUE, snapshot.percentile(1));
+            assertThrows(IllegalArgumentException.class, () -> snapshot.percentile(1.5));
+            histogram.reset();
+            assertEquals(0, histogram.snapshot().count());
+            assertEquals(0, histogram.snapshot().maxNanos());
+        }
+    }
+
+    // ==================== 计数测试 ====================
+
+    @Nested
+    @DisplayName("计数测试")
+    class CounterTests {
+
+        @Test
+        @DisplayName("计数与导出 - 快照按行输出名字和值")
+        void testSnapshot() throws Exception {
+            RollMetrics.reset();
+            RollMetrics.dice(3);
+            RollMetrics.draws(2);
+            RollMetrics.exploded();
+            RollMetrics.rerolled();
+            RollMetrics.cacheHit();
+            RollMetrics.compiled(1500);
+            RollMetrics.rolled(DiceExpressionCompiler.compile("2d6"));
+            MetricsSnapshot snapshot = RollMetrics.snapshot();
+            assertEquals(3, snapshot.diceRolled());
+            assertEquals(5, snapshot.randomDraws());
+            assertEquals(1, snapshot.explosions());
+            assertEquals(1, snapshot.rerolls());
+            assertEquals(1, snapshot.cacheHits());
+            assertEquals(1, snapshot.compiles());
+            assertEquals(1, snapshot.compileLatency().count());
+            assertEquals(Long.valueOf(1), snapshot.nodeRolls().get("CompiledExpression"));
+            Map<String, Long> exported = parse(snapshot.toString());
+            assertEquals(Long.valueOf(3), exported.get("dice.rolled"));
+            assertEquals(Long.valueOf(1500), exported.get("compile.max"));
+            RollMetrics.reset();
+            assertEquals(0, RollMetrics.snapshot().randomDraws());
+        }
+
+        @Test
+        @DisplayName("关闭时 - 编译和掷骰不计数")
+        void testDisabled() throws Exception {
+            assertFalse(RollMetrics.ENABLED, "测试进程不应开启指标");
+            RollMetrics.reset();
+            ExpressionCache cache = new ExpressionCache();
+            CompiledExpression expression = cache.compile("4d6k3 + d6 explode always on 6");
+            cache.compile("4d6k3 + d6 explode always on 6");
+            for (int i = 0; i < 1000; i++) {
+                expression.roll();
+            }
+            MetricsSnapshot snapshot = RollMetrics.snapshot();
+            assertFalse(snapshot.enabled());
+            assertEquals(0, snapshot.compiles());
+            assertEquals(0, snapshot.cacheHits());
+            assertEquals(0, snapshot.diceRolled());
+            assertEquals(0, snapshot.rollLatency().count());
+            assertTrue(snapshot.nodeRolls().values().stream().allMatch(rolls -> rolls == 0));
+        }
+    }
+
+    // ==================== 开启测试 ====================
+
+    @Nested
+    @DisplayName("开启测试")
+    class EnabledTests {
+
+        @Test
+        @DisplayName("子进程开启指标 - 各项计数与掷骰一致")
+        void testEnabled() throws Exception {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            if (ManagementFactory.getRuntimeMXBean().getInputArguments().contains("--enable-preview")) command.add("--enable-preview");
+            command.add("-D" + RollMetrics.PROPERTY + "=true");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Child.class.getName());
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue(), output);
+            Map<String, Long> metrics = parse(output);
+            assertEquals(Long.valueOf(1), metrics.get("enabled"));
+            // 两个不同的表达式各编译一次，第二次取同一个表达式命中缓存
+            assertEquals(Long.valueOf(2), metrics.get("compiles"));
+            assertEquals(Long.valueOf(1), metrics.get("cache.hits"));
+            assertEquals(Long.valueOf(2), metrics.get("cache.misses"));
+            assertEquals(Long.valueOf(2), metrics.get("compile.count"));
+            // 3d6 掷 100 次，爆骰 500 次每次至少一颗
+            long explosions = metrics.get("explosions");
+            assertTrue(explosions > 0);
+            assertEquals(Long.valueOf(300 + 500 + explosions), metrics.get("dice.rolled"));
+            assertEquals(metrics.get("dice.rolled"), metrics.get("random.draws"));
+            assertEquals(metrics.get("dice.rolled"), metrics.get("rolls.Dice"));
+            assertEquals(Long.valueOf(600), metrics.get("rolls.CompiledExpression"));
+            assertEquals(Long.valueOf(500), metrics.get("rolls.Explode"));
+            assertEquals(Long.valueOf(600), metrics.get("roll.count"));
+            assertTrue(metrics.get("roll.p50") > 0 && metrics.get("roll.p50") <= metrics.get("roll.max"));
+        }
+    }
+
+    private static Map<String, Long> parse(String text) {
+        Map<String, Long> metrics = new HashMap<>();
+        for (String line : text.split("\n")) {
+            String[] parts = line.strip().split(" ");
+            if (parts.length == 2 && parts[1].matches("-?\\d+")) metrics.put(parts[0], Long.parseLong(parts[1]));
+        }
+        return metrics;
+    }
+
+    /**
+     * 在开启指标的子进程里运行，掷完后输出快照
+     */
+    public static class Child {
+
+        public static void main(String[] args) throws Exception {
+            CompiledExpression.setTieringPolicy(TieringPolicy.DISABLED);
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            RandomUtil.setRandom(new Random(7));
+            ExpressionCache cache = new ExpressionCache();
+            CompiledExpression dice = cache.compile("3d6");
+            CompiledExpression exploding = cache.compile("d6 explode always on 6");
+            cache.compile("3d6");
+            for (int i = 0; i < 100; i++) {
+                dice.roll();
+            }
+            for (int i = 0; i < 500; i++) {
+                exploding.roll();
+            }
+            System.out.print(RollMetrics.snapshot());
+        }
+    }
+}
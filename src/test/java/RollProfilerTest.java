@@ -0,0 +1,176 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.analysis.CostEstimator;
+import top.outlands.diceroller4j.analysis.ExecutionPlan;
+import top.outlands.diceroller4j.analysis.RollProfile;
+import top.outlands.diceroller4j.analysis.RollProfiler;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.Tier;
+import top.outlands.diceroller4j.expressions.mechanic.Reroll;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 执行计划与剖析测试
+ * 测试内容包括：
+ * 1. 各层级下每个节点的求值策略、层级与采样方式
+ * 2. 计划中的代价估计
+ * 3. 剖析中每个节点的随机数抽取、骰子与循环次数
+ * 4. 剖析找出最耗时的节点
+ * 5. 剖析不改变其他线程的记录模式
+ */
+public class RollProfilerTest {
+
+    @AfterEach
+    void tearDown() {
+        RandomUtil.setRandom(ThreadLocalRandom.current());
+        DiceResults.setMode(TraceMode.INDIVIDUAL);
+    }
+
+    // ==================== 执行计划测试 ====================
+
+    @Nested
+    @DisplayName("执行计划测试")
+    class PlanTests {
+
+        @Test
+        @DisplayName("解释执行 - 每个节点的策略、采样方式与代价")
+        void testInterpreted() throws Exception {
+            CompiledExpression expression = DiceExpressionCompiler.compile("4d6k3 + 2");
+            ExecutionPlan plan = expression.explain();
+            assertEquals(Tier.INTERPRETED, plan.tier());
+            List<ExecutionPlan.Step> steps = plan.steps();
+            // 单个骰子归属于掷它的节点
+            assertEquals(3, steps.size());
+            assertEquals(List.of(ExecutionPlan.Strategy.COMBINE, ExecutionPlan.Strategy.SORT, ExecutionPlan.Strategy.CONSTANT),
+                    steps.stream().map(ExecutionPlan.Step::strategy).toList());
+            assertEquals(List.of(0, 1, 1), steps.stream().map(ExecutionPlan.Step::depth).toList());
+            assertTrue(steps.stream().allMatch(step -> step.tier() == Tier.INTERPRETED));
+            assertEquals(ExecutionPlan.Sampler.GENERATOR, steps.get(1).sampler());
+            assertEquals(ExecutionPlan.Sampler.NONE, steps.get(2).sampler());
+            assertEquals(CostEstimator.estimate(expression), plan.cost());
+            assertEquals(4, steps.get(1).cost().dice());
+            assertTrue(plan.toString().contains("SORT      INTERPRETED GENERATOR"), plan.toString());
+        }
+
+        @Test
+        @DisplayName("展平 - 程序内联算术与纯骰子组，其余节点按树掷出")
+        void testFlattened() throws Exception {
+            CompiledExpression expression = DiceExpressionCompiler.compile("10d10k5 + 3d8");
+            expression.promote(Tier.FLATTENED);
+            List<ExecutionPlan.Step> steps = expression.explain().steps();
+            assertEquals(Tier.FLATTENED, steps.get(0).tier());
+            assertEquals(Tier.INTERPRETED, steps.get(1).tier());
+            assertEquals(ExecutionPlan.Strategy.SORT, steps.get(1).strategy());
+            assertEquals(Tier.FLATTENED, steps.get(2).tier());
+            assertEquals(ExecutionPlan.Strategy.BULK, steps.get(2).strategy());
+        }
+
+        @Test
+        @DisplayName("抽样 - 关闭记录时别名表抽取总数，记录骰子时退回展平")
+        void testSampled() throws Exception {
+            CompiledExpression expression = DiceExpressionCompiler.compile("3d6 + 2");
+            assertEquals(Tier.SAMPLED, expression.promote(Tier.SAMPLED));
+            DiceResults.setMode(TraceMode.NONE);
+            ExecutionPlan plan = expression.explain();
+            assertEquals(Tier.SAMPLED, plan.tier());
+            assertTrue(plan.steps().stream().allMatch(step -> step.sampler() == ExecutionPlan.Sampler.ALIAS));
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            plan = expression.explain();
+            assertEquals(Tier.FLATTENED, plan.tier());
+            assertEquals(ExecutionPlan.Sampler.GENERATOR, plan.steps().get(0).sampler());
+        }
+
+        @Test
+        @DisplayName("连锁与成对 - 爆骰、重掷与强调")
+        void testChains() throws Exception {
+            List<ExecutionPlan.Step> steps = DiceExpressionCompiler.compile("d6 explode always on 6 + 2d20 emphasis high").explain().steps();
+            assertEquals(ExecutionPlan.Strategy.CHAIN, steps.get(1).strategy());
+            assertTrue(steps.get(1).cost().explosionDepth() > 0);
+            assertEquals(1.2, steps.get(1).cost().expectedDraws(), 1e-9);
+            assertEquals(ExecutionPlan.Strategy.PAIR, steps.get(2).strategy());
+            // 未编译的树按解释执行
+            assertEquals(Tier.INTERPRETED, ExecutionPlan.of(DiceExpressionCompiler.compile("d20r1").root()).tier());
+        }
+    }
+
+    // ==================== 剖析测试 ====================
+
+    @Nested
+    @DisplayName("剖析测试")
+    class ProfileTests {
+
+        @Test
+        @DisplayName("计数 - 每个子树的抽取数、骰子数与爆骰次数")
+        void testCounts() throws Exception {
+            RandomUtil.setRandom(new Random(3));
+            int samples = 20_000;
+            RollProfile profile = RollProfiler.profile(DiceExpressionCompiler.compile("3d6 + d6 explode always on 6"), samples);
+            assertEquals(TraceMode.INDIVIDUAL, DiceResults.getMode());
+            List<RollProfile.Node> nodes = profile.nodes();
+            assertEquals(3, nodes.size());
+            assertEquals(-1, nodes.get(0).parent());
+            assertEquals(0, nodes.get(2).parent());
+            assertEquals(3L * samples, nodes.get(1).dice());
+            RollProfile.Node explode = nodes.get(2);
+            assertEquals(0.2, (double) explode.iterations() / samples, 0.02);
+            assertEquals(explode.dice(), samples + explode.iterations());
+            assertEquals(4.2, (double) nodes.get(0).dice() / samples, 0.03);
+            for (RollProfile.Node node : nodes) {
+                assertEquals(node.dice(), node.draws());
+                assertTrue(node.selfNanos() >= 0 && node.selfNanos() <= node.totalNanos());
+                assertTrue(node.share() >= 0);
+            }
+            assertTrue(profile.dieNanos() > 0);
+            assertTrue(profile.toString().contains("ns per die"), profile.toString());
+        }
+
+        @Test
+        @DisplayName("热点 - 长重掷链占去大部分时间")
+        void testHottest() throws Exception {
+            int samples = 50_000;
+            RollProfile profile = RollProfiler.profile(DiceExpressionCompiler.compile("d20r19 + 1"), samples);
+            RollProfile.Node hottest = profile.hottest();
+            assertTrue(hottest.node() instanceof Reroll, profile.toString());
+            assertTrue(hottest.share() > 0.5, profile.toString());
+            // 每颗骰子平均重掷 19 次
+            assertEquals(19, (double) hottest.iterations() / samples, 0.5);
+        }
+
+        @Test
+        @DisplayName("记录模式 - 剖析只在自己的线程上关闭记录")
+        void testTraceMode() throws Exception {
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            CompiledExpression expression = DiceExpressionCompiler.compile("d20r19 + 4d6k3");
+            CompletableFuture<RollProfile> profile = CompletableFuture.supplyAsync(() -> RollProfiler.profile(expression, 200_000));
+            while (!profile.isDone()) {
+                assertEquals(TraceMode.INDIVIDUAL, DiceResults.getMode());
+                Thread.sleep(1);
+            }
+            assertEquals(3, profile.get().nodes().size());
+            assertEquals(TraceMode.INDIVIDUAL, DiceResults.getMode());
+        }
+
+        @Test
+        @DisplayName("参数 - 样本数必须为正，编译后的表达式按树剖析")
+        void testArguments() throws Exception {
+            CompiledExpression expression = DiceExpressionCompiler.compile("2d6 + 1");
+            assertThrows(IllegalArgumentException.class, () -> RollProfiler.profile(expression, 0));
+            RollProfile profile = RollProfiler.profile(expression, 100);
+            assertSame(expression, profile.expression());
+            assertSame(expression.root(), profile.nodes().getFirst().node());
+            assertEquals(100, profile.samples());
+        }
+    }
+}
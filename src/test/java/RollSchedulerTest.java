@@ -0,0 +1,206 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.DistributionCache;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.schedule.Cooperative;
+import top.outlands.diceroller4j.schedule.RollJob;
+import top.outlands.diceroller4j.schedule.RollScheduler;
+import top.outlands.diceroller4j.simulation.RollStatistics;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 掷骰调度器测试
+ * 测试内容包括：
+ * 1. 交互任务优先于后台任务
+ * 2. 后台任务的进度、轮转与取消
+ * 3. 卷积中的让出点
+ * 4. 混合负载下交互任务不等后台任务
+ */
+public class RollSchedulerTest {
+
+    private static IExpression compile(String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression);
+    }
+
+    private static void awaitProgress(RollJob<?> job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.progress() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(job.progress() > 0, job.toString());
+    }
+
+    // ==================== 分道测试 ====================
+
+    @Nested
+    @DisplayName("分道测试")
+    class LaneTests {
+
+        @Test
+        @DisplayName("交互优先 - 唯一的工作线程忙于模拟时掷骰仍能及时完成")
+        void testInteractiveFirst() throws Exception {
+            IExpression roll = compile("4d6k3");
+            try (RollScheduler scheduler = new RollScheduler(1)) {
+                RollJob<RollStatistics> job = scheduler.simulate(compile("10d10k5"), Long.MAX_VALUE);
+                awaitProgress(job);
+                for (int i = 0; i < 50; i++) {
+                    int total = scheduler.roll(roll).get(1, TimeUnit.SECONDS);
+                    assertTrue(total >= 3 && total <= 18);
+                }
+                // 掷骰在模拟的让出点上执行
+                assertTrue(scheduler.yielded() > 0);
+                assertFalse(job.isDone());
+                assertTrue(job.cancel());
+                assertThrows(CancellationException.class, () -> job.future().join());
+                // 取消后工作线程空出来
+                assertEquals(1000, scheduler.simulate(roll, 1000).future().get(1, TimeUnit.SECONDS).count());
+            }
+        }
+
+        @Test
+        @DisplayName("记录模式 - 在模拟的让出点上执行的交互任务按全局模式记录骰子")
+        void testInteractiveTraceMode() throws Exception {
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            try (RollScheduler scheduler = new RollScheduler(1)) {
+                RollJob<RollStatistics> job = scheduler.simulate(compile("10d10k5"), Long.MAX_VALUE);
+                awaitProgress(job);
+                // 模拟只在自己的线程上关闭记录
+                assertEquals(TraceMode.INDIVIDUAL, DiceResults.getMode());
+                assertEquals(TraceMode.INDIVIDUAL, scheduler.interactive(DiceResults::getMode).get(1, TimeUnit.SECONDS));
+                assertTrue(scheduler.yielded() > 0);
+                assertTrue(job.cancel());
+            }
+        }
+
+        @Test
+        @DisplayName("让出点 - 不在后台任务中时什么都不做")
+        void testYieldPointOutside() throws Exception {
+            Cooperative.yieldPoint();
+            try (RollScheduler scheduler = new RollScheduler(1)) {
+                // 交互任务里的让出点不属于任何后台任务
+                assertEquals(Integer.valueOf(1), scheduler.interactive(() -> {
+                    Cooperative.yieldPoint();
+                    return 1;
+                }).get(1, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    // ==================== 后台任务测试 ====================
+
+    @Nested
+    @DisplayName("后台任务测试")
+    class JobTests {
+
+        @Test
+        @DisplayName("进度 - 单调增长，完成时为 1")
+        void testProgress() throws Exception {
+            try (RollScheduler scheduler = new RollScheduler(1)) {
+                RollJob<RollStatistics> job = scheduler.simulate(compile("d6"), 1_000_000);
+                double last = 0;
+                while (!job.isDone()) {
+                    double progress = job.progress();
+                    assertTrue(progress >= last && progress <= 1);
+                    last = progress;
+                    Thread.sleep(1);
+                }
+                RollStatistics statistics = job.future().get();
+                assertEquals(1_000_000, statistics.count());
+                assertEquals(3.5, statistics.mean(), 0.01);
+                assertEquals(1.0, job.progress(), 0.0);
+                // 每步 65536 次
+                assertEquals(16, job.steps());
+            }
+        }
+
+        @Test
+        @DisplayName("轮转 - 两个后台任务交替执行")
+        void testRoundRobin() throws Exception {
+            IExpression d6 = compile("d6");
+            try (RollScheduler scheduler = new RollScheduler(1)) {
+                RollJob<RollStatistics> first = scheduler.simulate(d6, 2_000_000);
+                RollJob<RollStatistics> second = scheduler.simulate(d6, 2_000_000);
+                first.future().get(30, TimeUnit.SECONDS);
+                // 第一个完成时第二个只差最后一步
+                assertTrue(second.steps() >= first.steps() - 1, first.steps() + " / " + second.steps());
+                second.future().get(30, TimeUnit.SECONDS);
+            }
+        }
+
+        @Test
+        @DisplayName("取消卷积 - 在让出点上停下")
+        void testCancelDistribution() throws Exception {
+            // 两亿次配对，不取消要算一秒以上
+            IExpression heavy = compile("d1000000 / d200");
+            try (RollScheduler scheduler = new RollScheduler(1)) {
+                RollJob<Distribution> job = scheduler.distribution(heavy, new DistributionCache());
+                Thread.sleep(50);
+                long start = System.nanoTime();
+                job.cancel();
+                assertEquals(10, scheduler.simulate(compile("d6"), 10).future().get(5, TimeUnit.SECONDS).count());
+                long elapsed = System.nanoTime() - start;
+                assertTrue(elapsed < 200_000_000L, "取消后 " + elapsed / 1_000_000 + "ms 才空出来");
+                assertTrue(job.isCancelled());
+            }
+        }
+
+        @Test
+        @DisplayName("失败与关闭 - 异常传给结果，关闭后拒绝并取消排队的任务")
+        void testFailureAndClose() throws Exception {
+            RollScheduler scheduler = new RollScheduler(1);
+            RollJob<Distribution> unsupported = scheduler.distribution(compile("d3000 emphasis high"), new DistributionCache());
+            assertThrows(Exception.class, () -> unsupported.future().get(5, TimeUnit.SECONDS));
+            RollJob<RollStatistics> endless = scheduler.simulate(compile("d6"), Long.MAX_VALUE);
+            awaitProgress(endless);
+            CompletableFuture<Integer> roll = scheduler.roll(compile("d6"));
+            scheduler.close();
+            assertTrue(roll.isDone());
+            assertTrue(endless.isCancelled());
+            assertThrows(IllegalStateException.class, () -> scheduler.roll(compile("d6")));
+        }
+    }
+
+    // ==================== 混合负载测试 ====================
+
+    @Nested
+    @DisplayName("混合负载测试")
+    class MixedWorkloadTests {
+
+        @Test
+        @DisplayName("混合负载 - 两个模拟占着唯一的工作线程时，一口气发出的掷骰都在让出点上完成")
+        void testMixedWorkload() throws Exception {
+            IExpression roll = compile("4d6k3+2");
+            IExpression simulation = compile("10d10k5 + 3d8");
+            try (RollScheduler scheduler = new RollScheduler(1)) {
+                RollJob<RollStatistics> first = scheduler.simulate(simulation, Long.MAX_VALUE);
+                RollJob<RollStatistics> second = scheduler.simulate(simulation, Long.MAX_VALUE);
+                awaitProgress(first);
+                List<CompletableFuture<Integer>> rolls = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    rolls.add(scheduler.roll(roll));
+                }
+                for (CompletableFuture<Integer> future : rolls) {
+                    int total = future.get(5, TimeUnit.SECONDS);
+                    assertTrue(total >= 5 && total <= 20);
+                }
+                // 掷骰不等模拟结束
+                assertFalse(first.isDone() || second.isDone());
+                assertTrue(scheduler.yielded() > 0);
+                awaitProgress(second);
+                assertTrue(first.cancel() && second.cancel());
+            }
+        }
+    }
+}
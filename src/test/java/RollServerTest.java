@@ -0,0 +1,232 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.codec.DecodedRoll;
+import top.outlands.diceroller4j.codec.RollDecoder;
+import top.outlands.diceroller4j.codec.RollFormat;
+import top.outlands.diceroller4j.server.RollServer;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 掷骰服务测试
+ * 测试内容包括：
+ * 1. 掷骰、批量掷骰、分布与概率接口
+ * 2. 指定种子的可重放掷骰与 RollDecoder 可读的掷骰结果
+ * 3. 执行计划与错误请求的状态码
+ * 4. 请求不改变全局记录模式
+ * 5. 并发与持续请求
+ */
+public class RollServerTest {
+
+    private static RollServer server;
+    private static HttpClient client;
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = RollServer.start(new InetSocketAddress("localhost", 0));
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterAll
+    static void stop() {
+        client.close();
+        server.close();
+    }
+
+    private static HttpResponse<String> get(String path, String expression, String rest) throws Exception {
+        URI uri = server.uri().resolve(path + "?expression=" + URLEncoder.encode(expression, StandardCharsets.UTF_8) + rest);
+        return client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String field(String json, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\":(\\[[^]]*]|\"[^\"]*\"|[^,}]+)").matcher(json);
+        assertTrue(matcher.find(), name + " in " + json);
+        return matcher.group(1);
+    }
+
+    // ==================== 接口测试 ====================
+
+    @Nested
+    @DisplayName("接口测试")
+    class EndpointTests {
+
+        @Test
+        @DisplayName("掷骰 - 返回总数与每个骰子，可由 RollDecoder 读回")
+        void testRoll() throws Exception {
+            HttpResponse<String> response = get("/roll", "4d6k3+2", "");
+            assertEquals(200, response.statusCode());
+            assertEquals("[6,6,6,6]", field(response.body(), "sides"));
+            int total = Integer.parseInt(field(response.body(), "total"));
+            assertTrue(total >= 5 && total <= 20, response.body());
+            DecodedRoll decoded = RollDecoder.decode(RollFormat.JSON, ByteBuffer.wrap(response.body().getBytes(StandardCharsets.UTF_8)));
+            assertEquals("4d6k3 + 2", decoded.expression());
+            assertEquals(total, decoded.total());
+            assertEquals(4, decoded.trace().size());
+            assertTrue(response.headers().firstValue("Roll-Seed").isPresent());
+        }
+
+        @Test
+        @DisplayName("重放 - 相同种子与编号结果相同，批量的第 i 次等于单次的编号 i")
+        void testSeeded() throws Exception {
+            String first = get("/roll", "3d20", "&seed=42&roll=7").body();
+            String again = get("/roll", "3d20", "&seed=42&roll=7").body();
+            assertEquals(first, again);
+            HttpResponse<String> response = get("/roll", "3d20", "&seed=42&roll=7");
+            assertEquals("42", response.headers().firstValue("Roll-Seed").orElseThrow());
+            assertEquals("7", response.headers().firstValue("Roll-Id").orElseThrow());
+            String bulk = get("/bulk", "3d20", "&seed=42&count=10&totals=true").body();
+            String[] totals = field(bulk, "totals").replaceAll("[\\[\\]]", "").split(",");
+            assertEquals(10, totals.length);
+            assertEquals(field(first, "total"), totals[7]);
+        }
+
+        @Test
+        @DisplayName("批量 - 统计量接近理论值")
+        void testBulk() throws Exception {
+            HttpResponse<String> response = get("/bulk", "2d6", "&count=100000");
+            assertEquals(200, response.statusCode());
+            assertEquals(7, Double.parseDouble(field(response.body(), "mean")), 0.05);
+            assertEquals("7", field(response.body(), "p50"));
+            assertEquals("true", field(response.body(), "exact"));
+        }
+
+        @Test
+        @DisplayName("分布与概率 - 与精确值一致")
+        void testDistribution() throws Exception {
+            String distribution = get("/distribution", "2d6", "").body();
+            assertEquals("2", field(distribution, "min"));
+            assertEquals("12", field(distribution, "max"));
+            assertEquals(11, field(distribution, "pmf").split(",").length);
+            String probability = get("/probability", "d20+5", "&relation=ge&value=15").body();
+            assertEquals(0.55, Double.parseDouble(field(probability, "probability")), 1e-12);
+        }
+
+        @Test
+        @DisplayName("指标 - 未开启时各项为零")
+        void testMetrics() throws Exception {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(server.uri().resolve("/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals("false", field(response.body(), "enabled"));
+            assertEquals("0", field(response.body(), "diceRolled"));
+            assertTrue(response.body().contains("\"rollLatency\":{\"count\":0"), response.body());
+        }
+
+        @Test
+        @DisplayName("执行计划 - 每个节点的策略与代价")
+        void testExplain() throws Exception {
+            HttpResponse<String> response = get("/explain", "2d8k1+3", "");
+            assertEquals(200, response.statusCode());
+            assertEquals("\"INTERPRETED\"", field(response.body(), "tier"));
+            assertTrue(response.body().contains("\"strategy\":\"SORT\""), response.body());
+            assertTrue(response.body().contains("\"node\":\"3\",\"depth\":1,\"strategy\":\"CONSTANT\""), response.body());
+            assertEquals(400, get("/explain", "2d8k", "").statusCode());
+        }
+
+        @Test
+        @DisplayName("错误 - 非法表达式与超出抽取预算的批量 400，无法分析 422，未知路径 404")
+        void testErrors() throws Exception {
+            assertEquals(400, get("/roll", "4d6k", "").statusCode());
+            assertEquals(400, get("/roll", "", "").statusCode());
+            assertEquals(400, get("/bulk", "d6", "&count=0").statusCode());
+            // 次数与每次期望抽取数的乘积超出预算
+            HttpResponse<String> costly = get("/bulk", "100d6", "&count=1000000");
+            assertEquals(400, costly.statusCode());
+            assertTrue(costly.body().contains("Too many draws expected"), costly.body());
+            assertEquals(400, get("/bulk", "(40d6 explode always on 6, 20d10) keep 1", "&count=1000000").statusCode());
+            assertEquals(200, get("/bulk", "100d6", "&count=1000").statusCode());
+            assertEquals(400, get("/probability", "d6", "&relation=gt&value=3").statusCode());
+            assertEquals(422, get("/distribution", "100d100000", "").statusCode());
+            assertEquals(404, get("/roll/more", "d6", "").statusCode());
+            HttpResponse<String> post = client.send(HttpRequest.newBuilder(server.uri().resolve("/roll"))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, post.statusCode());
+            assertTrue(get("/roll", "4d6k", "").body().startsWith("{\"error\":"));
+        }
+
+        @Test
+        @DisplayName("记录模式 - 服务不改变全局模式，请求掷出的骰子不进入共享记录")
+        void testTraceMode() throws Exception {
+            TraceMode mode = DiceResults.getMode();
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            DiceResults.clear();
+            try {
+                assertEquals(200, get("/bulk", "10d6", "&count=100").statusCode());
+                assertEquals(200, get("/roll", "10d6", "").statusCode());
+                assertEquals(TraceMode.INDIVIDUAL, DiceResults.getMode());
+                assertTrue(DiceResults.getTrace().isEmpty(), DiceResults.getTrace().toString());
+            } finally {
+                DiceResults.setMode(mode);
+            }
+        }
+    }
+
+    // ==================== 并发测试 ====================
+
+    @Nested
+    @DisplayName("并发测试")
+    class ConcurrencyTests {
+
+        @Test
+        @DisplayName("并发请求 - 各请求的种子互不干扰")
+        void testConcurrentSeeds() throws Exception {
+            String expected = get("/bulk", "10d10", "&seed=5&count=200").body();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 32; i++) {
+                    futures.add(executor.submit(() -> get("/bulk", "10d10", "&seed=5&count=200").body()));
+                }
+                for (Future<String> future : futures) {
+                    assertEquals(expected, future.get());
+                }
+            }
+            assertTrue(server.expressions().hits() > 0);
+        }
+
+        @Test
+        @DisplayName("持续请求 - 多个虚拟线程连续发送的请求都成功")
+        void testSustainedLoad() throws Exception {
+            URI target = server.uri().resolve("roll?expression=4d6k3%2B2");
+            HttpRequest request = HttpRequest.newBuilder(target).build();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<Integer>> futures = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    futures.add(executor.submit(() -> {
+                        int ok = 0;
+                        // 每个线程收到回答后再发下一个
+                        for (int n = 0; n < 50; n++) {
+                            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                            int total = Integer.parseInt(field(response.body(), "total"));
+                            if (response.statusCode() == 200 && total >= 5 && total <= 20) ok++;
+                        }
+                        return ok;
+                    }));
+                }
+                for (Future<Integer> future : futures) {
+                    assertEquals(Integer.valueOf(50), future.get());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.simulation.KllSketch;
+import top.outlands.diceroller4j.simulation.RollStatistics;
+import top.outlands.diceroller4j.simulation.SampleBuffer;
+import top.outlands.diceroller4j.simulation.SampleHistogram;
+import top.outlands.diceroller4j.simulation.Simulator;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 在线统计测试
+ * 测试内容包括：
+ * 1. Welford 均值与方差
+ * 2. 精确直方图下的百分位数
+ * 3. KLL 草图的秩误差与内存上限
+ * 4. 多线程累加器的合并
+ */
+public class RollStatisticsTest {
+
+    // ==================== 矩测试 ====================
+
+    @Nested
+    @DisplayName("矩测试")
+    class MomentTests {
+
+        @Test
+        @DisplayName("均值与方差 - 应接近精确分布")
+        void testMoments() throws Exception {
+            RandomUtil.setRandom(new Random(41));
+            IExpression expression = DiceExpressionCompiler.compile("4d6k3+2d10");
+            RollStatistics statistics = Simulator.simulate(expression, 200_000, new RollStatistics());
+            Distribution exact = Distributions.of(expression);
+            assertEquals(200_000, statistics.count());
+            assertEquals(exact.mean(), statistics.mean(), 0.05);
+            assertEquals(exact.variance(), statistics.variance(), 0.3);
+            assertEquals(exact.min(), statistics.min(), 1);
+            assertEquals(exact.max(), statistics.max(), 1);
+        }
+
+        @Test
+        @DisplayName("数值稳定 - 大偏移下方差不丢失精度")
+        void testStability() {
+            RollStatistics statistics = new RollStatistics();
+            for (int i = 0; i < 100_000; i++) {
+                statistics.add(1_000_000_000 + (i & 3));
+            }
+            assertEquals(1_000_000_001.5, statistics.mean(), 1e-6);
+            assertEquals(1.25, statistics.variance(), 1e-6);
+        }
+    }
+
+    // ==================== 百分位数测试 ====================
+
+    @Nested
+    @DisplayName("百分位数测试")
+    class PercentileTests {
+
+        @Test
+        @DisplayName("精确模式 - 与直方图完全一致")
+        void testExact() throws Exception {
+            RandomUtil.setRandom(new Random(42));
+            try (SampleBuffer buffer = Simulator.simulate(DiceExpressionCompiler.compile("3d20-2d8"), 50_000)) {
+                RollStatistics statistics = new RollStatistics();
+                statistics.add(buffer.segment());
+                SampleHistogram histogram = buffer.histogram();
+                assertTrue(statistics.isExact());
+                for (double p : new double[]{0, 0.01, 0.25, 0.5, 0.75, 0.99, 1}) {
+                    assertEquals(histogram.percentile(p), statistics.percentile(p), "p=" + p);
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("草图模式 - 秩误差应在 2% 以内")
+        void testSketch() {
+            Random random = new Random(43);
+            int n = 1_000_000;
+            int[] values = new int[n];
+            RollStatistics statistics = new RollStatistics();
+            for (int i = 0; i < n; i++) {
+                values[i] = random.nextInt(1_000_000) - (i % 7 == 0 ? 500_000 : 0);
+                statistics.add(values[i]);
+            }
+            assertFalse(statistics.isExact());
+            Arrays.sort(values);
+            for (double p : new double[]{0.01, 0.1, 0.5, 0.9, 0.99}) {
+                int estimate = statistics.percentile(p);
+                int rank = Arrays.binarySearch(values, estimate);
+                while (rank > 0 && values[rank - 1] == estimate) rank--;
+                assertTrue(rank >= 0, "estimate should be a rolled value");
+                assertEquals(p, (double) rank / n, 0.02, "p=" + p);
+            }
+        }
+
+        @Test
+        @DisplayName("内存上限 - 草图保留的值数量有界")
+        void testBounded() {
+            KllSketch sketch = new KllSketch();
+            Random random = new Random(44);
+            for (int i = 0; i < 2_000_000; i++) {
+                sketch.add(random.nextInt());
+            }
+            assertEquals(2_000_000, sketch.count());
+            assertTrue(sketch.retained() <= 3 * KllSketch.DEFAULT_K + 64, sketch.toString());
+        }
+    }
+
+    // ==================== 合并测试 ====================
+
+    @Nested
+    @DisplayName("合并测试")
+    class MergeTests {
+
+        @Test
+        @DisplayName("精确合并 - 与单流结果一致")
+        void testExactMerge() {
+            int[] values = new Random(45).ints(30_000, -50, 300).toArray();
+            RollStatistics[] parts = {new RollStatistics(), new RollStatistics(), new RollStatistics()};
+            for (int i = 0; i < values.length; i++) {
+                // 每段取值范围不同，合并时直方图需要向两侧扩展
+                parts[i * 3 / values.length].add(values[i] + (i * 3 / values.length - 1) * 100);
+            }
+            RollStatistics shifted = new RollStatistics();
+            for (int i = 0; i < values.length; i++) {
+                shifted.add(values[i] + (i * 3 / values.length - 1) * 100);
+            }
+            RollStatistics merged = new RollStatistics().merge(parts[2]).merge(parts[0]).merge(parts[1]);
+            assertEquals(shifted.count(), merged.count());
+            assertEquals(shifted.mean(), merged.mean(), 1e-9);
+            assertEquals(shifted.variance(), merged.variance(), 1e-6);
+            assertEquals(shifted.min(), merged.min());
+            assertEquals(shifted.max(), merged.max());
+            for (double p = 0; p <= 1; p += 0.05) {
+                assertEquals(shifted.percentile(p), merged.percentile(p), "p=" + p);
+            }
+        }
+
+        @Test
+        @DisplayName("多线程 - 各线程独立累加后无锁合并")
+        void testThreads() throws Exception {
+            IExpression expression = DiceExpressionCompiler.compile("10d1000");
+            Distribution exact = Distributions.of(expression);
+            RollStatistics merged = new RollStatistics();
+            // 跟踪模式是全局的，在启动线程前统一关闭，避免各线程交错恢复
+            TraceMode mode = DiceResults.getMode();
+            DiceResults.setMode(TraceMode.NONE);
+            try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+                Future<?>[] futures = new Future<?>[4];
+                RollStatistics[] parts = new RollStatistics[4];
+                for (int t = 0; t < 4; t++) {
+                    RollStatistics part = parts[t] = new RollStatistics();
+                    futures[t] = executor.submit(() -> Simulator.simulate(expression, 100_000, part));
+                }
+                for (int t = 0; t < 4; t++) {
+                    futures[t].get();
+                    merged.merge(parts[t]);
+                }
+            } finally {
+                DiceResults.setMode(mode);
+            }
+            assertEquals(400_000, merged.count());
+            assertFalse(merged.isExact());
+            assertEquals(exact.mean(), merged.mean(), 10);
+            assertEquals(Math.sqrt(exact.variance()), merged.standardDeviation(), 10);
+            for (double p : new double[]{0.05, 0.5, 0.95}) {
+                assertEquals(p, exact.cdf(merged.percentile(p)), 0.02, "p=" + p);
+            }
+        }
+    }
+}
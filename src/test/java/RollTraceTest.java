@@ -0,0 +1,324 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.expressions.RollResult;
+import top.outlands.diceroller4j.trace.ExplainTrace;
+import top.outlands.diceroller4j.trace.RollHistogram;
+import top.outlands.diceroller4j.trace.RollTrace;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RollTrace 测试
+ * 测试内容包括：
+ * 1. 原始数组存储、重置与复用
+ * 2. 无装箱的游标与批量读取
+ * 3. 按结构计算与 List&lt;RollResult&gt; 的内存占用对比
+ * 4. 直方图模式
+ * 5. 解释树与其复用
+ */
+public class RollTraceTest {
+
+    // ==================== 存储测试 ====================
+
+    @Nested
+    @DisplayName("存储测试")
+    class StorageTests {
+
+        @Test
+        @DisplayName("增长与读取 - 1000条记录")
+        void testGrowth() {
+            RollTrace trace = new RollTrace(1);
+            for (int i = 0; i < 1000; i++) {
+                trace.add(6, i % 6 + 1);
+            }
+            assertEquals(1000, trace.size());
+            assertEquals(6, trace.sides(999));
+            assertEquals(4, trace.value(999));
+            assertThrows(IndexOutOfBoundsException.class, () -> trace.value(1000));
+        }
+
+        @Test
+        @DisplayName("重置复用 - reset后从头写入")
+        void testReset() {
+            RollTrace trace = new RollTrace();
+            trace.add(20, 17);
+            trace.reset();
+            assertTrue(trace.isEmpty());
+            trace.add(8, 3);
+            assertEquals(1, trace.size());
+            assertEquals(3, trace.value(0));
+        }
+
+        @Test
+        @DisplayName("兼容视图 - asList返回不可修改的RollResult列表")
+        void testResultView() {
+            RollTrace trace = new RollTrace();
+            trace.add(6, 2);
+            trace.add(8, 7);
+            List<RollResult> results = trace.asList();
+            assertEquals(List.of(new RollResult(6, 2), new RollResult(8, 7)), results);
+            assertThrows(UnsupportedOperationException.class, () -> results.add(new RollResult(6, 1)));
+            trace.add(4, 4);
+            assertEquals(3, results.size(), "视图应反映后续写入");
+        }
+    }
+
+    // ==================== 访问测试 ====================
+
+    @Nested
+    @DisplayName("访问测试")
+    class AccessTests {
+
+        @Test
+        @DisplayName("游标遍历 - 按写入顺序")
+        void testCursor() {
+            RollTrace trace = new RollTrace();
+            trace.add(4, 1);
+            trace.add(6, 5);
+            RollTrace.Cursor cursor = trace.cursor();
+            assertTrue(cursor.next());
+            assertEquals(4, cursor.sides());
+            assertTrue(cursor.next());
+            assertEquals(5, cursor.value());
+            assertFalse(cursor.next());
+        }
+
+        @Test
+        @DisplayName("批量读取 - copyValues 与 sum")
+        void testBulkAccess() {
+            RollTrace trace = new RollTrace();
+            for (int i = 1; i <= 10; i++) {
+                trace.add(10, i);
+            }
+            int[] values = new int[4];
+            trace.copyValues(3, values, 0, 4);
+            assertArrayEquals(new int[]{4, 5, 6, 7}, values);
+            assertEquals(55, trace.sum());
+            assertArrayEquals(new int[]{10, 10}, Arrays.copyOf(trace.toSidesArray(), 2));
+            assertThrows(IndexOutOfBoundsException.class, () -> trace.copyValues(8, values, 0, 4));
+        }
+    }
+
+    // ==================== 内存测试 ====================
+
+    @Nested
+    @DisplayName("内存测试")
+    class MemoryTests {
+
+        @Test
+        @DisplayName("内存占用 - 100万条记录时RollTrace按结构计算应小于List<RollResult>")
+        void testMemoryFootprint() {
+            int count = 1_000_000;
+            RollTrace trace = new RollTrace();
+            for (int i = 0; i < count; i++) {
+                trace.add(6, i % 6 + 1);
+            }
+            assertEquals(count, trace.size());
+            // 两个 int 数组，每次增长 1.5 倍，空余不超过一半
+            assertTrue(trace.capacity() >= count && trace.capacity() <= count + count / 2 + 1, "容量 " + trace.capacity());
+            long traceBytes = 2L * Integer.BYTES * trace.capacity();
+            // 每个 RollResult 至少一个 12 字节的对象头加两个 int，再加列表中的一个引用
+            long listBytes = (long) count * (12 + 2 * Integer.BYTES + 4);
+            assertTrue(traceBytes < listBytes, "RollTrace占用 " + traceBytes + " 字节，List<RollResult>至少 " + listBytes + " 字节");
+            // 重置保留缓冲区，再写同样多的记录不再增长
+            int capacity = trace.capacity();
+            trace.reset();
+            for (int i = 0; i < count; i++) {
+                trace.add(6, i % 6 + 1);
+            }
+            assertEquals(capacity, trace.capacity());
+        }
+    }
+
+    // ==================== 直方图模式测试 ====================
+
+    @Nested
+    @DisplayName("直方图模式测试")
+    class HistogramModeTests {
+
+        @Test
+        @DisplayName("大骰池 - 10000d6 只记录6个计数")
+        void testLargePool() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("10000d6");
+            RollHistogram histogram = rollInHistogramMode(expr, 1);
+            assertEquals(10000, histogram.dice());
+            assertArrayEquals(new int[]{6}, histogram.sides());
+            assertEquals(0, DiceResults.getTrace().size(), "直方图模式下不应逐个记录");
+        }
+
+        @Test
+        @DisplayName("Keep骰池 - 4d6k3 记录全部4个骰子")
+        void testKeepPool() throws Exception {
+            RollHistogram histogram = rollInHistogramMode(DiceExpressionCompiler.compile("4d6k3"), 1);
+            assertEquals(4, histogram.dice());
+        }
+
+        @Test
+        @DisplayName("结果一致 - 同一种子下两种模式结果相同")
+        void testSameResult() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("(d4,d6,d6) + 20d8");
+            for (int i = 0; i < 20; i++) {
+                RandomUtil.setRandom(new Random(i));
+                DiceResults.clear();
+                int individual = expr.roll();
+                long traced = DiceResults.getTrace().sum();
+                RandomUtil.setRandom(new Random(i));
+                DiceResults.setMode(TraceMode.HISTOGRAM);
+                try {
+                    assertEquals(individual, expr.roll());
+                    assertEquals(traced, DiceResults.getHistogram().sum());
+                } finally {
+                    DiceResults.setMode(TraceMode.INDIVIDUAL);
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("输出大小 - 直方图的输出与骰池大小无关，逐个结果随骰子数增长")
+        void testRenderedSize() throws Exception {
+            RandomUtil.setRandom(new Random(999));
+            String small = rollInHistogramMode(DiceExpressionCompiler.compile("10d6"), 1).toString();
+            RollHistogram large = rollInHistogramMode(DiceExpressionCompiler.compile("10000d6"), 1);
+            String rendered = large.toString();
+            assertTrue(rendered.matches("\\{d6=\\[\\d+(, \\d+){5}]}"), rendered);
+            assertEquals(10000, Arrays.stream(large.counts(6)).sum());
+            // 只有计数的位数变长
+            assertTrue(rendered.length() - small.length() <= 6 * 3, small + " / " + rendered);
+            DiceResults.clear();
+            DiceExpressionCompiler.compile("10000d6").roll();
+            assertTrue(DiceResults.getLastBatchResults().toString().length() > 10000 * 4);
+        }
+
+        private RollHistogram rollInHistogramMode(IExpression expr, int times) {
+            DiceResults.clear();
+            DiceResults.setMode(TraceMode.HISTOGRAM);
+            try {
+                for (int i = 0; i < times; i++) {
+                    expr.roll();
+                }
+            } finally {
+                DiceResults.setMode(TraceMode.INDIVIDUAL);
+            }
+            return DiceResults.getHistogram();
+        }
+    }
+
+    // ==================== 解释树测试 ====================
+
+    @Nested
+    @DisplayName("解释树测试")
+    class ExplainTraceTests {
+
+        @Test
+        @DisplayName("Keep - 4d6k3 应划掉一个最低值")
+        void testKeep() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("4d6k3");
+            for (int i = 0; i < 20; i++) {
+                RandomUtil.setRandom(new Random(i));
+                int expected = expr.roll();
+                RandomUtil.setRandom(new Random(i));
+                ExplainTrace trace = ExplainTrace.explain(expr);
+                assertEquals(expected, trace.total());
+                String rendered = trace.toString();
+                assertTrue(rendered.matches("\\[(~~\\d~~|\\d)(, (~~\\d~~|\\d)){3}]"), rendered);
+                assertEquals(1, rendered.split("~~", -1).length / 2, rendered);
+                int dropped = 0;
+                for (int id = trace.firstChild(0); id != ExplainTrace.NONE; id = trace.nextSibling(id)) {
+                    if ((trace.flags(id) & ExplainTrace.DROPPED) != 0) {
+                        dropped = trace.value(id);
+                    }
+                }
+                assertEquals(expected, sumOfDice(trace) - dropped);
+            }
+        }
+
+        @Test
+        @DisplayName("嵌套骰池 - 内外层共用暂存空间，结果与普通投掷一致")
+        void testNestedPools() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("(4d6k3, (3d8 min, 3d8 max, 5d4 median)k2, 5d10d2, (d6, d6, d6) drop highest 1) keep 2");
+            for (int i = 0; i < 200; i++) {
+                RandomUtil.setRandom(new Random(i));
+                int expected = expr.roll();
+                RandomUtil.setRandom(new Random(i));
+                ExplainTrace trace = ExplainTrace.explain(expr);
+                assertEquals(expected, trace.total());
+                // 顶层保留两个成员，划掉另外两个
+                int kept = 0;
+                for (int id = trace.firstChild(0); id != ExplainTrace.NONE; id = trace.nextSibling(id)) {
+                    if ((trace.flags(id) & ExplainTrace.DROPPED) == 0) kept += trace.value(id);
+                }
+                assertEquals(expected, kept);
+            }
+        }
+
+        @Test
+        @DisplayName("Explode - d1 explode 3 times on 1 连锁爆炸")
+        void testExplode() throws Exception {
+            ExplainTrace trace = ExplainTrace.explain(DiceExpressionCompiler.compile("d1 explode 3 times on 1"));
+            assertEquals("[1!, 1!, 1!, 1!, 1]", trace.toString());
+            assertEquals(5, trace.total());
+        }
+
+        @Test
+        @DisplayName("Reroll - d1 reroll 2 times on 1 被重掷的值划掉")
+        void testReroll() throws Exception {
+            ExplainTrace trace = ExplainTrace.explain(DiceExpressionCompiler.compile("d1 reroll 2 times on 1"));
+            assertEquals("[~~1~~, ~~1~~, ~~1~~, 1]", trace.toString());
+            assertEquals(1, trace.total());
+        }
+
+        @Test
+        @DisplayName("四则运算 - 2d6 + 3")
+        void testArithmetic() throws Exception {
+            RandomUtil.setRandom(new Random(7));
+            ExplainTrace trace = ExplainTrace.explain(DiceExpressionCompiler.compile("2d6 + 3"));
+            assertTrue(trace.toString().matches("\\[\\d, \\d] \\+ 3"), trace.toString());
+            assertEquals(trace.value(trace.firstChild(0)) + 3, trace.total());
+        }
+
+        @Test
+        @DisplayName("未启用 - 普通投掷时无当前解释树")
+        void testInactive() throws Exception {
+            DiceExpressionCompiler.compile("d6").roll();
+            assertNull(ExplainTrace.current());
+        }
+
+        @Test
+        @DisplayName("复用 - 同一线程的解释复用池中的树，渲染与总数和普通投掷一致")
+        void testPooled() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("(4d6k3, 2d8 + 1, d20e20) + 5");
+            ExplainTrace first = ExplainTrace.explain(expr);
+            for (int i = 0; i < 500; i++) {
+                RandomUtil.setRandom(new Random(i));
+                int expected = expr.roll();
+                RandomUtil.setRandom(new Random(i));
+                ExplainTrace trace = ExplainTrace.explain(expr);
+                assertSame(first, trace);
+                assertEquals(expected, trace.total());
+                String rendered = trace.toString();
+                assertTrue(rendered.matches("\\[\\[(~~\\d~~|\\d)(, (~~\\d~~|\\d)){3}], \\[\\d, \\d] \\+ 1, \\[\\d+!?(, \\d+!?)*]] \\+ 5"), rendered);
+                assertEquals(1, rendered.split("~~", -1).length / 2, rendered);
+            }
+        }
+
+        private int sumOfDice(ExplainTrace trace) {
+            int sum = 0;
+            for (int id = 0; id < trace.size(); id++) {
+                if (trace.isDie(id)) {
+                    sum += trace.value(id);
+                }
+            }
+            return sum;
+        }
+    }
+}
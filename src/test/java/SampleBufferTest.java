@@ -0,0 +1,242 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.expressions.IExpression;
+import top.outlands.diceroller4j.simulation.SampleBuffer;
+import top.outlands.diceroller4j.simulation.SampleHistogram;
+import top.outlands.diceroller4j.simulation.RollStatistics;
+import top.outlands.diceroller4j.simulation.Samples;
+import top.outlands.diceroller4j.simulation.Simulator;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 堆外样本测试
+ * 测试内容包括：
+ * 1. 堆外缓冲区的写入、读取与释放
+ * 2. 模拟结果的直方图、排序与百分位数
+ * 3. 内存映射文件与部分写入
+ * 4. 并发模拟时的记录模式
+ * 5. 堆内存占用
+ */
+public class SampleBufferTest {
+
+    // ==================== 缓冲区测试 ====================
+
+    @Nested
+    @DisplayName("缓冲区测试")
+    class BufferTests {
+
+        @Test
+        @DisplayName("读写 - 写满后拒绝继续写入")
+        void testAddAndGet() {
+            try (SampleBuffer buffer = SampleBuffer.allocate(3)) {
+                buffer.add(5);
+                buffer.add(-2);
+                buffer.add(7);
+                assertTrue(buffer.isFull());
+                assertEquals(-2, buffer.get(1));
+                assertThrows(IllegalStateException.class, () -> buffer.add(1));
+                assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(3));
+                buffer.clear();
+                assertEquals(0, buffer.size());
+            }
+        }
+
+        @Test
+        @DisplayName("释放 - 关闭后访问应抛出异常")
+        void testRelease() {
+            SampleBuffer buffer = SampleBuffer.allocate(10);
+            buffer.add(1);
+            buffer.close();
+            assertThrows(IllegalStateException.class, () -> buffer.get(0));
+            try (Arena arena = Arena.ofConfined()) {
+                SampleBuffer shared = SampleBuffer.allocate(arena, 10);
+                shared.add(4);
+                shared.close();
+                assertEquals(4, shared.get(0), "外部Arena的缓冲区由Arena释放");
+            }
+        }
+    }
+
+    // ==================== 分析测试 ====================
+
+    @Nested
+    @DisplayName("分析测试")
+    class AnalysisTests {
+
+        @Test
+        @DisplayName("直方图 - 3d6 模拟100万次与精确分布一致")
+        void testHistogram() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("3d6");
+            RandomUtil.setRandom(new Random(40));
+            try (SampleBuffer buffer = Simulator.simulate(expr, 1_000_000)) {
+                SampleHistogram histogram = buffer.histogram();
+                assertEquals(1_000_000, histogram.total());
+                assertEquals(3, histogram.min());
+                assertEquals(18, histogram.max());
+                Distribution exact = Distributions.of(expr);
+                assertEquals(10.5, histogram.mean(), 0.01);
+                for (int v = 3; v <= 18; v++) {
+                    assertEquals(exact.probability(v), histogram.toDistribution().probability(v), 0.002, "值 " + v);
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("排序与百分位数 - 排序后的百分位数与直方图一致")
+        void testSortAndPercentile() throws Exception {
+            RandomUtil.setRandom(new Random(41));
+            try (SampleBuffer buffer = Simulator.simulate(DiceExpressionCompiler.compile("4d6k3 + d20"), 200_000)) {
+                SampleHistogram histogram = buffer.histogram();
+                buffer.sort();
+                assertTrue(Samples.isSorted(buffer.segment()));
+                assertEquals(histogram.toString(), buffer.histogram().toString(), "排序不应改变样本");
+                for (double p : new double[]{0, 0.01, 0.25, 0.5, 0.9, 0.999, 1}) {
+                    assertEquals(histogram.percentile(p), Samples.percentile(buffer.segment(), p), "p = " + p);
+                }
+                assertEquals(histogram.min(), Samples.percentile(buffer.segment(), 0));
+                assertEquals(histogram.max(), Samples.percentile(buffer.segment(), 1));
+            }
+        }
+
+        @Test
+        @DisplayName("宽范围排序 - 超出计数范围时使用堆排序")
+        void testWideRange() throws Exception {
+            RandomUtil.setRandom(new Random(42));
+            try (SampleBuffer buffer = Simulator.simulate(DiceExpressionCompiler.compile("d100000 * d1000 - 50000000"), 100_000)) {
+                assertThrows(IllegalArgumentException.class, buffer::histogram);
+                buffer.sort();
+                assertTrue(Samples.isSorted(buffer.segment()));
+            }
+        }
+    }
+
+    // ==================== 映射文件测试 ====================
+
+    @Nested
+    @DisplayName("映射文件测试")
+    class MappedTests {
+
+        @Test
+        @DisplayName("映射文件 - 写入、关闭后重新加载")
+        void testMapped() throws Exception {
+            Path path = Files.createTempFile("samples", ".bin");
+            try {
+                RandomUtil.setRandom(new Random(43));
+                String written;
+                try (SampleBuffer buffer = SampleBuffer.map(path, 100_000)) {
+                    Simulator.simulate(DiceExpressionCompiler.compile("2d10"), 100_000, buffer);
+                    buffer.force();
+                    written = buffer.histogram().toString();
+                }
+                assertEquals(400_000, Files.size(path));
+                try (SampleBuffer loaded = SampleBuffer.load(path)) {
+                    assertEquals(100_000, loaded.size());
+                    assertEquals(written, loaded.histogram().toString());
+                    loaded.sort();
+                    assertTrue(Samples.isSorted(loaded.segment()));
+                }
+            } finally {
+                Files.delete(path);
+            }
+        }
+
+        @Test
+        @DisplayName("部分写入 - 关闭时截断到已写入的样本数")
+        void testPartiallyFilled() throws Exception {
+            Path path = Files.createTempFile("samples", ".bin");
+            try {
+                try (SampleBuffer buffer = SampleBuffer.map(path, 1000)) {
+                    Simulator.simulate(DiceExpressionCompiler.compile("5"), 10, buffer);
+                }
+                assertEquals(40, Files.size(path));
+                try (SampleBuffer loaded = SampleBuffer.load(path)) {
+                    assertEquals(10, loaded.size());
+                    assertEquals(10, loaded.capacity());
+                    SampleHistogram histogram = loaded.histogram();
+                    assertEquals(5, histogram.min());
+                    assertEquals(5, histogram.max());
+                    assertEquals(10, histogram.count(5));
+                }
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // ==================== 并发测试 ====================
+
+    @Nested
+    @DisplayName("并发测试")
+    class ConcurrencyTests {
+
+        @Test
+        @DisplayName("并发模拟 - 只在模拟线程关闭记录，其他线程照常记录，全局模式不变")
+        void testConcurrentSimulations() throws Exception {
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            IExpression expr = DiceExpressionCompiler.compile("3d6");
+            IExpression interactive = DiceExpressionCompiler.compile("d6");
+            try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+                List<Future<RollStatistics>> futures = new ArrayList<>();
+                for (int round = 0; round < 5; round++) {
+                    for (int i = 0; i < 4; i++) {
+                        futures.add(executor.submit(() -> Simulator.simulate(expr, 2000, new RollStatistics())));
+                    }
+                    for (int i = 0; i < 200; i++) {
+                        DiceResults.clear();
+                        interactive.roll();
+                        assertEquals(1, DiceResults.getTrace().size());
+                    }
+                }
+                for (Future<RollStatistics> future : futures) {
+                    assertEquals(2000, future.get().count());
+                }
+            }
+            assertEquals(TraceMode.INDIVIDUAL, DiceResults.getMode());
+        }
+    }
+
+    // ==================== 堆内存测试 ====================
+
+    @Nested
+    @DisplayName("堆内存测试")
+    class HeapTests {
+
+        @Test
+        @DisplayName("堆占用 - 2000万个样本不应占用堆内存")
+        void testHeapUsage() throws Exception {
+            IExpression expr = DiceExpressionCompiler.compile("d20");
+            long before = usedMemory();
+            try (SampleBuffer buffer = Simulator.simulate(expr, 20_000_000)) {
+                long used = usedMemory() - before;
+                assertEquals(20_000_000, buffer.size());
+                assertTrue(used < 20_000_000, "堆占用增加 " + used + " 字节，int[]需要 80000000 字节");
+            }
+        }
+
+        private long usedMemory() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import top.outlands.diceroller4j.DiceExpressionCompiler;
+import top.outlands.diceroller4j.DiceResults;
+import top.outlands.diceroller4j.ExpressionCache;
+import top.outlands.diceroller4j.RandomUtil;
+import top.outlands.diceroller4j.distribution.Distribution;
+import top.outlands.diceroller4j.distribution.Distributions;
+import top.outlands.diceroller4j.expressions.CompiledExpression;
+import top.outlands.diceroller4j.expressions.RollProgram;
+import top.outlands.diceroller4j.expressions.Tier;
+import top.outlands.diceroller4j.expressions.TieringPolicy;
+import top.outlands.diceroller4j.trace.TraceMode;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分层执行测试
+ * 测试内容包括：
+ * 1. 展平程序与语法树掷出相同的结果与记录
+ * 2. 按掷骰次数自动升级
+ * 3. 别名表抽样只在不记录骰子且使用默认随机数时生效
+ * 4. 展平与抽样相对解释执行的速度
+ */
+public class TieredExpressionTest {
+
+    private static final String[] EXPRESSIONS = {
+            "d20", "3d6", "2d6+3d4-2", "4d6k3+2", "(d8+2)*3 - d4", "10d10k5 + 3d8", "d100/d10", "d6 explode always on 6 + 2d6"
+    };
+
+    private static CompiledExpression compile(String expression) throws Exception {
+        return DiceExpressionCompiler.compile(expression);
+    }
+
+    private static void awaitTier(CompiledExpression expression, Tier tier) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (expression.tier() != tier && System.nanoTime() < deadline) {
+            expression.roll();
+            Thread.sleep(1);
+        }
+        assertEquals(tier, expression.tier(), expression.toString());
+    }
+
+    @BeforeEach
+    void setUp() {
+        // 其他测试可能留下了带种子的随机数
+        RandomUtil.setRandom(ThreadLocalRandom.current());
+    }
+
+    @AfterEach
+    void tearDown() {
+        RandomUtil.setRandom(ThreadLocalRandom.current());
+        CompiledExpression.setTieringPolicy(TieringPolicy.DEFAULT);
+        DiceResults.setMode(TraceMode.INDIVIDUAL);
+        DiceResults.clear();
+    }
+
+    // ==================== 展平测试 ====================
+
+    @Nested
+    @DisplayName("展平测试")
+    class FlattenTests {
+
+        @Test
+        @DisplayName("逐个记录 - 相同种子下总数与骰子记录都一致")
+        void testSameAsTreeIndividual() throws Exception {
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            for (String text : EXPRESSIONS) {
+                CompiledExpression tree = compile(text);
+                RollProgram program = RollProgram.compile(tree.root());
+                for (long seed = 0; seed < 50; seed++) {
+                    RandomUtil.setRandom(new Random(seed));
+                    DiceResults.clear();
+                    int expected = tree.root().roll();
+                    int[] expectedValues = DiceResults.getTrace().toValuesArray();
+                    RandomUtil.setRandom(new Random(seed));
+                    DiceResults.clear();
+                    assertEquals(expected, program.roll(), text);
+                    assertArrayEquals(expectedValues, DiceResults.getTrace().toValuesArray(), text);
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("直方图 - 相同种子下面数计数一致")
+        void testSameAsTreeHistogram() throws Exception {
+            DiceResults.setMode(TraceMode.HISTOGRAM);
+            CompiledExpression tree = compile("10d10k5 + 3d8 + 4d6");
+            RollProgram program = RollProgram.compile(tree.root());
+            RandomUtil.setRandom(new Random(9));
+            DiceResults.clear();
+            long expectedSum = 0;
+            for (int i = 0; i < 1000; i++) {
+                expectedSum += tree.root().roll();
+            }
+            String expected = DiceResults.getHistogram().toString();
+            RandomUtil.setRandom(new Random(9));
+            DiceResults.clear();
+            long sum = 0;
+            for (int i = 0; i < 1000; i++) {
+                sum += program.roll();
+            }
+            assertEquals(expectedSum, sum);
+            assertEquals(expected, DiceResults.getHistogram().toString());
+        }
+
+        @Test
+        @DisplayName("程序结构 - 算术与骰子展平，其他节点调用语法树")
+        void testCalls() throws Exception {
+            assertEquals(0, RollProgram.compile(compile("2d6+3d4*2-d8/2").root()).calls());
+            assertEquals(1, RollProgram.compile(compile("4d6k3+2").root()).calls());
+        }
+    }
+
+    // ==================== 自动升级测试 ====================
+
+    @Nested
+    @DisplayName("自动升级测试")
+    class PromotionTests {
+
+        @Test
+        @DisplayName("按阈值升级 - 解释、展平、抽样")
+        void testThresholds() throws Exception {
+            CompiledExpression.setTieringPolicy(new TieringPolicy(100, 1000, 1 << 16));
+            CompiledExpression expression = compile("3d6+d4");
+            assertEquals(Tier.INTERPRETED, expression.tier());
+            for (int i = 0; i < 50; i++) {
+                expression.roll();
+            }
+            assertEquals(Tier.INTERPRETED, expression.tier());
+            for (int i = 0; i < 100; i++) {
+                expression.roll();
+            }
+            awaitTier(expression, Tier.FLATTENED);
+            for (int i = 0; i < 1000; i++) {
+                expression.roll();
+            }
+            awaitTier(expression, Tier.SAMPLED);
+            assertTrue(expression.rolls() >= 1000);
+        }
+
+        @Test
+        @DisplayName("关闭分层 - 一直解释执行")
+        void testDisabled() throws Exception {
+            CompiledExpression.setTieringPolicy(TieringPolicy.DISABLED);
+            CompiledExpression expression = compile("2d6");
+            for (int i = 0; i < 20_000; i++) {
+                expression.roll();
+            }
+            Thread.sleep(20);
+            assertEquals(Tier.INTERPRETED, expression.tier());
+        }
+
+        @Test
+        @DisplayName("无法抽样 - 分布算不出或太宽时停在展平")
+        void testUnsampled() throws Exception {
+            assertEquals(Tier.FLATTENED, compile("d3000 emphasis high").promote(Tier.SAMPLED));
+            CompiledExpression.setTieringPolicy(new TieringPolicy(1, 1, 100));
+            assertEquals(Tier.FLATTENED, compile("d1000").promote(Tier.SAMPLED));
+            assertEquals(Tier.SAMPLED, compile("d100").promote(Tier.SAMPLED));
+        }
+
+        @Test
+        @DisplayName("缓存 - 列出各表达式所在的层")
+        void testCacheTiers() throws Exception {
+            ExpressionCache cache = new ExpressionCache();
+            cache.compile("2d6").promote(Tier.SAMPLED);
+            cache.compile("d20");
+            assertEquals(Tier.SAMPLED, cache.tiers().get("2d6"));
+            assertEquals(Tier.INTERPRETED, cache.tiers().get("d20"));
+            assertThrows(IllegalArgumentException.class, () -> new TieringPolicy(10, 5, 0));
+        }
+    }
+
+    // ==================== 抽样测试 ====================
+
+    @Nested
+    @DisplayName("抽样测试")
+    class SampledTests {
+
+        @Test
+        @DisplayName("抽样分布 - 频率与精确分布一致")
+        void testFrequencies() throws Exception {
+            DiceResults.setMode(TraceMode.NONE);
+            CompiledExpression expression = compile("4d6k3+2");
+            assertEquals(Tier.SAMPLED, expression.promote(Tier.SAMPLED));
+            Distribution distribution = Distributions.of(expression);
+            int n = 500_000;
+            int[] counts = new int[distribution.max() - distribution.min() + 1];
+            for (int i = 0; i < n; i++) {
+                counts[expression.roll() - distribution.min()]++;
+            }
+            for (int v = distribution.min(); v <= distribution.max(); v++) {
+                double expected = distribution.probability(v);
+                assertEquals(expected, counts[v - distribution.min()] / (double) n, 4 * Math.sqrt(expected / n) + 1e-4, "值 " + v);
+            }
+        }
+
+        @Test
+        @DisplayName("记录骰子或指定随机数时 - 退回展平程序")
+        void testFallback() throws Exception {
+            CompiledExpression expression = compile("3d6");
+            RollProgram program = RollProgram.compile(expression.root());
+            assertEquals(Tier.SAMPLED, expression.promote(Tier.SAMPLED));
+            // 记录骰子
+            DiceResults.setMode(TraceMode.INDIVIDUAL);
+            DiceResults.clear();
+            expression.roll();
+            assertEquals(3, DiceResults.getTrace().size());
+            // 指定的随机数要能重放
+            DiceResults.setMode(TraceMode.NONE);
+            assertFalse(RandomUtil.isChosen());
+            int replayed = RandomUtil.withRandom(new Random(3), expression::roll);
+            assertEquals(RandomUtil.withRandom(new Random(3), program::roll), replayed);
+            RandomUtil.setRandom(new Random(4));
+            try {
+                assertTrue(RandomUtil.isChosen());
+                int first = expression.roll();
+                RandomUtil.setRandom(new Random(4));
+                assertEquals(first, program.roll());
+            } finally {
+                RandomUtil.setRandom(ThreadLocalRandom.current());
+            }
+            assertFalse(RandomUtil.isChosen());
+        }
+    }
+
+    // ==================== 性能测试 ====================
+
+    @Nested
+    @DisplayName("性能测试")
+    class PerformanceTests {
+
+        private long best(Runnable rolls) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 7; round++) {
+                long start = System.nanoTime();
+                rolls.run();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            return best;
+        }
+
+        @Test
+        @DisplayName("速度对比 - 抽样快于解释执行，展平不慢于解释执行")
+        void testSpeed() throws Exception {
+            DiceResults.setMode(TraceMode.NONE);
+            CompiledExpression.setTieringPolicy(TieringPolicy.DISABLED);
+            CompiledExpression interpreted = compile("10d6 + 5d8 - 2d4");
+            CompiledExpression flattened = compile("10d6 + 5d8 - 2d4");
+            CompiledExpression sampled = compile("10d6 + 5d8 - 2d4");
+            flattened.promote(Tier.FLATTENED);
+            CompiledExpression.setTieringPolicy(TieringPolicy.DEFAULT);
+            sampled.promote(Tier.SAMPLED);
+            int n = 200_000;
+            long[] sink = new long[1];
+            long tree = best(() -> {
+                for (int i = 0; i < n; i++) sink[0] += interpreted.roll();
+            });
+            long flat = best(() -> {
+                for (int i = 0; i < n; i++) sink[0] += flattened.roll();
+            });
+            long table = best(() -> {
+                for (int i = 0; i < n; i++) sink[0] += sampled.roll();
+            });
+            assertTrue(sink[0] != 0);
+            String report = "解释 " + tree / 1000 + "us，展平 " + flat / 1000 + "us，抽样 " + table / 1000 + "us";
+            assertTrue(table * 2 < tree, report);
+            assertTrue(flat < tree * 1.5, report);
+        }
+    }
+}